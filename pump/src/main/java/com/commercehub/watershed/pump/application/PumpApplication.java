@@ -1,8 +1,12 @@
 package com.commercehub.watershed.pump.application;
 
 
+import com.commercehub.watershed.pump.service.KinesisProducerPool;
+import com.commercehub.watershed.pump.service.PreviewCursorRegistry;
+import com.github.davidmoten.rx.jdbc.Database;
 import com.hubspot.dropwizard.guice.GuiceBundle;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import org.slf4j.Logger;
@@ -53,6 +57,23 @@ public class PumpApplication extends Application<PumpConfiguration> {
         java.security.Security.setProperty("networkaddress.cache.ttl", "60");
 
         GuiceBridge.setOverrideInjector(guiceBundle.getInjector());
+
+        final Database database = guiceBundle.getInjector().getInstance(Database.class);
+        final KinesisProducerPool kinesisProducerPool = guiceBundle.getInjector().getInstance(KinesisProducerPool.class);
+        final PreviewCursorRegistry previewCursorRegistry = guiceBundle.getInjector().getInstance(PreviewCursorRegistry.class);
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() throws Exception {
+                kinesisProducerPool.warm();
+            }
+
+            @Override
+            public void stop() throws Exception {
+                previewCursorRegistry.shutdown();
+                kinesisProducerPool.shutdown();
+                database.close();
+            }
+        });
         if (environment.jersey().getResourceConfig().getEndpointsInfo().contains("NONE")) {
             log.info("No resources registered, disabling jersey.");
             environment.jersey().disable();
@@ -4,12 +4,12 @@ import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.kinesis.AmazonKinesisClient;
-import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
 import com.commercehub.watershed.pump.application.factories.JobFactory;
 import com.commercehub.watershed.pump.application.factories.JobRunnableFactory;
 import com.commercehub.watershed.pump.application.factories.PumpFactory;
 import com.commercehub.watershed.pump.application.factories.PumpSubscriberFactory;
+import com.commercehub.watershed.pump.model.ConnectionPoolSettings;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.processing.IsolatedConnectionProvider;
 import com.commercehub.watershed.pump.processing.JobRunnable;
@@ -39,8 +39,11 @@ import java.sql.Connection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -63,6 +66,7 @@ public class PumpGuiceModule extends AbstractModule {
         bind(QueryableRepository.class).to(DrillRepository.class);
         bind(TransformerFunctionFactory.class).to(TransformerFunctionFactoryImpl.class);
         bind(KinesisService.class).to(KinesisServiceImpl.class);
+        bind(RecordSinkFactory.class).to(RecordSinkFactoryImpl.class);
         bind(TimeService.class).to(SystemTimeService.class);
 
         //Assisted Injection https://github.com/google/guice/wiki/AssistedInject
@@ -140,17 +144,6 @@ public class PumpGuiceModule extends AbstractModule {
 
 
 
-    /**
-     *
-     * @param kinesisProducerConfiguration from the KinesisProducerConfiguration provider
-     * @return a provider for KinesisProducer
-     */
-    @Provides
-    private KinesisProducer kinesisProducerProvider(KinesisProducerConfiguration kinesisProducerConfiguration){
-        return new KinesisProducer(kinesisProducerConfiguration);
-    }
-
-
     /**
      *
      * @param properties
@@ -171,7 +164,8 @@ public class PumpGuiceModule extends AbstractModule {
         // May be lowered further to share capacity with running applications.
         kinesisConfig.setRateLimit(Integer.valueOf(properties.get("producerRateLimit").toString()));
 
-        //TODO set more Kinesis Configuration options as appropriate
+        // Buffering, aggregation, batching and connections are left at the KPL defaults here; each Job's producer is
+        // tuned to its record sizes (see ProducerProfile).
         return kinesisConfig;
     }
 
@@ -192,22 +186,30 @@ public class PumpGuiceModule extends AbstractModule {
 
     /**
      *
+     * @param jdbcUrl
+     * @param jdbcUsername  empty to connect without credentials
+     * @param jdbcPassword
+     * @param poolSettings
      * @return a provider for Database
      * @throws InterruptedException
      */
     @Provides
     @Singleton
-    private Database connectDatabase() throws InterruptedException {
-        String jdbcUrl = "jdbc:drill:drillbit=localhost:31010";
-        String jdbcUsername = "admin";
-        String jdbcPassword = "admin";
+    private Database connectDatabase(@Named("drillJdbcUrl") String jdbcUrl,
+                                     @Named("drillUsername") String jdbcUsername,
+                                     @Named("drillPassword") String jdbcPassword,
+                                     ConnectionPoolSettings poolSettings) throws InterruptedException {
         String driverClass = "org.apache.drill.jdbc.Driver";
+        if (jdbcUsername.isEmpty()) {
+            jdbcUsername = null;
+            jdbcPassword = null;
+        }
 
         Database database = null;
 
         int i = 0;
         log.info("Testing database connection...");
-        ConnectionProvider cp = IsolatedConnectionProvider.get(jdbcUrl, jdbcUsername, jdbcPassword, driverClass);
+        ConnectionProvider cp = IsolatedConnectionProvider.get(jdbcUrl, jdbcUsername, jdbcPassword, driverClass, poolSettings);
 
         while(database == null && i < 10) {
             try {
@@ -234,7 +236,7 @@ public class PumpGuiceModule extends AbstractModule {
     /**
      *
      * @param database from the database provider
-     * @return a provider for Connections
+     * @return a provider for pooled Connections, which must be closed to return them to the pool
      */
     @Provides
     private Connection connectionProvider(Database database){
@@ -252,4 +254,44 @@ public class PumpGuiceModule extends AbstractModule {
     protected ExecutorService getExecutor(@Named("numConcurrentJobs") int numConcurrentJobs) {
         return Executors.newFixedThreadPool(numConcurrentJobs);
     }
+
+    /**
+     *
+     * @param previewQueryThreads number of preview count queries that can run at a time
+     * @return a provider for the ExecutorService running preview count queries
+     */
+    @Provides
+    @Singleton
+    @Named("previewExecutor")
+    protected ExecutorService getPreviewExecutor(@Named("previewQueryThreads") int previewQueryThreads) {
+        return Executors.newFixedThreadPool(previewQueryThreads);
+    }
+
+    /**
+     *
+     * @param admissionEstimateThreads      number of job cost estimates that can run at a time
+     * @param admissionEstimateQueueSize    number of estimates that can wait for a thread; jobs past that get none
+     * @return a provider for the ExecutorService running job cost estimates, apart from the preview queries
+     */
+    @Provides
+    @Singleton
+    @Named("admissionEstimateExecutor")
+    protected ExecutorService getAdmissionEstimateExecutor(
+            @Named("admissionEstimateThreads") int admissionEstimateThreads,
+            @Named("admissionEstimateQueueSize") int admissionEstimateQueueSize) {
+        return new ThreadPoolExecutor(admissionEstimateThreads, admissionEstimateThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, admissionEstimateQueueSize)));
+    }
+
+    /**
+     *
+     * @param transformThreads number of threads transforming records, shared by all jobs; 0 for one per processor
+     * @return a provider for the ExecutorService running record transformations
+     */
+    @Provides
+    @Singleton
+    @Named("transformExecutor")
+    protected ExecutorService getTransformExecutor(@Named("transformThreads") int transformThreads) {
+        return Executors.newFixedThreadPool(transformThreads > 0 ? transformThreads : Runtime.getRuntime().availableProcessors());
+    }
 }
@@ -1,6 +1,8 @@
 package com.commercehub.watershed.pump.application.factories;
 
+import com.commercehub.watershed.pump.model.Checkpoint;
 import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.processing.AvroSchemaCache;
 import com.commercehub.watershed.pump.processing.Pump;
 import com.google.common.base.Function;
 
@@ -13,7 +15,9 @@ public interface PumpFactory {
      * Creates a new Pump
      * @param pumpSettings
      * @param recordTransformer
+     * @param schemaCache
+     * @param resumeFrom
      * @return a new Pump
      */
-    Pump create(PumpSettings pumpSettings, Function<byte[], byte[]> recordTransformer);
+    Pump create(PumpSettings pumpSettings, Function<byte[], byte[]> recordTransformer, AvroSchemaCache schemaCache, Checkpoint resumeFrom);
 }
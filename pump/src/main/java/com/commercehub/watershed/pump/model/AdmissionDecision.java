@@ -0,0 +1,21 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * What admission control decided to do with a submitted Job.
+ */
+public enum AdmissionDecision {
+    /**
+     * Started right away.
+     */
+    ACCEPT,
+
+    /**
+     * Held until running jobs leave enough of the concurrent budget.
+     */
+    QUEUE,
+
+    /**
+     * Never started, because its estimate exceeds a budget.
+     */
+    REJECT
+}
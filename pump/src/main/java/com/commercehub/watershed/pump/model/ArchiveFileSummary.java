@@ -0,0 +1,119 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * What an archive's time index records about one archive file.
+ */
+public class ArchiveFileSummary {
+    private String path;
+    private long size;
+    private long lastModified;
+    private long recordCount;
+    private Long minTimestamp;
+    private Long maxTimestamp;
+
+    /**
+     *
+     * @return the file's path relative to the archive root, with / separators
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * set the file's path relative to the archive root
+     * @param path
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     *
+     * @return the file's size in bytes when it was indexed
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * set the file's size in bytes when it was indexed
+     * @param size
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     *
+     * @return the file's modification time (epoch millis) when it was indexed
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * set the file's modification time when it was indexed
+     * @param lastModified
+     */
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     *
+     * @return the number of records in the file
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * set the number of records in the file
+     * @param recordCount
+     */
+    public void setRecordCount(long recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    /**
+     *
+     * @return the earliest event timestamp (epoch millis) in the file, or null if no record has one
+     */
+    public Long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    /**
+     * set the earliest event timestamp in the file
+     * @param minTimestamp
+     */
+    public void setMinTimestamp(Long minTimestamp) {
+        this.minTimestamp = minTimestamp;
+    }
+
+    /**
+     *
+     * @return the latest event timestamp (epoch millis) in the file, or null if no record has one
+     */
+    public Long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * set the latest event timestamp in the file
+     * @param maxTimestamp
+     */
+    public void setMaxTimestamp(Long maxTimestamp) {
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    /**
+     *
+     * @param start inclusive, epoch millis
+     * @param end   exclusive, epoch millis
+     * @return whether the file may hold records in the range; files without timestamps always may
+     */
+    public boolean overlaps(long start, long end) {
+        return minTimestamp == null || maxTimestamp == null || (minTimestamp < end && maxTimestamp >= start);
+    }
+}
@@ -0,0 +1,136 @@
+package com.commercehub.watershed.pump.model;
+
+import org.joda.time.DateTime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A point a Job can be resumed from. A Job reads its records in partitions (sub-queries or archive files), each in
+ * a repeatable order; the watermark of a partition is the number of its leading records that have all been acked.
+ */
+public class Checkpoint {
+    private String jobId;
+    private PumpSettings pumpSettings;
+    private Map<String, Long> watermarks = new HashMap<>();
+    private Set<String> completedPartitions = new TreeSet<>();
+    private long ackedRecordCount;
+    private DateTime updateTime;
+
+    /**
+     *
+     * @return the id of the checkpointed Job
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    /**
+     * set the id of the checkpointed Job
+     * @param jobId
+     */
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     *
+     * @return the settings of the checkpointed Job
+     */
+    public PumpSettings getPumpSettings() {
+        return pumpSettings;
+    }
+
+    /**
+     * set the settings of the checkpointed Job
+     * @param pumpSettings
+     */
+    public void setPumpSettings(PumpSettings pumpSettings) {
+        this.pumpSettings = pumpSettings;
+    }
+
+    /**
+     *
+     * @return for each partition, the number of leading records that have all been acked
+     */
+    public Map<String, Long> getWatermarks() {
+        return watermarks;
+    }
+
+    /**
+     * set the watermark of each partition
+     * @param watermarks
+     */
+    public void setWatermarks(Map<String, Long> watermarks) {
+        this.watermarks = watermarks;
+    }
+
+    /**
+     *
+     * @return the partitions that were read to the end and whose records have all been acked
+     */
+    public Set<String> getCompletedPartitions() {
+        return completedPartitions;
+    }
+
+    /**
+     * set the partitions whose records have all been acked
+     * @param completedPartitions
+     */
+    public void setCompletedPartitions(Set<String> completedPartitions) {
+        this.completedPartitions = completedPartitions;
+    }
+
+    /**
+     *
+     * @return the number of records acked, including acks above the watermarks
+     */
+    public long getAckedRecordCount() {
+        return ackedRecordCount;
+    }
+
+    /**
+     * set the number of records acked
+     * @param ackedRecordCount
+     */
+    public void setAckedRecordCount(long ackedRecordCount) {
+        this.ackedRecordCount = ackedRecordCount;
+    }
+
+    /**
+     *
+     * @return when the checkpoint was taken
+     */
+    public DateTime getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * set when the checkpoint was taken
+     * @param updateTime
+     */
+    public void setUpdateTime(DateTime updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    /**
+     *
+     * @param partition
+     * @return the number of the partition's leading records that needn't be sent again
+     */
+    public long watermark(String partition) {
+        Long watermark = watermarks.get(partition);
+        return watermark != null ? watermark : 0;
+    }
+
+    /**
+     *
+     * @param partition
+     * @return whether none of the partition's records need to be sent again
+     */
+    public boolean isCompleted(String partition) {
+        return completedPartitions.contains(partition);
+    }
+}
@@ -0,0 +1,110 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a compacted Job's key index. Updated live while records are indexed and survivors emitted.
+ */
+public class CompactionStats {
+    private final AtomicLong indexedRecordCount = new AtomicLong();
+    private final AtomicLong indexedKeyCount = new AtomicLong();
+    private final AtomicLong indexBytes = new AtomicLong();
+    private final AtomicLong spillCount = new AtomicLong();
+    private final AtomicLong spilledRecordCount = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private final AtomicLong survivingRecordCount = new AtomicLong();
+
+    /**
+     *
+     * @return the number of records read into the index
+     */
+    public long getIndexedRecordCount() {
+        return indexedRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of distinct keys held in memory, since the last spill
+     */
+    public long getIndexedKeyCount() {
+        return indexedKeyCount.get();
+    }
+
+    /**
+     *
+     * @return the off-heap bytes currently held by the index
+     */
+    public long getIndexBytes() {
+        return indexBytes.get();
+    }
+
+    /**
+     *
+     * @return the number of sorted segments spilled to disk
+     */
+    public long getSpillCount() {
+        return spillCount.get();
+    }
+
+    /**
+     *
+     * @return the number of records written to spilled segments
+     */
+    public long getSpilledRecordCount() {
+        return spilledRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the bytes written to spilled segments
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    /**
+     *
+     * @return the number of records emitted, one per key; the key cardinality once the Job completes
+     */
+    public long getSurvivingRecordCount() {
+        return survivingRecordCount.get();
+    }
+
+    /**
+     * A record was added to the index
+     * @param newKey whether its key wasn't held in memory yet
+     */
+    public void indexed(boolean newKey) {
+        indexedRecordCount.incrementAndGet();
+        if (newKey) {
+            indexedKeyCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The index allocated (or freed, if negative) off-heap memory
+     * @param delta
+     */
+    public void addIndexBytes(long delta) {
+        indexBytes.addAndGet(delta);
+    }
+
+    /**
+     * The in-memory index was written to a segment and cleared, keeping its memory
+     * @param records
+     * @param bytes
+     */
+    public void spilled(long records, long bytes) {
+        spillCount.incrementAndGet();
+        spilledRecordCount.addAndGet(records);
+        spilledBytes.addAndGet(bytes);
+        indexedKeyCount.set(0);
+    }
+
+    /**
+     * A surviving record was emitted
+     */
+    public void survived() {
+        survivingRecordCount.incrementAndGet();
+    }
+}
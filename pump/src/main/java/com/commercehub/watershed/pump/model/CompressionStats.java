@@ -0,0 +1,93 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression of a Job's emitted payloads, and the zstd dictionary consumers need to decompress them. Updated live
+ * by the Job's compressor.
+ */
+public class CompressionStats {
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private volatile PayloadCompression compression = PayloadCompression.NONE;
+    private volatile byte[] dictionary;
+    private volatile long dictionaryId;
+
+    /**
+     *
+     * @return the codec payloads are compressed with
+     */
+    public PayloadCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * set the codec payloads are compressed with
+     * @param compression
+     */
+    public void setCompression(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     *
+     * @return the number of payloads compressed
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     *
+     * @return the bytes of payloads before compression
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     *
+     * @return the bytes of payloads after compression, including envelope headers
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     *
+     * @return the zstd dictionary trained from the Job's records, or null if payloads are compressed without one
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     *
+     * @return the id zstd frames use to name the dictionary, or 0 without one
+     */
+    public long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * set the zstd dictionary payloads are compressed with
+     * @param dictionary
+     * @param dictionaryId
+     */
+    public void setDictionary(byte[] dictionary, long dictionaryId) {
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * A payload was compressed
+     * @param uncompressed bytes before compression
+     * @param compressed bytes after compression
+     */
+    public void compressed(long uncompressed, long compressed) {
+        recordCount.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+    }
+}
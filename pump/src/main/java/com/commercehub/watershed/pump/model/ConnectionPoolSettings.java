@@ -0,0 +1,90 @@
+package com.commercehub.watershed.pump.model;
+
+import com.google.inject.Inject;
+
+import javax.inject.Named;
+
+/**
+ * Holds configuration for the pool of Drill connections, defined in pump.properties.
+ */
+public class ConnectionPoolSettings {
+    private int maxSize;
+    private int minIdle;
+    private long idleTimeoutMillis;
+    private long borrowTimeoutMillis;
+    private long leakDetectionThresholdMillis;
+    private String validationQuery;
+
+    /**
+     *
+     * @param maxSize                       maximum number of open connections
+     * @param minIdle                       number of idle connections kept open, starting at startup
+     * @param idleTimeoutMillis             idle connections above minIdle are closed after this long
+     * @param borrowTimeoutMillis           how long to wait for a connection when the pool is exhausted
+     * @param leakDetectionThresholdMillis  borrowed connections held longer than this are logged (0 disables)
+     * @param validationQuery               query run to validate idle connections when they are borrowed
+     */
+    @Inject
+    public ConnectionPoolSettings(
+            @Named("drillPoolMaxSize") int maxSize,
+            @Named("drillPoolMinIdle") int minIdle,
+            @Named("drillPoolIdleTimeoutMillis") long idleTimeoutMillis,
+            @Named("drillPoolBorrowTimeoutMillis") long borrowTimeoutMillis,
+            @Named("drillPoolLeakDetectionThresholdMillis") long leakDetectionThresholdMillis,
+            @Named("drillPoolValidationQuery") String validationQuery) {
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     *
+     * @return maximum number of open connections
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     * @return number of idle connections kept open
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     *
+     * @return how long connections above minIdle may sit idle before they are closed
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     *
+     * @return how long to wait for a connection when the pool is exhausted
+     */
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    /**
+     *
+     * @return how long a connection may be borrowed before it is logged as a possible leak, 0 if disabled
+     */
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    /**
+     *
+     * @return query run to validate idle connections when they are borrowed
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+}
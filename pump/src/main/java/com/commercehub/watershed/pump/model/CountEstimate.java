@@ -0,0 +1,92 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * Estimated number of records in an archive, extrapolated from a sample of its files.
+ */
+public class CountEstimate {
+    private long count;
+    private long errorBound;
+    private int sampledFiles;
+    private int totalFiles;
+    private long sampledRecords;
+
+    /**
+     *
+     * @param count             estimated number of records
+     * @param errorBound        half-width of the 95% confidence interval around count
+     * @param sampledFiles      number of files counted
+     * @param totalFiles        number of files in the archive
+     * @param sampledRecords    number of records in the counted files
+     */
+    public CountEstimate(long count, long errorBound, int sampledFiles, int totalFiles, long sampledRecords) {
+        this.count = count;
+        this.errorBound = errorBound;
+        this.sampledFiles = sampledFiles;
+        this.totalFiles = totalFiles;
+        this.sampledRecords = sampledRecords;
+    }
+
+    /**
+     *
+     * @return estimated number of records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @return half-width of the 95% confidence interval around the estimate; 0 when every file was counted
+     */
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     *
+     * @return number of files counted
+     */
+    public int getSampledFiles() {
+        return sampledFiles;
+    }
+
+    /**
+     *
+     * @return number of files in the archive
+     */
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     *
+     * @return number of records in the counted files
+     */
+    public long getSampledRecords() {
+        return sampledRecords;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CountEstimate that = (CountEstimate) o;
+
+        if (count != that.count) return false;
+        if (errorBound != that.errorBound) return false;
+        if (sampledFiles != that.sampledFiles) return false;
+        if (totalFiles != that.totalFiles) return false;
+        return sampledRecords == that.sampledRecords;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (count ^ (count >>> 32));
+        result = 31 * result + (int) (errorBound ^ (errorBound >>> 32));
+        result = 31 * result + sampledFiles;
+        result = 31 * result + totalFiles;
+        result = 31 * result + (int) (sampledRecords ^ (sampledRecords >>> 32));
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How a job preview counts the records of its query.
+ */
+public enum CountMode {
+    /**
+     * Runs count(*) over the query.
+     */
+    EXACT,
+
+    /**
+     * Estimates the number of records under the archive path from a deterministic sample of its files, with an
+     * error bound. Filters in the query are not applied, so for filtering queries the estimate is an upper bound.
+     * The exact count can be requested separately.
+     */
+    APPROXIMATE
+}
@@ -0,0 +1,79 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a deduplicated Job's Bloom filter. Updated live while records are checked.
+ */
+public class DedupStats {
+    private final AtomicLong checkedRecordCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong untrackedRecordCount = new AtomicLong();
+    private final AtomicLong filterCount = new AtomicLong();
+    private final AtomicLong filterBytes = new AtomicLong();
+
+    /**
+     *
+     * @return the number of records checked for duplicates
+     */
+    public long getCheckedRecordCount() {
+        return checkedRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of records dropped as duplicates of earlier records (or as false positives)
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     *
+     * @return the number of unique records sent without being added to the filter, because it reached its memory cap;
+     * later duplicates of these records aren't caught
+     */
+    public long getUntrackedRecordCount() {
+        return untrackedRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of filters the scalable Bloom filter has grown to
+     */
+    public long getFilterCount() {
+        return filterCount.get();
+    }
+
+    /**
+     *
+     * @return the bytes held by the filters
+     */
+    public long getFilterBytes() {
+        return filterBytes.get();
+    }
+
+    /**
+     * A record was checked
+     * @param duplicate whether it was dropped as a duplicate
+     * @param tracked   whether it was added to the filter
+     */
+    public void checked(boolean duplicate, boolean tracked) {
+        checkedRecordCount.incrementAndGet();
+        if (duplicate) {
+            duplicateCount.incrementAndGet();
+        }
+        else if (!tracked) {
+            untrackedRecordCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The scalable Bloom filter added a filter
+     * @param bytes its size
+     */
+    public void grown(long bytes) {
+        filterCount.incrementAndGet();
+        filterBytes.addAndGet(bytes);
+    }
+}
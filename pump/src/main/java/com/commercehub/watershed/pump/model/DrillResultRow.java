@@ -1,5 +1,129 @@
 package com.commercehub.watershed.pump.model;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
-public class DrillResultRow extends HashMap<String, String> {}
+/**
+ * A row retrieved from Drill, as a read-only Map of column name to value.
+ * Backed by arrays: column names are shared by every row of a query, so a row only holds its values.
+ */
+public class DrillResultRow extends AbstractMap<String, String> {
+    private static final String[] EMPTY = new String[0];
+
+    private final String[] columnNames;
+    private final String[] values;
+
+    /**
+     * Constructs an empty row.
+     */
+    public DrillResultRow() {
+        this(EMPTY, EMPTY);
+    }
+
+    /**
+     *
+     * @param columnNames   column names, shared between rows and never modified
+     * @param values        values, in the same order as columnNames
+     */
+    public DrillResultRow(String[] columnNames, String[] values) {
+        if (columnNames.length != values.length) {
+            throw new IllegalArgumentException("Expected " + columnNames.length + " values, got " + values.length);
+        }
+        this.columnNames = columnNames;
+        this.values = values;
+    }
+
+    /**
+     *
+     * @return the column names, shared with the other rows of the query; not to be modified
+     */
+    public String[] columnNames() {
+        return columnNames;
+    }
+
+    /**
+     *
+     * @param index
+     * @return the value of the column at index
+     */
+    public String valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get(Object key) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        for (String columnName : columnNames) {
+            if (columnName.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return columnNames.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < columnNames.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(columnNames[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("DrillResultRow is read-only");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return columnNames.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * Exact record count of a preview query, computed in the background.
+ */
+public class ExactCount {
+    private volatile ProcessingStage stage = ProcessingStage.IN_PROGRESS;
+    private volatile Integer count;
+    private volatile String error;
+
+    /**
+     *
+     * @return IN_PROGRESS while counting, then COMPLETED_SUCCESS or COMPLETED_ERROR
+     */
+    public ProcessingStage getStage() {
+        return stage;
+    }
+
+    /**
+     *
+     * @return the count, null until counting succeeds
+     */
+    public Integer getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @return why counting failed, null unless it did
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Completes the count successfully
+     * @param count
+     */
+    public void succeeded(Integer count) {
+        this.count = count;
+        this.stage = ProcessingStage.COMPLETED_SUCCESS;
+    }
+
+    /**
+     * Completes the count with an error
+     * @param error
+     */
+    public void failed(Throwable error) {
+        this.error = String.valueOf(error.getMessage());
+        this.stage = ProcessingStage.COMPLETED_ERROR;
+    }
+}
@@ -1,6 +1,7 @@
 package com.commercehub.watershed.pump.model;
 
 import com.commercehub.watershed.pump.service.TimeService;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.joda.time.DateTime;
@@ -34,6 +35,22 @@ public class Job {
 
     private DrillResultRow lastSuccessfulRow;
 
+    private ReadAheadStats readAheadStats;
+    private PayloadStats payloadStats;
+    private CompressionStats compressionStats;
+    private CompactionStats compactionStats;
+    private DedupStats dedupStats;
+    private RateControlStats rateControlStats;
+    private ProducerProfileStats producerProfileStats;
+    private RetryStats retryStats;
+    private ShardLoadStats shardLoadStats;
+
+    private Checkpoint checkpoint;
+    private Checkpoint resumedFrom;
+
+    private QueryCostEstimate costEstimate;
+    private AdmissionDecision admissionDecision;
+
     private PeriodFormatter formatter = new PeriodFormatterBuilder()
             .printZeroNever().appendHours().appendSuffix(" hour, ", " hours, ")
             .printZeroNever().appendMinutes().appendSuffix(" minute, ", " minutes, ")
@@ -246,6 +263,215 @@ public class Job {
         this.lastSuccessfulRow = lastSuccessfulRow;
     }
 
+    /**
+     *
+     * @return occupancy of the buffers between the job's readers and its publisher
+     */
+    public ReadAheadStats getReadAheadStats() {
+        return readAheadStats;
+    }
+
+    /**
+     * set the read-ahead buffer statistics of the job
+     * @param readAheadStats
+     */
+    public void setReadAheadStats(ReadAheadStats readAheadStats) {
+        this.readAheadStats = readAheadStats;
+    }
+
+    /**
+     *
+     * @return bytes allocated and reused for the job's record payloads
+     */
+    public PayloadStats getPayloadStats() {
+        return payloadStats;
+    }
+
+    /**
+     * set the payload buffer statistics of the job
+     * @param payloadStats
+     */
+    public void setPayloadStats(PayloadStats payloadStats) {
+        this.payloadStats = payloadStats;
+    }
+
+    /**
+     *
+     * @return compression of the job's emitted payloads, with the dictionary needed to decompress them
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * set the compression statistics of the job
+     * @param compressionStats
+     */
+    public void setCompressionStats(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    /**
+     *
+     * @return key cardinality and spilling of the job's compaction index, for compacted jobs
+     */
+    public CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    /**
+     * set the compaction statistics of the job
+     * @param compactionStats
+     */
+    public void setCompactionStats(CompactionStats compactionStats) {
+        this.compactionStats = compactionStats;
+    }
+
+    /**
+     *
+     * @return the number of duplicate records dropped, and the size of the job's Bloom filter, for deduplicated jobs
+     */
+    public DedupStats getDedupStats() {
+        return dedupStats;
+    }
+
+    /**
+     * set the deduplication statistics of the job
+     * @param dedupStats
+     */
+    public void setDedupStats(DedupStats dedupStats) {
+        this.dedupStats = dedupStats;
+    }
+
+    /**
+     *
+     * @return the current send rate and the throttling seen, for jobs adapting their rate to the stream
+     */
+    public RateControlStats getRateControlStats() {
+        return rateControlStats;
+    }
+
+    /**
+     * set the adaptive send rate statistics of the job
+     * @param rateControlStats
+     */
+    public void setRateControlStats(RateControlStats rateControlStats) {
+        this.rateControlStats = rateControlStats;
+    }
+
+    /**
+     *
+     * @return the job's retried records, and the records written to its dead-letter spool
+     */
+    public RetryStats getRetryStats() {
+        return retryStats;
+    }
+
+    /**
+     * set the retry statistics of the job
+     * @param retryStats
+     */
+    public void setRetryStats(RetryStats retryStats) {
+        this.retryStats = retryStats;
+    }
+
+    /**
+     *
+     * @return the producer profile chosen for the job and the record sizes it was chosen for, for KINESIS jobs
+     */
+    public ProducerProfileStats getProducerProfileStats() {
+        return producerProfileStats;
+    }
+
+    /**
+     * set the producer profile statistics of the job
+     * @param producerProfileStats
+     */
+    public void setProducerProfileStats(ProducerProfileStats producerProfileStats) {
+        this.producerProfileStats = producerProfileStats;
+    }
+
+    /**
+     *
+     * @return the records and bytes sent to each shard, for jobs balancing or measuring their shards
+     */
+    public ShardLoadStats getShardLoadStats() {
+        return shardLoadStats;
+    }
+
+    /**
+     * set the per-shard send statistics of the job
+     * @param shardLoadStats
+     */
+    public void setShardLoadStats(ShardLoadStats shardLoadStats) {
+        this.shardLoadStats = shardLoadStats;
+    }
+
+    /**
+     *
+     * @return the latest point the job can be resumed from
+     */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * set the latest point the job can be resumed from
+     * @param checkpoint
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     *
+     * @return the checkpoint the job was resumed from, or null if it started from the beginning
+     */
+    @JsonIgnore
+    public Checkpoint getResumedFrom() {
+        return resumedFrom;
+    }
+
+    /**
+     * set the checkpoint the job resumes from
+     * @param resumedFrom
+     */
+    public void setResumedFrom(Checkpoint resumedFrom) {
+        this.resumedFrom = resumedFrom;
+    }
+
+    /**
+     *
+     * @return estimated size and runtime of the job, made when it was submitted
+     */
+    public QueryCostEstimate getCostEstimate() {
+        return costEstimate;
+    }
+
+    /**
+     * set the estimated size and runtime of the job
+     * @param costEstimate
+     */
+    public void setCostEstimate(QueryCostEstimate costEstimate) {
+        this.costEstimate = costEstimate;
+    }
+
+    /**
+     *
+     * @return whether admission control started, queued or rejected the job
+     */
+    public AdmissionDecision getAdmissionDecision() {
+        return admissionDecision;
+    }
+
+    /**
+     * set whether admission control started, queued or rejected the job
+     * @param admissionDecision
+     */
+    public void setAdmissionDecision(AdmissionDecision admissionDecision) {
+        this.admissionDecision = admissionDecision;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
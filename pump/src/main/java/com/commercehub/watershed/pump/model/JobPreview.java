@@ -9,6 +9,7 @@ import java.util.Map;
 public class JobPreview {
     private Integer count;
     private List<Map<String, String>> rows;
+    private CountEstimate countEstimate;
 
     /**
      *
@@ -22,7 +23,19 @@ public class JobPreview {
 
     /**
      *
-     * @return the count of all records in the query
+     * @param countEstimate
+     * @param rows
+     */
+    public JobPreview(CountEstimate countEstimate, List<Map<String, String>> rows) {
+        this.count = (int) Math.min(Integer.MAX_VALUE, countEstimate.getCount());
+        this.countEstimate = countEstimate;
+        this.rows = rows;
+    }
+
+    /**
+     *
+     * @return the count of all records in the query, estimated if countEstimate is set; null if it couldn't be
+     * counted in time
      */
     public Integer getCount() {
         return count;
@@ -34,6 +47,15 @@ public class JobPreview {
     public List<Map<String, String>> getRows() {
         return rows;
     }
+
+    /**
+     *
+     * @return details of an APPROXIMATE count, null for EXACT counts
+     */
+    public CountEstimate getCountEstimate() {
+        return countEstimate;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -41,14 +63,16 @@ public class JobPreview {
 
         JobPreview that = (JobPreview) o;
 
-        if (!count.equals(that.count)) return false;
+        if (count != null ? !count.equals(that.count) : that.count != null) return false;
+        if (countEstimate != null ? !countEstimate.equals(that.countEstimate) : that.countEstimate != null) return false;
         return rows.equals(that.rows);
 
     }
 
     @Override
     public int hashCode() {
-        int result = count.hashCode();
+        int result = count != null ? count.hashCode() : 0;
+        result = 31 * result + (countEstimate != null ? countEstimate.hashCode() : 0);
         result = 31 * result + rows.hashCode();
         return result;
     }
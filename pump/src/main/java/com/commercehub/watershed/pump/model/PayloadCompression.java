@@ -0,0 +1,56 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How emitted record payloads are compressed. Compressed payloads start with an envelope header: the byte 0xF7
+ * (which can't start UTF-8 text or an Avro single-object record) followed by the codec's id.
+ */
+public enum PayloadCompression {
+    /**
+     * Payloads are sent as they are, without an envelope.
+     */
+    NONE(0),
+
+    /**
+     * A gzip stream.
+     */
+    GZIP(1),
+
+    /**
+     * The uncompressed length (4 bytes, big-endian) followed by an LZ4 block.
+     */
+    LZ4(2),
+
+    /**
+     * A zstd frame, compressed with the Job's dictionary if it has one; the frame names the dictionary's id.
+     */
+    ZSTD(3);
+
+    private final byte id;
+
+    PayloadCompression(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     *
+     * @return the codec's id in the envelope header
+     */
+    public byte getId() {
+        return id;
+    }
+
+    /**
+     *
+     * @param id
+     * @return the codec with the given envelope id
+     * @throws IllegalArgumentException if no codec has the id
+     */
+    public static PayloadCompression forId(byte id) {
+        for (PayloadCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown payload compression id " + id + ".");
+    }
+}
@@ -0,0 +1,80 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocation of record payload buffers for a Job. Updated live by its payload buffer pool.
+ */
+public class PayloadStats {
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong allocationCount = new AtomicLong();
+    private final AtomicLong reusedBytes = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     *
+     * @return the bytes allocated for payloads, by the pool or by the record source
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     *
+     * @return the number of payload buffers allocated
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     *
+     * @return the bytes of payload buffers served from the pool instead of allocated
+     */
+    public long getReusedBytes() {
+        return reusedBytes.get();
+    }
+
+    /**
+     *
+     * @return the number of payload buffers served from the pool instead of allocated
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     *
+     * @return the bytes of idle buffers currently held by the pool
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * A payload buffer was allocated
+     * @param bytes
+     */
+    public void allocated(long bytes) {
+        allocatedBytes.addAndGet(bytes);
+        allocationCount.incrementAndGet();
+    }
+
+    /**
+     * A pooled buffer was handed out again
+     * @param bytes
+     */
+    public void reused(long bytes) {
+        reusedBytes.addAndGet(bytes);
+        reuseCount.incrementAndGet();
+    }
+
+    /**
+     * Idle buffers were added to (or taken from, if negative) the pool
+     * @param delta
+     */
+    public void addRetained(long delta) {
+        retainedBytes.addAndGet(delta);
+    }
+}
@@ -0,0 +1,77 @@
+package com.commercehub.watershed.pump.model;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Hit/miss statistics of the job preview cache.
+ */
+public class PreviewCacheStats {
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private double averageLoadMillis;
+
+    /**
+     *
+     * @param size      number of cached previews
+     * @param stats     statistics of the underlying cache
+     */
+    public PreviewCacheStats(long size, CacheStats stats) {
+        this.size = size;
+        this.hitCount = stats.hitCount();
+        this.missCount = stats.missCount();
+        this.hitRate = stats.hitRate();
+        this.evictionCount = stats.evictionCount();
+        this.averageLoadMillis = stats.averageLoadPenalty() / 1000000.0;
+    }
+
+    /**
+     *
+     * @return number of cached previews
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     *
+     * @return number of previews served from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     *
+     * @return number of previews that had to be queried
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     *
+     * @return ratio of previews served from the cache, 1.0 if no previews were requested yet
+     */
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    /**
+     *
+     * @return number of previews evicted because they expired or the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     *
+     * @return average time spent querying a preview on a cache miss
+     */
+    public double getAverageLoadMillis() {
+        return averageLoadMillis;
+    }
+}
@@ -1,5 +1,8 @@
 package com.commercehub.watershed.pump.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.validation.constraints.AssertTrue;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
@@ -14,6 +17,11 @@ public class PreviewSettings {
     @Min(0)
     private Integer previewCount;
 
+    @NotNull
+    private CountMode countMode = CountMode.EXACT;
+
+    private String archivePath;
+
     /**
      *
      * @return the query used to run the preview
@@ -46,6 +54,48 @@ public class PreviewSettings {
         this.previewCount = previewCount;
     }
 
+    /**
+     *
+     * @return how the records of the query are counted
+     */
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * set how the records of the query are counted
+     * @param countMode
+     */
+    public void setCountMode(CountMode countMode) {
+        this.countMode = countMode;
+    }
+
+    /**
+     *
+     * @return the archive the query reads, sampled for APPROXIMATE counts
+     */
+    public String getArchivePath() {
+        return archivePath;
+    }
+
+    /**
+     * set the archive the query reads, sampled for APPROXIMATE counts
+     * @param archivePath
+     */
+    public void setArchivePath(String archivePath) {
+        this.archivePath = archivePath;
+    }
+
+    /**
+     *
+     * @return whether the settings provide what the count mode needs
+     */
+    @JsonIgnore
+    @AssertTrue(message = "archivePath is required for APPROXIMATE counts")
+    public boolean isCountModeSupported() {
+        return countMode != CountMode.APPROXIMATE || archivePath != null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -54,7 +104,9 @@ public class PreviewSettings {
         PreviewSettings that = (PreviewSettings) o;
 
         if (queryIn != null ? !queryIn.equals(that.queryIn) : that.queryIn != null) return false;
-        return !(previewCount != null ? !previewCount.equals(that.previewCount) : that.previewCount != null);
+        if (previewCount != null ? !previewCount.equals(that.previewCount) : that.previewCount != null) return false;
+        if (countMode != that.countMode) return false;
+        return !(archivePath != null ? !archivePath.equals(that.archivePath) : that.archivePath != null);
 
     }
 
@@ -62,6 +114,8 @@ public class PreviewSettings {
     public int hashCode() {
         int result = queryIn != null ? queryIn.hashCode() : 0;
         result = 31 * result + (previewCount != null ? previewCount.hashCode() : 0);
+        result = 31 * result + (countMode != null ? countMode.hashCode() : 0);
+        result = 31 * result + (archivePath != null ? archivePath.hashCode() : 0);
         return result;
     }
 }
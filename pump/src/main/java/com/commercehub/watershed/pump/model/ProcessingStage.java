@@ -4,5 +4,5 @@ package com.commercehub.watershed.pump.model;
  * The processing stages of a Job.
  */
 public enum ProcessingStage {
-    NOT_STARTED, IN_PROGRESS, COMPLETED_SUCCESS, COMPLETED_ERROR
+    NOT_STARTED, QUEUED, IN_PROGRESS, COMPLETED_SUCCESS, COMPLETED_ERROR, REJECTED
 }
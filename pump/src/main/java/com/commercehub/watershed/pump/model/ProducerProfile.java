@@ -0,0 +1,90 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How the KinesisProducer sending a Job's records is tuned, for the sizes of the Job's records. A profile sets the
+ * producer's buffering time, aggregated record size, PutRecords batch size and connection count; settings a profile
+ * leaves null keep the application's producer configuration.
+ */
+public enum ProducerProfile {
+    /**
+     * The application's producer configuration, untouched.
+     */
+    DEFAULT(null, null, null, null),
+
+    /**
+     * Records of a few hundred bytes: buffered longer and packed into larger aggregated records, so each Kinesis
+     * record, which counts against the shard's records per second, carries more of them.
+     */
+    SMALL_RECORDS(250L, 256L * 1024, 500L, 24L),
+
+    /**
+     * Records of a few KB, which the KPL's own defaults suit.
+     */
+    MEDIUM_RECORDS(100L, 50L * 1024, 500L, 24L),
+
+    /**
+     * Records too large to aggregate with each other: buffering gains nothing, so records are sent sooner, in
+     * smaller batches over more connections, as bytes rather than records limit the shards.
+     */
+    LARGE_RECORDS(50L, 50L * 1024, 50L, 64L);
+
+    // The largest typical record of each profile.
+    private static final long SMALL_RECORD_BYTES = 1024;
+    private static final long MEDIUM_RECORD_BYTES = 25 * 1024;
+
+    private final Long recordMaxBufferedTime;
+    private final Long aggregationMaxSize;
+    private final Long collectionMaxCount;
+    private final Long maxConnections;
+
+    ProducerProfile(Long recordMaxBufferedTime, Long aggregationMaxSize, Long collectionMaxCount, Long maxConnections) {
+        this.recordMaxBufferedTime = recordMaxBufferedTime;
+        this.aggregationMaxSize = aggregationMaxSize;
+        this.collectionMaxCount = collectionMaxCount;
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     *
+     * @param medianRecordBytes the median size of a Job's records
+     * @return the profile suited to the records
+     */
+    public static ProducerProfile forRecordSize(long medianRecordBytes) {
+        if (medianRecordBytes <= SMALL_RECORD_BYTES) {
+            return SMALL_RECORDS;
+        }
+        return medianRecordBytes <= MEDIUM_RECORD_BYTES ? MEDIUM_RECORDS : LARGE_RECORDS;
+    }
+
+    /**
+     *
+     * @return the most milliseconds a record is buffered before it is sent, or null to keep the configured value
+     */
+    public Long getRecordMaxBufferedTime() {
+        return recordMaxBufferedTime;
+    }
+
+    /**
+     *
+     * @return the most bytes of an aggregated record, or null to keep the configured value
+     */
+    public Long getAggregationMaxSize() {
+        return aggregationMaxSize;
+    }
+
+    /**
+     *
+     * @return the most records in a PutRecords call, or null to keep the configured value
+     */
+    public Long getCollectionMaxCount() {
+        return collectionMaxCount;
+    }
+
+    /**
+     *
+     * @return the most connections to Kinesis, or null to keep the configured value
+     */
+    public Long getMaxConnections() {
+        return maxConnections;
+    }
+}
@@ -0,0 +1,132 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.Map;
+
+/**
+ * The sizes of a Kinesis Job's sampled records, and the producer profile and settings chosen for them. Empty until
+ * the profile is chosen.
+ */
+public class ProducerProfileStats {
+    private volatile ProducerProfile profile;
+    private volatile long sampledRecordCount;
+    private volatile long medianRecordBytes;
+    private volatile long p90RecordBytes;
+    private volatile long maxRecordBytes;
+    private volatile Map<Long, Long> sizeHistogram;
+    private volatile long recordMaxBufferedTime;
+    private volatile long aggregationMaxSize;
+    private volatile long collectionMaxCount;
+    private volatile long maxConnections;
+
+    /**
+     *
+     * @return the producer profile chosen for the Job, or null until it is chosen
+     */
+    public ProducerProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     *
+     * @return the number of records whose sizes were sampled; 0 if the profile was given
+     */
+    public long getSampledRecordCount() {
+        return sampledRecordCount;
+    }
+
+    /**
+     *
+     * @return the median size of the sampled records, rounded up to a power of two
+     */
+    public long getMedianRecordBytes() {
+        return medianRecordBytes;
+    }
+
+    /**
+     *
+     * @return the 90th percentile size of the sampled records, rounded up to a power of two
+     */
+    public long getP90RecordBytes() {
+        return p90RecordBytes;
+    }
+
+    /**
+     *
+     * @return the largest sampled record's size
+     */
+    public long getMaxRecordBytes() {
+        return maxRecordBytes;
+    }
+
+    /**
+     *
+     * @return the number of sampled records of each size, by size rounded up to a power of two
+     */
+    public Map<Long, Long> getSizeHistogram() {
+        return sizeHistogram;
+    }
+
+    /**
+     *
+     * @return the producer's RecordMaxBufferedTime, in milliseconds
+     */
+    public long getRecordMaxBufferedTime() {
+        return recordMaxBufferedTime;
+    }
+
+    /**
+     *
+     * @return the producer's AggregationMaxSize, in bytes
+     */
+    public long getAggregationMaxSize() {
+        return aggregationMaxSize;
+    }
+
+    /**
+     *
+     * @return the producer's CollectionMaxCount
+     */
+    public long getCollectionMaxCount() {
+        return collectionMaxCount;
+    }
+
+    /**
+     *
+     * @return the producer's MaxConnections
+     */
+    public long getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * The Job's first records were measured
+     * @param sampledRecordCount    the number of records measured
+     * @param medianRecordBytes     their median size
+     * @param p90RecordBytes        their 90th percentile size
+     * @param maxRecordBytes        their largest size
+     * @param sizeHistogram         their number by size
+     */
+    public void sampled(long sampledRecordCount, long medianRecordBytes, long p90RecordBytes, long maxRecordBytes, Map<Long, Long> sizeHistogram) {
+        this.sampledRecordCount = sampledRecordCount;
+        this.medianRecordBytes = medianRecordBytes;
+        this.p90RecordBytes = p90RecordBytes;
+        this.maxRecordBytes = maxRecordBytes;
+        this.sizeHistogram = sizeHistogram;
+    }
+
+    /**
+     * The Job's producer was chosen
+     * @param recordMaxBufferedTime the producer's settings, after the Job's overrides
+     * @param aggregationMaxSize
+     * @param collectionMaxCount
+     * @param maxConnections
+     * @param profile               set last, so a reported profile comes with its settings
+     */
+    public void chosen(long recordMaxBufferedTime, long aggregationMaxSize, long collectionMaxCount, long maxConnections, ProducerProfile profile) {
+        this.recordMaxBufferedTime = recordMaxBufferedTime;
+        this.aggregationMaxSize = aggregationMaxSize;
+        this.collectionMaxCount = collectionMaxCount;
+        this.maxConnections = maxConnections;
+        this.profile = profile;
+    }
+}
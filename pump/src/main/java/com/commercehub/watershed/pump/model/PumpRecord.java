@@ -8,6 +8,8 @@ import com.amazonaws.services.kinesis.model.Record;
 public class PumpRecord {
     Record kinesisRecord;
     DrillResultRow drillResultRow;
+    String partition;
+    long offset;
 
     public PumpRecord(Record kinesisRecord, DrillResultRow drillResultRow) {
         this.kinesisRecord = kinesisRecord;
@@ -29,4 +31,30 @@ public class PumpRecord {
     public DrillResultRow getDrillResultRow() {
         return drillResultRow;
     }
+
+    /**
+     * Retrieve the partition of the Job the record was read from
+     * @return the partition, or null if the record wasn't positioned
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * Retrieve the record's position in its partition
+     * @return offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Set where the record was read from, for checkpointing
+     * @param partition
+     * @param offset
+     */
+    public void setPosition(String partition, long offset) {
+        this.partition = partition;
+        this.offset = offset;
+    }
 }
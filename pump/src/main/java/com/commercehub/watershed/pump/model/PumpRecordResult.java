@@ -1,25 +1,31 @@
 package com.commercehub.watershed.pump.model;
 
-import com.amazonaws.services.kinesis.producer.UserRecordResult;
-
 /**
  * Holds results for the KinesisRecord (post-emission) and the row that was pulled from Drill.
  */
 public class PumpRecordResult {
-    private UserRecordResult userRecordResult;
+    private SinkRecordResult sinkRecordResult;
     private DrillResultRow drillResultRow;
+    private String partition;
+    private long offset;
+
+    public PumpRecordResult(SinkRecordResult sinkRecordResult, DrillResultRow drillResultRow) {
+        this(sinkRecordResult, drillResultRow, null, 0);
+    }
 
-    public PumpRecordResult(UserRecordResult userRecordResult, DrillResultRow drillResultRow) {
-        this.userRecordResult = userRecordResult;
+    public PumpRecordResult(SinkRecordResult sinkRecordResult, DrillResultRow drillResultRow, String partition, long offset) {
+        this.sinkRecordResult = sinkRecordResult;
         this.drillResultRow = drillResultRow;
+        this.partition = partition;
+        this.offset = offset;
     }
 
     /**
-     * Get the Kinesis UserRecordResult
-     * @return UserRecordResult
+     * Get the result of sending the record to the Job's sink
+     * @return SinkRecordResult
      */
-    public UserRecordResult getUserRecordResult() {
-        return userRecordResult;
+    public SinkRecordResult getSinkRecordResult() {
+        return sinkRecordResult;
     }
 
     /**
@@ -29,4 +35,20 @@ public class PumpRecordResult {
     public DrillResultRow getDrillResultRow() {
         return drillResultRow;
     }
+
+    /**
+     * Get the partition of the Job the record was read from
+     * @return the partition, or null if the record wasn't positioned
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * Get the record's position in its partition
+     * @return offset
+     */
+    public long getOffset() {
+        return offset;
+    }
 }
@@ -1,14 +1,35 @@
 package com.commercehub.watershed.pump.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.avro.Schema;
+import org.joda.time.DateTime;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Holds configuration for how to run a job
  */
 public class PumpSettings {
     @NotNull
+    private RecordSource recordSource = RecordSource.DRILL;
+
     private String queryIn;
 
+    private String archivePath;
+
+    private String deadLetterPath;
+
+    @NotNull
+    @Min(1)
+    private Integer archiveReadParallelism = 4;
+
     @NotNull
     private Boolean hasOverwriteFlag = false;
 
@@ -18,12 +39,124 @@ public class PumpSettings {
     @NotNull
     private String streamOut;
 
+    @NotNull
+    private RecordDestination recordDestination = RecordDestination.KINESIS;
+
+    private String sinkDirectory;
+
+    @Min(0)
+    private Integer sinkLatencyMillis;
+
+    @Min(1)
+    private Integer sinkRecordsPerSecond;
+
+    private Boolean adaptiveRate;
+
+    @NotNull
+    private ShardBalancing shardBalancing = ShardBalancing.NONE;
+
+    private ProducerProfile producerProfile;
+
+    @Min(0)
+    private Integer maxRetries;
+
+    @Min(1)
+    private Long producerRecordMaxBufferedTime;
+
+    @Min(1)
+    private Long producerAggregationMaxSize;
+
+    @Min(1)
+    private Long producerCollectionMaxCount;
+
+    @Min(1)
+    private Long producerMaxConnections;
+
     @NotNull
     private String rawDataColumn = "rawData";
 
     @NotNull
     private String partitionKeyColumn = "partitionKey";
 
+    private List<String> checkpointColumns;
+
+    @Valid
+    private TransformSpec transform;
+
+    @NotNull
+    private RecordFormat sourceFormat = RecordFormat.JSON;
+
+    @NotNull
+    private RecordFormat emitFormat = RecordFormat.JSON;
+
+    private String avroSchema;
+
+    @NotNull
+    private PayloadCompression compression = PayloadCompression.NONE;
+
+    private Integer compressionLevel;
+
+    @Min(0)
+    private Integer compressionDictionarySamples;
+
+    @NotNull
+    private Boolean compact = false;
+
+    @NotNull
+    private Boolean dedup = false;
+
+    private String dedupIdColumn;
+
+    @NotNull
+    @DecimalMin(value = "0", inclusive = false)
+    @DecimalMax(value = "1", inclusive = false)
+    private Double dedupFalsePositiveRate = 0.001;
+
+    @Min(1)
+    private Long dedupMemoryBytes;
+
+    private DateTime timeRangeStart;
+
+    private DateTime timeRangeEnd;
+
+    @NotNull
+    private String timestampField = "timestamp";
+
+    @Min(0)
+    private Integer readAheadBufferSize;
+
+    @NotNull
+    @Min(1)
+    private Integer readPartitions = 1;
+
+    @Min(0)
+    private Integer transformParallelism;
+
+    @Min(1)
+    private Integer transformQueueDepth;
+
+    @NotNull
+    private ReadPartitionStrategy readPartitionStrategy = ReadPartitionStrategy.PARTITION_KEY_HASH;
+
+    @NotNull
+    private List<String> partitionDirectoryColumns = Arrays.asList("dir0");
+
+    /**
+     *
+     * @return where the job reads its records from
+     */
+    public RecordSource getRecordSource() {
+        return recordSource;
+    }
+
+    /**
+     * set where the job reads its records from
+     * @param recordSource
+     */
+    public void setRecordSource(RecordSource recordSource) {
+        this.recordSource = recordSource;
+    }
+
     /**
      *
      * @return the query for the job
@@ -40,6 +173,68 @@ public class PumpSettings {
         this.queryIn = queryIn;
     }
 
+    /**
+     *
+     * @return the archive file or directory read by an ARCHIVE job, or the one a DRILL job's query reads, to bound
+     * it by time or split it by directory
+     */
+    public String getArchivePath() {
+        return archivePath;
+    }
+
+    /**
+     * set the archive file or directory read by an ARCHIVE job
+     * @param archivePath
+     */
+    public void setArchivePath(String archivePath) {
+        this.archivePath = archivePath;
+    }
+
+    /**
+     *
+     * @return the dead-letter spool file or directory read by a DEAD_LETTER job
+     */
+    public String getDeadLetterPath() {
+        return deadLetterPath;
+    }
+
+    /**
+     * set the dead-letter spool file or directory read by a DEAD_LETTER job
+     * @param deadLetterPath
+     */
+    public void setDeadLetterPath(String deadLetterPath) {
+        this.deadLetterPath = deadLetterPath;
+    }
+
+    /**
+     *
+     * @return the number of archive files an ARCHIVE job reads and decompresses at the same time
+     */
+    public Integer getArchiveReadParallelism() {
+        return archiveReadParallelism;
+    }
+
+    /**
+     * set the number of archive files an ARCHIVE job reads and decompresses at the same time
+     * @param archiveReadParallelism
+     */
+    public void setArchiveReadParallelism(Integer archiveReadParallelism) {
+        this.archiveReadParallelism = archiveReadParallelism;
+    }
+
+    /**
+     *
+     * @return whether the job names what its record source needs: a query for DRILL, a path for ARCHIVE and DEAD_LETTER
+     */
+    @JsonIgnore
+    @AssertTrue(message = "queryIn is required for DRILL jobs, archivePath for ARCHIVE jobs, deadLetterPath for DEAD_LETTER jobs")
+    public boolean isSourceSpecified() {
+        if (recordSource == RecordSource.ARCHIVE) {
+            return archivePath != null;
+        }
+        return recordSource == RecordSource.DEAD_LETTER ? deadLetterPath != null : queryIn != null;
+    }
+
     /**
      *
      * @return if the overwrite flag has been set
@@ -89,6 +284,198 @@ public class PumpSettings {
         this.streamOut = streamOut;
     }
 
+    /**
+     *
+     * @return where the job sends its records
+     */
+    public RecordDestination getRecordDestination() {
+        return recordDestination;
+    }
+
+    /**
+     * set where the job sends its records
+     * @param recordDestination
+     */
+    public void setRecordDestination(RecordDestination recordDestination) {
+        this.recordDestination = recordDestination;
+    }
+
+    /**
+     *
+     * @return the directory a FILE job writes to, or null for the application default
+     */
+    public String getSinkDirectory() {
+        return sinkDirectory;
+    }
+
+    /**
+     * set the directory a FILE job writes to
+     * @param sinkDirectory
+     */
+    public void setSinkDirectory(String sinkDirectory) {
+        this.sinkDirectory = sinkDirectory;
+    }
+
+    /**
+     *
+     * @return the simulated latency of each record sent by a MEMORY job, or null for none
+     */
+    public Integer getSinkLatencyMillis() {
+        return sinkLatencyMillis;
+    }
+
+    /**
+     * set the simulated latency of each record sent by a MEMORY job
+     * @param sinkLatencyMillis
+     */
+    public void setSinkLatencyMillis(Integer sinkLatencyMillis) {
+        this.sinkLatencyMillis = sinkLatencyMillis;
+    }
+
+    /**
+     *
+     * @return the records per second a MEMORY job is throttled to, or null for unthrottled
+     */
+    public Integer getSinkRecordsPerSecond() {
+        return sinkRecordsPerSecond;
+    }
+
+    /**
+     * set the records per second a MEMORY job is throttled to
+     * @param sinkRecordsPerSecond
+     */
+    public void setSinkRecordsPerSecond(Integer sinkRecordsPerSecond) {
+        this.sinkRecordsPerSecond = sinkRecordsPerSecond;
+    }
+
+    /**
+     *
+     * @return whether a KINESIS job adapts its send rate to the stream's throttling, or null for the application default
+     */
+    public Boolean getAdaptiveRate() {
+        return adaptiveRate;
+    }
+
+    /**
+     * set whether a KINESIS job adapts its send rate to the stream's throttling
+     * @param adaptiveRate
+     */
+    public void setAdaptiveRate(Boolean adaptiveRate) {
+        this.adaptiveRate = adaptiveRate;
+    }
+
+    /**
+     *
+     * @return how a KINESIS job spreads its records over the stream's shards
+     */
+    public ShardBalancing getShardBalancing() {
+        return shardBalancing;
+    }
+
+    /**
+     * set how a KINESIS job spreads its records over the stream's shards
+     * @param shardBalancing
+     */
+    public void setShardBalancing(ShardBalancing shardBalancing) {
+        this.shardBalancing = shardBalancing;
+    }
+
+    /**
+     *
+     * @return the number of times a failed record is sent again before it is written to the dead-letter spool, or null for the application default
+     */
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * set the number of times a failed record is sent again before it is written to the dead-letter spool
+     * @param maxRetries
+     */
+    public void setMaxRetries(Integer maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     *
+     * @return how a KINESIS job's producer is tuned, or null to choose a profile from the sizes of the job's first records
+     */
+    public ProducerProfile getProducerProfile() {
+        return producerProfile;
+    }
+
+    /**
+     * set how a KINESIS job's producer is tuned
+     * @param producerProfile
+     */
+    public void setProducerProfile(ProducerProfile producerProfile) {
+        this.producerProfile = producerProfile;
+    }
+
+    /**
+     *
+     * @return the most milliseconds a KINESIS job's producer buffers a record, overriding its profile, or null for the profile's
+     */
+    public Long getProducerRecordMaxBufferedTime() {
+        return producerRecordMaxBufferedTime;
+    }
+
+    /**
+     * set the most milliseconds a KINESIS job's producer buffers a record
+     * @param producerRecordMaxBufferedTime
+     */
+    public void setProducerRecordMaxBufferedTime(Long producerRecordMaxBufferedTime) {
+        this.producerRecordMaxBufferedTime = producerRecordMaxBufferedTime;
+    }
+
+    /**
+     *
+     * @return the most bytes of a KINESIS job's aggregated records, overriding its profile, or null for the profile's
+     */
+    public Long getProducerAggregationMaxSize() {
+        return producerAggregationMaxSize;
+    }
+
+    /**
+     * set the most bytes of a KINESIS job's aggregated records
+     * @param producerAggregationMaxSize
+     */
+    public void setProducerAggregationMaxSize(Long producerAggregationMaxSize) {
+        this.producerAggregationMaxSize = producerAggregationMaxSize;
+    }
+
+    /**
+     *
+     * @return the most records in each of a KINESIS job's PutRecords calls, overriding its profile, or null for the profile's
+     */
+    public Long getProducerCollectionMaxCount() {
+        return producerCollectionMaxCount;
+    }
+
+    /**
+     * set the most records in each of a KINESIS job's PutRecords calls
+     * @param producerCollectionMaxCount
+     */
+    public void setProducerCollectionMaxCount(Long producerCollectionMaxCount) {
+        this.producerCollectionMaxCount = producerCollectionMaxCount;
+    }
+
+    /**
+     *
+     * @return the most connections a KINESIS job's producer opens, overriding its profile, or null for the profile's
+     */
+    public Long getProducerMaxConnections() {
+        return producerMaxConnections;
+    }
+
+    /**
+     * set the most connections a KINESIS job's producer opens
+     * @param producerMaxConnections
+     */
+    public void setProducerMaxConnections(Long producerMaxConnections) {
+        this.producerMaxConnections = producerMaxConnections;
+    }
+
     /**
      *
      * @return the column where the raw data for kinesis emission can be found
@@ -107,7 +494,7 @@ public class PumpSettings {
 
     /**
      *
-     * @return the column where the partition key for kinesis emission can be found
+     * @return the column where the partition key for kinesis emission can be found (for ARCHIVE jobs, a top-level JSON field)
      */
     public String getPartitionKeyColumn() {
         return partitionKeyColumn;
@@ -121,6 +508,422 @@ public class PumpSettings {
         this.partitionKeyColumn = partitionKeyColumn;
     }
 
+    /**
+     *
+     * @return the columns copied from each row for checkpointing and progress, or null for every column except the raw data column
+     */
+    public List<String> getCheckpointColumns() {
+        return checkpointColumns;
+    }
+
+    /**
+     * set the columns copied from each row for checkpointing and progress
+     * @param checkpointColumns
+     */
+    public void setCheckpointColumns(List<String> checkpointColumns) {
+        this.checkpointColumns = checkpointColumns;
+    }
+
+    /**
+     *
+     * @return how each record is reshaped before it is sent, or null to only set the replay and overwrite flags
+     */
+    public TransformSpec getTransform() {
+        return transform;
+    }
+
+    /**
+     * set how each record is reshaped before it is sent
+     * @param transform
+     */
+    public void setTransform(TransformSpec transform) {
+        this.transform = transform;
+    }
+
+    /**
+     *
+     * @return how source records are encoded; AVRO archives are read as Avro container files
+     */
+    public RecordFormat getSourceFormat() {
+        return sourceFormat;
+    }
+
+    /**
+     * set how source records are encoded
+     * @param sourceFormat
+     */
+    public void setSourceFormat(RecordFormat sourceFormat) {
+        this.sourceFormat = sourceFormat;
+    }
+
+    /**
+     *
+     * @return how records are encoded when sent to Kinesis
+     */
+    public RecordFormat getEmitFormat() {
+        return emitFormat;
+    }
+
+    /**
+     * set how records are encoded when sent to Kinesis
+     * @param emitFormat
+     */
+    public void setEmitFormat(RecordFormat emitFormat) {
+        this.emitFormat = emitFormat;
+    }
+
+    /**
+     *
+     * @return the Avro schema (as JSON) of emitted records for JSON sources, or of source records for DRILL jobs reading Avro
+     */
+    public String getAvroSchema() {
+        return avroSchema;
+    }
+
+    /**
+     * set the Avro schema of emitted or source records
+     * @param avroSchema
+     */
+    public void setAvroSchema(String avroSchema) {
+        this.avroSchema = avroSchema;
+    }
+
+    /**
+     *
+     * @return whether the source and emit formats can be converted between with the given schema and transform
+     */
+    @JsonIgnore
+    @AssertTrue(message = "avroSchema must be a valid Avro record schema, and is required to emit AVRO from JSON or to read AVRO through DRILL; transforms apply to JSON records only")
+    public boolean isFormatSupported() {
+        boolean avroSource = sourceFormat == RecordFormat.AVRO;
+        boolean avroEmit = emitFormat == RecordFormat.AVRO;
+        if (avroSource && avroEmit && transform != null && !transform.isEmpty()) {
+            return false;
+        }
+        if (avroSchema == null) {
+            return !(avroEmit && !avroSource) && !(avroSource && recordSource == RecordSource.DRILL);
+        }
+        try {
+            return new Schema.Parser().parse(avroSchema).getType() == Schema.Type.RECORD;
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     *
+     * @return how emitted payloads are compressed
+     */
+    public PayloadCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * set how emitted payloads are compressed
+     * @param compression
+     */
+    public void setCompression(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     *
+     * @return the codec's compression level, or null for its default
+     */
+    public Integer getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * set the codec's compression level
+     * @param compressionLevel
+     */
+    public void setCompressionLevel(Integer compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     *
+     * @return the number of the Job's first records sampled to train a zstd dictionary, or null (or 0) for no dictionary
+     */
+    public Integer getCompressionDictionarySamples() {
+        return compressionDictionarySamples;
+    }
+
+    /**
+     * set the number of records sampled to train a zstd dictionary
+     * @param compressionDictionarySamples
+     */
+    public void setCompressionDictionarySamples(Integer compressionDictionarySamples) {
+        this.compressionDictionarySamples = compressionDictionarySamples;
+    }
+
+    /**
+     *
+     * @return whether a compression dictionary is only asked for with zstd
+     */
+    @JsonIgnore
+    @AssertTrue(message = "compressionDictionarySamples requires ZSTD compression")
+    public boolean isCompressionDictionarySupported() {
+        return compressionDictionarySamples == null || compressionDictionarySamples == 0 || compression == PayloadCompression.ZSTD;
+    }
+
+    /**
+     *
+     * @return whether only the latest record for each partition key is sent, in read order
+     */
+    public Boolean getCompact() {
+        return compact;
+    }
+
+    /**
+     * set whether only the latest record for each partition key is sent
+     * @param compact
+     */
+    public void setCompact(Boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     *
+     * @return whether records sharing a key are read in order, which compaction needs to find the latest
+     */
+    @JsonIgnore
+    @AssertTrue(message = "compact requires the PARTITION_KEY_HASH read partition strategy when reading with more than one partition")
+    public boolean isCompactionOrdered() {
+        return compact == null || !compact || recordSource != RecordSource.DRILL ||
+                readPartitions == null || readPartitions <= 1 || readPartitionStrategy == ReadPartitionStrategy.PARTITION_KEY_HASH;
+    }
+
+    /**
+     *
+     * @return whether records already sent by the Job are dropped, as found by a Bloom filter
+     */
+    public Boolean getDedup() {
+        return dedup;
+    }
+
+    /**
+     * set whether records already sent by the Job are dropped
+     * @param dedup
+     */
+    public void setDedup(Boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     *
+     * @return the column (or top-level JSON field) identifying a record for deduplication, or null to compare whole records
+     */
+    public String getDedupIdColumn() {
+        return dedupIdColumn;
+    }
+
+    /**
+     * set the column identifying a record for deduplication
+     * @param dedupIdColumn
+     */
+    public void setDedupIdColumn(String dedupIdColumn) {
+        this.dedupIdColumn = dedupIdColumn;
+    }
+
+    /**
+     *
+     * @return the highest probability of dropping a record that isn't a duplicate
+     */
+    public Double getDedupFalsePositiveRate() {
+        return dedupFalsePositiveRate;
+    }
+
+    /**
+     * set the highest probability of dropping a record that isn't a duplicate
+     * @param dedupFalsePositiveRate
+     */
+    public void setDedupFalsePositiveRate(Double dedupFalsePositiveRate) {
+        this.dedupFalsePositiveRate = dedupFalsePositiveRate;
+    }
+
+    /**
+     *
+     * @return the most bytes the deduplication filter may take, or null for the application default
+     */
+    public Long getDedupMemoryBytes() {
+        return dedupMemoryBytes;
+    }
+
+    /**
+     * set the most bytes the deduplication filter may take
+     * @param dedupMemoryBytes
+     */
+    public void setDedupMemoryBytes(Long dedupMemoryBytes) {
+        this.dedupMemoryBytes = dedupMemoryBytes;
+    }
+
+    /**
+     *
+     * @return start of the event time range to replay (inclusive), or null for no lower bound
+     */
+    public DateTime getTimeRangeStart() {
+        return timeRangeStart;
+    }
+
+    /**
+     * set start of the event time range to replay (inclusive)
+     * @param timeRangeStart
+     */
+    public void setTimeRangeStart(DateTime timeRangeStart) {
+        this.timeRangeStart = timeRangeStart;
+    }
+
+    /**
+     *
+     * @return end of the event time range to replay (exclusive), or null for no upper bound
+     */
+    public DateTime getTimeRangeEnd() {
+        return timeRangeEnd;
+    }
+
+    /**
+     * set end of the event time range to replay (exclusive)
+     * @param timeRangeEnd
+     */
+    public void setTimeRangeEnd(DateTime timeRangeEnd) {
+        this.timeRangeEnd = timeRangeEnd;
+    }
+
+    /**
+     *
+     * @return top-level JSON field holding each record's event timestamp, used to index the archive by time
+     */
+    public String getTimestampField() {
+        return timestampField;
+    }
+
+    /**
+     * set top-level JSON field holding each record's event timestamp
+     * @param timestampField
+     */
+    public void setTimestampField(String timestampField) {
+        this.timestampField = timestampField;
+    }
+
+    /**
+     *
+     * @return whether the Job replays a time range, read through the time index of its archive path
+     */
+    @JsonIgnore
+    public boolean isTimeBounded() {
+        return timeRangeStart != null || timeRangeEnd != null;
+    }
+
+    /**
+     *
+     * @return whether the time range can be indexed
+     */
+    @JsonIgnore
+    @AssertTrue(message = "a time range requires archivePath (the archive directory the query reads, for DRILL jobs) and JSON source records, and must end after it starts")
+    public boolean isTimeRangeSupported() {
+        return !isTimeBounded() || (archivePath != null && sourceFormat != RecordFormat.AVRO &&
+                (timeRangeStart == null || timeRangeEnd == null || timeRangeStart.isBefore(timeRangeEnd)));
+    }
+
+    /**
+     *
+     * @return the number of records each reader buffers ahead of publishing (0 to read on demand), or null for the application default
+     */
+    public Integer getReadAheadBufferSize() {
+        return readAheadBufferSize;
+    }
+
+    /**
+     * set the number of records each reader buffers ahead of publishing
+     * @param readAheadBufferSize
+     */
+    public void setReadAheadBufferSize(Integer readAheadBufferSize) {
+        this.readAheadBufferSize = readAheadBufferSize;
+    }
+
+    /**
+     *
+     * @return the number of sub-queries (each on its own connection) the query is split into
+     */
+    public Integer getReadPartitions() {
+        return readPartitions;
+    }
+
+    /**
+     * set the number of sub-queries the query is split into
+     * @param readPartitions
+     */
+    public void setReadPartitions(Integer readPartitions) {
+        this.readPartitions = readPartitions;
+    }
+
+    /**
+     *
+     * @return the number of records transformed at the same time (0 for one per processor), or null for the application default
+     */
+    public Integer getTransformParallelism() {
+        return transformParallelism;
+    }
+
+    /**
+     * set the number of records transformed at the same time
+     * @param transformParallelism
+     */
+    public void setTransformParallelism(Integer transformParallelism) {
+        this.transformParallelism = transformParallelism;
+    }
+
+    /**
+     *
+     * @return the number of records that may wait for or be in transformation, or null for the application default
+     */
+    public Integer getTransformQueueDepth() {
+        return transformQueueDepth;
+    }
+
+    /**
+     * set the number of records that may wait for or be in transformation
+     * @param transformQueueDepth
+     */
+    public void setTransformQueueDepth(Integer transformQueueDepth) {
+        this.transformQueueDepth = transformQueueDepth;
+    }
+
+    /**
+     *
+     * @return how the query is split when reading with more than one partition
+     */
+    public ReadPartitionStrategy getReadPartitionStrategy() {
+        return readPartitionStrategy;
+    }
+
+    /**
+     * set how the query is split when reading with more than one partition
+     * @param readPartitionStrategy
+     */
+    public void setReadPartitionStrategy(ReadPartitionStrategy readPartitionStrategy) {
+        this.readPartitionStrategy = readPartitionStrategy;
+    }
+
+    /**
+     *
+     * @return the archive directory columns (dir0, dir1, ...) used by the DIRECTORY read partition strategy
+     */
+    public List<String> getPartitionDirectoryColumns() {
+        return partitionDirectoryColumns;
+    }
+
+    /**
+     * set the archive directory columns used by the DIRECTORY read partition strategy
+     * @param partitionDirectoryColumns
+     */
+    public void setPartitionDirectoryColumns(List<String> partitionDirectoryColumns) {
+        this.partitionDirectoryColumns = partitionDirectoryColumns;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -128,23 +931,113 @@ public class PumpSettings {
 
         PumpSettings that = (PumpSettings) o;
 
-        if (!queryIn.equals(that.queryIn)) return false;
+        if (recordSource != that.recordSource) return false;
+        if (queryIn != null ? !queryIn.equals(that.queryIn) : that.queryIn != null) return false;
+        if (archivePath != null ? !archivePath.equals(that.archivePath) : that.archivePath != null) return false;
+        if (deadLetterPath != null ? !deadLetterPath.equals(that.deadLetterPath) : that.deadLetterPath != null) return false;
+        if (!archiveReadParallelism.equals(that.archiveReadParallelism)) return false;
         if (!hasOverwriteFlag.equals(that.hasOverwriteFlag)) return false;
         if (!hasReplayFlag.equals(that.hasReplayFlag)) return false;
         if (!streamOut.equals(that.streamOut)) return false;
+        if (recordDestination != that.recordDestination) return false;
+        if (sinkDirectory != null ? !sinkDirectory.equals(that.sinkDirectory) : that.sinkDirectory != null) return false;
+        if (sinkLatencyMillis != null ? !sinkLatencyMillis.equals(that.sinkLatencyMillis) : that.sinkLatencyMillis != null)
+            return false;
+        if (sinkRecordsPerSecond != null ? !sinkRecordsPerSecond.equals(that.sinkRecordsPerSecond) : that.sinkRecordsPerSecond != null)
+            return false;
+        if (adaptiveRate != null ? !adaptiveRate.equals(that.adaptiveRate) : that.adaptiveRate != null) return false;
+        if (shardBalancing != that.shardBalancing) return false;
+        if (maxRetries != null ? !maxRetries.equals(that.maxRetries) : that.maxRetries != null) return false;
+        if (producerProfile != that.producerProfile) return false;
+        if (producerRecordMaxBufferedTime != null ? !producerRecordMaxBufferedTime.equals(that.producerRecordMaxBufferedTime) : that.producerRecordMaxBufferedTime != null)
+            return false;
+        if (producerAggregationMaxSize != null ? !producerAggregationMaxSize.equals(that.producerAggregationMaxSize) : that.producerAggregationMaxSize != null)
+            return false;
+        if (producerCollectionMaxCount != null ? !producerCollectionMaxCount.equals(that.producerCollectionMaxCount) : that.producerCollectionMaxCount != null)
+            return false;
+        if (producerMaxConnections != null ? !producerMaxConnections.equals(that.producerMaxConnections) : that.producerMaxConnections != null)
+            return false;
         if (!rawDataColumn.equals(that.rawDataColumn)) return false;
-        return partitionKeyColumn.equals(that.partitionKeyColumn);
+        if (!partitionKeyColumn.equals(that.partitionKeyColumn)) return false;
+        if (checkpointColumns != null ? !checkpointColumns.equals(that.checkpointColumns) : that.checkpointColumns != null)
+            return false;
+        if (transform != null ? !transform.equals(that.transform) : that.transform != null) return false;
+        if (sourceFormat != that.sourceFormat) return false;
+        if (emitFormat != that.emitFormat) return false;
+        if (avroSchema != null ? !avroSchema.equals(that.avroSchema) : that.avroSchema != null) return false;
+        if (compression != that.compression) return false;
+        if (compressionLevel != null ? !compressionLevel.equals(that.compressionLevel) : that.compressionLevel != null)
+            return false;
+        if (compressionDictionarySamples != null ? !compressionDictionarySamples.equals(that.compressionDictionarySamples) : that.compressionDictionarySamples != null)
+            return false;
+        if (!compact.equals(that.compact)) return false;
+        if (!dedup.equals(that.dedup)) return false;
+        if (dedupIdColumn != null ? !dedupIdColumn.equals(that.dedupIdColumn) : that.dedupIdColumn != null) return false;
+        if (!dedupFalsePositiveRate.equals(that.dedupFalsePositiveRate)) return false;
+        if (dedupMemoryBytes != null ? !dedupMemoryBytes.equals(that.dedupMemoryBytes) : that.dedupMemoryBytes != null)
+            return false;
+        if (timeRangeStart != null ? !timeRangeStart.equals(that.timeRangeStart) : that.timeRangeStart != null)
+            return false;
+        if (timeRangeEnd != null ? !timeRangeEnd.equals(that.timeRangeEnd) : that.timeRangeEnd != null) return false;
+        if (!timestampField.equals(that.timestampField)) return false;
+        if (readAheadBufferSize != null ? !readAheadBufferSize.equals(that.readAheadBufferSize) : that.readAheadBufferSize != null)
+            return false;
+        if (!readPartitions.equals(that.readPartitions)) return false;
+        if (transformParallelism != null ? !transformParallelism.equals(that.transformParallelism) : that.transformParallelism != null)
+            return false;
+        if (transformQueueDepth != null ? !transformQueueDepth.equals(that.transformQueueDepth) : that.transformQueueDepth != null)
+            return false;
+        if (readPartitionStrategy != that.readPartitionStrategy) return false;
+        return partitionDirectoryColumns.equals(that.partitionDirectoryColumns);
 
     }
 
     @Override
     public int hashCode() {
-        int result = queryIn.hashCode();
+        int result = recordSource.hashCode();
+        result = 31 * result + (queryIn != null ? queryIn.hashCode() : 0);
+        result = 31 * result + (archivePath != null ? archivePath.hashCode() : 0);
+        result = 31 * result + (deadLetterPath != null ? deadLetterPath.hashCode() : 0);
+        result = 31 * result + archiveReadParallelism.hashCode();
         result = 31 * result + hasOverwriteFlag.hashCode();
         result = 31 * result + hasReplayFlag.hashCode();
         result = 31 * result + streamOut.hashCode();
+        result = 31 * result + recordDestination.hashCode();
+        result = 31 * result + (sinkDirectory != null ? sinkDirectory.hashCode() : 0);
+        result = 31 * result + (sinkLatencyMillis != null ? sinkLatencyMillis.hashCode() : 0);
+        result = 31 * result + (sinkRecordsPerSecond != null ? sinkRecordsPerSecond.hashCode() : 0);
+        result = 31 * result + (adaptiveRate != null ? adaptiveRate.hashCode() : 0);
+        result = 31 * result + shardBalancing.hashCode();
+        result = 31 * result + (maxRetries != null ? maxRetries.hashCode() : 0);
+        result = 31 * result + (producerProfile != null ? producerProfile.hashCode() : 0);
+        result = 31 * result + (producerRecordMaxBufferedTime != null ? producerRecordMaxBufferedTime.hashCode() : 0);
+        result = 31 * result + (producerAggregationMaxSize != null ? producerAggregationMaxSize.hashCode() : 0);
+        result = 31 * result + (producerCollectionMaxCount != null ? producerCollectionMaxCount.hashCode() : 0);
+        result = 31 * result + (producerMaxConnections != null ? producerMaxConnections.hashCode() : 0);
         result = 31 * result + rawDataColumn.hashCode();
         result = 31 * result + partitionKeyColumn.hashCode();
+        result = 31 * result + (checkpointColumns != null ? checkpointColumns.hashCode() : 0);
+        result = 31 * result + (transform != null ? transform.hashCode() : 0);
+        result = 31 * result + sourceFormat.hashCode();
+        result = 31 * result + emitFormat.hashCode();
+        result = 31 * result + (avroSchema != null ? avroSchema.hashCode() : 0);
+        result = 31 * result + compression.hashCode();
+        result = 31 * result + (compressionLevel != null ? compressionLevel.hashCode() : 0);
+        result = 31 * result + (compressionDictionarySamples != null ? compressionDictionarySamples.hashCode() : 0);
+        result = 31 * result + compact.hashCode();
+        result = 31 * result + dedup.hashCode();
+        result = 31 * result + (dedupIdColumn != null ? dedupIdColumn.hashCode() : 0);
+        result = 31 * result + dedupFalsePositiveRate.hashCode();
+        result = 31 * result + (dedupMemoryBytes != null ? dedupMemoryBytes.hashCode() : 0);
+        result = 31 * result + (timeRangeStart != null ? timeRangeStart.hashCode() : 0);
+        result = 31 * result + (timeRangeEnd != null ? timeRangeEnd.hashCode() : 0);
+        result = 31 * result + timestampField.hashCode();
+        result = 31 * result + (readAheadBufferSize != null ? readAheadBufferSize.hashCode() : 0);
+        result = 31 * result + readPartitions.hashCode();
+        result = 31 * result + (transformParallelism != null ? transformParallelism.hashCode() : 0);
+        result = 31 * result + (transformQueueDepth != null ? transformQueueDepth.hashCode() : 0);
+        result = 31 * result + readPartitionStrategy.hashCode();
+        result = 31 * result + partitionDirectoryColumns.hashCode();
         return result;
     }
 }
@@ -0,0 +1,63 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * Estimated size of a Job's input, and how long emitting it should take.
+ */
+public class QueryCostEstimate {
+    private long estimatedRows;
+    private long estimatedBytes;
+    private Integer shardCount;
+    private Long projectedRuntimeSeconds;
+
+    /**
+     *
+     * @param estimatedRows
+     * @param estimatedBytes
+     */
+    public QueryCostEstimate(long estimatedRows, long estimatedBytes) {
+        this.estimatedRows = estimatedRows;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     *
+     * @return estimated number of records the job will emit
+     */
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    /**
+     *
+     * @return estimated number of bytes the job will read
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     *
+     * @return number of shards of the target stream, null if unknown
+     */
+    public Integer getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     *
+     * @return projected runtime at the target stream's rate limit, null if the shard count is unknown
+     */
+    public Long getProjectedRuntimeSeconds() {
+        return projectedRuntimeSeconds;
+    }
+
+    /**
+     * Projects the runtime of emitting the estimated rows
+     * @param shardCount            number of shards of the target stream
+     * @param recordsPerSecond      rate the target stream accepts records at
+     */
+    public void project(int shardCount, double recordsPerSecond) {
+        this.shardCount = shardCount;
+        this.projectedRuntimeSeconds = recordsPerSecond > 0 ? (long) Math.ceil(estimatedRows / recordsPerSecond) : null;
+    }
+}
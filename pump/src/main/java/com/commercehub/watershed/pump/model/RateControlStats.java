@@ -0,0 +1,105 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of a Job's adaptive send rate. Updated live as Kinesis acks records.
+ */
+public class RateControlStats {
+    private volatile double rate;
+    private volatile double maxRate;
+    private final AtomicLong throttledRecordCount = new AtomicLong();
+    private final AtomicLong retriedRecordCount = new AtomicLong();
+    private final AtomicLong increaseCount = new AtomicLong();
+    private final AtomicLong decreaseCount = new AtomicLong();
+
+    /**
+     *
+     * @return the records per second the Job currently sends at
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     *
+     * @return the records per second the Job may send at most: its share of the stream's limits
+     */
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     *
+     * @return the number of records that Kinesis throttled at least once
+     */
+    public long getThrottledRecordCount() {
+        return throttledRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of records that took more than one attempt
+     */
+    public long getRetriedRecordCount() {
+        return retriedRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of times the rate was raised
+     */
+    public long getIncreaseCount() {
+        return increaseCount.get();
+    }
+
+    /**
+     *
+     * @return the number of times the rate was cut
+     */
+    public long getDecreaseCount() {
+        return decreaseCount.get();
+    }
+
+    /**
+     * A record was acked
+     * @param retried   whether it took more than one attempt
+     * @param throttled whether any attempt was throttled
+     */
+    public void acked(boolean retried, boolean throttled) {
+        if (retried) {
+            retriedRecordCount.incrementAndGet();
+        }
+        if (throttled) {
+            throttledRecordCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The rate controller started
+     * @param rate      the initial rate
+     * @param maxRate   the most the rate may be raised to
+     */
+    public void started(double rate, double maxRate) {
+        this.rate = rate;
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * The rate was raised
+     * @param rate the new rate
+     */
+    public void increased(double rate) {
+        this.rate = rate;
+        increaseCount.incrementAndGet();
+    }
+
+    /**
+     * The rate was cut
+     * @param rate the new rate
+     */
+    public void decreased(double rate) {
+        this.rate = rate;
+        decreaseCount.incrementAndGet();
+    }
+}
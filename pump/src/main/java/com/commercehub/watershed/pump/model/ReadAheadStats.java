@@ -0,0 +1,92 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Occupancy of the read-ahead buffers between a Job's readers and its publisher. Updated live by the readers.
+ */
+public class ReadAheadStats {
+    private final AtomicLong capacity = new AtomicLong();
+    private final AtomicLong occupancy = new AtomicLong();
+    private final AtomicLong bufferedRecordCount = new AtomicLong();
+    private final AtomicLong emptyWaitCount = new AtomicLong();
+    private final AtomicLong fullWaitCount = new AtomicLong();
+
+    /**
+     *
+     * @return the total capacity of all open read-ahead buffers
+     */
+    public long getCapacity() {
+        return capacity.get();
+    }
+
+    /**
+     *
+     * @return the number of records currently waiting in read-ahead buffers
+     */
+    public long getOccupancy() {
+        return occupancy.get();
+    }
+
+    /**
+     *
+     * @return the number of records that have passed through read-ahead buffers
+     */
+    public long getBufferedRecordCount() {
+        return bufferedRecordCount.get();
+    }
+
+    /**
+     *
+     * @return how often the publisher found a buffer empty and had to wait for the reader (reader-bound)
+     */
+    public long getEmptyWaitCount() {
+        return emptyWaitCount.get();
+    }
+
+    /**
+     *
+     * @return how often a reader found its buffer full and had to wait for the publisher (publisher-bound)
+     */
+    public long getFullWaitCount() {
+        return fullWaitCount.get();
+    }
+
+    /**
+     * A buffer was opened or closed
+     * @param delta capacity added (or removed, if negative)
+     */
+    public void addCapacity(long delta) {
+        capacity.addAndGet(delta);
+    }
+
+    /**
+     * A reader put a record into a buffer
+     */
+    public void recordBuffered() {
+        occupancy.incrementAndGet();
+        bufferedRecordCount.incrementAndGet();
+    }
+
+    /**
+     * Records were taken out of (or discarded from) a buffer
+     * @param count
+     */
+    public void recordsRemoved(long count) {
+        occupancy.addAndGet(-count);
+    }
+
+    /**
+     * The publisher found a buffer empty
+     */
+    public void emptyWait() {
+        emptyWaitCount.incrementAndGet();
+    }
+
+    /**
+     * A reader found its buffer full
+     */
+    public void fullWait() {
+        fullWaitCount.incrementAndGet();
+    }
+}
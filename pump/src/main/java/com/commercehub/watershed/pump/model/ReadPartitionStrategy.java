@@ -0,0 +1,17 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How a Job's query is split into sub-queries when reading from Drill in parallel.
+ */
+public enum ReadPartitionStrategy {
+    /**
+     * Split by a hash of the partition key column. Records sharing a partition key stay in the same sub-query.
+     */
+    PARTITION_KEY_HASH,
+
+    /**
+     * Split by archive directory (dir0, dir1, ...). Every directory is read by exactly one sub-query. The directories
+     * are listed under the Job's archive path; without one, the query is split by partition key hash.
+     */
+    DIRECTORY
+}
@@ -0,0 +1,21 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * Where a Job sends its records.
+ */
+public enum RecordDestination {
+    /**
+     * The Kinesis stream named by streamOut, through the Kinesis Producer Library.
+     */
+    KINESIS,
+
+    /**
+     * Rolling gzipped newline-delimited JSON files in a local directory, named after streamOut.
+     */
+    FILE,
+
+    /**
+     * Nowhere: records are counted and acked after a simulated latency and throughput limit, for benchmarking.
+     */
+    MEMORY
+}
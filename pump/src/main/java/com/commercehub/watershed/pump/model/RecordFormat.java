@@ -0,0 +1,17 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How a record's payload is encoded.
+ */
+public enum RecordFormat {
+    /**
+     * A JSON object. Archives hold newline-delimited JSON, optionally gzipped.
+     */
+    JSON,
+
+    /**
+     * An Avro record in single-object encoding (a marker, the schema's fingerprint, then the binary datum).
+     * Archives hold Avro container files.
+     */
+    AVRO
+}
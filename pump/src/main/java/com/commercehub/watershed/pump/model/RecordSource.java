@@ -0,0 +1,22 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * Where a Job reads its records from.
+ */
+public enum RecordSource {
+    /**
+     * Rows of a Drill query.
+     */
+    DRILL,
+
+    /**
+     * Raw records read directly from archive files (newline-delimited JSON, optionally gzipped), bypassing Drill.
+     */
+    ARCHIVE,
+
+    /**
+     * Records another Job failed to send, read back from its dead-letter spool files. Their payloads are sent as
+     * they were spooled, already transformed and compressed, bypassing Drill.
+     */
+    DEAD_LETTER
+}
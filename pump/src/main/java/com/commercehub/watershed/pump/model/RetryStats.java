@@ -0,0 +1,85 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries of a Job's failed records, and the records given up on. Updated live as records are retried.
+ */
+public class RetryStats {
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong recoveredRecordCount = new AtomicLong();
+    private final AtomicLong deadLetterRecordCount = new AtomicLong();
+    private final AtomicLong queuedRetryCount = new AtomicLong();
+    private volatile String deadLetterFile;
+
+    /**
+     *
+     * @return the number of times a failed record was sent again
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     *
+     * @return the number of records sent successfully after failing
+     */
+    public long getRecoveredRecordCount() {
+        return recoveredRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of records written to the dead-letter spool
+     */
+    public long getDeadLetterRecordCount() {
+        return deadLetterRecordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of failed records currently waiting to be sent again
+     */
+    public long getQueuedRetryCount() {
+        return queuedRetryCount.get();
+    }
+
+    /**
+     *
+     * @return the dead-letter spool file the Job's failed records were written to, or null if none failed for good
+     */
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    /**
+     * A failed record was queued to be sent again
+     */
+    public void queued() {
+        queuedRetryCount.incrementAndGet();
+    }
+
+    /**
+     * A queued record was sent again
+     */
+    public void retried() {
+        queuedRetryCount.decrementAndGet();
+        retryCount.incrementAndGet();
+    }
+
+    /**
+     * A record was sent successfully after failing
+     */
+    public void recovered() {
+        recoveredRecordCount.incrementAndGet();
+    }
+
+    /**
+     * A record was written to the dead-letter spool
+     * @param deadLetterFile the spool file
+     */
+    public void deadLettered(String deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+        deadLetterRecordCount.incrementAndGet();
+    }
+}
@@ -0,0 +1,30 @@
+package com.commercehub.watershed.pump.model;
+
+/**
+ * How a Kinesis Job spreads its records over the stream's shards.
+ */
+public enum ShardBalancing {
+    /**
+     * Kinesis hashes each record's partition key to pick its shard.
+     */
+    NONE,
+
+    /**
+     * As NONE, but the records and bytes sent to each shard are counted, to show whether the Job is skewed.
+     */
+    MEASURE,
+
+    /**
+     * Each partition key is pinned to the least-loaded shard when it is first seen, so every record of a key goes to
+     * the same shard, in order, while hot keys end up on different shards. Keys seen once the Job has pinned its
+     * limit are hashed as with NONE.
+     */
+    PIN_KEYS,
+
+    /**
+     * Each record goes to the least-loaded shard, whatever its key. Balances any skew, but gives up per-key ordering:
+     * records of a key land on different shards and may be read out of order. Don't use it for consumers that rely on
+     * the order of a key's records.
+     */
+    SPREAD
+}
@@ -0,0 +1,77 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records and bytes a Job has sent to each shard of its stream. Updated live as records are sent.
+ */
+public class ShardLoadStats {
+    private final ConcurrentMap<String, AtomicLong> recordCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> byteCounts = new ConcurrentHashMap<>();
+    private final AtomicLong pinnedKeyCount = new AtomicLong();
+
+    /**
+     *
+     * @return the number of records sent to each shard, by shard id
+     */
+    public Map<String, Long> getRecordCounts() {
+        return snapshot(recordCounts);
+    }
+
+    /**
+     *
+     * @return the number of payload bytes sent to each shard, by shard id
+     */
+    public Map<String, Long> getByteCounts() {
+        return snapshot(byteCounts);
+    }
+
+    /**
+     *
+     * @return the number of partition keys pinned to a shard
+     */
+    public long getPinnedKeyCount() {
+        return pinnedKeyCount.get();
+    }
+
+    /**
+     * A record was sent
+     * @param shardId   the shard it was sent to
+     * @param bytes     its payload size
+     */
+    public void sent(String shardId, long bytes) {
+        counter(recordCounts, shardId).incrementAndGet();
+        counter(byteCounts, shardId).addAndGet(bytes);
+    }
+
+    /**
+     * A partition key was pinned to a shard
+     */
+    public void pinned() {
+        pinnedKeyCount.incrementAndGet();
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String shardId) {
+        AtomicLong counter = counters.get(shardId);
+        if (counter == null) {
+            AtomicLong added = new AtomicLong();
+            counter = counters.putIfAbsent(shardId, added);
+            if (counter == null) {
+                counter = added;
+            }
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
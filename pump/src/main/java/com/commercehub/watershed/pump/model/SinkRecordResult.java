@@ -0,0 +1,79 @@
+package com.commercehub.watershed.pump.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of sending one record to a RecordSink: whether it was accepted, where it landed, and the error code
+ * of each attempt the sink made to send it.
+ */
+public class SinkRecordResult {
+    private final boolean successful;
+    private final String shardId;
+    private final String sequenceNumber;
+    private final List<String> attemptErrorCodes;
+
+    /**
+     *
+     * @param successful        whether the record was accepted
+     * @param shardId           the shard (or file) the record landed in, or null if it failed
+     * @param sequenceNumber    the record's sequence number within its shard, or null if it failed
+     * @param attemptErrorCodes one entry per attempt to send the record, null for an attempt that succeeded
+     */
+    public SinkRecordResult(boolean successful, String shardId, String sequenceNumber, List<String> attemptErrorCodes) {
+        this.successful = successful;
+        this.shardId = shardId;
+        this.sequenceNumber = sequenceNumber;
+        this.attemptErrorCodes = attemptErrorCodes != null ? attemptErrorCodes : Collections.<String>emptyList();
+    }
+
+    /**
+     *
+     * @param shardId
+     * @param sequenceNumber
+     * @return the result of a record accepted at its first attempt
+     */
+    public static SinkRecordResult succeeded(String shardId, String sequenceNumber) {
+        return new SinkRecordResult(true, shardId, sequenceNumber, Collections.<String>singletonList(null));
+    }
+
+    /**
+     *
+     * @return whether the record was accepted
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     *
+     * @return the shard (or file) the record landed in, or null if it failed
+     */
+    public String getShardId() {
+        return shardId;
+    }
+
+    /**
+     *
+     * @return the record's sequence number within its shard, or null if it failed
+     */
+    public String getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     *
+     * @return the error code of each attempt to send the record, null for an attempt that succeeded
+     */
+    public List<String> getAttemptErrorCodes() {
+        return attemptErrorCodes;
+    }
+
+    /**
+     *
+     * @return the error code of the last attempt, or null if it succeeded or there was none
+     */
+    public String getLastErrorCode() {
+        return attemptErrorCodes.isEmpty() ? null : attemptErrorCodes.get(attemptErrorCodes.size() - 1);
+    }
+}
@@ -0,0 +1,159 @@
+package com.commercehub.watershed.pump.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import javax.validation.constraints.AssertTrue;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declares how a Job reshapes each JSON record before it is sent to Kinesis. Fields are addressed with JSON
+ * pointers (e.g. "/payload/attachments") through nested objects; arrays are copied whole.
+ *
+ * Pointers name fields as they appear in the source record. When keep is given, only kept fields (and their
+ * ancestors) survive; drop, rename and set apply on top of that.
+ */
+public class TransformSpec {
+    private List<String> keep = new ArrayList<>();
+    private List<String> drop = new ArrayList<>();
+    private Map<String, String> rename = new LinkedHashMap<>();
+    private Map<String, JsonNode> set = new LinkedHashMap<>();
+
+    /**
+     *
+     * @return pointers to the fields to keep; empty to keep every field
+     */
+    public List<String> getKeep() {
+        return keep;
+    }
+
+    /**
+     * set pointers to the fields to keep
+     * @param keep
+     */
+    public void setKeep(List<String> keep) {
+        this.keep = keep;
+    }
+
+    /**
+     *
+     * @return pointers to the fields to remove
+     */
+    public List<String> getDrop() {
+        return drop;
+    }
+
+    /**
+     * set pointers to the fields to remove
+     * @param drop
+     */
+    public void setDrop(List<String> drop) {
+        this.drop = drop;
+    }
+
+    /**
+     *
+     * @return new names for fields, by pointer; a renamed field stays in its parent object
+     */
+    public Map<String, String> getRename() {
+        return rename;
+    }
+
+    /**
+     * set new names for fields, by pointer
+     * @param rename
+     */
+    public void setRename(Map<String, String> rename) {
+        this.rename = rename;
+    }
+
+    /**
+     *
+     * @return constant values to write, by pointer; existing values are replaced and missing parent objects created
+     */
+    public Map<String, JsonNode> getSet() {
+        return set;
+    }
+
+    /**
+     * set constant values to write, by pointer
+     * @param set
+     */
+    public void setSet(Map<String, JsonNode> set) {
+        this.set = set;
+    }
+
+    /**
+     *
+     * @return whether the spec changes nothing
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return isNullOrEmpty(keep) && isNullOrEmpty(drop) && (rename == null || rename.isEmpty()) && (set == null || set.isEmpty());
+    }
+
+    /**
+     *
+     * @return whether every pointer names a field and every new name is non-empty
+     */
+    @JsonIgnore
+    @AssertTrue(message = "transform pointers must be non-empty JSON pointers, e.g. /payload/field, and new names non-empty")
+    public boolean isValid() {
+        List<String> pointers = new ArrayList<>();
+        if (keep != null) pointers.addAll(keep);
+        if (drop != null) pointers.addAll(drop);
+        if (rename != null) {
+            pointers.addAll(rename.keySet());
+            for (String name : rename.values()) {
+                if (name == null || name.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        if (set != null) pointers.addAll(set.keySet());
+
+        for (String pointer : pointers) {
+            if (pointer == null || pointer.isEmpty()) {
+                return false;
+            }
+            try {
+                JsonPointer.compile(pointer);
+            }
+            catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNullOrEmpty(List<String> list) {
+        return list == null || list.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TransformSpec that = (TransformSpec) o;
+
+        if (keep != null ? !keep.equals(that.keep) : that.keep != null) return false;
+        if (drop != null ? !drop.equals(that.drop) : that.drop != null) return false;
+        if (rename != null ? !rename.equals(that.rename) : that.rename != null) return false;
+        return set != null ? set.equals(that.set) : that.set == null;
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result = keep != null ? keep.hashCode() : 0;
+        result = 31 * result + (drop != null ? drop.hashCode() : 0);
+        result = 31 * result + (rename != null ? rename.hashCode() : 0);
+        result = 31 * result + (set != null ? set.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.RateControlStats;
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a Job's records to the capacity its stream actually has left, so a replay can share shards with production
+ * traffic. Records are sent through a rate limiter; once per interval the rate is cut multiplicatively if Kinesis
+ * throttled any record acked in the interval, or if the producer's backlog grew past a couple of seconds of sending,
+ * and is otherwise raised additively, as long as the Job kept up with it. The rate stays between a small floor and
+ * the Job's share of the stream's limits.
+ */
+public class AimdRateController {
+    private static final Logger log = LoggerFactory.getLogger(AimdRateController.class);
+
+    private static final double INITIAL_FRACTION = 0.5;
+    private static final double INCREASE_FRACTION = 0.05;
+    private static final double MIN_FRACTION = 0.05;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double MAX_BACKLOG_SECONDS = 2.0;
+
+    // A Job that sent less than this share of its allowance was limited by its source, not the rate.
+    private static final double SATURATION = 0.9;
+
+    private final RateLimiter rateLimiter;
+    private final RecordSink recordSink;
+    private final RateControlStats stats;
+    private final double maxRate;
+    private final double minRate;
+    private final double increase;
+    private final long intervalNanos;
+    private final Ticker ticker;
+
+    private double rate;
+    private long windowStart;
+    private long sent;
+    private long acked;
+    private long throttled;
+
+    /**
+     *
+     * @param maxRate           the most records per second the Job may send
+     * @param intervalMillis    how often the rate is adjusted
+     * @param recordSink        the sink whose outstanding records show the producer's backlog
+     * @param stats             updated with the rate and the throttling seen
+     */
+    public AimdRateController(double maxRate, long intervalMillis, RecordSink recordSink, RateControlStats stats) {
+        this(maxRate, intervalMillis, recordSink, stats, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker times the adjustment intervals
+     */
+    AimdRateController(double maxRate, long intervalMillis, RecordSink recordSink, RateControlStats stats, Ticker ticker) {
+        this.maxRate = maxRate;
+        this.minRate = Math.max(1, maxRate * MIN_FRACTION);
+        this.increase = Math.max(1, maxRate * INCREASE_FRACTION);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.recordSink = recordSink;
+        this.stats = stats;
+        this.ticker = ticker;
+        this.windowStart = ticker.read();
+        this.rate = Math.max(minRate, maxRate * INITIAL_FRACTION);
+        this.rateLimiter = RateLimiter.create(rate);
+        stats.started(rate, maxRate);
+    }
+
+    /**
+     * Waits until the next record may be sent, blocking the calling thread. Pump calls this on the thread emitting
+     * the record (a reader's or transformer's thread, or a retry timer's io thread), so a throttled Job slows its
+     * reading instead of queueing records; never call it from a computation scheduler thread.
+     */
+    public void acquire() {
+        rateLimiter.acquire();
+        synchronized (this) {
+            sent++;
+            adjustIfDue();
+        }
+    }
+
+    /**
+     * Takes a record's result into account.
+     *
+     * @param result
+     */
+    public synchronized void acked(SinkRecordResult result) {
+        List<String> errorCodes = result.getAttemptErrorCodes();
+        boolean retried = errorCodes.size() > 1;
+        boolean wasThrottled = false;
+        for (String errorCode : errorCodes) {
+            wasThrottled |= isThrottling(errorCode);
+        }
+
+        stats.acked(retried, wasThrottled);
+        acked++;
+        if (wasThrottled) {
+            throttled++;
+        }
+        adjustIfDue();
+    }
+
+    /**
+     *
+     * @return the records per second currently allowed
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void adjustIfDue() {
+        if (ticker.read() - windowStart >= intervalNanos) {
+            adjust();
+        }
+    }
+
+    /**
+     * Adjusts the rate from the feedback of the interval just ended, and starts the next interval.
+     */
+    private void adjust() {
+        double intervalSeconds = Math.max(ticker.read() - windowStart, intervalNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        long outstanding = recordSink.getOutstandingRecordsCount();
+
+        if (throttled > 0 || outstanding > rate * MAX_BACKLOG_SECONDS) {
+            double cut = Math.max(minRate, rate * DECREASE_FACTOR);
+            if (cut < rate) {
+                log.info("Cutting send rate to {}/s ({} of {} records throttled, {} outstanding)",
+                        Math.round(cut), throttled, acked, outstanding);
+                setRate(cut);
+                stats.decreased(cut);
+            }
+        }
+        else if (acked > 0 && sent >= rate * intervalSeconds * SATURATION && rate < maxRate) {
+            double raised = Math.min(maxRate, rate + increase);
+            log.debug("Raising send rate to {}/s", Math.round(raised));
+            setRate(raised);
+            stats.increased(raised);
+        }
+
+        windowStart = ticker.read();
+        sent = 0;
+        acked = 0;
+        throttled = 0;
+    }
+
+    private void setRate(double rate) {
+        this.rate = rate;
+        rateLimiter.setRate(rate);
+    }
+
+    /**
+     * @return whether an attempt's error code means the stream throttled it
+     */
+    static boolean isThrottling(String errorCode) {
+        return errorCode != null && (errorCode.contains("ThroughputExceeded") || errorCode.contains("Throttl"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.CountEstimate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Estimates the number of records in an archive by counting the records of a systematic sample of its files and
+ * extrapolating by file size (a ratio estimator). The sample is evenly spaced over the path-ordered file list, so
+ * it is deterministic and spread over the archive's time range.
+ */
+public class ArchiveCountEstimator {
+    private static final double Z_95 = 1.96;
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private ArchiveCountEstimator() {}
+
+    /**
+     *
+     * @param root          archive file or directory
+     * @param sampleFiles   maximum number of files to count
+     * @return CountEstimate
+     * @throws IOException
+     */
+    public static CountEstimate estimate(File root, int sampleFiles) throws IOException {
+        List<File> files = ArchiveFiles.list(root);
+        int totalFiles = files.size();
+        if (totalFiles == 0) {
+            return new CountEstimate(0, 0, 0, 0, 0);
+        }
+
+        int n = Math.max(1, Math.min(sampleFiles, totalFiles));
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+
+        long[] sizes = new long[n];
+        long[] records = new long[n];
+        long sampledBytes = 0;
+        long sampledRecords = 0;
+        for (int i = 0; i < n; i++) {
+            File file = files.get((int) ((long) i * totalFiles / n));
+            sizes[i] = file.length();
+            records[i] = countRecords(file);
+            sampledBytes += sizes[i];
+            sampledRecords += records[i];
+        }
+
+        if (n == totalFiles) {
+            return new CountEstimate(sampledRecords, 0, n, totalFiles, sampledRecords);
+        }
+
+        // Sampled files may all be empty while others aren't; fall back to a per-file mean.
+        double ratio = sampledBytes > 0 ? (double) sampledRecords / sampledBytes : 0;
+        double estimate = sampledBytes > 0 ? ratio * totalBytes : (double) sampledRecords / n * totalFiles;
+
+        double residualSquares = 0;
+        for (int i = 0; i < n; i++) {
+            double residual = sampledBytes > 0 ? records[i] - ratio * sizes[i] : records[i] - (double) sampledRecords / n;
+            residualSquares += residual * residual;
+        }
+        double variance = n > 1 ? residualSquares / (n - 1) : estimate * estimate / totalFiles;
+        double finitePopulationCorrection = 1 - (double) n / totalFiles;
+        double standardError = totalFiles * Math.sqrt(finitePopulationCorrection * variance / n);
+
+        return new CountEstimate(Math.round(estimate), (long) Math.ceil(Z_95 * standardError), n, totalFiles, sampledRecords);
+    }
+
+    /**
+     *
+     * @param file an archive file
+     * @return number of non-empty lines in the file
+     * @throws IOException
+     */
+    static long countRecords(File file) throws IOException {
+        MappedByteBuffer mapped = ArchiveFiles.map(file);
+        InputStream in = new ByteBufferInputStream(mapped);
+        if (ArchiveFiles.isGzip(mapped)) {
+            in = new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+        }
+
+        try {
+            byte[] buffer = new byte[INFLATE_BUFFER_SIZE];
+            long count = 0;
+            boolean lineHasContent = false;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (lineHasContent) {
+                            count++;
+                        }
+                        lineHasContent = false;
+                    }
+                    else if (b != '\r') {
+                        lineHasContent = true;
+                    }
+                }
+            }
+            return lineHasContent ? count + 1 : count;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the raw records of a single archive file: newline-delimited JSON, optionally gzipped. The file is
+ * memory-mapped; gzipped files are inflated straight from the mapping.
+ *
+ * Archive files don't store partition keys, so the partition key is taken from a top-level field of each record,
+ * falling back to the record's position in the archive.
+ */
+public class ArchiveFileRecordReader implements RecordReader {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String[] ROW_COLUMNS = {"file", "line"};
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private final String relativePath;
+    private final String partitionKeyField;
+    private final MappedByteBuffer mapped;
+    private final InputStream inflated;
+    private final PayloadBufferPool payloadBufferPool;
+
+    private byte[] lineBuffer = new byte[4096];
+    private long lineNumber = 0;
+
+    /**
+     *
+     * @param root              the archive root, used to name records' positions
+     * @param file              the archive file to read
+     * @param partitionKeyField top-level JSON field holding the partition key
+     * @throws IOException
+     */
+    public ArchiveFileRecordReader(File root, File file, String partitionKeyField) throws IOException {
+        this(root, file, partitionKeyField, PayloadBufferPool.unpooled());
+    }
+
+    /**
+     *
+     * @param root              the archive root, used to name records' positions
+     * @param file              the archive file to read
+     * @param partitionKeyField top-level JSON field holding the partition key
+     * @param payloadBufferPool provides the records' payload buffers
+     * @throws IOException
+     */
+    public ArchiveFileRecordReader(File root, File file, String partitionKeyField, PayloadBufferPool payloadBufferPool) throws IOException {
+        this.payloadBufferPool = payloadBufferPool;
+        this.relativePath = ArchiveFiles.relativePath(root, file);
+        this.partitionKeyField = partitionKeyField;
+        this.mapped = ArchiveFiles.map(file);
+        this.inflated = ArchiveFiles.isGzip(mapped) ?
+                new BufferedInputStream(new GZIPInputStream(new ByteBufferInputStream(mapped), INFLATE_BUFFER_SIZE), INFLATE_BUFFER_SIZE) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws IOException {
+        int length;
+        do {
+            length = inflated != null ? readInflatedLine() : readMappedLine();
+            if (length < 0) {
+                return null;
+            }
+            lineNumber++;
+        } while (length == 0);
+
+        ByteBuffer data = payloadBufferPool.acquire(length);
+        data.put(lineBuffer, 0, length).flip();
+        String position = relativePath + ":" + lineNumber;
+
+        Record record = new Record();
+        String partitionKey = extractPartitionKey(lineBuffer, length);
+        record.withPartitionKey(partitionKey != null ? partitionKey : position);
+        record.withData(data);
+
+        return new PumpRecord(record, new DrillResultRow(ROW_COLUMNS, new String[]{relativePath, String.valueOf(lineNumber)}));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (inflated != null) {
+            inflated.close();
+        }
+    }
+
+    /**
+     * @return length of the next line (without line terminator) copied into lineBuffer, or -1 at end of file
+     */
+    private int readMappedLine() {
+        if (!mapped.hasRemaining()) {
+            return -1;
+        }
+
+        int start = mapped.position();
+        int end = start;
+        while (end < mapped.limit() && mapped.get(end) != '\n') {
+            end++;
+        }
+        mapped.position(end < mapped.limit() ? end + 1 : end);
+
+        int length = trimCarriageReturn(mapped, start, end) - start;
+        ensureLineCapacity(length);
+        ByteBuffer line = mapped.duplicate();
+        line.limit(start + length).position(start);
+        line.get(lineBuffer, 0, length);
+        return length;
+    }
+
+    /**
+     * @return length of the next line (without line terminator) copied into lineBuffer, or -1 at end of file
+     */
+    private int readInflatedLine() throws IOException {
+        int length = 0;
+        int b = inflated.read();
+        if (b < 0) {
+            return -1;
+        }
+
+        while (b >= 0 && b != '\n') {
+            ensureLineCapacity(length + 1);
+            lineBuffer[length++] = (byte) b;
+            b = inflated.read();
+        }
+
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    private void ensureLineCapacity(int capacity) {
+        if (capacity > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(capacity, lineBuffer.length * 2));
+        }
+    }
+
+    private static int trimCarriageReturn(ByteBuffer buffer, int start, int end) {
+        return end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * @return the value of the partition key field if the record is a JSON object holding it as a scalar, else null
+     */
+    private String extractPartitionKey(byte[] data, int length) {
+        return partitionKeyField != null ? extractField(data, length, partitionKeyField) : null;
+    }
+
+    /**
+     * @param data      a record
+     * @param length    the record's length in data
+     * @param field     a top-level field name
+     * @return the value of the field if the record is a JSON object holding it as a scalar, else null
+     */
+    static String extractField(byte[] data, int length, String field) {
+        try {
+            JsonParser parser = JSON_FACTORY.createParser(data, 0, length);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (field.equals(fieldName)) {
+                        return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                    }
+                    parser.skipChildren();
+                }
+                return null;
+            }
+            finally {
+                parser.close();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+}
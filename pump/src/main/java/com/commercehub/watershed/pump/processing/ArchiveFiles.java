@@ -0,0 +1,156 @@
+package com.commercehub.watershed.pump.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers for Firehose-layout archives: a directory tree (YYYY/MM/DD/HH/...) of record files.
+ */
+public class ArchiveFiles {
+    private ArchiveFiles() {}
+
+    /**
+     * Lists the archive files under a path in path order, which for Firehose layout is also arrival order.
+     * Hidden files and files starting with an underscore are skipped.
+     *
+     * @param root an archive file or directory
+     * @return archive files
+     * @throws IOException if the path doesn't exist
+     */
+    public static List<File> list(File root) throws IOException {
+        if (!root.exists()) {
+            throw new IOException("Archive path " + root + " does not exist.");
+        }
+
+        List<File> files = new ArrayList<>();
+        collect(root, files);
+        return files;
+    }
+
+    /**
+     * Lists the distinct directories of an archive's files down to a depth, without listing the files below it.
+     *
+     * @param root  an archive file or directory
+     * @param depth the number of directory levels to list
+     * @return the names of each distinct directory path under root, in path order; shorter than depth for files
+     * nearer the root
+     * @throws IOException if the path doesn't exist
+     */
+    public static List<List<String>> directories(File root, int depth) throws IOException {
+        if (!root.exists()) {
+            throw new IOException("Archive path " + root + " does not exist.");
+        }
+
+        List<List<String>> directories = new ArrayList<>();
+        if (root.isDirectory()) {
+            collectDirectories(root, new ArrayList<String>(), depth, directories);
+        }
+        else {
+            directories.add(new ArrayList<String>());
+        }
+        return directories;
+    }
+
+    /**
+     * Maps a file into memory, read-only.
+     *
+     * @param file
+     * @return the mapped file contents
+     * @throws IOException
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive file " + file + " is too large to map (" + channel.size() + " bytes).");
+            }
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     *
+     * @param contents
+     * @return whether the contents start with the gzip magic number
+     */
+    public static boolean isGzip(ByteBuffer contents) {
+        return contents.limit() >= 2 && (contents.get(0) & 0xff) == 0x1f && (contents.get(1) & 0xff) == 0x8b;
+    }
+
+    /**
+     *
+     * @param root
+     * @param file a file under root
+     * @return the path of file relative to root, using '/' as separator
+     */
+    public static String relativePath(File root, File file) {
+        String rootPath = root.getAbsolutePath();
+        String filePath = file.getAbsolutePath();
+        if (filePath.equals(rootPath)) {
+            return file.getName();
+        }
+        return filePath.substring(rootPath.length() + 1).replace(File.separatorChar, '/');
+    }
+
+    private static void collectDirectories(File directory, List<String> names, int depth, List<List<String>> directories) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+
+        boolean hasFiles = false;
+        for (File child : children) {
+            if (child.getName().startsWith(".") || child.getName().startsWith("_")) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                List<String> childNames = new ArrayList<>(names);
+                childNames.add(child.getName());
+                if (childNames.size() < depth) {
+                    collectDirectories(child, childNames, depth, directories);
+                }
+                else {
+                    directories.add(childNames);
+                }
+            }
+            else if (child.isFile()) {
+                hasFiles = true;
+            }
+        }
+        if (hasFiles) {
+            directories.add(names);
+        }
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.getName().startsWith(".") || file.getName().startsWith("_")) {
+            return;
+        }
+
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        }
+        else if (file.isFile()) {
+            files.add(file);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.ArchiveFileSummary;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A sidecar index over the files of an archive directory, recording each file's size, record count and range of
+ * event timestamps, so a replay bounded in time only reads the files that can hold records in its range.
+ *
+ * The index is kept as JSON in the archive root, or in an index directory if one is configured or the archive root
+ * isn't writable. In the archive root its name starts with an underscore, so neither Pump nor Drill read it as an
+ * archive file. Updating the index only reads files that are new or changed since they were indexed.
+ */
+public class ArchiveTimeIndex {
+    private static final Logger log = LoggerFactory.getLogger(ArchiveTimeIndex.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    public static final String INDEX_FILE_NAME = "_pump_time_index.json";
+
+    private final File root;
+    private final String timestampField;
+    private final File indexDirectory;
+
+    /**
+     *
+     * @param root              the archive directory, which holds the index
+     * @param timestampField    top-level JSON field holding each record's event timestamp, as epoch millis or ISO-8601
+     */
+    public ArchiveTimeIndex(File root, String timestampField) {
+        this(root, timestampField, null);
+    }
+
+    /**
+     *
+     * @param root              the archive directory
+     * @param timestampField    top-level JSON field holding each record's event timestamp, as epoch millis or ISO-8601
+     * @param indexDirectory    where the index is kept, named after the archive directory; null for the archive root
+     */
+    public ArchiveTimeIndex(File root, String timestampField, File indexDirectory) {
+        this.root = root;
+        this.timestampField = timestampField;
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * Brings the index up to date with the archive: new and changed files are read, deleted files are dropped. The
+     * index is rewritten atomically if anything changed.
+     *
+     * @return a summary of every archive file, in path order
+     * @throws IOException
+     */
+    public List<ArchiveFileSummary> update() throws IOException {
+        if (!root.isDirectory()) {
+            throw new IOException("Archive time index needs an archive directory, not " + root);
+        }
+
+        File indexFile = indexFile();
+        Map<String, ArchiveFileSummary> indexed = load(indexFile);
+
+        List<File> files = ArchiveFiles.list(root);
+        List<ArchiveFileSummary> summaries = new ArrayList<>(files.size());
+        int scanned = 0;
+        for (File file : files) {
+            String path = ArchiveFiles.relativePath(root, file);
+            ArchiveFileSummary summary = indexed.get(path);
+            if (summary == null || summary.getSize() != file.length() || summary.getLastModified() != file.lastModified()) {
+                summary = summarize(file, path);
+                scanned++;
+            }
+            summaries.add(summary);
+        }
+
+        if (scanned > 0 || summaries.size() != indexed.size()) {
+            store(indexFile, summaries);
+        }
+        log.info("Archive time index of {} covers {} files, {} read", root, summaries.size(), scanned);
+        return summaries;
+    }
+
+    /**
+     * Updates the index and selects the files that may hold records in a time range.
+     *
+     * @param start inclusive, or null for no lower bound
+     * @param end   exclusive, or null for no upper bound
+     * @return the selected files, in path order
+     * @throws IOException
+     */
+    public List<ArchiveFileSummary> select(DateTime start, DateTime end) throws IOException {
+        return select(update(), start, end);
+    }
+
+    /**
+     * @return the index file: in the index directory if there is one, else in the archive root if it's writable, else
+     * in the temporary directory
+     */
+    File indexFile() {
+        File directory = indexDirectory;
+        if (directory == null) {
+            if (Files.isWritable(root.toPath())) {
+                return new File(root, INDEX_FILE_NAME);
+            }
+            log.warn("Archive {} isn't writable, keeping its time index in the temporary directory", root);
+            directory = new File(System.getProperty("java.io.tmpdir"));
+        }
+        // Archives sharing an index directory each get their own index.
+        String archiveHash = Hashing.sha1().hashString(root.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+        return new File(directory, INDEX_FILE_NAME.replace(".json", "-" + archiveHash + ".json"));
+    }
+
+    /**
+     *
+     * @param summary a file of this index
+     * @return the archive file
+     */
+    public File fileOf(ArchiveFileSummary summary) {
+        return new File(root, summary.getPath());
+    }
+
+    /**
+     *
+     * @param summaries
+     * @param start     inclusive, or null for no lower bound
+     * @param end       exclusive, or null for no upper bound
+     * @return the summaries of files that may hold records in the range
+     */
+    public static List<ArchiveFileSummary> select(List<ArchiveFileSummary> summaries, DateTime start, DateTime end) {
+        long startMillis = start != null ? start.getMillis() : Long.MIN_VALUE;
+        long endMillis = end != null ? end.getMillis() : Long.MAX_VALUE;
+
+        List<ArchiveFileSummary> selected = new ArrayList<>();
+        for (ArchiveFileSummary summary : summaries) {
+            if (summary.overlaps(startMillis, endMillis)) {
+                selected.add(summary);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Builds a Drill predicate on the directory columns (dir0, dir1, ...) matching exactly the directories that hold
+     * the given files. Files in the archive root match rows whose dir0 is null.
+     *
+     * @param summaries
+     * @return SQL predicate; never true if there are no files
+     */
+    public static String directoryPredicate(List<ArchiveFileSummary> summaries) {
+        Set<String> directories = new LinkedHashSet<>();
+        for (ArchiveFileSummary summary : summaries) {
+            int slash = summary.getPath().lastIndexOf('/');
+            directories.add(slash < 0 ? "" : summary.getPath().substring(0, slash));
+        }
+        if (directories.isEmpty()) {
+            return "1 = 0";
+        }
+
+        StringBuilder where = new StringBuilder();
+        for (String directory : directories) {
+            if (where.length() > 0) {
+                where.append(" OR ");
+            }
+            where.append("(");
+            String[] names = directory.isEmpty() ? new String[0] : directory.split("/");
+            for (int i = 0; i < names.length; i++) {
+                where.append(QueryPartitioner.quoteIdentifier("dir" + i)).append(" = ").append(QueryPartitioner.quoteLiteral(names[i])).append(" AND ");
+            }
+            // Excludes files in subdirectories of this directory.
+            where.append(QueryPartitioner.quoteIdentifier("dir" + names.length)).append(" IS NULL)");
+        }
+        return where.toString();
+    }
+
+    /**
+     *
+     * @param summaries
+     * @return the number of directory columns (dir0, dir1, ...) the files' {@link #directoryPredicate} refers to
+     */
+    public static int directoryColumnCount(List<ArchiveFileSummary> summaries) {
+        int count = 0;
+        for (ArchiveFileSummary summary : summaries) {
+            String path = summary.getPath();
+            int depth = 0;
+            for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+                depth++;
+            }
+            count = Math.max(count, depth + 1);
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @param value a timestamp field value
+     * @return epoch millis, or null if the value isn't a timestamp
+     */
+    static Long parseTimestamp(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            // Not epoch millis
+        }
+        try {
+            return ISO_PARSER.parseMillis(value);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private ArchiveFileSummary summarize(File file, String path) throws IOException {
+        ArchiveFileSummary summary = new ArchiveFileSummary();
+        summary.setPath(path);
+        // Taken before reading, so a file appended to while it's read is read again next time.
+        summary.setSize(file.length());
+        summary.setLastModified(file.lastModified());
+
+        long recordCount = 0;
+        Long min = null;
+        Long max = null;
+        ArchiveFileRecordReader reader = new ArchiveFileRecordReader(root, file, null);
+        try {
+            PumpRecord record;
+            while ((record = reader.read()) != null) {
+                recordCount++;
+                byte[] data = PayloadBufferPool.toArray(record.getKinesisRecord().getData());
+                Long timestamp = parseTimestamp(ArchiveFileRecordReader.extractField(data, data.length, timestampField));
+                if (timestamp != null) {
+                    min = min == null ? timestamp : Math.min(min, timestamp);
+                    max = max == null ? timestamp : Math.max(max, timestamp);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        summary.setRecordCount(recordCount);
+        summary.setMinTimestamp(min);
+        summary.setMaxTimestamp(max);
+        return summary;
+    }
+
+    /**
+     * @return the indexed files by path; empty if there's no index, or it was built for another timestamp field
+     */
+    private Map<String, ArchiveFileSummary> load(File indexFile) {
+        Map<String, ArchiveFileSummary> indexed = new HashMap<>();
+        if (!indexFile.isFile()) {
+            return indexed;
+        }
+
+        try {
+            Contents contents = OBJECT_MAPPER.readValue(indexFile, Contents.class);
+            if (timestampField.equals(contents.timestampField) && contents.files != null) {
+                for (ArchiveFileSummary summary : contents.files) {
+                    indexed.put(summary.getPath(), summary);
+                }
+            }
+            else {
+                log.info("Archive time index of {} was built for field {}, rebuilding", root, contents.timestampField);
+            }
+        }
+        catch (IOException e) {
+            log.warn("Failed to read archive time index " + indexFile + ", rebuilding", e);
+        }
+        return indexed;
+    }
+
+    private void store(File indexFile, List<ArchiveFileSummary> summaries) throws IOException {
+        Contents contents = new Contents();
+        contents.timestampField = timestampField;
+        contents.files = summaries;
+
+        indexFile.getParentFile().mkdirs();
+        File temp = File.createTempFile("_pump_time_index", ".tmp", indexFile.getParentFile());
+        try {
+            OBJECT_MAPPER.writeValue(temp, contents);
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * The index file's JSON.
+     */
+    static class Contents {
+        public String timestampField;
+        public List<ArchiveFileSummary> files;
+    }
+}
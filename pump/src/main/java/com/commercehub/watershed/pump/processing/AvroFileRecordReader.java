@@ -0,0 +1,87 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the records of a single Avro container file, emitting each in single-object encoding. The file is
+ * memory-mapped; its schema is registered with the Job's schema cache so the records can be decoded downstream.
+ *
+ * The partition key is taken from a top-level field of each record, falling back to the record's position in the
+ * archive.
+ */
+public class AvroFileRecordReader implements RecordReader {
+    private static final String[] ROW_COLUMNS = {"file", "record"};
+
+    private final String relativePath;
+    private final String partitionKeyField;
+    private final AvroSchemaCache schemaCache;
+    private final PayloadBufferPool payloadBufferPool;
+    private final DataFileStream<GenericRecord> records;
+
+    private GenericRecord reuse;
+    private int lastRecordSize = 256;
+    private long recordNumber = 0;
+
+    /**
+     *
+     * @param root              the archive root, used to name records' positions
+     * @param file              the Avro container file to read
+     * @param partitionKeyField top-level record field holding the partition key
+     * @param schemaCache       the Job's schema cache
+     * @param payloadBufferPool provides the records' payload buffers
+     * @throws IOException
+     */
+    public AvroFileRecordReader(File root, File file, String partitionKeyField, AvroSchemaCache schemaCache, PayloadBufferPool payloadBufferPool) throws IOException {
+        this.relativePath = ArchiveFiles.relativePath(root, file);
+        this.schemaCache = schemaCache;
+        this.payloadBufferPool = payloadBufferPool;
+        this.records = new DataFileStream<>(new ByteBufferInputStream(ArchiveFiles.map(file)), new GenericDatumReader<GenericRecord>());
+
+        Schema schema = records.getSchema();
+        schemaCache.register(schema);
+        this.partitionKeyField = partitionKeyField != null && schema.getType() == Schema.Type.RECORD && schema.getField(partitionKeyField) != null ?
+                partitionKeyField : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws IOException {
+        if (!records.hasNext()) {
+            return null;
+        }
+        reuse = records.next(reuse);
+        recordNumber++;
+
+        PayloadBufferPool.BufferOutputStream output = payloadBufferPool.newOutputStream(lastRecordSize);
+        schemaCache.encode(reuse, output);
+        ByteBuffer data = output.toBuffer();
+        lastRecordSize = data.remaining();
+
+        Object partitionKey = partitionKeyField != null ? reuse.get(partitionKeyField) : null;
+        Record record = new Record();
+        record.withPartitionKey(partitionKey != null ? partitionKey.toString() : relativePath + ":" + recordNumber);
+        record.withData(data);
+
+        return new PumpRecord(record, new DrillResultRow(ROW_COLUMNS, new String[]{relativePath, String.valueOf(recordNumber)}));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+}
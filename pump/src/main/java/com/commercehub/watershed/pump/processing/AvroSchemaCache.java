@@ -0,0 +1,201 @@
+package com.commercehub.watershed.pump.processing;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.codehaus.jackson.node.BooleanNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Avro schemas a Job has seen, by fingerprint, along with the datum readers and writers built for them.
+ * Encodes and decodes records in Avro single-object encoding: 0xC3 0x01, the schema's 64-bit Rabin fingerprint
+ * (little-endian), then the binary datum. Safe for concurrent use.
+ */
+public class AvroSchemaCache {
+    private static final byte MAGIC_0 = (byte) 0xC3;
+    private static final byte MAGIC_1 = (byte) 0x01;
+    private static final int HEADER_LENGTH = 10;
+    private static final String REPLAY = "replay";
+    private static final String OVERWRITE = "overwrite";
+
+    private final ConcurrentMap<Long, Schema> schemas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Schema, Long> fingerprints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Schema> parsed = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Schema, Schema> withReplayFlags = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<Object>, GenericDatumReader<GenericRecord>> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Schema, GenericDatumWriter<GenericRecord>> writers = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param schemaJson
+     * @return the parsed schema, registered
+     */
+    public Schema parse(String schemaJson) {
+        Schema schema = parsed.get(schemaJson);
+        if (schema == null) {
+            schema = new Schema.Parser().parse(schemaJson);
+            register(schema);
+            parsed.putIfAbsent(schemaJson, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Makes a schema available for decoding records written with it.
+     *
+     * @param schema
+     * @return the schema's fingerprint
+     */
+    public long register(Schema schema) {
+        Long fingerprint = fingerprints.get(schema);
+        if (fingerprint == null) {
+            fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+            schemas.putIfAbsent(fingerprint, schema);
+            fingerprints.putIfAbsent(schema, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     *
+     * @param bytes a single-object encoded record
+     * @return the schema the record was written with
+     * @throws IllegalArgumentException if the record isn't single-object encoded or its schema isn't registered
+     */
+    public Schema writerSchema(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+            throw new IllegalArgumentException("Record is not in Avro single-object encoding.");
+        }
+        long fingerprint = ByteBuffer.wrap(bytes, 2, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        Schema schema = schemas.get(fingerprint);
+        if (schema == null) {
+            throw new IllegalArgumentException("No Avro schema registered with fingerprint " + Long.toHexString(fingerprint) + ".");
+        }
+        return schema;
+    }
+
+    /**
+     *
+     * @param bytes         a single-object encoded record
+     * @param readerSchema  the schema to resolve the record into, or null for the schema it was written with
+     * @return the decoded record
+     * @throws IOException
+     */
+    public GenericRecord decode(byte[] bytes, Schema readerSchema) throws IOException {
+        Schema writerSchema = writerSchema(bytes);
+        Schema targetSchema = readerSchema != null ? readerSchema : writerSchema;
+
+        List<Object> key = Arrays.<Object>asList(writerSchema, targetSchema);
+        GenericDatumReader<GenericRecord> reader = readers.get(key);
+        if (reader == null) {
+            reader = new GenericDatumReader<>(writerSchema, targetSchema);
+            readers.putIfAbsent(key, reader);
+        }
+        return reader.read(null, DecoderFactory.get().binaryDecoder(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, null));
+    }
+
+    /**
+     * Writes a record in single-object encoding, registering its schema.
+     *
+     * @param record
+     * @param output
+     * @throws IOException
+     */
+    public void encode(GenericRecord record, OutputStream output) throws IOException {
+        Schema schema = record.getSchema();
+        long fingerprint = register(schema);
+
+        output.write(MAGIC_0);
+        output.write(MAGIC_1);
+        output.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(fingerprint).array());
+
+        GenericDatumWriter<GenericRecord> writer = writers.get(schema);
+        if (writer == null) {
+            writer = new GenericDatumWriter<>(schema);
+            writers.putIfAbsent(schema, writer);
+        }
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(output, null);
+        writer.write(record, encoder);
+        encoder.flush();
+    }
+
+    /**
+     *
+     * @param record
+     * @return the record in single-object encoding
+     * @throws IOException
+     */
+    public byte[] encode(GenericRecord record) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        encode(record, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Adds boolean replay and overwrite fields (defaulting to false) to a record schema that lacks them, so the
+     * replay flags are part of the record itself.
+     *
+     * @param schema a record schema
+     * @return the schema with replay flags, registered
+     * @throws IllegalArgumentException if the schema isn't a record, or has a non-boolean replay or overwrite field
+     */
+    public Schema withReplayFlags(Schema schema) {
+        Schema flagged = withReplayFlags.get(schema);
+        if (flagged != null) {
+            return flagged;
+        }
+
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Replay flags can only be added to Avro records, not " + schema.getType() + ".");
+        }
+        boolean hasReplay = hasBooleanField(schema, REPLAY);
+        boolean hasOverwrite = hasBooleanField(schema, OVERWRITE);
+        if (hasReplay && hasOverwrite) {
+            flagged = schema;
+        }
+        else {
+            List<Schema.Field> fields = new ArrayList<>();
+            for (Schema.Field field : schema.getFields()) {
+                fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue(), field.order()));
+            }
+            if (!hasReplay) {
+                fields.add(new Schema.Field(REPLAY, Schema.create(Schema.Type.BOOLEAN), "Set when the record is replayed.", BooleanNode.FALSE));
+            }
+            if (!hasOverwrite) {
+                fields.add(new Schema.Field(OVERWRITE, Schema.create(Schema.Type.BOOLEAN), "Set when a replayed record may overwrite existing data.", BooleanNode.FALSE));
+            }
+            flagged = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+            flagged.setFields(fields);
+        }
+
+        register(flagged);
+        withReplayFlags.putIfAbsent(schema, flagged);
+        return flagged;
+    }
+
+    private static boolean hasBooleanField(Schema schema, String name) {
+        Schema.Field field = schema.getField(name);
+        if (field == null) {
+            return false;
+        }
+        if (field.schema().getType() != Schema.Type.BOOLEAN) {
+            throw new IllegalArgumentException("Avro field " + name + " of " + schema.getFullName() + " must be a boolean to hold replay flags.");
+        }
+        return true;
+    }
+}
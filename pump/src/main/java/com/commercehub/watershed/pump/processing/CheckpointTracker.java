@@ -0,0 +1,145 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.Checkpoint;
+import org.joda.time.DateTime;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks which records of a Job have been acked, to find the point it can be resumed from. Acks arrive out of
+ * order, so each partition keeps a watermark below which every record is acked, plus the acks above it. Only the
+ * records in flight are held above a watermark, so memory stays small however long the Job runs.
+ *
+ * A failed record counts as acked: it is reported as a failure, as it would be without a resume.
+ *
+ * Offsets are positions in read order, so a resume is only exact if each partition reads its records in the same
+ * order every time. Archive files and dead-letter spools do; a query does only if it orders its rows completely
+ * (ORDER BY a unique key). Pump warns when resuming a query without an ORDER BY, but can't check that it's complete.
+ */
+public class CheckpointTracker {
+    private final Checkpoint resumeFrom;
+    private final Map<String, PartitionProgress> partitions = new HashMap<>();
+    private long ackedRecordCount = 0;
+
+    /**
+     *
+     * @param resumeFrom the checkpoint the Job resumes from; empty to start from the beginning
+     */
+    public CheckpointTracker(Checkpoint resumeFrom) {
+        this.resumeFrom = resumeFrom;
+    }
+
+    /**
+     *
+     * @param partition
+     * @return the number of the partition's leading records to skip, as they were acked before the Job resumed
+     */
+    public long resumeOffset(String partition) {
+        return resumeFrom.watermark(partition);
+    }
+
+    /**
+     *
+     * @param partition
+     * @return whether the partition needn't be read at all, as it was completed before the Job resumed
+     */
+    public boolean isCompleted(String partition) {
+        return resumeFrom.isCompleted(partition);
+    }
+
+    /**
+     * A record was acked by Kinesis, successfully or not.
+     *
+     * @param partition the record's partition, or null for records without a position
+     * @param offset    the record's position in its partition
+     */
+    public synchronized void acked(String partition, long offset) {
+        if (partition == null) {
+            return;
+        }
+        ackedRecordCount++;
+        progress(partition).acked(offset);
+    }
+
+    /**
+     * A partition was read to the end.
+     *
+     * @param partition
+     * @param recordCount the number of records in the partition, including skipped ones
+     */
+    public synchronized void finished(String partition, long recordCount) {
+        progress(partition).recordCount = recordCount;
+    }
+
+    /**
+     *
+     * @return the point the Job can be resumed from now; jobId and pumpSettings are left for the caller to fill
+     */
+    public synchronized Checkpoint checkpoint() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setWatermarks(new TreeMap<>(resumeFrom.getWatermarks()));
+        checkpoint.setCompletedPartitions(new TreeSet<>(resumeFrom.getCompletedPartitions()));
+        checkpoint.setAckedRecordCount(resumeFrom.getAckedRecordCount() + ackedRecordCount);
+        checkpoint.setUpdateTime(DateTime.now());
+
+        for (Map.Entry<String, PartitionProgress> entry : partitions.entrySet()) {
+            PartitionProgress progress = entry.getValue();
+            // A watermark of 0 is where a partition starts anyway.
+            if (progress.watermark > 0) {
+                checkpoint.getWatermarks().put(entry.getKey(), progress.watermark);
+            }
+            if (progress.recordCount != null && progress.watermark >= progress.recordCount) {
+                checkpoint.getCompletedPartitions().add(entry.getKey());
+            }
+        }
+        return checkpoint;
+    }
+
+    private PartitionProgress progress(String partition) {
+        PartitionProgress progress = partitions.get(partition);
+        if (progress == null) {
+            progress = new PartitionProgress(resumeFrom.watermark(partition));
+            partitions.put(partition, progress);
+        }
+        return progress;
+    }
+
+    /**
+     * The acks of one partition. Bit i of aboveWatermark is the ack of offset bitsBase + i; bits below the watermark
+     * are dropped once they make up most of the set, so the copy is paid for by the acks that passed them.
+     */
+    private static class PartitionProgress {
+        private static final int MIN_DROPPED_BITS = 1024;
+
+        long watermark;
+        long bitsBase;
+        BitSet aboveWatermark = new BitSet();
+        Long recordCount;
+
+        PartitionProgress(long watermark) {
+            this.watermark = watermark;
+            this.bitsBase = watermark;
+        }
+
+        void acked(long offset) {
+            if (offset < watermark) {
+                return;
+            }
+            aboveWatermark.set((int) (offset - bitsBase));
+            if (offset != watermark) {
+                return;
+            }
+
+            int passed = aboveWatermark.nextClearBit((int) (watermark - bitsBase));
+            watermark = bitsBase + passed;
+            if (passed >= MIN_DROPPED_BITS && passed >= aboveWatermark.length() / 2) {
+                aboveWatermark = aboveWatermark.get(passed, Math.max(passed, aboveWatermark.length()));
+                bitsBase = watermark;
+            }
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.commercehub.watershed.pump.model.CompactionStats;
+import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the latest record for each partition key, for compacted replays. Records are copied into off-heap chunks
+ * and found through an open-addressing table of their addresses, also off-heap; only the column names of rows stay
+ * on the heap. When the chunks and table outgrow the memory budget, the live records are sorted by key and spilled
+ * to a segment file, and the index starts over in the same memory. Survivors are read back by merging the segments,
+ * the newest segment winning each key.
+ *
+ * Records must be put from one thread at a time. The index may be closed from any thread, e.g. on cancellation;
+ * indexing or reading then stops.
+ */
+public class CompactionIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(CompactionIndex.class);
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    private static final int INITIAL_SLOTS = 1 << 12;
+
+    // Entry layout: length, key hash, key length, key, data length, data, column set (-1 for no row), values.
+    private static final int HASH_OFFSET = 4;
+    private static final int KEY_OFFSET = 12;
+
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final PayloadBufferPool payloadBufferPool;
+    private final CompactionStats stats;
+
+    private final List<String[]> columnSets = new ArrayList<>();
+    private final Map<String[], Integer> columnSetIds = new IdentityHashMap<>();
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final List<File> segments = new ArrayList<>();
+    private final EntryBuffer entry = new EntryBuffer();
+    private final DataOutputStream entryOutput = new DataOutputStream(entry);
+
+    private int currentChunk = -1;
+    private long chunkBytes = 0;
+    private LongBuffer slots;
+    private int liveKeys = 0;
+    private MergeReader mergeReader;
+    private boolean closed = false;
+
+    /**
+     *
+     * @param memoryBudget      off-heap bytes the index may take before spilling
+     * @param spillDirectory    where segments are spilled, or null for the temporary directory
+     * @param payloadBufferPool provides the payload buffers of surviving records
+     * @param stats             updated as records are indexed, spilled and emitted
+     */
+    public CompactionIndex(long memoryBudget, File spillDirectory, PayloadBufferPool payloadBufferPool, CompactionStats stats) {
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.payloadBufferPool = payloadBufferPool;
+        this.stats = stats;
+        this.slots = allocateSlots(INITIAL_SLOTS);
+        stats.addIndexBytes(INITIAL_SLOTS * 8L);
+    }
+
+    /**
+     * Indexes a record, replacing any earlier record with its partition key. The record's payload is copied, so
+     * the caller may release it.
+     *
+     * @param pumpRecord
+     * @throws IOException if the index has to spill and can't
+     */
+    public synchronized void put(PumpRecord pumpRecord) throws IOException {
+        if (closed) {
+            throw new IOException("Compaction index is closed.");
+        }
+        Record kinesisRecord = pumpRecord.getKinesisRecord();
+        String partitionKey = kinesisRecord.getPartitionKey();
+        byte[] key = (partitionKey != null ? partitionKey : "").getBytes(StandardCharsets.UTF_8);
+        int hash = mix(Arrays.hashCode(key));
+
+        entry.reset();
+        entryOutput.writeInt(0);
+        entryOutput.writeInt(hash);
+        entryOutput.writeInt(key.length);
+        entryOutput.write(key);
+        ByteBuffer data = kinesisRecord.getData();
+        entryOutput.writeInt(data.remaining());
+        if (data.hasArray()) {
+            entryOutput.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        else {
+            entryOutput.write(PayloadBufferPool.toArray(data));
+        }
+        writeRow(pumpRecord.getDrillResultRow());
+        entry.setLength();
+
+        long address = append();
+        stats.indexed(insert(address, hash, key));
+    }
+
+    /**
+     * Reads the surviving records, one per key. Ends the indexing; closing the reader closes the index.
+     *
+     * @return a reader of the latest record for each key
+     * @throws IOException if the remaining records can't be spilled
+     */
+    public synchronized RecordReader survivors() throws IOException {
+        if (closed) {
+            throw new IOException("Compaction index is closed.");
+        }
+        if (segments.isEmpty()) {
+            return new MemoryReader();
+        }
+        if (liveKeys > 0) {
+            spill();
+        }
+        releaseMemory();
+        mergeReader = new MergeReader();
+        return mergeReader;
+    }
+
+    /**
+     * Frees the index's memory and deletes its segments.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (mergeReader != null) {
+            mergeReader.closeCursors();
+        }
+        releaseMemory();
+        for (File segment : segments) {
+            if (!segment.delete() && segment.exists()) {
+                log.warn("Failed to delete compaction segment {}", segment);
+            }
+        }
+    }
+
+    private void writeRow(DrillResultRow row) throws IOException {
+        if (row == null) {
+            entryOutput.writeInt(-1);
+            return;
+        }
+        String[] columnNames = row.columnNames();
+        Integer columnSet = columnSetIds.get(columnNames);
+        if (columnSet == null) {
+            columnSet = columnSets.size();
+            columnSets.add(columnNames);
+            columnSetIds.put(columnNames, columnSet);
+        }
+        entryOutput.writeInt(columnSet);
+        for (int i = 0; i < columnNames.length; i++) {
+            String value = row.valueAt(i);
+            if (value == null) {
+                entryOutput.writeInt(-1);
+            }
+            else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                entryOutput.writeInt(bytes.length);
+                entryOutput.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Copies the entry buffer into the chunks, spilling first if another chunk would exceed the memory budget.
+     *
+     * @return the entry's address: chunk index in the high word, offset in the low word
+     */
+    private long append() throws IOException {
+        int length = entry.size();
+        while (currentChunk < 0 || chunks.get(currentChunk).remaining() < length) {
+            if (currentChunk + 1 < chunks.size()) {
+                currentChunk++;
+                continue;
+            }
+            int size = Math.max(CHUNK_BYTES, length);
+            if (liveKeys > 0 && chunkBytes + size + slots.capacity() * 8L > memoryBudget) {
+                spill();
+                continue;
+            }
+            chunks.add(ByteBuffer.allocateDirect(size));
+            chunkBytes += size;
+            stats.addIndexBytes(size);
+            currentChunk = chunks.size() - 1;
+        }
+
+        ByteBuffer chunk = chunks.get(currentChunk);
+        int offset = chunk.position();
+        chunk.put(entry.bytes(), 0, length);
+        return ((long) currentChunk << 32) | offset;
+    }
+
+    /**
+     * Points the key's slot at an entry.
+     *
+     * @return whether the key is new to the index
+     */
+    private boolean insert(long address, int hash, byte[] key) {
+        int mask = slots.capacity() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long existing = slots.get(slot);
+            if (existing == 0) {
+                slots.put(slot, address + 1);
+                liveKeys++;
+                if (liveKeys * 2 > slots.capacity()) {
+                    grow();
+                }
+                return true;
+            }
+            if (keyEquals(existing - 1, hash, key)) {
+                slots.put(slot, address + 1);
+                return false;
+            }
+        }
+    }
+
+    private boolean keyEquals(long address, int hash, byte[] key) {
+        ByteBuffer chunk = chunks.get((int) (address >>> 32));
+        int offset = (int) address;
+        if (chunk.getInt(offset + HASH_OFFSET) != hash || chunk.getInt(offset + KEY_OFFSET - 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(offset + KEY_OFFSET + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        LongBuffer old = slots;
+        slots = allocateSlots(old.capacity() * 2);
+        stats.addIndexBytes(old.capacity() * 8L);
+        int mask = slots.capacity() - 1;
+        for (int i = 0; i < old.capacity(); i++) {
+            long address = old.get(i);
+            if (address != 0) {
+                int slot = hashAt(address - 1) & mask;
+                while (slots.get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots.put(slot, address);
+            }
+        }
+    }
+
+    /**
+     * Writes the live entries, sorted by key, to a new segment and clears the index, keeping its memory.
+     */
+    private void spill() throws IOException {
+        Long[] addresses = liveAddresses();
+        Arrays.sort(addresses, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return compareKeys(a, b);
+            }
+        });
+
+        File segment = File.createTempFile("compaction-", ".segment", spillDirectory);
+        segments.add(segment);
+        long bytes = 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment), 1 << 16))) {
+            byte[] copy = new byte[1024];
+            for (Long address : addresses) {
+                ByteBuffer chunk = chunks.get((int) (address >>> 32));
+                int offset = (int) (long) address;
+                int length = chunk.getInt(offset);
+                if (copy.length < length) {
+                    copy = new byte[Math.max(length, copy.length * 2)];
+                }
+                ByteBuffer source = chunk.duplicate();
+                source.position(offset);
+                source.get(copy, 0, length);
+                output.write(copy, 0, length);
+                bytes += length;
+            }
+        }
+        log.info("Spilled {} compaction keys ({} bytes) to {}", addresses.length, bytes, segment);
+
+        for (ByteBuffer chunk : chunks) {
+            chunk.clear();
+        }
+        currentChunk = -1;
+        for (int i = 0; i < slots.capacity(); i++) {
+            slots.put(i, 0);
+        }
+        liveKeys = 0;
+        stats.spilled(addresses.length, bytes);
+    }
+
+    private Long[] liveAddresses() {
+        Long[] addresses = new Long[liveKeys];
+        int count = 0;
+        for (int i = 0; i < slots.capacity(); i++) {
+            long address = slots.get(i);
+            if (address != 0) {
+                addresses[count++] = address - 1;
+            }
+        }
+        return addresses;
+    }
+
+    private int compareKeys(long a, long b) {
+        ByteBuffer chunkA = chunks.get((int) (a >>> 32));
+        ByteBuffer chunkB = chunks.get((int) (b >>> 32));
+        int offsetA = (int) a;
+        int offsetB = (int) b;
+        int lengthA = chunkA.getInt(offsetA + KEY_OFFSET - 4);
+        int lengthB = chunkB.getInt(offsetB + KEY_OFFSET - 4);
+        for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+            int cmp = (chunkA.get(offsetA + KEY_OFFSET + i) & 0xFF) - (chunkB.get(offsetB + KEY_OFFSET + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private int hashAt(long address) {
+        return chunks.get((int) (address >>> 32)).getInt((int) address + HASH_OFFSET);
+    }
+
+    private void releaseMemory() {
+        stats.addIndexBytes(-(chunkBytes + (slots != null ? slots.capacity() * 8L : 0)));
+        chunks.clear();
+        chunkBytes = 0;
+        currentChunk = -1;
+        slots = null;
+        liveKeys = 0;
+    }
+
+    /**
+     * Decodes an entry into a record with a pooled payload.
+     */
+    private PumpRecord decode(ByteBuffer source) {
+        ByteBuffer entry = source.slice().order(ByteOrder.BIG_ENDIAN);
+        entry.position(KEY_OFFSET - 4);
+        byte[] key = new byte[entry.getInt()];
+        entry.get(key);
+
+        int dataLength = entry.getInt();
+        ByteBuffer data = payloadBufferPool.acquire(dataLength);
+        ByteBuffer dataSource = entry.duplicate();
+        dataSource.limit(dataSource.position() + dataLength);
+        data.put(dataSource).flip();
+        entry.position(entry.position() + dataLength);
+
+        DrillResultRow row = null;
+        int columnSet = entry.getInt();
+        if (columnSet >= 0) {
+            String[] columnNames = columnSets.get(columnSet);
+            String[] values = new String[columnNames.length];
+            for (int i = 0; i < values.length; i++) {
+                int length = entry.getInt();
+                if (length >= 0) {
+                    byte[] value = new byte[length];
+                    entry.get(value);
+                    values[i] = new String(value, StandardCharsets.UTF_8);
+                }
+            }
+            row = new DrillResultRow(columnNames, values);
+        }
+
+        stats.survived();
+        return new PumpRecord(new Record().withPartitionKey(new String(key, StandardCharsets.UTF_8)).withData(data), row);
+    }
+
+    private static LongBuffer allocateSlots(int count) {
+        return ByteBuffer.allocateDirect(count * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * Spreads hash bits so keys differing only in their last characters don't cluster.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * Reads survivors straight from memory when nothing was spilled.
+     */
+    private class MemoryReader implements RecordReader {
+        private int slot = 0;
+
+        @Override
+        public PumpRecord read() {
+            synchronized (CompactionIndex.this) {
+                return next();
+            }
+        }
+
+        private PumpRecord next() {
+            while (!closed && slot < slots.capacity()) {
+                long address = slots.get(slot++);
+                if (address != 0) {
+                    address--;
+                    ByteBuffer chunk = chunks.get((int) (address >>> 32)).duplicate();
+                    chunk.clear().position((int) address);
+                    return decode(chunk);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            CompactionIndex.this.close();
+        }
+    }
+
+    /**
+     * Merges the sorted segments, emitting the entry from the newest segment for each key.
+     */
+    private class MergeReader implements RecordReader {
+        private final PriorityQueue<SegmentCursor> cursors = new PriorityQueue<>();
+
+        MergeReader() throws IOException {
+            try {
+                for (int i = 0; i < segments.size(); i++) {
+                    SegmentCursor cursor = new SegmentCursor(segments.get(i), i);
+                    if (cursor.advance()) {
+                        cursors.add(cursor);
+                    }
+                    else {
+                        cursor.close();
+                    }
+                }
+            }
+            catch (IOException e) {
+                closeCursors();
+                throw e;
+            }
+        }
+
+        @Override
+        public PumpRecord read() throws IOException {
+            synchronized (CompactionIndex.this) {
+                return closed ? null : next();
+            }
+        }
+
+        private PumpRecord next() throws IOException {
+            SegmentCursor newest = cursors.poll();
+            if (newest == null) {
+                return null;
+            }
+            PumpRecord survivor = decode(ByteBuffer.wrap(newest.entry, 0, newest.length));
+            byte[] key = newest.key();
+            requeue(newest);
+
+            while (!cursors.isEmpty() && Arrays.equals(cursors.peek().key(), key)) {
+                requeue(cursors.poll());
+            }
+            return survivor;
+        }
+
+        private void requeue(SegmentCursor cursor) throws IOException {
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+            else {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            CompactionIndex.this.close();
+        }
+
+        private void closeCursors() {
+            for (SegmentCursor cursor : cursors) {
+                cursor.close();
+            }
+            cursors.clear();
+        }
+    }
+
+    /**
+     * Reads a segment's entries in key order. Orders by current key, then newest segment first.
+     */
+    private static class SegmentCursor implements Comparable<SegmentCursor> {
+        private final DataInputStream input;
+        private final int segmentNumber;
+        private byte[] entry = new byte[1024];
+        private int length;
+        private byte[] key;
+
+        SegmentCursor(File segment, int segmentNumber) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 1 << 16));
+            this.segmentNumber = segmentNumber;
+        }
+
+        /**
+         * @return whether another entry was read
+         */
+        boolean advance() throws IOException {
+            int entryLength;
+            try {
+                entryLength = input.readInt();
+            }
+            catch (EOFException e) {
+                return false;
+            }
+            if (entry.length < entryLength) {
+                entry = new byte[Math.max(entryLength, entry.length * 2)];
+            }
+            ByteBuffer.wrap(entry).putInt(entryLength);
+            input.readFully(entry, 4, entryLength - 4);
+            length = entryLength;
+
+            int keyLength = ByteBuffer.wrap(entry).getInt(KEY_OFFSET - 4);
+            key = Arrays.copyOfRange(entry, KEY_OFFSET, KEY_OFFSET + keyLength);
+            return true;
+        }
+
+        byte[] key() {
+            return key;
+        }
+
+        void close() {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                log.warn("Failed to close compaction segment.", e);
+            }
+        }
+
+        @Override
+        public int compareTo(SegmentCursor other) {
+            byte[] a = key;
+            byte[] b = other.key;
+            for (int i = 0; i < Math.min(a.length, b.length); i++) {
+                int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            if (a.length != b.length) {
+                return a.length - b.length;
+            }
+            return other.segmentNumber - segmentNumber;
+        }
+    }
+
+    /**
+     * A reusable buffer for one entry, which fills in the entry's length once written.
+     */
+    private static class EntryBuffer extends ByteArrayOutputStream {
+        EntryBuffer() {
+            super(1024);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+
+        void setLength() {
+            ByteBuffer.wrap(buf).putInt(0, count);
+        }
+    }
+}
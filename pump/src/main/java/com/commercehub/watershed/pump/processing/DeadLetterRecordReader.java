@@ -0,0 +1,136 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the records of a single dead-letter spool file, as written by {@link DeadLetterSpool}. A torn last record,
+ * left by a crash while it was written, is skipped.
+ */
+public class DeadLetterRecordReader implements RecordReader {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterRecordReader.class);
+    private static final String[] ROW_COLUMNS = {"file", "record", "errorCode"};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String relativePath;
+    private final DataInputStream in;
+    private final PayloadBufferPool payloadBufferPool;
+    private long recordNumber = 0;
+    private byte[] scratch = new byte[4096];
+
+    /**
+     *
+     * @param root              the spool directory, used to name records' positions
+     * @param file              the spool file to read
+     * @param payloadBufferPool provides the records' payload buffers
+     * @throws IOException if the file isn't a spool file
+     */
+    public DeadLetterRecordReader(File root, File file, PayloadBufferPool payloadBufferPool) throws IOException {
+        this.relativePath = ArchiveFiles.relativePath(root, file);
+        this.payloadBufferPool = payloadBufferPool;
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (in.readInt() != DeadLetterSpool.MAGIC || in.readUnsignedByte() != DeadLetterSpool.VERSION) {
+                throw new IOException(file + " is not a dead-letter spool file.");
+            }
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws IOException {
+        String partitionKey;
+        String errorCode;
+        ByteBuffer data;
+        try {
+            partitionKey = in.readUTF();
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        try {
+            errorCode = in.readUTF();
+            int length = in.readInt();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.readFully(scratch, 0, length);
+            data = payloadBufferPool.acquire(length);
+            data.put(scratch, 0, length).flip();
+        }
+        catch (EOFException e) {
+            log.warn("Skipping the torn last record of dead-letter spool {}", relativePath);
+            return null;
+        }
+        recordNumber++;
+
+        Record record = new Record().withPartitionKey(partitionKey).withData(data);
+        return new PumpRecord(record, new DrillResultRow(ROW_COLUMNS, new String[]{relativePath, String.valueOf(recordNumber), errorCode}));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Counts the records of a spool file, skipping their payloads.
+     *
+     * @param file
+     * @return the number of whole records in the file
+     * @throws IOException if the file isn't a spool file
+     */
+    public static long count(File file) throws IOException {
+        DeadLetterRecordReader reader = new DeadLetterRecordReader(file, file, PayloadBufferPool.unpooled());
+        try {
+            long count = 0;
+            while (reader.skip()) {
+                count++;
+            }
+            return count;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return whether a whole record was skipped
+     */
+    private boolean skip() throws IOException {
+        try {
+            in.readUTF();
+            in.readUTF();
+            int length = in.readInt();
+            // Reads rather than skips the payload: skipping may pass the end of a torn file unnoticed.
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.readFully(scratch, 0, length);
+            return true;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.RetryStats;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the records a Job gave up on to a local spool file, so they can be sent again by a DEAD_LETTER Job without
+ * re-running the Job's query. The file is created with the first dead letter, named after the stream and the time.
+ *
+ * A spool file is a header ({@code PDLQ} and a version byte) followed by length-prefixed records: the partition key
+ * and the last error code as modified UTF-8, then the payload's length and bytes, exactly as they were sent. Records
+ * are appended, so a crash loses at most a torn last record, which readers skip.
+ */
+public class DeadLetterSpool {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterSpool.class);
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss.SSS").withZoneUTC();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static final int MAGIC = 0x50444C51;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".dlq";
+
+    private final File directory;
+    private final String filePrefix;
+    private final RetryStats stats;
+
+    private File file;
+    private DataOutputStream out;
+    private byte[] scratch = new byte[4096];
+
+    /**
+     *
+     * @param directory where the spool file is written; created if missing
+     * @param stream    names the spool file
+     * @param stats     updated with each dead letter
+     */
+    public DeadLetterSpool(File directory, String stream, RetryStats stats) {
+        this.directory = directory;
+        this.filePrefix = stream.replaceAll("[^A-Za-z0-9_.-]", "_");
+        this.stats = stats;
+    }
+
+    /**
+     * Appends a record to the spool.
+     *
+     * @param partitionKey
+     * @param errorCode     why the record's last attempt failed, or null
+     * @param data          the payload as it was sent; its position is left unchanged
+     * @throws IOException
+     */
+    public synchronized void write(String partitionKey, String errorCode, ByteBuffer data) throws IOException {
+        if (out == null) {
+            open();
+        }
+
+        int length = data.remaining();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        data.duplicate().get(scratch, 0, length);
+
+        out.writeUTF(partitionKey);
+        out.writeUTF(errorCode != null ? errorCode : "");
+        out.writeInt(length);
+        out.write(scratch, 0, length);
+        stats.deadLettered(file.getPath());
+    }
+
+    /**
+     * Writes buffered dead letters to the spool file.
+     */
+    public synchronized void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            }
+            catch (IOException e) {
+                log.warn("Failed to flush dead-letter spool {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Writes buffered dead letters and closes the spool file.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                log.warn("Failed to close dead-letter spool {}", file, e);
+            }
+            out = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create dead-letter directory " + directory);
+        }
+        file = new File(directory, filePrefix + "-" + FILE_TIME.print(new DateTime()) + SUFFIX);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        log.warn("Writing records that failed for good to dead-letter spool {}", file);
+    }
+
+    /**
+     * Lists the spool files under a path, in path order.
+     *
+     * @param root a spool file, or a directory of them
+     * @return spool files
+     * @throws IOException if the path doesn't exist
+     */
+    public static List<File> list(File root) throws IOException {
+        List<File> spools = new ArrayList<>();
+        for (File file : ArchiveFiles.list(root)) {
+            if (file.getName().endsWith(SUFFIX)) {
+                spools.add(file);
+            }
+        }
+        return spools;
+    }
+}
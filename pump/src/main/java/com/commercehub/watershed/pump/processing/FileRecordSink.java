@@ -0,0 +1,182 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes records to rolling gzipped files of newline-delimited JSON, one object per record:
+ * {@code {"partitionKey":"...","data":"<base64 payload>"}}, with the record's explicitHashKey if it has one. A file is named {@code .inprogress} while it is written,
+ * and renamed once it is rolled or the sink is flushed or destroyed, so finished files can be picked up safely.
+ *
+ * Records are written as they are added, so they are acked at once; a failed write fails the record's future.
+ */
+public class FileRecordSink implements RecordSink {
+    private static final Logger log = LoggerFactory.getLogger(FileRecordSink.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss.SSS").withZoneUTC();
+    private static final String SUFFIX = ".ndjson.gz";
+    private static final String IN_PROGRESS = ".inprogress";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Brackets, field names and quotes around each line
+    private static final int LINE_OVERHEAD = 32;
+
+    private final File directory;
+    private final String filePrefix;
+    private final long maxFileBytes;
+
+    private JsonGenerator generator;
+    private String fileName;
+    private File file;
+    private long fileBytes;
+    private long fileRecords;
+    private int fileCount;
+    private byte[] scratch = new byte[4096];
+
+    /**
+     *
+     * @param directory     where the files are written; created if missing
+     * @param stream        names the files
+     * @param maxFileBytes  a file is rolled once about this many uncompressed bytes are written to it
+     */
+    public FileRecordSink(File directory, String stream, long maxFileBytes) {
+        this.directory = directory;
+        this.filePrefix = stream.replaceAll("[^A-Za-z0-9_.-]", "_");
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized ListenableFuture<SinkRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+        try {
+            if (generator == null) {
+                open();
+            }
+
+            int length = data.remaining();
+            byte[] bytes;
+            int offset;
+            if (data.hasArray()) {
+                bytes = data.array();
+                offset = data.arrayOffset() + data.position();
+            }
+            else {
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                data.duplicate().get(scratch, 0, length);
+                bytes = scratch;
+                offset = 0;
+            }
+
+            generator.writeStartObject();
+            generator.writeStringField("partitionKey", partitionKey);
+            if (explicitHashKey != null) {
+                generator.writeStringField("explicitHashKey", explicitHashKey);
+            }
+            generator.writeFieldName("data");
+            generator.writeBinary(bytes, offset, length);
+            generator.writeEndObject();
+
+            String shardId = fileName;
+            String sequenceNumber = String.valueOf(fileRecords++);
+            fileBytes += partitionKey.length() + (length + 2) / 3 * 4 + LINE_OVERHEAD;
+            if (fileBytes >= maxFileBytes) {
+                roll();
+            }
+
+            return Futures.immediateFuture(SinkRecordResult.succeeded(shardId, sequenceNumber));
+        }
+        catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOutstandingRecordsCount() {
+        return 0;
+    }
+
+    /**
+     * Records are written before addUserRecord returns, so there's nothing to send.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Finishes the current file, so everything written so far can be read.
+     */
+    @Override
+    public synchronized void flushSync() {
+        try {
+            roll();
+        }
+        catch (IOException e) {
+            log.warn("Failed to finish record file {}", file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        flushSync();
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Could not create sink directory " + directory);
+        }
+
+        fileName = filePrefix + "-" + FILE_TIME.print(DateTime.now()) + "-" + fileCount++ + SUFFIX;
+        file = new File(directory, fileName + IN_PROGRESS);
+        generator = JSON_FACTORY.createGenerator(
+                new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE));
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        fileBytes = 0;
+        fileRecords = 0;
+    }
+
+    /**
+     * Closes the current file, if any, and renames it to its final name. The next record starts a new file.
+     */
+    private void roll() throws IOException {
+        if (generator == null) {
+            return;
+        }
+
+        JsonGenerator closing = generator;
+        generator = null;
+        closing.writeRaw('\n');
+        closing.close();
+
+        File finished = new File(directory, fileName);
+        Files.move(file.toPath(), finished.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Wrote {} records to {}", fileRecords, finished);
+    }
+}
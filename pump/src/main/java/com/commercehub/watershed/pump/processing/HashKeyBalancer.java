@@ -0,0 +1,157 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Shard;
+import com.commercehub.watershed.pump.model.ShardBalancing;
+import com.commercehub.watershed.pump.model.ShardLoadStats;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the shard of each record of a Kinesis Job, to keep a few hot partition keys from saturating one shard while
+ * the others idle. Records are steered with an explicit hash key inside the chosen shard's hash key range. A shard's
+ * load is the larger of its share of the records and of the bytes it was sent, against its per-second limits.
+ *
+ * Partition keys that aren't steered are hashed as Kinesis does (the MD5 of the key, as a 128-bit integer), so the
+ * records sent to every shard can be counted.
+ */
+public class HashKeyBalancer {
+    private static final HashFunction MD5 = Hashing.md5();
+    private static final double MAX_BYTES_PER_SHARD_PER_SECOND = 1024 * 1024;
+
+    private final ShardBalancing balancing;
+    private final ShardRange[] shards;
+    private final double maxRecordsPerShardPerSecond;
+    private final int maxPinnedKeys;
+    private final ShardLoadStats stats;
+    private final Map<String, Integer> pinnedKeys = new HashMap<>();
+
+    /**
+     *
+     * @param shards                        the stream's open shards
+     * @param balancing                     how records are spread; not NONE
+     * @param maxRecordsPerShardPerSecond   the Kinesis limit, to weigh records against bytes
+     * @param maxPinnedKeys                 the most partition keys pinned with PIN_KEYS
+     * @param stats                         updated with each record sent
+     */
+    public HashKeyBalancer(List<Shard> shards, ShardBalancing balancing, int maxRecordsPerShardPerSecond, int maxPinnedKeys, ShardLoadStats stats) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Can't balance records over a stream without open shards.");
+        }
+        this.balancing = balancing;
+        this.maxRecordsPerShardPerSecond = maxRecordsPerShardPerSecond;
+        this.maxPinnedKeys = maxPinnedKeys;
+        this.stats = stats;
+
+        List<ShardRange> ranges = new ArrayList<>();
+        for (Shard shard : shards) {
+            ranges.add(new ShardRange(shard));
+        }
+        Collections.sort(ranges, new Comparator<ShardRange>() {
+            @Override
+            public int compare(ShardRange a, ShardRange b) {
+                return a.start.compareTo(b.start);
+            }
+        });
+        this.shards = ranges.toArray(new ShardRange[ranges.size()]);
+    }
+
+    /**
+     * Picks a record's shard, and counts the record against it.
+     *
+     * @param partitionKey
+     * @param bytes        the record's payload size
+     * @return the explicit hash key that sends the record to its shard, or null to let Kinesis hash its partition key
+     */
+    public synchronized String assign(String partitionKey, int bytes) {
+        ShardRange shard;
+        boolean steered;
+        switch (balancing) {
+            case SPREAD:
+                shard = leastLoaded();
+                steered = true;
+                break;
+            case PIN_KEYS:
+                Integer pinned = pinnedKeys.get(partitionKey);
+                if (pinned == null && pinnedKeys.size() < maxPinnedKeys) {
+                    pinned = leastLoadedIndex();
+                    pinnedKeys.put(partitionKey, pinned);
+                    stats.pinned();
+                }
+                shard = pinned != null ? shards[pinned] : hashed(partitionKey);
+                steered = pinned != null;
+                break;
+            default:
+                shard = hashed(partitionKey);
+                steered = false;
+        }
+
+        shard.records++;
+        shard.bytes += bytes;
+        stats.sent(shard.shardId, bytes);
+        return steered ? shard.explicitHashKey : null;
+    }
+
+    /**
+     * @return the shard Kinesis sends the partition key to
+     */
+    ShardRange hashed(String partitionKey) {
+        BigInteger hashKey = new BigInteger(1, MD5.hashString(partitionKey, Charsets.UTF_8).asBytes());
+        int low = 0;
+        int high = shards.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (shards[mid].start.compareTo(hashKey) <= 0) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return shards[low];
+    }
+
+    private ShardRange leastLoaded() {
+        return shards[leastLoadedIndex()];
+    }
+
+    private int leastLoadedIndex() {
+        int least = 0;
+        double leastLoad = Double.MAX_VALUE;
+        for (int i = 0; i < shards.length; i++) {
+            double load = Math.max(shards[i].records / maxRecordsPerShardPerSecond, shards[i].bytes / MAX_BYTES_PER_SHARD_PER_SECOND);
+            if (load < leastLoad) {
+                least = i;
+                leastLoad = load;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * A shard's hash key range, and what was sent to it.
+     */
+    static class ShardRange {
+        final String shardId;
+        final BigInteger start;
+        final String explicitHashKey;
+        long records;
+        long bytes;
+
+        ShardRange(Shard shard) {
+            this.shardId = shard.getShardId();
+            this.start = new BigInteger(shard.getHashKeyRange().getStartingHashKey());
+            BigInteger end = new BigInteger(shard.getHashKeyRange().getEndingHashKey());
+            // Any hash key in the range picks the shard; the middle one is used.
+            this.explicitHashKey = start.add(end).shiftRight(1).toString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends records nowhere, to measure how fast a Job reads and transforms them. Records are counted and acked after a
+ * simulated latency; a throughput limit delays records beyond it, as the KPL does when a stream throttles it, so
+ * backpressure and pending counts behave as they would against Kinesis.
+ */
+public class InMemoryRecordSink implements RecordSink {
+    private static final String SHARD_ID = "memory";
+    private static final long FLUSH_POLL_MILLIS = 10;
+
+    private final long latencyNanos;
+    private final long intervalNanos;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private long nextSlotNanos = 0;
+
+    /**
+     *
+     * @param latencyMillis     how long each record takes to be acked
+     * @param recordsPerSecond  the most records acked per second, or null for unthrottled
+     */
+    public InMemoryRecordSink(long latencyMillis, Integer recordsPerSecond) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.intervalNanos = recordsPerSecond != null ? TimeUnit.SECONDS.toNanos(1) / recordsPerSecond : 0;
+        this.scheduler = latencyNanos > 0 || intervalNanos > 0 ?
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("memory-sink-%d").setDaemon(true).build()) :
+                null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<SinkRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+        final SinkRecordResult result = SinkRecordResult.succeeded(SHARD_ID, String.valueOf(recordCount.getAndIncrement()));
+        byteCount.addAndGet(data.remaining());
+
+        long delayNanos = delayNanos();
+        if (delayNanos <= 0) {
+            return Futures.immediateFuture(result);
+        }
+
+        final SettableFuture<SinkRecordResult> future = SettableFuture.create();
+        outstanding.incrementAndGet();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                outstanding.decrementAndGet();
+                future.set(result);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * @return how long until the next record is acked: its latency, plus its wait for a free slot under the throttle
+     */
+    private synchronized long delayNanos() {
+        if (intervalNanos == 0) {
+            return latencyNanos;
+        }
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextSlotNanos);
+        nextSlotNanos = slot + intervalNanos;
+        return slot - now + latencyNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getOutstandingRecordsCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Records are acked after the latency whether or not they're flushed, so there's nothing to send.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flushSync() {
+        try {
+            while (outstanding.get() > 0) {
+                Thread.sleep(FLUSH_POLL_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     *
+     * @return the number of records sent to the sink
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    /**
+     *
+     * @return the number of payload bytes sent to the sink
+     */
+    public long getByteCount() {
+        return byteCount.get();
+    }
+}
@@ -1,61 +1,67 @@
 package com.commercehub.watershed.pump.processing;
 
 import com.amazonaws.util.IOUtils;
+import com.commercehub.watershed.pump.model.ConnectionPoolSettings;
 import com.github.davidmoten.rx.jdbc.ConnectionProvider;
 import com.github.davidmoten.rx.jdbc.exceptions.SQLRuntimeException;
 
 import javax.sql.DataSource;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
 /**
- * ConnectionProvider that wraps a custom DataSource to talk to a conflicting version of Drill libraries.
- * Loads DataSource class from an external jar (watershed-pump-support.shadow.jar).
+ * ConnectionProvider that wraps a pool of connections to talk to a conflicting version of Drill libraries.
+ * Loads the pooling DataSource class from an external jar (watershed-pump-support.shadow.jar), extracted to a
+ * temporary file named after its content so a jar left behind by another version is never loaded.
  */
 public class IsolatedConnectionProvider {
     /**
-     * Loads a ConnectionProvider by utilizing the DataSource class from an external jar
-     * (watershed-pump-support.shadow.jar).
+     * Loads a ConnectionProvider by utilizing the PooledDataSource class from an external jar
+     * (watershed-pump-support.shadow.jar). Connections returned by the provider go back to the pool when closed;
+     * closing the provider closes the pool.
      *
      * @param jdbcUrl
-     * @param jdbcUsername
+     * @param jdbcUsername  null to connect without credentials
      * @param jdbcPassword
      * @param driverClass
+     * @param poolSettings
      * @return a new ConnectionProvider
      */
     public static ConnectionProvider get(final String jdbcUrl, final String jdbcUsername,
-                                         final String jdbcPassword, final String driverClass) {
+                                         final String jdbcPassword, final String driverClass,
+                                         final ConnectionPoolSettings poolSettings) {
         try {
             URL supportUrl = IsolatedConnectionProvider.class.getResource("/watershed-pump-support.shadow.jar");
             if (supportUrl == null) {
                 throw new IllegalStateException("Support jar not found, cannot continue!");
             }
 
-            String tDir = System.getProperty("java.io.tmpdir");
-            File tempJar = new File(tDir + "/watershed-pump-support-shadow.jar");
-
-            if(!tempJar.exists()){
-                InputStream in = supportUrl.openStream();
-                FileOutputStream out = new FileOutputStream(tempJar);
-                IOUtils.copy(in, out);
-                out.close();
-                in.close();
-            }
+            File tempJar = extract(supportUrl);
 
             URLClassLoader jdbcLoader = new URLClassLoader(new URL[]{ tempJar.toURI().toURL() }, null);
-            Class<?> dsClass = jdbcLoader.loadClass("com.commercehub.watershed.pump.support.DataSource");
-            final DataSource ds = (DataSource)
-                    dsClass.getConstructor(String.class, String.class).newInstance(driverClass, jdbcUrl);
+            Class<?> dsClass = jdbcLoader.loadClass("com.commercehub.watershed.pump.support.PooledDataSource");
+            final DataSource ds = (DataSource) dsClass.getConstructor(
+                    String.class, String.class, String.class, String.class,
+                    int.class, int.class, long.class, long.class, long.class, String.class).newInstance(
+                    driverClass, jdbcUrl, jdbcUsername, jdbcPassword,
+                    poolSettings.getMaxSize(), poolSettings.getMinIdle(), poolSettings.getIdleTimeoutMillis(),
+                    poolSettings.getBorrowTimeoutMillis(), poolSettings.getLeakDetectionThresholdMillis(),
+                    poolSettings.getValidationQuery());
             return new ConnectionProvider() {
                 @Override
                 public Connection get() {
                     try {
-                        return ds.getConnection(jdbcUsername, jdbcPassword);
+                        return ds.getConnection();
                     } catch (SQLException e) {
                         throw new SQLRuntimeException(e);
                     }
@@ -63,9 +69,18 @@ public class IsolatedConnectionProvider {
 
                 @Override
                 public void close() {
-                    //no-op
+                    try {
+                        ((Closeable) ds).close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
             };
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         } catch (Exception e) {
             if (e instanceof RuntimeException) {
                 throw (RuntimeException) e;
@@ -73,4 +88,63 @@ public class IsolatedConnectionProvider {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Copies the support jar to the temporary directory, unless a copy with the same content is already there.
+     * The copy is written under a unique name and then renamed, so a partly written jar is never loaded.
+     *
+     * @param supportUrl
+     * @return the extracted jar
+     * @throws IOException
+     */
+    static File extract(URL supportUrl) throws IOException {
+        byte[] jar;
+        InputStream in = supportUrl.openStream();
+        try {
+            jar = IOUtils.toByteArray(in);
+        }
+        finally {
+            in.close();
+        }
+
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        File tempJar = new File(tempDir, "watershed-pump-support-shadow-" + sha1(jar) + ".jar");
+        if (tempJar.isFile() && tempJar.length() == jar.length) {
+            return tempJar;
+        }
+
+        File partial = File.createTempFile("watershed-pump-support-shadow", ".part", tempDir);
+        try {
+            FileOutputStream out = new FileOutputStream(partial);
+            try {
+                out.write(jar);
+            }
+            finally {
+                out.close();
+            }
+            // Another process may have extracted the same jar in the meantime; either copy will do.
+            if (!partial.renameTo(tempJar) && !(tempJar.isFile() && tempJar.length() == jar.length)) {
+                throw new IOException("Could not move support jar to " + tempJar);
+            }
+        }
+        finally {
+            if (partial.exists() && !partial.delete()) {
+                partial.deleteOnExit();
+            }
+        }
+        return tempJar;
+    }
+
+    private static String sha1(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,58 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.model.Record;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import com.commercehub.watershed.pump.respositories.ColumnPlan;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the rows of a ResultSet as records for Kinesis emission. Closing the reader closes its connection.
+ */
+public class JdbcRecordReader implements RecordReader {
+    private final ResultSet resultSet;
+    private final Connection connection;
+    private final ColumnPlan columnPlan;
+    private final PayloadBufferPool payloadBufferPool;
+
+    /**
+     *
+     * @param resultSet
+     * @param connection        the connection the ResultSet was read from
+     * @param columnPlan
+     * @param payloadBufferPool accounts for the payload arrays allocated by the driver
+     */
+    public JdbcRecordReader(ResultSet resultSet, Connection connection, ColumnPlan columnPlan, PayloadBufferPool payloadBufferPool) {
+        this.resultSet = resultSet;
+        this.connection = connection;
+        this.columnPlan = columnPlan;
+        this.payloadBufferPool = payloadBufferPool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws SQLException {
+        if (!resultSet.next()) {
+            return null;
+        }
+
+        String partitionKey = columnPlan.getPartitionKey(resultSet);
+        Record record = new Record();
+        record.withPartitionKey(partitionKey);
+        record.withData(payloadBufferPool.wrap(columnPlan.getRawData(resultSet)));
+
+        return new PumpRecord(record, columnPlan.mapRow(resultSet, partitionKey));
+    }
+
+    /**
+     * closes database connection
+     */
+    @Override
+    public void close() {
+        Pump.closeQuietly(connection);
+    }
+}
@@ -2,10 +2,12 @@ package com.commercehub.watershed.pump.processing;
 
 import com.commercehub.watershed.pump.application.factories.PumpFactory;
 import com.commercehub.watershed.pump.application.factories.PumpSubscriberFactory;
+import com.commercehub.watershed.pump.model.Checkpoint;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.model.ProcessingStage;
 import com.commercehub.watershed.pump.model.PumpRecordResult;
 import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.service.AdmissionController;
 import com.commercehub.watershed.pump.service.TransformerFunctionFactory;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -13,6 +15,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
 import rx.Subscription;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
 
 /**
  * Kicks off a Pump instance to run a Job.
@@ -25,17 +29,20 @@ public class JobRunnable implements Runnable {
 
     private PumpFactory pumpFactory;
     private PumpSubscriberFactory pumpSubscriberFactory;
+    private AdmissionController admissionController;
 
     @Inject
     public JobRunnable(
             TransformerFunctionFactory transformerFunctionFactory,
             PumpFactory pumpFactory,
             PumpSubscriberFactory pumpSubscriberFactory,
+            AdmissionController admissionController,
             @Assisted Job job){
 
         this.transformerFunctionFactory = transformerFunctionFactory;
         this.pumpFactory = pumpFactory;
         this.pumpSubscriberFactory = pumpSubscriberFactory;
+        this.admissionController = admissionController;
         this.job = job;
     }
 
@@ -52,9 +59,16 @@ public class JobRunnable implements Runnable {
         }
 
         PumpSettings pumpSettings = job.getPumpSettings();
-        final Pump pump = pumpFactory.create(
-                pumpSettings,
-                transformerFunctionFactory.getReplayFlagTransformFunction(pumpSettings.getHasReplayFlag(), pumpSettings.getHasOverwriteFlag()));
+        final Pump pump;
+        try {
+            AvroSchemaCache schemaCache = new AvroSchemaCache();
+            Checkpoint resumeFrom = job.getResumedFrom() != null ? job.getResumedFrom() : new Checkpoint();
+            pump = pumpFactory.create(pumpSettings, transformerFunctionFactory.getTransformFunction(pumpSettings, schemaCache), schemaCache, resumeFrom);
+        }
+        catch (RuntimeException e) {
+            admissionController.release(job);
+            throw e;
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             @Override
@@ -65,7 +79,16 @@ public class JobRunnable implements Runnable {
         }, "KPL shutdown hook"));
 
         Observable<PumpRecordResult> results = pump.build();
-        Subscription subscription = results.subscribe(pumpSubscriberFactory.create(job, pump));
+        PumpSubscriber pumpSubscriber = pumpSubscriberFactory.create(job, pump);
+        // Free the job's share of the admission budget however it ends: the subscriber is unsubscribed once it
+        // completes or errors, and when the job is cancelled.
+        pumpSubscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                admissionController.release(job);
+            }
+        }));
+        Subscription subscription = results.subscribe(pumpSubscriber);
         job.setPumpSubscription(subscription);
     }
 }
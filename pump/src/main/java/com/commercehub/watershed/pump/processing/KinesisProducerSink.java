@@ -0,0 +1,157 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.commercehub.watershed.pump.service.KinesisProducerPool;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends one Job's records to Kinesis through a KinesisProducer shared with other Jobs. The Job's own records are
+ * counted while outstanding, so its pending count and flush cover only its records. Flushing the producer would send
+ * every Job's buffered records for the stream, so a flush never touches it: the Job's records go out within the
+ * producer's RecordMaxBufferedTime, and a flush waits for the Job's records alone. Destroying the sink leaves the
+ * producer running.
+ *
+ * The KPL's results are turned into SinkRecordResults here; a record the KPL gave up on completes with a failed
+ * result rather than failing its future.
+ */
+public class KinesisProducerSink implements RecordSink {
+    private static final Logger log = LoggerFactory.getLogger(KinesisProducerSink.class);
+    private static final long FLUSH_POLL_MILLIS = 100;
+
+    private final KinesisProducer kinesisProducer;
+    private final KinesisProducerPool kinesisProducerPool;
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private final FutureCallback<UserRecordResult> acked = new FutureCallback<UserRecordResult>() {
+        @Override
+        public void onSuccess(UserRecordResult result) {
+            outstanding.decrementAndGet();
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            outstanding.decrementAndGet();
+        }
+    };
+
+    private static final Function<UserRecordResult, SinkRecordResult> toSinkRecordResult = new Function<UserRecordResult, SinkRecordResult>() {
+        @Override
+        public SinkRecordResult apply(UserRecordResult result) {
+            return sinkRecordResult(result);
+        }
+    };
+
+    private static final FutureFallback<SinkRecordResult> failedRecord = new FutureFallback<SinkRecordResult>() {
+        @Override
+        public ListenableFuture<SinkRecordResult> create(Throwable t) throws Exception {
+            if (t instanceof UserRecordFailedException) {
+                return Futures.immediateFuture(sinkRecordResult(((UserRecordFailedException) t).getResult()));
+            }
+            return Futures.immediateFailedFuture(t);
+        }
+    };
+
+    /**
+     *
+     * @param kinesisProducer       shared with other Jobs
+     * @param kinesisProducerPool   the producer's pool, told if the producer fails
+     */
+    public KinesisProducerSink(KinesisProducer kinesisProducer, KinesisProducerPool kinesisProducerPool) {
+        this.kinesisProducer = kinesisProducer;
+        this.kinesisProducerPool = kinesisProducerPool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<SinkRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+        outstanding.incrementAndGet();
+
+        ListenableFuture<UserRecordResult> result;
+        try {
+            // The KPL copies the payload before addUserRecord returns.
+            result = explicitHashKey == null ?
+                    kinesisProducer.addUserRecord(stream, partitionKey, data) :
+                    kinesisProducer.addUserRecord(stream, partitionKey, explicitHashKey, data);
+        }
+        catch (RuntimeException e) {
+            outstanding.decrementAndGet();
+            // Such as the producer's child process having died; later Jobs get a new producer.
+            kinesisProducerPool.invalidate(kinesisProducer);
+            throw e;
+        }
+
+        Futures.addCallback(result, acked);
+        return Futures.withFallback(Futures.transform(result, toSinkRecordResult), failedRecord);
+    }
+
+    /**
+     * @return the number of this Job's records sent but not yet acked
+     */
+    @Override
+    public long getOutstandingRecordsCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Leaves the shared producer's buffers alone; they hold other Jobs' records too, and are sent within the
+     * producer's RecordMaxBufferedTime.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Waits until every record of the Job has been acked, leaving the shared producer's buffers alone.
+     */
+    @Override
+    public void flushSync() {
+        try {
+            while (outstanding.get() > 0) {
+                Thread.sleep(FLUSH_POLL_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            log.warn("Interrupted waiting for {} records to be acked", outstanding.get());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Leaves the shared producer running; the Job's outstanding records are still sent.
+     */
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     *
+     * @param result
+     * @return the KPL's result of a record as a SinkRecordResult
+     */
+    static SinkRecordResult sinkRecordResult(UserRecordResult result) {
+        List<String> errorCodes = new ArrayList<>();
+        if (result.getAttempts() != null) {
+            for (Attempt attempt : result.getAttempts()) {
+                errorCodes.add(attempt.isSuccessful() ? null : attempt.getErrorCode());
+            }
+        }
+        return new SinkRecordResult(result.isSuccessful(), result.getShardId(), result.getSequenceNumber(), errorCodes);
+    }
+}
@@ -0,0 +1,217 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PumpRecord;
+import rx.Observable;
+import rx.Producer;
+import rx.Subscriber;
+import rx.functions.Func1;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Operator that transforms records on an Executor, several at a time. Records are assigned to lanes by the hash of
+ * their partition key; each lane transforms its records one at a time, in arrival order, so records sharing a
+ * partition key are emitted in their original order. Records with different keys may be reordered.
+ *
+ * At most queueDepth records are requested from upstream that haven't been emitted downstream yet, which bounds
+ * the records waiting for or in transformation.
+ */
+public class OrderedParallelTransform implements Observable.Operator<PumpRecord, PumpRecord> {
+    private final Func1<PumpRecord, PumpRecord> transform;
+    private final Executor executor;
+    private final int parallelism;
+    private final int queueDepth;
+
+    /**
+     *
+     * @param transform     the transformation applied to each record
+     * @param executor      runs the transformations
+     * @param parallelism   the number of lanes, i.e. the most records transformed at the same time
+     * @param queueDepth    the most records waiting for or in transformation
+     */
+    public OrderedParallelTransform(Func1<PumpRecord, PumpRecord> transform, Executor executor, int parallelism, int queueDepth) {
+        this.transform = transform;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.queueDepth = Math.max(1, queueDepth);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Subscriber<? super PumpRecord> call(Subscriber<? super PumpRecord> child) {
+        TransformSubscriber parent = new TransformSubscriber(child);
+        child.add(parent);
+        child.setProducer(parent.downstreamProducer);
+        return parent;
+    }
+
+    /**
+     * @return the lane a partition key's records are transformed in
+     */
+    static int laneOf(String partitionKey, int lanes) {
+        return partitionKey == null ? 0 : (partitionKey.hashCode() & Integer.MAX_VALUE) % lanes;
+    }
+
+    private class TransformSubscriber extends Subscriber<PumpRecord> {
+        private final Subscriber<? super PumpRecord> child;
+        private final Lane[] lanes;
+        private final Queue<PumpRecord> transformed = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger drainWip = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private volatile boolean upstreamDone = false;
+        private boolean terminated = false; // only touched while draining
+
+        private final Producer downstreamProducer = new Producer() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    return;
+                }
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+                drain();
+            }
+        };
+
+        TransformSubscriber(Subscriber<? super PumpRecord> child) {
+            this.child = child;
+            this.lanes = new Lane[parallelism];
+            for (int i = 0; i < parallelism; i++) {
+                lanes[i] = new Lane();
+            }
+        }
+
+        @Override
+        public void onStart() {
+            request(queueDepth);
+        }
+
+        @Override
+        public void onNext(PumpRecord pumpRecord) {
+            inFlight.incrementAndGet();
+            lanes[laneOf(pumpRecord.getKinesisRecord().getPartitionKey(), lanes.length)].add(pumpRecord);
+        }
+
+        @Override
+        public void onCompleted() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            fail(e);
+        }
+
+        private void fail(Throwable e) {
+            failure.compareAndSet(null, e);
+            drain();
+        }
+
+        /**
+         * Emits transformed records as far as downstream demand allows, replenishing upstream demand by as many,
+         * and terminates the child once everything is emitted. Only one thread drains at a time.
+         */
+        private void drain() {
+            if (drainWip.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                if (terminated) {
+                    continue;
+                }
+                if (child.isUnsubscribed()) {
+                    transformed.clear();
+                    terminated = true;
+                    continue;
+                }
+
+                Throwable e = failure.get();
+                if (e != null) {
+                    transformed.clear();
+                    terminated = true;
+                    unsubscribe();
+                    child.onError(e);
+                    continue;
+                }
+
+                // Read before inFlight: every record counted in flight was received before completion.
+                boolean done = upstreamDone;
+
+                long demand = requested.get();
+                long emitted = 0;
+                PumpRecord record;
+                while (emitted < demand && (record = transformed.poll()) != null) {
+                    child.onNext(record);
+                    emitted++;
+                }
+
+                if (emitted > 0) {
+                    if (demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+                    inFlight.addAndGet((int) -emitted);
+                    if (!done) {
+                        request(emitted);
+                    }
+                }
+
+                if (done && inFlight.get() == 0) {
+                    terminated = true;
+                    child.onCompleted();
+                }
+            } while (drainWip.decrementAndGet() != 0);
+        }
+
+        /**
+         * Transforms its records one at a time on the executor, in the order they were added.
+         */
+        private class Lane implements Runnable {
+            private final Queue<PumpRecord> pending = new ConcurrentLinkedQueue<>();
+            private final AtomicInteger wip = new AtomicInteger();
+
+            void add(PumpRecord pumpRecord) {
+                pending.offer(pumpRecord);
+                if (wip.getAndIncrement() == 0) {
+                    try {
+                        executor.execute(this);
+                    }
+                    catch (RuntimeException e) {
+                        fail(e);
+                    }
+                }
+            }
+
+            @Override
+            public void run() {
+                do {
+                    PumpRecord pumpRecord = pending.poll();
+                    if (failure.get() == null && !child.isUnsubscribed()) {
+                        try {
+                            transformed.offer(transform.call(pumpRecord));
+                        }
+                        catch (Throwable e) {
+                            fail(e);
+                        }
+                    }
+                    drain();
+                } while (wip.decrementAndGet() != 0);
+            }
+        }
+    }
+}
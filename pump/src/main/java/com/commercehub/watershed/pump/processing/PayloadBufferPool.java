@@ -0,0 +1,206 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PayloadStats;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles record payload buffers. Buffers come in power-of-two size classes; a released buffer is kept for the
+ * next request of its class as long as the pool holds less than its byte limit. Safe for concurrent use.
+ *
+ * A buffer must not be used after it is released, and must be released at most once.
+ */
+public class PayloadBufferPool {
+    private static final int MIN_CLASS = 6;   // 64 bytes
+    private static final int MAX_CLASS = 20;  // 1 MiB; larger payloads aren't pooled
+
+    private final long maxRetainedBytes;
+    private final boolean direct;
+    private final PayloadStats stats;
+    private final Queue<ByteBuffer>[] classes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /**
+     *
+     * @param maxRetainedBytes  the most bytes of idle buffers to hold; 0 disables pooling
+     * @param direct            whether to allocate direct (off-heap) buffers instead of heap buffers
+     * @param stats             receives allocation updates
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PayloadBufferPool(long maxRetainedBytes, boolean direct, PayloadStats stats) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.direct = direct;
+        this.stats = stats;
+        this.classes = new Queue[MAX_CLASS + 1];
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @return a pool that never retains buffers and allocates heap buffers of exactly the requested size
+     */
+    public static PayloadBufferPool unpooled() {
+        return new PayloadBufferPool(0, false, new PayloadStats());
+    }
+
+    /**
+     *
+     * @param size
+     * @return a buffer positioned at 0 with its limit at size; its capacity may be larger
+     */
+    public ByteBuffer acquire(int size) {
+        if (maxRetainedBytes <= 0 || size > 1 << MAX_CLASS) {
+            stats.allocated(size);
+            return allocate(size);
+        }
+
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = classes[sizeClass].poll();
+        if (buffer != null) {
+            retainedBytes.addAndGet(-buffer.capacity());
+            stats.addRetained(-buffer.capacity());
+            stats.reused(buffer.capacity());
+            buffer.clear();
+        }
+        else {
+            stats.allocated(1 << sizeClass);
+            buffer = allocate(1 << sizeClass);
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Accounts for a payload array allocated outside the pool, such as by a JDBC driver.
+     *
+     * @param bytes
+     * @return the array, wrapped
+     */
+    public ByteBuffer wrap(byte[] bytes) {
+        stats.allocated(bytes.length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers the pool doesn't recycle (odd capacities, or once the pool is full) are
+     * left to the garbage collector.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (maxRetainedBytes <= 0 || buffer.isDirect() != direct || buffer.isReadOnly() || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (sizeClass < MIN_CLASS || sizeClass > MAX_CLASS) {
+            return;
+        }
+        // Reserve the bytes before offering, so concurrent releases can't overshoot the limit together.
+        if (retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-capacity);
+            return;
+        }
+
+        stats.addRetained(capacity);
+        classes[sizeClass].offer(buffer);
+    }
+
+    /**
+     *
+     * @param initialSize expected number of bytes to be written
+     * @return an OutputStream writing into pooled buffers
+     */
+    public BufferOutputStream newOutputStream(int initialSize) {
+        return new BufferOutputStream(initialSize);
+    }
+
+    /**
+     *
+     * @param buffer
+     * @return the bytes between the buffer's position and limit: its backing array if that holds exactly those bytes, else a copy
+     */
+    public static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     *
+     * @param a
+     * @param b
+     * @return whether two buffers are backed by the same storage, so releasing one would release the other
+     */
+    public static boolean sharesStorage(ByteBuffer a, ByteBuffer b) {
+        return a == b || (a.hasArray() && b.hasArray() && a.array() == b.array());
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+
+    /**
+     * OutputStream that writes into a pooled buffer, trading it for one twice as large when it fills up.
+     */
+    public class BufferOutputStream extends OutputStream {
+        private ByteBuffer buffer;
+
+        private BufferOutputStream(int initialSize) {
+            buffer = acquire(initialSize);
+            buffer.limit(buffer.capacity());
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureRemaining(length);
+            buffer.put(bytes, offset, length);
+        }
+
+        /**
+         * Stops writing.
+         * @return the written bytes, positioned at 0; the caller owns the buffer
+         */
+        public ByteBuffer toBuffer() {
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Stops writing and returns the buffer to the pool, discarding the written bytes.
+         */
+        public void discard() {
+            release(buffer);
+        }
+
+        private void ensureRemaining(int length) {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            ByteBuffer larger = acquire(Math.max(buffer.position() + length, buffer.capacity() * 2));
+            larger.limit(larger.capacity());
+            buffer.flip();
+            larger.put(buffer);
+            release(buffer);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PumpRecord;
+
+import java.io.IOException;
+
+/**
+ * Numbers the records of one partition of a Job in read order, so their acks can be checkpointed. When the Job
+ * resumes, the partition's records below its checkpoint are read and dropped instead of being sent again.
+ */
+public class PositionedRecordReader implements RecordReader {
+    private final RecordReader recordReader;
+    private final String partition;
+    private final CheckpointTracker checkpointTracker;
+    private final PayloadBufferPool payloadBufferPool;
+    private final long resumeOffset;
+    private long offset = 0;
+
+    /**
+     *
+     * @param recordReader      reads the partition's records, in the same order every time
+     * @param partition         names the partition in checkpoints
+     * @param checkpointTracker
+     * @param payloadBufferPool takes back the payloads of skipped records
+     */
+    public PositionedRecordReader(RecordReader recordReader, String partition, CheckpointTracker checkpointTracker, PayloadBufferPool payloadBufferPool) {
+        this.recordReader = recordReader;
+        this.partition = partition;
+        this.checkpointTracker = checkpointTracker;
+        this.payloadBufferPool = payloadBufferPool;
+        this.resumeOffset = checkpointTracker.resumeOffset(partition);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws Exception {
+        while (true) {
+            PumpRecord record = recordReader.read();
+            if (record == null) {
+                checkpointTracker.finished(partition, offset);
+                return null;
+            }
+
+            long position = offset++;
+            if (position < resumeOffset) {
+                payloadBufferPool.release(record.getKinesisRecord().getData());
+                continue;
+            }
+            record.setPosition(partition, position);
+            return record;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        recordReader.close();
+    }
+}
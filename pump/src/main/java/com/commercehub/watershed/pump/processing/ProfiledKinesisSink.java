@@ -0,0 +1,222 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
+import com.commercehub.watershed.pump.model.ProducerProfile;
+import com.commercehub.watershed.pump.model.ProducerProfileStats;
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.commercehub.watershed.pump.service.KinesisProducerPool;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends a Kinesis Job's records through a shared producer tuned to the sizes of the Job's records. Unless the Job
+ * names its profile, its first records are held and measured, then the profile suited to their median size is
+ * chosen and they are sent, along with the rest, through a producer with that profile. A Job with fewer records than
+ * the sample has its profile chosen from what it has once it is flushed. The Job's own producer settings override
+ * the profile's.
+ */
+public class ProfiledKinesisSink implements RecordSink {
+    private static final Logger log = LoggerFactory.getLogger(ProfiledKinesisSink.class);
+
+    private final KinesisProducerPool kinesisProducerPool;
+    private final PumpSettings pumpSettings;
+    private final int sampleRecords;
+    private final ProducerProfileStats stats;
+    private final RecordSizeHistogram histogram = new RecordSizeHistogram();
+    private List<HeldRecord> held = new ArrayList<>();
+    private volatile RecordSink delegate;
+    private KinesisProducerConfiguration leased;
+
+    /**
+     *
+     * @param kinesisProducerPool   shares producers with other Jobs
+     * @param pumpSettings          the Job's profile and producer settings
+     * @param sampleRecords         the number of records measured to choose a profile; 0 for the DEFAULT profile
+     * @param stats                 updated with the sampled sizes and the chosen profile
+     */
+    public ProfiledKinesisSink(KinesisProducerPool kinesisProducerPool, PumpSettings pumpSettings, int sampleRecords, ProducerProfileStats stats) {
+        this.kinesisProducerPool = kinesisProducerPool;
+        this.pumpSettings = pumpSettings;
+        this.sampleRecords = sampleRecords;
+        this.stats = stats;
+
+        if (pumpSettings.getProducerProfile() != null) {
+            choose(pumpSettings.getProducerProfile());
+        }
+        else if (sampleRecords <= 0) {
+            choose(ProducerProfile.DEFAULT);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ListenableFuture<SinkRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+        if (delegate != null) {
+            return delegate.addUserRecord(stream, partitionKey, explicitHashKey, data);
+        }
+
+        synchronized (this) {
+            if (delegate != null) {
+                return delegate.addUserRecord(stream, partitionKey, explicitHashKey, data);
+            }
+
+            histogram.add(data.remaining());
+            // The caller releases the payload once this returns.
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate()).flip();
+            HeldRecord record = new HeldRecord(stream, partitionKey, explicitHashKey, copy);
+            held.add(record);
+
+            if (held.size() >= sampleRecords) {
+                chooseFromSample();
+            }
+            return record.result;
+        }
+    }
+
+    /**
+     * @return the number of the Job's records sent but not yet acked; held records aren't sent, so aren't counted
+     */
+    @Override
+    public long getOutstandingRecordsCount() {
+        RecordSink sink = delegate;
+        return sink != null ? sink.getOutstandingRecordsCount() : 0;
+    }
+
+    /**
+     * Sends any held records, choosing the profile from what was sampled, without waiting for them to be acked.
+     */
+    @Override
+    public void flush() {
+        RecordSink sink = sendHeld();
+        if (sink != null) {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Sends any held records, choosing the profile from what was sampled, and waits until every record of the Job
+     * has been acked.
+     */
+    @Override
+    public void flushSync() {
+        RecordSink sink = sendHeld();
+        if (sink != null) {
+            sink.flushSync();
+        }
+    }
+
+    /**
+     * Sends any held records; like every record already sent, they are still sent after the sink is destroyed. Ends
+     * the Job's lease of its producer configuration.
+     */
+    @Override
+    public void destroy() {
+        RecordSink sink = sendHeld();
+        if (sink != null) {
+            sink.destroy();
+        }
+        synchronized (this) {
+            if (leased != null) {
+                kinesisProducerPool.release(leased);
+                leased = null;
+            }
+        }
+    }
+
+    /**
+     * @return the sink records are sent to, or null if no record was sent or held
+     */
+    private synchronized RecordSink sendHeld() {
+        if (delegate == null && !held.isEmpty()) {
+            chooseFromSample();
+        }
+        return delegate;
+    }
+
+    private void chooseFromSample() {
+        long median = histogram.percentile(0.5);
+        stats.sampled(histogram.getCount(), median, histogram.percentile(0.9), histogram.getMax(), histogram.toMap());
+        choose(ProducerProfile.forRecordSize(median));
+    }
+
+    /**
+     * Starts sending through a producer with the profile, tuned further by the Job's settings, and sends the held records.
+     */
+    private synchronized void choose(ProducerProfile profile) {
+        // The pool may hand out its default configuration instead, if too many tuned ones are in use.
+        KinesisProducerConfiguration configuration = kinesisProducerPool.lease(kinesisProducerPool.configure(
+                first(pumpSettings.getProducerRecordMaxBufferedTime(), profile.getRecordMaxBufferedTime()),
+                first(pumpSettings.getProducerAggregationMaxSize(), profile.getAggregationMaxSize()),
+                first(pumpSettings.getProducerCollectionMaxCount(), profile.getCollectionMaxCount()),
+                first(pumpSettings.getProducerMaxConnections(), profile.getMaxConnections())));
+        leased = configuration;
+        log.info("Sending records with the {} producer profile, having sampled {} records", profile, histogram.getCount());
+
+        RecordSink sink = new KinesisProducerSink(kinesisProducerPool.get(configuration), kinesisProducerPool);
+        for (HeldRecord record : held) {
+            record.send(sink);
+        }
+        held = new ArrayList<>();
+        delegate = sink;
+
+        stats.chosen(configuration.getRecordMaxBufferedTime(), configuration.getAggregationMaxSize(),
+                configuration.getCollectionMaxCount(), configuration.getMaxConnections(), profile);
+    }
+
+    private static Long first(Long override, Long value) {
+        return override != null ? override : value;
+    }
+
+    /**
+     * A record held until the Job's profile is chosen.
+     */
+    private static class HeldRecord {
+        final String stream;
+        final String partitionKey;
+        final String explicitHashKey;
+        final ByteBuffer data;
+        final SettableFuture<SinkRecordResult> result = SettableFuture.create();
+
+        HeldRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+            this.stream = stream;
+            this.partitionKey = partitionKey;
+            this.explicitHashKey = explicitHashKey;
+            this.data = data;
+        }
+
+        void send(RecordSink sink) {
+            ListenableFuture<SinkRecordResult> sent;
+            try {
+                sent = sink.addUserRecord(stream, partitionKey, explicitHashKey, data);
+            }
+            catch (RuntimeException e) {
+                result.setException(e);
+                return;
+            }
+
+            Futures.addCallback(sent, new FutureCallback<SinkRecordResult>() {
+                @Override
+                public void onSuccess(SinkRecordResult sinkRecordResult) {
+                    result.set(sinkRecordResult);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    result.setException(t);
+                }
+            });
+        }
+    }
+}
@@ -1,81 +1,208 @@
 package com.commercehub.watershed.pump.processing;
 
 import com.amazonaws.services.kinesis.model.Record;
-import com.amazonaws.services.kinesis.producer.KinesisProducer;
-import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.commercehub.watershed.pump.model.ArchiveFileSummary;
+import com.commercehub.watershed.pump.model.Checkpoint;
+import com.commercehub.watershed.pump.model.CompactionStats;
+import com.commercehub.watershed.pump.model.CompressionStats;
+import com.commercehub.watershed.pump.model.DedupStats;
 import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PayloadCompression;
 import com.commercehub.watershed.pump.model.PumpRecord;
 import com.commercehub.watershed.pump.model.PumpRecordResult;
 import com.commercehub.watershed.pump.model.PumpSettings;
-import com.commercehub.watershed.pump.respositories.DrillRepository;
+import com.commercehub.watershed.pump.model.PayloadStats;
+import com.commercehub.watershed.pump.model.ProducerProfileStats;
+import com.commercehub.watershed.pump.model.RateControlStats;
+import com.commercehub.watershed.pump.model.ReadAheadStats;
+import com.commercehub.watershed.pump.model.RecordDestination;
+import com.commercehub.watershed.pump.model.RecordFormat;
+import com.commercehub.watershed.pump.model.RecordSource;
+import com.commercehub.watershed.pump.model.RetryStats;
+import com.commercehub.watershed.pump.model.ShardBalancing;
+import com.commercehub.watershed.pump.model.ShardLoadStats;
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.commercehub.watershed.pump.respositories.ColumnPlan;
+import com.commercehub.watershed.pump.service.BufferTransformer;
 import com.commercehub.watershed.pump.service.KinesisService;
+import com.commercehub.watershed.pump.service.PayloadCompressor;
+import com.commercehub.watershed.pump.service.RecordSinkFactory;
 import com.google.common.base.Function;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
 import rx.Subscriber;
+import rx.exceptions.Exceptions;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.observable.ListenableFutureObservable;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Take from the Drill, give to the Kinesis.
  */
 public class Pump {
     private static final Logger log = LoggerFactory.getLogger(Pump.class);
+    private static final String QUERY_PARTITION = "query";
+    private static final String COMPACTED_PARTITION = "compacted";
+    private static final Pattern ORDER_BY = Pattern.compile("\\bORDER\\s+BY\\b", Pattern.CASE_INSENSITIVE);
 
     //TODO produce metrics
 
-    private Connection connection;
+    private Provider<Connection> connectionProvider;
     private int shardCount;
     private Function<byte[], byte[]> recordTransformer;
-    private KinesisProducer kinesisProducer;
+    private RecordSink recordSink;
     private PumpSettings pumpSettings;
     private int maxRecordsPerShardPerSecond; //Kinesis service limit, at least prior to aggregation
     private int producerRateLimit;
+    private int readAheadBufferSize;
+    private ExecutorService transformExecutor;
+    private int transformParallelism;
+    private int transformQueueDepth;
+    private ReadAheadStats readAheadStats = new ReadAheadStats();
+    private PayloadStats payloadStats = new PayloadStats();
+    private PayloadBufferPool payloadBufferPool;
+    private int compressionDictionaryBytes;
+    private CompressionStats compressionStats = new CompressionStats();
+    private long compactionMemoryBytes;
+    private File compactionSpillDirectory;
+    private File archiveTimeIndexDirectory;
+    private CompactionStats compactionStats = new CompactionStats();
+    private long dedupMemoryBytes;
+    private DedupStats dedupStats = new DedupStats();
+    private boolean adaptiveRateControl;
+    private long adaptiveRateIntervalMillis;
+    private RateControlStats rateControlStats;
+    private KinesisService kinesisService;
+    private int maxPinnedPartitionKeys;
+    private ShardLoadStats shardLoadStats;
+    private ProducerProfileStats producerProfileStats;
+    private RetryStats retryStats = new RetryStats();
+    private RetryQueue retryQueue;
+    private DeadLetterSpool deadLetterSpool;
+    private AvroSchemaCache schemaCache;
+    private CheckpointTracker checkpointTracker;
 
     /**
      *
-     * @param connection                    Database connection.
-     * @param kinesisProducer               Produces records for Kinesis.
+     * @param connectionProvider            Provides a database connection for each (sub-)query.
+     * @param recordSinkFactory             Creates the sink records are sent to: Kinesis, files or memory.
      * @param kinesisService                Communicates with Kinesis to retrieve information about Kinesis streams.
      * @param maxRecordsPerShardPerSecond   The maximum number of records per shard per second that Pump is allowed to handle.
+     * @param producerRateLimit             The KPL rate limit, as a percentage of the shard limits.
+     * @param readAheadBufferSize           Default number of records each reader buffers ahead of publishing; 0 to read on demand.
+     * @param transformExecutor             Runs record transformations when they are spread over more than one lane.
+     * @param transformParallelism          Default number of records transformed at the same time; 0 for one per processor.
+     * @param transformQueueDepth           Default number of records that may wait for or be in transformation.
+     * @param payloadBufferPoolMaxBytes     The most bytes of idle payload buffers kept for reuse; 0 disables pooling.
+     * @param payloadBufferDirect           Whether pooled payload buffers are allocated off-heap.
+     * @param compressionDictionaryBytes    The most bytes a trained zstd compression dictionary may take.
+     * @param compactionMemoryBytes         The off-heap bytes a compacted Job's key index may take before spilling.
+     * @param compactionSpillDirectory      Where compaction indexes spill; empty for the temporary directory.
+     * @param dedupMemoryBytes              Default number of bytes a deduplicated Job's Bloom filter may take.
+     * @param adaptiveRateControl           Whether Kinesis Jobs adapt their send rate to throttling by default.
+     * @param adaptiveRateIntervalMillis    How often an adaptive send rate is adjusted.
+     * @param maxPinnedPartitionKeys        The most partition keys a Job balancing its shards with PIN_KEYS pins.
+     * @param maxRecordRetries              Default number of times a failed record is sent again before it is dead-lettered.
+     * @param retryBackoffMillis            The most a failed record waits before its first retry; doubled for each further retry.
+     * @param maxRetryBackoffMillis         The most a failed record waits before any retry.
+     * @param maxQueuedRetries              The most failed records waiting to be sent again at once; others are dead-lettered at once.
+     * @param deadLetterDirectory           Where records that fail for good are spooled.
+     * @param archiveTimeIndexDirectory     Where archive time indexes are kept; empty for each archive's root.
      * @param pumpSettings                  The settings that determine where Pump will look for records and where to send them.
      * @param recordTransformer             A {@code Function} that will transform records on the byte level.
+     * @param schemaCache                   The Job's Avro schemas, shared with the record transformer.
+     * @param resumeFrom                    The checkpoint to resume the Job from; empty to start from the beginning.
      */
     @Inject
     public Pump(
-            Connection connection,
-            KinesisProducer kinesisProducer,
+            Provider<Connection> connectionProvider,
+            RecordSinkFactory recordSinkFactory,
             KinesisService kinesisService,
             @Named("maxRecordsPerShardPerSecond") int maxRecordsPerShardPerSecond,
             @Named("producerRateLimit") int producerRateLimit,
+            @Named("readAheadBufferSize") int readAheadBufferSize,
+            @Named("transformExecutor") ExecutorService transformExecutor,
+            @Named("transformParallelism") int transformParallelism,
+            @Named("transformQueueDepth") int transformQueueDepth,
+            @Named("payloadBufferPoolMaxBytes") long payloadBufferPoolMaxBytes,
+            @Named("payloadBufferDirect") boolean payloadBufferDirect,
+            @Named("compressionDictionaryBytes") int compressionDictionaryBytes,
+            @Named("compactionMemoryBytes") long compactionMemoryBytes,
+            @Named("compactionSpillDirectory") String compactionSpillDirectory,
+            @Named("dedupMemoryBytes") long dedupMemoryBytes,
+            @Named("adaptiveRateControl") boolean adaptiveRateControl,
+            @Named("adaptiveRateIntervalMillis") long adaptiveRateIntervalMillis,
+            @Named("maxPinnedPartitionKeys") int maxPinnedPartitionKeys,
+            @Named("maxRecordRetries") int maxRecordRetries,
+            @Named("retryBackoffMillis") long retryBackoffMillis,
+            @Named("maxRetryBackoffMillis") long maxRetryBackoffMillis,
+            @Named("maxQueuedRetries") int maxQueuedRetries,
+            @Named("deadLetterDirectory") String deadLetterDirectory,
+            @Named("archiveTimeIndexDirectory") String archiveTimeIndexDirectory,
             @Assisted PumpSettings pumpSettings,
-            @Assisted Function<byte[], byte[]> recordTransformer) {
-
-        this.connection = connection;
-        this.kinesisProducer = kinesisProducer;
+            @Assisted Function<byte[], byte[]> recordTransformer,
+            @Assisted AvroSchemaCache schemaCache,
+            @Assisted Checkpoint resumeFrom) {
+
+        this.connectionProvider = connectionProvider;
+        boolean kinesis = pumpSettings.getRecordDestination() == null || pumpSettings.getRecordDestination() == RecordDestination.KINESIS;
+        this.producerProfileStats = kinesis ? new ProducerProfileStats() : null;
+        this.recordSink = recordSinkFactory.create(pumpSettings, producerProfileStats);
         this.maxRecordsPerShardPerSecond = maxRecordsPerShardPerSecond;
         this.producerRateLimit = producerRateLimit;
+        this.readAheadBufferSize = readAheadBufferSize;
+        this.transformExecutor = transformExecutor;
+        this.transformParallelism = transformParallelism;
+        this.transformQueueDepth = transformQueueDepth;
+        this.payloadBufferPool = new PayloadBufferPool(payloadBufferPoolMaxBytes, payloadBufferDirect, payloadStats);
+        this.compressionDictionaryBytes = compressionDictionaryBytes;
+        this.compactionMemoryBytes = compactionMemoryBytes;
+        this.compactionSpillDirectory = compactionSpillDirectory == null || compactionSpillDirectory.isEmpty() ? null : new File(compactionSpillDirectory);
+        this.dedupMemoryBytes = dedupMemoryBytes;
+        this.adaptiveRateControl = adaptiveRateControl;
+        this.adaptiveRateIntervalMillis = adaptiveRateIntervalMillis;
+        this.maxPinnedPartitionKeys = maxPinnedPartitionKeys;
+        int maxRetries = pumpSettings.getMaxRetries() != null ? pumpSettings.getMaxRetries() : maxRecordRetries;
+        this.retryQueue = new RetryQueue(maxRetries, retryBackoffMillis, maxRetryBackoffMillis, maxQueuedRetries, retryStats);
+        this.deadLetterSpool = new DeadLetterSpool(new File(deadLetterDirectory), pumpSettings.getStreamOut(), retryStats);
+        this.archiveTimeIndexDirectory = archiveTimeIndexDirectory == null || archiveTimeIndexDirectory.isEmpty() ? null : new File(archiveTimeIndexDirectory);
+        this.kinesisService = kinesisService;
         this.pumpSettings = pumpSettings;
         this.recordTransformer = recordTransformer;
-        this.shardCount = kinesisService.countShardsInStream(pumpSettings.getStreamOut());
+        this.schemaCache = schemaCache;
+        this.checkpointTracker = new CheckpointTracker(resumeFrom);
+        // Other sinks have no shards; their read-ahead is sized as if for a single shard.
+        this.shardCount = kinesis ? kinesisService.countShardsInStream(pumpSettings.getStreamOut()) : 1;
     }
 
     /**
-     * Defines an Observable pipeline to issue a query, transform records, and publish records to Kinesis. Does not
+     * Defines an Observable pipeline to issue a query, transform records, and publish records to the Job's sink. Does not
      * actually start pumping until the caller subscribes. The caller should monitor the Subscription for
      * non-recoverable errors by implementing {@code onError}, as well as checking every result for errors if they are
      * to be reported. To cancel pumping, unsubscribe.
@@ -99,180 +226,728 @@ public class Pump {
         }
 
 
-        Observable<PumpRecord> dbRecords = Observable.create(new Observable.OnSubscribe<PumpRecord>() {
+        Observable<PumpRecord> transformedRecords;
+        if (pumpSettings.getRecordSource() == RecordSource.DEAD_LETTER) {
+            // Dead letters were spooled as they were sent.
+            transformedRecords = sourceRecords();
+        }
+        else if (pumpSettings.getCompression() == null || pumpSettings.getCompression() == PayloadCompression.NONE) {
+            transformedRecords = transform(sourceRecords(), null);
+        }
+        else {
+            transformedRecords = payloadCompressor().concatMap(new Func1<PayloadCompressor, Observable<PumpRecord>>() {
+                @Override
+                public Observable<PumpRecord> call(PayloadCompressor payloadCompressor) {
+                    return transform(sourceRecords(), payloadCompressor);
+                }
+            });
+        }
+
+        final AimdRateController rateController = rateController();
+        final HashKeyBalancer hashKeyBalancer = hashKeyBalancer();
+        // The sink may hold records back (e.g. to sample them); it must send them before the results can complete.
+        Observable<PumpRecordResult> pubResults = transformedRecords.doOnCompleted(new Action0() {
             @Override
-            public void call(final Subscriber<? super PumpRecord> subscriber) {
-                subscriber.onStart();
-                final ResultSet resultSet = executeQuery(subscriber, connection);
+            public void call() {
+                recordSink.flush();
+            }
+        }).flatMap(
+                new Func1<PumpRecord, Observable<PumpRecordResult>>() {
+                    @Override
+                    public Observable<PumpRecordResult> call(PumpRecord pumpRecord) {
+                        return send(pumpRecord, 0, rateController, hashKeyBalancer);
+                    }
+                });
 
-                JdbcRecordProducer jdbcRecordProducer = new JdbcRecordProducer(subscriber, resultSet, connection, pumpSettings);
-                subscriber.setProducer(jdbcRecordProducer);
+        return pubResults.doOnNext(new Action1<PumpRecordResult>() {
+            @Override
+            public void call(PumpRecordResult pumpRecordResult) {
+                checkpointTracker.acked(pumpRecordResult.getPartition(), pumpRecordResult.getOffset());
+                if (rateController != null) {
+                    rateController.acked(pumpRecordResult.getSinkRecordResult());
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends a record to the Job's sink. A record the destination fails is sent again after a backoff, without holding
+     * up the records behind it, until it succeeds or runs out of retries and is written to the dead-letter spool.
+     * The record's payload is kept until then. With adaptive rate control, this blocks the thread emitting the record
+     * until the rate allows it to be sent; see {@link AimdRateController#acquire()}.
+     *
+     * @param retries the number of times the record was already sent again
+     * @return an Observable emitting the record's final result
+     */
+    private Observable<PumpRecordResult> send(final PumpRecord pumpRecord, final int retries,
+                                              final AimdRateController rateController, final HashKeyBalancer hashKeyBalancer) {
+        log.debug("Adding record to sink");
 
-                jdbcRecordProducer.request(shardCount * maxRecordsPerShardPerSecond * producerRateLimit / 200);
+        final Record kinesisRecord = pumpRecord.getKinesisRecord();
+
+        ListenableFuture<SinkRecordResult> result;
+        try {
+            if (rateController != null) {
+                rateController.acquire();
             }
+            String explicitHashKey = hashKeyBalancer != null ?
+                    hashKeyBalancer.assign(kinesisRecord.getPartitionKey(), kinesisRecord.getData().remaining()) : null;
+            // Sinks may consume the buffer they are given; the payload itself is kept for a retry.
+            result = recordSink.addUserRecord(pumpSettings.getStreamOut(), kinesisRecord.getPartitionKey(), explicitHashKey, kinesisRecord.getData().duplicate());
+        }
+        catch (RuntimeException e) {
+            payloadBufferPool.release(kinesisRecord.getData());
+            throw e;
+        }
 
-            private ResultSet executeQuery(Subscriber<?> subscriber, Connection connection) {
-                ResultSet resultSet;
-                try {
-                    log.info("Executing JDBC query {}", pumpSettings.getQueryIn());
-                    resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(pumpSettings.getQueryIn());
-                    log.info("Got a JDBC ResultSet, streaming results.");
-                    resultSet.setFetchSize(Integer.MIN_VALUE);
+        return ListenableFutureObservable.from(combine(result, pumpRecord), Schedulers.io())
+                .onErrorResumeNext(new Func1<Throwable, Observable<PumpRecordResult>>() {
+                    @Override
+                    public Observable<PumpRecordResult> call(Throwable e) {
+                        // Sinks complete records they gave up on with a failed result; other errors abort the Job.
+                        payloadBufferPool.release(kinesisRecord.getData());
+                        return Observable.error(e);
+                    }
+                })
+                .concatMap(new Func1<PumpRecordResult, Observable<PumpRecordResult>>() {
+                    @Override
+                    public Observable<PumpRecordResult> call(PumpRecordResult pumpRecordResult) {
+                        if (pumpRecordResult.getSinkRecordResult().isSuccessful()) {
+                            if (retries > 0) {
+                                retryStats.recovered();
+                            }
+                            payloadBufferPool.release(kinesisRecord.getData());
+                            return Observable.just(pumpRecordResult);
+                        }
+
+                        if (retryQueue.offer(retries)) {
+                            long backoffMillis = retryQueue.backoffMillis(retries);
+                            log.debug("Sending failed record again in {} ms", backoffMillis);
+                            return Observable.timer(backoffMillis, TimeUnit.MILLISECONDS, Schedulers.io())
+                                    .concatMap(new Func1<Long, Observable<PumpRecordResult>>() {
+                                        @Override
+                                        public Observable<PumpRecordResult> call(Long tick) {
+                                            retryQueue.retried();
+                                            return send(pumpRecord, retries + 1, rateController, hashKeyBalancer);
+                                        }
+                                    });
+                        }
+
+                        try {
+                            deadLetterSpool.write(kinesisRecord.getPartitionKey(), pumpRecordResult.getSinkRecordResult().getLastErrorCode(), kinesisRecord.getData());
+                        }
+                        catch (IOException e) {
+                            return Observable.error(e);
+                        }
+                        finally {
+                            payloadBufferPool.release(kinesisRecord.getData());
+                        }
+                        return Observable.just(pumpRecordResult);
+                    }
+                });
+    }
+
+    /**
+     * @return a controller adapting the send rate to the stream's throttling, or null if the Job sends at the
+     * producer's static rate limit
+     */
+    private AimdRateController rateController() {
+        boolean adaptive = pumpSettings.getAdaptiveRate() != null ? pumpSettings.getAdaptiveRate() : adaptiveRateControl;
+        boolean kinesis = pumpSettings.getRecordDestination() == null || pumpSettings.getRecordDestination() == RecordDestination.KINESIS;
+        double maxRate = shardCount * maxRecordsPerShardPerSecond * producerRateLimit / 100.0;
+        if (!adaptive || !kinesis || maxRate <= 0) {
+            return null;
+        }
+        rateControlStats = new RateControlStats();
+        return new AimdRateController(maxRate, adaptiveRateIntervalMillis, recordSink, rateControlStats);
+    }
+
+    /**
+     * @return a balancer picking each record's shard, or null if Kinesis hashes partition keys unobserved
+     */
+    private HashKeyBalancer hashKeyBalancer() {
+        ShardBalancing balancing = pumpSettings.getShardBalancing() != null ? pumpSettings.getShardBalancing() : ShardBalancing.NONE;
+        boolean kinesis = pumpSettings.getRecordDestination() == null || pumpSettings.getRecordDestination() == RecordDestination.KINESIS;
+        if (balancing == ShardBalancing.NONE || !kinesis) {
+            return null;
+        }
+
+        List<Shard> shards = kinesisService.listOpenShards(pumpSettings.getStreamOut());
+        if (shards.isEmpty()) {
+            log.warn("Stream {} has no open shards to balance", pumpSettings.getStreamOut());
+            return null;
+        }
+        log.info("Balancing records over {} shards with {}", shards.size(), balancing);
+        shardLoadStats = new ShardLoadStats();
+        return new HashKeyBalancer(shards, balancing, maxRecordsPerShardPerSecond, maxPinnedPartitionKeys, shardLoadStats);
+    }
+
+    /**
+     * Transforms and compresses records, several at a time if the Job asks for transform parallelism.
+     *
+     * @param payloadCompressor compresses transformed payloads, or null to send them uncompressed
+     */
+    private Observable<PumpRecord> transform(Observable<PumpRecord> records, final PayloadCompressor payloadCompressor) {
+        if (recordTransformer == null && payloadCompressor == null) {
+            return records;
+        }
+
+        Func1<PumpRecord, PumpRecord> transform = new Func1<PumpRecord, PumpRecord>() {
+            @Override
+            public PumpRecord call(PumpRecord pumpRecord) {
+                log.trace("Transforming record");
+                Record kinesisRecord = pumpRecord.getKinesisRecord();
+                ByteBuffer data = kinesisRecord.getData();
+                if (recordTransformer != null) {
+                    data = replace(data, transformPayload(data));
                 }
-                catch (Exception e) {
-                    resultSet = null;
-                    subscriber.onError(e);
+                if (payloadCompressor != null) {
+                    data = replace(data, payloadCompressor.transform(data, payloadBufferPool));
                 }
 
-                return resultSet;
+                // Records aren't shared between stages, so the payload is swapped in place rather than cloning.
+                kinesisRecord.setData(data);
+                return pumpRecord;
             }
-        }).subscribeOn(Schedulers.io());
+        };
 
-        Observable<PumpRecord> transformedRecords;
-        if (recordTransformer != null) {
-            transformedRecords = dbRecords.map(new Func1<PumpRecord, PumpRecord>() {
-                @Override
-                public PumpRecord call(PumpRecord pumpRecord) {
-                    log.trace("Transforming record");
-                    byte[] transformedData = recordTransformer.apply(pumpRecord.getKinesisRecord().getData().array());
-
-                    Record transformedKinesisRecord = pumpRecord.getKinesisRecord()
-                            .clone()
-                            .withData(ByteBuffer.wrap(transformedData));
+        int parallelism = transformParallelism();
+        if (parallelism > 1) {
+            int queueDepth = pumpSettings.getTransformQueueDepth() != null ? pumpSettings.getTransformQueueDepth() : transformQueueDepth;
+            log.info("Transforming records in {} lanes", parallelism);
+            return records.lift(new OrderedParallelTransform(transform, transformExecutor, parallelism, queueDepth));
+        }
+        return records.map(transform);
+    }
 
-                    return new PumpRecord(transformedKinesisRecord, pumpRecord.getDrillResultRow());
-                }
-            });
+    /**
+     * @return the transformed payload, having released the payload it replaces
+     */
+    private ByteBuffer replace(ByteBuffer data, ByteBuffer transformedData) {
+        if (!PayloadBufferPool.sharesStorage(data, transformedData)) {
+            payloadBufferPool.release(data);
         }
-        else {
-            transformedRecords = dbRecords;
+        return transformedData;
+    }
+
+    /**
+     * Creates the Job's payload compressor. When the Job asks for a zstd dictionary, its first records are read and
+     * transformed once to train it, then the Job reads them again.
+     */
+    private Observable<PayloadCompressor> payloadCompressor() {
+        final int samples = pumpSettings.getCompressionDictionarySamples() != null ? pumpSettings.getCompressionDictionarySamples() : 0;
+        if (samples == 0) {
+            return Observable.just(new PayloadCompressor(pumpSettings.getCompression(), pumpSettings.getCompressionLevel(), null, compressionStats));
         }
 
-        Observable<PumpRecordResult> pubResults = transformedRecords.flatMap(
-                new Func1<PumpRecord, Observable<PumpRecordResult>>() {
+        log.info("Sampling {} records to train a compression dictionary", samples);
+        return transform(readRecords(), null).take(samples)
+                .map(new Func1<PumpRecord, byte[]>() {
                     @Override
-                    public Observable<PumpRecordResult> call(PumpRecord pumpRecord) {
-                        log.debug("Adding record to Kinesis Producer");
+                    public byte[] call(PumpRecord pumpRecord) {
+                        ByteBuffer data = pumpRecord.getKinesisRecord().getData();
+                        byte[] sample = PayloadBufferPool.toArray(data);
+                        if (!data.hasArray() || sample != data.array()) {
+                            payloadBufferPool.release(data);
+                        }
+                        return sample;
+                    }
+                })
+                .toList()
+                .map(new Func1<List<byte[]>, PayloadCompressor>() {
+                    @Override
+                    public PayloadCompressor call(List<byte[]> sampled) {
+                        byte[] dictionary = PayloadCompressor.trainDictionary(sampled, compressionDictionaryBytes);
+                        return new PayloadCompressor(pumpSettings.getCompression(), pumpSettings.getCompressionLevel(), dictionary, compressionStats);
+                    }
+                });
+    }
 
-                        Record kinesisRecord = pumpRecord.getKinesisRecord();
+    /**
+     * @return the Job's records, deduplicated and compacted to the latest record per partition key if the Job asks for it
+     */
+    private Observable<PumpRecord> sourceRecords() {
+        Observable<PumpRecord> records = readRecords();
+        if (pumpSettings.getDedup() != null && pumpSettings.getDedup()) {
+            records = deduplicate(records);
+        }
+        return pumpSettings.getCompact() != null && pumpSettings.getCompact() ? compact(records) : records;
+    }
 
-                        return ListenableFutureObservable.from(
-                                combine(kinesisProducer.addUserRecord(pumpSettings.getStreamOut(), kinesisRecord.getPartitionKey(), kinesisRecord.getData()), pumpRecord.getDrillResultRow()),
-                                Schedulers.io());
+    /**
+     * Drops records already seen, with a Bloom filter created for each subscription.
+     */
+    private Observable<PumpRecord> deduplicate(final Observable<PumpRecord> records) {
+        return Observable.defer(new Func0<Observable<PumpRecord>>() {
+            @Override
+            public Observable<PumpRecord> call() {
+                long maxBytes = pumpSettings.getDedupMemoryBytes() != null ? pumpSettings.getDedupMemoryBytes() : dedupMemoryBytes;
+                double falsePositiveRate = pumpSettings.getDedupFalsePositiveRate() != null ? pumpSettings.getDedupFalsePositiveRate() : 0.001;
+                ScalableBloomFilter filter = new ScalableBloomFilter(falsePositiveRate, maxBytes, dedupStats);
+                final RecordDeduplicator deduplicator = new RecordDeduplicator(filter, pumpSettings.getDedupIdColumn(), payloadBufferPool, dedupStats);
+                return records.filter(new Func1<PumpRecord, Boolean>() {
+                    @Override
+                    public Boolean call(PumpRecord pumpRecord) {
+                        if (deduplicator.call(pumpRecord)) {
+                            return true;
+                        }
+                        // Dropped duplicates are done with, as far as resuming is concerned.
+                        checkpointTracker.acked(pumpRecord.getPartition(), pumpRecord.getOffset());
+                        return false;
                     }
                 });
+            }
+        });
+    }
 
-        return pubResults;
+    /**
+     * Reads every record into a compaction index, then emits the latest record for each partition key. The index
+     * is closed however the Job ends.
+     */
+    private Observable<PumpRecord> compact(final Observable<PumpRecord> records) {
+        return Observable.using(
+                new Func0<CompactionIndex>() {
+                    @Override
+                    public CompactionIndex call() {
+                        return new CompactionIndex(compactionMemoryBytes, compactionSpillDirectory, payloadBufferPool, compactionStats);
+                    }
+                },
+                new Func1<CompactionIndex, Observable<PumpRecord>>() {
+                    @Override
+                    public Observable<PumpRecord> call(final CompactionIndex index) {
+                        Observable<PumpRecord> indexed = records.doOnNext(new Action1<PumpRecord>() {
+                            @Override
+                            public void call(PumpRecord pumpRecord) {
+                                try {
+                                    index.put(pumpRecord);
+                                }
+                                catch (IOException e) {
+                                    throw Exceptions.propagate(e);
+                                }
+                                finally {
+                                    payloadBufferPool.release(pumpRecord.getKinesisRecord().getData());
+                                }
+                            }
+                        }).ignoreElements();
+
+                        return indexed.concatWith(read(new RecordReaderOpener() {
+                            @Override
+                            public RecordReader open() throws IOException {
+                                log.info("Indexed {} records for compaction, emitting the latest record per key", compactionStats.getIndexedRecordCount());
+                                return index.survivors();
+                            }
+                        }, 0, COMPACTED_PARTITION));
+                    }
+                },
+                new Action1<CompactionIndex>() {
+                    @Override
+                    public void call(CompactionIndex index) {
+                        index.close();
+                    }
+                });
     }
 
     /**
-     * destroys the kinesis producer, stops emission
+     * Reads the Job's records, either from Drill or directly from archive files.
      */
-    void destroy() {
-        if (kinesisProducer != null) {
-            kinesisProducer.destroy();
-            kinesisProducer = null;
-        }
+    private Observable<PumpRecord> readRecords() {
+        return Observable.defer(new Func0<Observable<PumpRecord>>() {
+            @Override
+            public Observable<PumpRecord> call() {
+                switch (pumpSettings.getRecordSource() != null ? pumpSettings.getRecordSource() : RecordSource.DRILL) {
+                    case ARCHIVE:
+                        return readArchive();
+                    case DEAD_LETTER:
+                        return readDeadLetters();
+                    default:
+                        return readQuery();
+                }
+            }
+        }).subscribeOn(Schedulers.io());
     }
 
     /**
-     * Instructs the kinesisProducer to flush all records and waits until all
-     * records are complete (either succeeding or failing).
+     * Reads the query, split into sub-queries if the Job asks for read partitions. Each sub-query runs on its own
+     * connection and io thread; their records are merged into a single stream.
      */
-    void flushSync() {
-        log.info("Attempting sync flush of about {} records", kinesisProducer.getOutstandingRecordsCount());
-        kinesisProducer.flushSync();
+    private Observable<PumpRecord> readQuery() {
+        return Observable.defer(new Func0<Observable<PumpRecord>>() {
+            @Override
+            public Observable<PumpRecord> call() {
+                List<String> queries;
+                try {
+                    queries = QueryPartitioner.partition(pumpSettings, archiveTimeIndexDirectory);
+                }
+                catch (Exception e) {
+                    return Observable.error(e);
+                }
+                warnIfResumingUnordered(queries.size());
+
+                if (queries.size() == 1) {
+                    return checkpointTracker.isCompleted(QUERY_PARTITION) ?
+                            Observable.<PumpRecord>empty() : read(queryReader(queries.get(0)), initialDemand(), QUERY_PARTITION);
+                }
+
+                log.info("Reading query with {} partitions", queries.size());
+                List<Observable<PumpRecord>> partitions = new ArrayList<>(queries.size());
+                for (int i = 0; i < queries.size(); i++) {
+                    String partition = QUERY_PARTITION + "-" + i;
+                    if (!checkpointTracker.isCompleted(partition)) {
+                        partitions.add(read(queryReader(queries.get(i)), 0, partition).subscribeOn(Schedulers.io()));
+                    }
+                }
+                return Observable.merge(partitions);
+            }
+        });
     }
 
     /**
-     *
-     * @return outstanding record count that hasn't been emitted yet
+     * Resumed partitions skip their first records by position, which is only right if the query returns its rows in
+     * the same order every time.
      */
-    long countPending() {
-        return kinesisProducer.getOutstandingRecordsCount();
+    private void warnIfResumingUnordered(int partitions) {
+        for (int i = 0; i < partitions; i++) {
+            String partition = partitions == 1 ? QUERY_PARTITION : QUERY_PARTITION + "-" + i;
+            if (checkpointTracker.resumeOffset(partition) > 0) {
+                if (!ORDER_BY.matcher(pumpSettings.getQueryIn()).find()) {
+                    log.warn("Resuming a query without an ORDER BY; records may be skipped or sent twice unless Drill "
+                            + "returns its rows in the same order as before.");
+                }
+                return;
+            }
+        }
     }
 
-    //Combine Future<UserRecordResult> and Record
-    private ListenableFuture<PumpRecordResult> combine(ListenableFuture<UserRecordResult> futureUserRecordResult, final DrillResultRow drillResultRow) {
+    /**
+     * Reads raw records straight from the archive files under the Job's archive path, bypassing Drill. Files are
+     * read and decompressed in parallel, each on its own io thread. AVRO sources are read as Avro container files.
+     */
+    private Observable<PumpRecord> readArchive() {
+        return Observable.defer(new Func0<Observable<PumpRecord>>() {
+            @Override
+            public Observable<PumpRecord> call() {
+                final File root = new File(pumpSettings.getArchivePath());
+                List<File> files;
+                try {
+                    files = pumpSettings.isTimeBounded() ? timeBoundedFiles(root) : ArchiveFiles.list(root);
+                }
+                catch (IOException e) {
+                    return Observable.error(e);
+                }
 
-        return Futures.transform(futureUserRecordResult, new AsyncFunction<UserRecordResult, PumpRecordResult>() {
+                log.info("Reading {} archive files under {}", files.size(), root);
+                List<Observable<PumpRecord>> fileRecords = new ArrayList<>(files.size());
+                for (final File file : files) {
+                    String partition = ArchiveFiles.relativePath(root, file);
+                    if (checkpointTracker.isCompleted(partition)) {
+                        continue;
+                    }
+                    fileRecords.add(read(new RecordReaderOpener() {
+                        @Override
+                        public RecordReader open() throws IOException {
+                            log.debug("Reading archive file {}", file);
+                            if (pumpSettings.getSourceFormat() == RecordFormat.AVRO) {
+                                return new AvroFileRecordReader(root, file, pumpSettings.getPartitionKeyColumn(), schemaCache, payloadBufferPool);
+                            }
+                            return new ArchiveFileRecordReader(root, file, pumpSettings.getPartitionKeyColumn(), payloadBufferPool);
+                        }
+                    }, 0, partition).subscribeOn(Schedulers.io()));
+                }
 
-            public ListenableFuture<PumpRecordResult> apply(final UserRecordResult userRecordResult) throws Exception {
-                return Futures.immediateFuture(new PumpRecordResult(userRecordResult, drillResultRow));
+                int parallelism = pumpSettings.getArchiveReadParallelism() != null ? pumpSettings.getArchiveReadParallelism() : 1;
+                if (pumpSettings.getCompact() != null && pumpSettings.getCompact()) {
+                    // The latest record per key is the last one in path order, so files are read one at a time.
+                    parallelism = 1;
+                }
+                return Observable.merge(Observable.from(fileRecords), Math.max(1, parallelism));
             }
+        });
+    }
+
+    /**
+     * Reads the records spooled by failed Jobs, one spool file at a time, bypassing Drill.
+     */
+    private Observable<PumpRecord> readDeadLetters() {
+        return Observable.defer(new Func0<Observable<PumpRecord>>() {
+            @Override
+            public Observable<PumpRecord> call() {
+                final File root = new File(pumpSettings.getDeadLetterPath());
+                List<File> files;
+                try {
+                    files = DeadLetterSpool.list(root);
+                }
+                catch (IOException e) {
+                    return Observable.error(e);
+                }
 
+                log.info("Reading {} dead-letter spool files under {}", files.size(), root);
+                List<Observable<PumpRecord>> fileRecords = new ArrayList<>(files.size());
+                for (final File file : files) {
+                    String partition = ArchiveFiles.relativePath(root, file);
+                    if (checkpointTracker.isCompleted(partition)) {
+                        continue;
+                    }
+                    fileRecords.add(read(new RecordReaderOpener() {
+                        @Override
+                        public RecordReader open() throws IOException {
+                            log.debug("Reading dead-letter spool {}", file);
+                            return new DeadLetterRecordReader(root, file, payloadBufferPool);
+                        }
+                    }, 0, partition));
+                }
+                return Observable.concat(Observable.from(fileRecords));
+            }
         });
+    }
 
+    /**
+     * @param root the archive directory
+     * @return the archive files that may hold records in the Job's time range, per the archive's time index
+     * @throws IOException
+     */
+    private List<File> timeBoundedFiles(File root) throws IOException {
+        ArchiveTimeIndex index = new ArchiveTimeIndex(root, pumpSettings.getTimestampField(), archiveTimeIndexDirectory);
+        List<ArchiveFileSummary> summaries = index.select(pumpSettings.getTimeRangeStart(), pumpSettings.getTimeRangeEnd());
+        List<File> files = new ArrayList<>(summaries.size());
+        for (ArchiveFileSummary summary : summaries) {
+            files.add(index.fileOf(summary));
+        }
+        return files;
     }
 
     /**
-     * Producer that takes a ResultSet and turns it into Records for Kinesis emission.
+     * @param query the (sub-)query to stream
+     * @return an opener that runs the query on its own connection
      */
-    private static class JdbcRecordProducer extends SerializingProducer {
-        private final Subscriber<? super PumpRecord> subscriber;
-        private final ResultSet resultSet;
-        private final Connection connection;
-        private final PumpSettings pumpSettings;
+    private RecordReaderOpener queryReader(final String query) {
+        return new RecordReaderOpener() {
+            @Override
+            public RecordReader open() throws SQLException {
+                Connection connection = connectionProvider.get();
+                try {
+                    log.info("Executing JDBC query {}", query);
+                    ResultSet resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(query);
+                    log.info("Got a JDBC ResultSet, streaming results.");
+                    resultSet.setFetchSize(Integer.MIN_VALUE);
 
-        public JdbcRecordProducer(Subscriber<? super PumpRecord> subscriber, ResultSet resultSet, Connection connection, PumpSettings pumpSettings) {
-            this.subscriber = subscriber;
-            this.resultSet = resultSet;
-            this.connection = connection;
-            this.pumpSettings = pumpSettings;
-        }
+                    return new JdbcRecordReader(resultSet, connection, ColumnPlan.forPump(resultSet.getMetaData(), pumpSettings), payloadBufferPool);
+                }
+                catch (SQLException | RuntimeException e) {
+                    closeQuietly(connection);
+                    throw e;
+                }
+            }
+        };
+    }
 
-        /**
-         * @return whether it is okay to continue requesting items
-         */
-        @Override
-        protected boolean onItemRequested() {
-            boolean keepGoing = true;
-            try {
-                if (subscriber.isUnsubscribed()) {
-                    keepGoing = false;
-                    closeConnection();
-                } else {
-                    if (resultSet.next()) {
-                        log.trace("Got a JDBC result record");
-
-                        subscriber.onNext(getRecord(resultSet, pumpSettings.getPartitionKeyColumn(), pumpSettings.getRawDataColumn()));
-                    } else {
-                        subscriber.onCompleted();
-                        keepGoing = false;
+    /**
+     * @param opener         opens the RecordReader once subscribed
+     * @param initialDemand  number of records to read before downstream demand arrives; 0 to wait for demand
+     * @param partition      names the reader's records in the Job's checkpoints; its order must be repeatable
+     * @return an Observable that emits the reader's records as they are requested
+     */
+    private Observable<PumpRecord> read(final RecordReaderOpener opener, final long initialDemand, final String partition) {
+        return Observable.create(new Observable.OnSubscribe<PumpRecord>() {
+            @Override
+            public void call(final Subscriber<? super PumpRecord> subscriber) {
+                subscriber.onStart();
+                RecordReader recordReader;
+                try {
+                    recordReader = new PositionedRecordReader(opener.open(), partition, checkpointTracker, payloadBufferPool);
+                }
+                catch (Exception e) {
+                    subscriber.onError(e);
+                    return;
+                }
+
+                int bufferSize = pumpSettings.getReadAheadBufferSize() != null ? pumpSettings.getReadAheadBufferSize() : readAheadBufferSize;
+                if (bufferSize > 0) {
+                    recordReader = new ReadAheadRecordReader(recordReader, bufferSize, readAheadStats, payloadBufferPool, Schedulers.io());
+                }
+
+                final RecordReaderProducer producer = new RecordReaderProducer(subscriber, recordReader);
+                subscriber.setProducer(producer);
+
+                // Close the reader as soon as the subscriber leaves early (e.g. after sampling), not on its next request.
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        producer.request(1);
                     }
+                }));
+
+                if (initialDemand > 0) {
+                    producer.request(initialDemand);
                 }
-            } catch (Exception e) {
-                subscriber.onError(e);
-                keepGoing = false;
             }
-            return keepGoing;
+        });
+    }
+
+    /**
+     * Transforms a payload, through pooled buffers if the transformer supports them.
+     */
+    private ByteBuffer transformPayload(ByteBuffer data) {
+        if (recordTransformer instanceof BufferTransformer) {
+            return ((BufferTransformer) recordTransformer).transform(data, payloadBufferPool);
         }
+        return payloadBufferPool.wrap(recordTransformer.apply(PayloadBufferPool.toArray(data)));
+    }
 
-        /**
-         * closes database connection
-         */
-        private void closeConnection() {
-            try {
-                connection.close();
-            } catch (Exception e) {
-                log.warn("Failed to close database connection.", e);
-            }
+    /**
+     * @return the number of records transformed at the same time; 1 transforms on the reading thread
+     */
+    private int transformParallelism() {
+        int parallelism = pumpSettings.getTransformParallelism() != null ? pumpSettings.getTransformParallelism() : transformParallelism;
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the number of records a single source reads ahead of downstream demand
+     */
+    private long initialDemand() {
+        return Math.max(1, shardCount * maxRecordsPerShardPerSecond * producerRateLimit / 200);
+    }
+
+    /**
+     * closes a database connection, logging any failure
+     */
+    static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.warn("Failed to close database connection.", e);
         }
+    }
 
-        /**
-         *
-         * @param resultSet from the database query
-         * @param partitionKeyColumn column to use for the partition key value
-         * @param rawDataColumn column to use for the raw data
-         * @return
-         * @throws SQLException
-         */
-        private PumpRecord getRecord(ResultSet resultSet, String partitionKeyColumn, String rawDataColumn) throws SQLException{
-            Record record = new Record();
-            record.withPartitionKey(resultSet.getString(partitionKeyColumn));
-            record.withData(ByteBuffer.wrap(resultSet.getBytes(rawDataColumn)));
-
-            return new PumpRecord(record, DrillRepository.mapResultRow(resultSet));
+    /**
+     * destroys the record sink, stops emission
+     */
+    void destroy() {
+        if (recordSink != null) {
+            recordSink.destroy();
+            recordSink = null;
         }
+        deadLetterSpool.close();
+    }
+
+    /**
+     * Instructs the record sink to flush all records and waits until all
+     * records are complete (either succeeding or failing).
+     */
+    void flushSync() {
+        log.info("Attempting sync flush of about {} records", recordSink.getOutstandingRecordsCount());
+        recordSink.flushSync();
+        deadLetterSpool.flush();
+    }
+
+    /**
+     *
+     * @return live occupancy of the read-ahead buffers
+     */
+    ReadAheadStats getReadAheadStats() {
+        return readAheadStats;
+    }
+
+    /**
+     *
+     * @return allocation of the Job's payload buffers
+     */
+    PayloadStats getPayloadStats() {
+        return payloadStats;
+    }
+
+    /**
+     *
+     * @return compression of the Job's emitted payloads
+     */
+    CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     *
+     * @return progress of the Job's compaction index
+     */
+    CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    /**
+     *
+     * @return progress of the Job's deduplication filter
+     */
+    DedupStats getDedupStats() {
+        return dedupStats;
+    }
+
+    /**
+     *
+     * @return the Job's adaptive send rate, or null if it sends at the producer's static rate limit
+     */
+    RateControlStats getRateControlStats() {
+        return rateControlStats;
+    }
+
+    /**
+     *
+     * @return the records and bytes sent to each shard, or null if the Job doesn't balance or measure its shards
+     */
+    ShardLoadStats getShardLoadStats() {
+        return shardLoadStats;
+    }
+
+    /**
+     *
+     * @return the Job's producer profile and the record sizes it was chosen for, or null if the Job doesn't send to Kinesis
+     */
+    ProducerProfileStats getProducerProfileStats() {
+        return producerProfileStats;
+    }
+
+    /**
+     *
+     * @return the Job's retried and dead-lettered records
+     */
+    RetryStats getRetryStats() {
+        return retryStats;
+    }
+
+    /**
+     *
+     * @return the acks of the Job's records, from which it can be resumed
+     */
+    CheckpointTracker getCheckpointTracker() {
+        return checkpointTracker;
+    }
+
+    /**
+     *
+     * @return outstanding record count that hasn't been emitted yet
+     */
+    long countPending() {
+        return recordSink.getOutstandingRecordsCount();
+    }
+
+    //Combine Future<SinkRecordResult> and Record
+    private ListenableFuture<PumpRecordResult> combine(ListenableFuture<SinkRecordResult> futureSinkRecordResult, PumpRecord pumpRecord) {
+        final DrillResultRow drillResultRow = pumpRecord.getDrillResultRow();
+        final String partition = pumpRecord.getPartition();
+        final long offset = pumpRecord.getOffset();
+
+        return Futures.transform(futureSinkRecordResult, new AsyncFunction<SinkRecordResult, PumpRecordResult>() {
+
+            public ListenableFuture<PumpRecordResult> apply(final SinkRecordResult sinkRecordResult) throws Exception {
+                return Futures.immediateFuture(new PumpRecordResult(sinkRecordResult, drillResultRow, partition, offset));
+            }
+
+        });
+
+    }
+
+    /**
+     * Opens a RecordReader once a source is subscribed to.
+     */
+    private interface RecordReaderOpener {
+        RecordReader open() throws Exception;
     }
 }
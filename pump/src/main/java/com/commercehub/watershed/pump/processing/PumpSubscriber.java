@@ -1,9 +1,11 @@
 package com.commercehub.watershed.pump.processing;
 
+import com.commercehub.watershed.pump.model.Checkpoint;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.model.ProcessingStage;
 import com.commercehub.watershed.pump.model.PumpRecordResult;
 import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.service.CheckpointJournal;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
@@ -11,7 +13,10 @@ import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
 
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,14 +36,23 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
 
     private DrillResultRow lastSuccessfulRow;
 
+    private CheckpointJournal checkpointJournal;
+    private long checkpointIntervalMillis;
+    private long lastJournaledMillis = 0;
+    private volatile boolean finished = false;
+
     @Inject
     public PumpSubscriber(
             @Assisted Job job,
             @Assisted Pump pump,
-            @Named("numRecordsPerChunk") int numRecordsPerChunk){
+            @Named("numRecordsPerChunk") int numRecordsPerChunk,
+            CheckpointJournal checkpointJournal,
+            @Named("checkpointIntervalMillis") long checkpointIntervalMillis){
         this.job = job;
         this.pump = pump;
         this.numRecordsPerChunk = numRecordsPerChunk;
+        this.checkpointJournal = checkpointJournal;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
     }
 
     /**
@@ -53,6 +67,14 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
             job.setFailureRecordCount(0L);
         }
 
+        // Cancelled jobs journal the point they got to.
+        add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                updateCheckpoint(true);
+            }
+        }));
+
         request(numRecordsPerChunk);
     }
 
@@ -61,12 +83,17 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
      */
     @Override
     public void onCompleted() {
+        finished = true;
         if(pump != null){
             pump.flushSync();
             updateStats();
             pump.destroy();
         }
 
+        if(job != null && checkpointJournal != null){
+            checkpointJournal.delete(job.getJobId());
+        }
+
         if(job != null){
             log.info("Completed (job: {})", job.getJobId());
             job.setStage(ProcessingStage.COMPLETED_SUCCESS);
@@ -85,8 +112,22 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
 
             if(pump != null){
                 job.setPendingRecordCount(pump.countPending());
+                job.setReadAheadStats(pump.getReadAheadStats());
+                job.setPayloadStats(pump.getPayloadStats());
+                job.setCompressionStats(pump.getCompressionStats());
+                if (job.getPumpSettings() != null && Boolean.TRUE.equals(job.getPumpSettings().getCompact())) {
+                    job.setCompactionStats(pump.getCompactionStats());
+                }
+                if (job.getPumpSettings() != null && Boolean.TRUE.equals(job.getPumpSettings().getDedup())) {
+                    job.setDedupStats(pump.getDedupStats());
+                }
+                job.setRateControlStats(pump.getRateControlStats());
+                job.setShardLoadStats(pump.getShardLoadStats());
+                job.setProducerProfileStats(pump.getProducerProfileStats());
+                job.setRetryStats(pump.getRetryStats());
             }
         }
+        updateCheckpoint(false);
 
         log.info("Emitted {} records successfully, along with {} failures, in {}. Overall mean rate {}. Roughly {} records are pending.",
                 NUM_FMT.format(successCount),
@@ -96,12 +137,42 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
                 (pump != null? NUM_FMT.format(pump.countPending()) : "unknown"));
     }
 
+    /**
+     * Takes a checkpoint of the Job and, until it finishes, journals it at most once per checkpoint interval unless
+     * forced.
+     *
+     * @param force whether to journal the checkpoint regardless of the interval
+     */
+    private synchronized void updateCheckpoint(boolean force) {
+        if (job == null || pump == null) {
+            return;
+        }
+
+        Checkpoint checkpoint = pump.getCheckpointTracker().checkpoint();
+        checkpoint.setJobId(job.getJobId());
+        checkpoint.setPumpSettings(job.getPumpSettings());
+        job.setCheckpoint(checkpoint);
+
+        long now = System.currentTimeMillis();
+        if (!finished && checkpointJournal != null && (force || now - lastJournaledMillis >= checkpointIntervalMillis)) {
+            lastJournaledMillis = now;
+            try {
+                checkpointJournal.write(checkpoint);
+            }
+            catch (IOException e) {
+                log.warn("Failed to journal checkpoint of job " + job.getJobId(), e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void onError(Throwable e) {
         log.error("General failure, aborting.", e);
+        updateCheckpoint(true);
+        finished = true;
 
         if(pump != null){
             pump.destroy();
@@ -120,7 +191,7 @@ public class PumpSubscriber extends Subscriber<PumpRecordResult> {
     @Override
     public void onNext(PumpRecordResult pumpRecordResult) {
         log.trace("Got a Kinesis result.");
-        if (pumpRecordResult.getUserRecordResult().isSuccessful()) {
+        if (pumpRecordResult.getSinkRecordResult().isSuccessful()) {
             successCount.incrementAndGet();
             lastSuccessfulRow = pumpRecordResult.getDrillResultRow();
         }
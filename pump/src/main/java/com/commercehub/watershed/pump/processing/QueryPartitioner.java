@@ -0,0 +1,223 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.ArchiveFileSummary;
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.ReadPartitionStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a Job's query into sub-queries that can be read in parallel, each on its own connection.
+ * Every record of the original query is returned by exactly one sub-query.
+ */
+public class QueryPartitioner {
+    private static final Logger log = LoggerFactory.getLogger(QueryPartitioner.class);
+
+    private static final Pattern SELECT_LIST = Pattern.compile("^\\s*SELECT\\s+(?:DISTINCT\\s+)?(.*?)\\s+FROM\\s", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ALL_COLUMNS = Pattern.compile("(^|,|\\.)\\s*\\*\\s*(,|$)");
+    private static final Pattern DIRECTORY_COLUMN = Pattern.compile("dir(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private QueryPartitioner() {}
+
+    /**
+     * Splits the query by a hash of the partition key column, so records sharing a partition key keep their relative
+     * order within a single sub-query. Records with a null partition key are read by the first sub-query.
+     *
+     * @param query
+     * @param partitionKeyColumn
+     * @param partitions
+     * @return one sub-query per partition
+     */
+    public static List<String> byPartitionKeyHash(String query, String partitionKeyColumn, int partitions) {
+        List<String> queries = new ArrayList<>(partitions);
+        // Drill's mod() keeps the sign of the dividend, so a partition covers both the positive and negative remainder.
+        String column = quoteIdentifier(partitionKeyColumn);
+        String bucket = "mod(hash(" + column + "), " + partitions + ")";
+        for (int i = 0; i < partitions; i++) {
+            String predicate = bucket + " IN (" + i + ", " + (i - partitions) + ")";
+            // hash(NULL) is NULL, which matches no bucket; records without a key go to the first.
+            if (i == 0) {
+                predicate = "(" + predicate + " OR " + column + " IS NULL)";
+            }
+            queries.add("SELECT * FROM (" + query + ") WHERE " + predicate);
+        }
+        return queries;
+    }
+
+    /**
+     * Splits the query by archive directory. The archive's directories are listed from the filesystem, not queried,
+     * and dealt out round-robin, so a sub-query only names the directories it reads.
+     *
+     * @param query
+     * @param directoryColumns the directory columns (dir0, dir1, ...) to split on
+     * @param partitions
+     * @param archiveRoot      the archive directory the query reads, which dir0 is relative to
+     * @return at most one sub-query per partition
+     * @throws IOException if the archive can't be listed
+     */
+    public static List<String> byDirectory(String query, List<String> directoryColumns, int partitions, File archiveRoot) throws IOException {
+        List<String> directoryPredicates = discoverDirectories(directoryColumns, archiveRoot);
+        Collections.sort(directoryPredicates);
+
+        List<List<String>> buckets = new ArrayList<>(partitions);
+        for (int i = 0; i < Math.min(partitions, directoryPredicates.size()); i++) {
+            buckets.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < directoryPredicates.size(); i++) {
+            buckets.get(i % buckets.size()).add(directoryPredicates.get(i));
+        }
+
+        List<String> queries = new ArrayList<>(buckets.size());
+        for (List<String> bucket : buckets) {
+            StringBuilder where = new StringBuilder();
+            for (String predicate : bucket) {
+                if (where.length() > 0) {
+                    where.append(" OR ");
+                }
+                where.append("(").append(predicate).append(")");
+            }
+            queries.add("SELECT * FROM (" + query + ") WHERE " + where);
+        }
+
+        log.info("Split query across {} directories into {} sub-queries", directoryPredicates.size(), queries.size());
+        return queries;
+    }
+
+    /**
+     * Splits the query according to the Job's read partition settings. Directory partitions need the Job's archive
+     * path to list the directories; without it, or for directory columns other than dirN, the query is split by
+     * partition key hash instead.
+     *
+     * @param pumpSettings
+     * @param timeIndexDirectory where archive time indexes are kept; null for the archive root
+     * @return the sub-queries to read, or the (time bounded) query if no split is requested
+     * @throws IOException if the archive can't be listed or its time index can't be updated
+     */
+    public static List<String> partition(PumpSettings pumpSettings, File timeIndexDirectory) throws IOException {
+        String query = boundedQuery(pumpSettings, timeIndexDirectory);
+        int partitions = pumpSettings.getReadPartitions() != null ? pumpSettings.getReadPartitions() : 1;
+        if (partitions <= 1) {
+            return Collections.singletonList(query);
+        }
+
+        if (pumpSettings.getReadPartitionStrategy() == ReadPartitionStrategy.DIRECTORY) {
+            if (pumpSettings.getArchivePath() != null && directoryDepth(pumpSettings.getPartitionDirectoryColumns()) > 0) {
+                List<String> queries = byDirectory(query, pumpSettings.getPartitionDirectoryColumns(), partitions,
+                        new File(pumpSettings.getArchivePath()));
+                return queries.isEmpty() ? Collections.singletonList(query) : queries;
+            }
+            log.warn("Directory partitions need the archive path and dirN columns to list the directories; splitting by partition key hash instead");
+        }
+        return byPartitionKeyHash(query, pumpSettings.getPartitionKeyColumn(), partitions);
+    }
+
+    /**
+     * Restricts the Job's query to the archive directories holding files that may have records in the Job's time
+     * range, as found by the time index of the Job's archive path. The directories are filtered around the query,
+     * so it must select * or the directory columns (dir0, dir1, ...) those files are in.
+     *
+     * @param pumpSettings
+     * @param timeIndexDirectory where archive time indexes are kept; null for the archive root
+     * @return the query, bounded if the Job has a time range
+     * @throws IOException if the archive time index can't be updated
+     * @throws IllegalArgumentException if the query doesn't select the directory columns
+     */
+    public static String boundedQuery(PumpSettings pumpSettings, File timeIndexDirectory) throws IOException {
+        String query = pumpSettings.getQueryIn();
+        if (!pumpSettings.isTimeBounded()) {
+            return query;
+        }
+
+        ArchiveTimeIndex index = new ArchiveTimeIndex(new File(pumpSettings.getArchivePath()), pumpSettings.getTimestampField(), timeIndexDirectory);
+        List<ArchiveFileSummary> files = index.select(pumpSettings.getTimeRangeStart(), pumpSettings.getTimeRangeEnd());
+        log.info("Time range {} to {} selects {} archive files", pumpSettings.getTimeRangeStart(), pumpSettings.getTimeRangeEnd(), files.size());
+        requireDirectoryColumns(query, ArchiveTimeIndex.directoryColumnCount(files));
+        return "SELECT * FROM (" + query + ") WHERE " + ArchiveTimeIndex.directoryPredicate(files);
+    }
+
+    /**
+     * Checks that the query's (outermost) select list has * or each of the first directory columns.
+     */
+    static void requireDirectoryColumns(String query, int columnCount) {
+        Matcher selectList = SELECT_LIST.matcher(query);
+        if (columnCount == 0 || !selectList.find()) {
+            return;
+        }
+
+        List<String> missing = new ArrayList<>();
+        String columns = selectList.group(1);
+        if (!ALL_COLUMNS.matcher(columns).find()) {
+            for (int i = 0; i < columnCount; i++) {
+                if (!Pattern.compile("(^|[^\\w])dir" + i + "($|[^\\w])", Pattern.CASE_INSENSITIVE).matcher(columns).find()) {
+                    missing.add("dir" + i);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("A time bounded query must select * or the archive directory columns "
+                    + missing + " so the directories of its time range can be filtered.");
+        }
+    }
+
+    /**
+     * @return one SQL predicate per distinct directory combination
+     */
+    private static List<String> discoverDirectories(List<String> directoryColumns, File archiveRoot) throws IOException {
+        Set<String> predicates = new LinkedHashSet<>();
+        for (List<String> names : ArchiveFiles.directories(archiveRoot, directoryDepth(directoryColumns))) {
+            StringBuilder predicate = new StringBuilder();
+            for (String column : directoryColumns) {
+                if (predicate.length() > 0) {
+                    predicate.append(" AND ");
+                }
+                int level = directoryLevel(column);
+                String value = level < names.size() ? names.get(level) : null;
+                predicate.append(quoteIdentifier(column));
+                predicate.append(value == null ? " IS NULL" : " = " + quoteLiteral(value));
+            }
+            predicates.add(predicate.toString());
+        }
+        return new ArrayList<>(predicates);
+    }
+
+    /**
+     * @return the number of directory levels the columns cover, or 0 if any isn't a directory column
+     */
+    private static int directoryDepth(List<String> directoryColumns) {
+        int depth = 0;
+        for (String column : directoryColumns) {
+            int level = directoryLevel(column);
+            if (level < 0) {
+                return 0;
+            }
+            depth = Math.max(depth, level + 1);
+        }
+        return depth;
+    }
+
+    /**
+     * @return N for the directory column dirN, otherwise -1
+     */
+    private static int directoryLevel(String column) {
+        Matcher matcher = DIRECTORY_COLUMN.matcher(column);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    static String quoteIdentifier(String identifier) {
+        return "`" + identifier + "`";
+    }
+
+    static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+}
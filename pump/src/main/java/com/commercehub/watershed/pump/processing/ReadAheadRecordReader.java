@@ -0,0 +1,167 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PumpRecord;
+import com.commercehub.watershed.pump.model.ReadAheadStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Scheduler;
+import rx.functions.Action0;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RecordReader that reads ahead of its consumer. A worker of the given Scheduler keeps reading from the wrapped reader
+ * into a bounded buffer, so source fetch latency (e.g. Drill batches) overlaps with publishing instead of adding to it.
+ *
+ * The wrapped reader is only ever used by the read-ahead worker, which also closes it once it stops. Payloads of
+ * records discarded on close are released to the PayloadBufferPool.
+ */
+public class ReadAheadRecordReader implements RecordReader {
+    private static final Logger log = LoggerFactory.getLogger(ReadAheadRecordReader.class);
+    private static final long POLL_MILLIS = 100;
+
+    private final RecordReader delegate;
+    private final BlockingQueue<PumpRecord> buffer;
+    private final int capacity;
+    private final ReadAheadStats stats;
+    private final PayloadBufferPool payloadBufferPool;
+    private final Scheduler.Worker worker;
+    private final AtomicBoolean delegateClosed = new AtomicBoolean();
+
+    private volatile boolean done = false;
+    private volatile boolean closed = false;
+    private volatile Exception failure;
+
+    /**
+     * Wraps a reader and starts reading ahead right away.
+     *
+     * @param delegate  the reader to read ahead of
+     * @param capacity  the maximum number of records to hold
+     * @param stats     receives buffer occupancy updates
+     * @param payloadBufferPool receives the payloads of discarded records
+     * @param scheduler runs the read-ahead loop, which blocks on the wrapped reader; use one meant for blocking work
+     */
+    public ReadAheadRecordReader(RecordReader delegate, int capacity, ReadAheadStats stats, PayloadBufferPool payloadBufferPool, Scheduler scheduler) {
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.stats = stats;
+        this.payloadBufferPool = payloadBufferPool;
+
+        stats.addCapacity(capacity);
+        worker = scheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                readAhead();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PumpRecord read() throws Exception {
+        PumpRecord record = buffer.poll();
+        if (record == null) {
+            stats.emptyWait();
+            while (record == null) {
+                record = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (record == null && done) {
+                    // The read-ahead thread may have buffered a final record just before finishing.
+                    record = buffer.poll();
+                    if (record == null) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        return null;
+                    }
+                }
+            }
+        }
+
+        stats.recordsRemoved(1);
+        return record;
+    }
+
+    /**
+     * Stops reading ahead and discards buffered records. The wrapped reader is closed by the read-ahead worker as
+     * soon as it finishes its current read.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        discardBuffered();
+        stats.addCapacity(-capacity);
+
+        if (done) {
+            closeDelegate();
+        }
+    }
+
+    private void readAhead() {
+        try {
+            PumpRecord record;
+            while (!closed && (record = delegate.read()) != null) {
+                boolean offered = buffer.offer(record);
+                if (!offered) {
+                    stats.fullWait();
+                    while (!closed && !(offered = buffer.offer(record, POLL_MILLIS, TimeUnit.MILLISECONDS)));
+                }
+                if (offered) {
+                    stats.recordBuffered();
+                }
+                else {
+                    release(record);
+                }
+            }
+        }
+        catch (Exception e) {
+            failure = e;
+        }
+        finally {
+            done = true;
+            if (closed) {
+                discardBuffered();
+                closeDelegate();
+            }
+            worker.unsubscribe();
+        }
+    }
+
+    private void discardBuffered() {
+        List<PumpRecord> discarded = new ArrayList<>();
+        buffer.drainTo(discarded);
+        stats.recordsRemoved(discarded.size());
+        for (PumpRecord record : discarded) {
+            release(record);
+        }
+    }
+
+    private void release(PumpRecord record) {
+        if (record.getKinesisRecord() != null && record.getKinesisRecord().getData() != null) {
+            payloadBufferPool.release(record.getKinesisRecord().getData());
+        }
+    }
+
+    private void closeDelegate() {
+        if (delegateClosed.compareAndSet(false, true)) {
+            try {
+                delegate.close();
+            } catch (Exception e) {
+                log.warn("Failed to close record reader.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.DedupStats;
+import com.commercehub.watershed.pump.model.PumpRecord;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import rx.functions.Func1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Filters out records already seen by a Job, as found by a scalable Bloom filter. A record is identified by the
+ * value of its id column (a column of its Drill row, or else a top-level field of its JSON payload), falling back
+ * to its whole payload. Duplicate records have their payloads released.
+ *
+ * A false positive drops a record that isn't a duplicate, at most at the filter's false positive rate.
+ */
+public class RecordDeduplicator implements Func1<PumpRecord, Boolean> {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final byte ID = 1;
+    private static final byte CONTENT = 2;
+
+    private final ScalableBloomFilter filter;
+    private final String idColumn;
+    private final PayloadBufferPool payloadBufferPool;
+    private final DedupStats stats;
+
+    /**
+     *
+     * @param filter            holds the records seen so far
+     * @param idColumn          the column or top-level JSON field identifying a record, or null to use its payload
+     * @param payloadBufferPool takes back the payloads of duplicates
+     * @param stats             updated as records are checked
+     */
+    public RecordDeduplicator(ScalableBloomFilter filter, String idColumn, PayloadBufferPool payloadBufferPool, DedupStats stats) {
+        this.filter = filter;
+        this.idColumn = idColumn;
+        this.payloadBufferPool = payloadBufferPool;
+        this.stats = stats;
+    }
+
+    /**
+     *
+     * @param pumpRecord
+     * @return whether the record is kept, i.e. was certainly not seen before
+     */
+    @Override
+    public Boolean call(PumpRecord pumpRecord) {
+        ByteBuffer hash = ByteBuffer.wrap(hash(pumpRecord)).order(ByteOrder.LITTLE_ENDIAN);
+        boolean duplicate = filter.mightContainOrAdd(hash.getLong(), hash.getLong());
+        stats.checked(duplicate, !filter.isSaturated());
+
+        if (duplicate) {
+            payloadBufferPool.release(pumpRecord.getKinesisRecord().getData());
+        }
+        return !duplicate;
+    }
+
+    /**
+     * @return a 128-bit hash of the record's id, or of its payload if it has none
+     */
+    private byte[] hash(PumpRecord pumpRecord) {
+        ByteBuffer data = pumpRecord.getKinesisRecord().getData();
+        String id = null;
+        if (idColumn != null) {
+            id = pumpRecord.getDrillResultRow() != null ? pumpRecord.getDrillResultRow().get(idColumn) : null;
+            if (id == null) {
+                byte[] payload = PayloadBufferPool.toArray(data);
+                id = ArchiveFileRecordReader.extractField(payload, payload.length, idColumn);
+            }
+        }
+
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        if (id != null) {
+            hasher.putByte(ID).putBytes(id.getBytes(StandardCharsets.UTF_8));
+        }
+        else if (data.hasArray()) {
+            hasher.putByte(CONTENT).putBytes(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        else {
+            hasher.putByte(CONTENT).putBytes(PayloadBufferPool.toArray(data));
+        }
+        return hasher.hash().asBytes();
+    }
+}
@@ -0,0 +1,18 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PumpRecord;
+
+import java.io.Closeable;
+
+/**
+ * Reads PumpRecords one at a time from a source, such as a JDBC ResultSet or an archive file.
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * Reads the next record.
+     * @return the next record, or null if there are no more records
+     * @throws Exception
+     */
+    PumpRecord read() throws Exception;
+}
@@ -0,0 +1,66 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.PumpRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscriber;
+
+/**
+ * Producer that emits records from a RecordReader as they are requested. The reader is closed once it is exhausted,
+ * fails, or the subscriber unsubscribes.
+ */
+public class RecordReaderProducer extends SerializingProducer {
+    private static final Logger log = LoggerFactory.getLogger(RecordReaderProducer.class);
+
+    private final Subscriber<? super PumpRecord> subscriber;
+    private final RecordReader recordReader;
+    private boolean closed = false; // only touched while serialized
+
+    public RecordReaderProducer(Subscriber<? super PumpRecord> subscriber, RecordReader recordReader) {
+        this.subscriber = subscriber;
+        this.recordReader = recordReader;
+    }
+
+    /**
+     * @return whether it is okay to continue requesting items
+     */
+    @Override
+    protected boolean onItemRequested() {
+        boolean keepGoing = true;
+        try {
+            if (closed) {
+                keepGoing = false;
+            } else if (subscriber.isUnsubscribed()) {
+                keepGoing = false;
+                closeReader();
+            } else {
+                PumpRecord record = recordReader.read();
+                if (record != null) {
+                    log.trace("Got a record");
+                    subscriber.onNext(record);
+                } else {
+                    closeReader();
+                    subscriber.onCompleted();
+                    keepGoing = false;
+                }
+            }
+        } catch (Exception e) {
+            closeReader();
+            subscriber.onError(e);
+            keepGoing = false;
+        }
+        return keepGoing;
+    }
+
+    /**
+     * closes the record reader, once
+     */
+    private void closeReader() {
+        closed = true;
+        try {
+            recordReader.close();
+        } catch (Exception e) {
+            log.warn("Failed to close record reader.", e);
+        }
+    }
+}
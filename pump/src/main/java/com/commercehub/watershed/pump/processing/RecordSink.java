@@ -0,0 +1,47 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.SinkRecordResult;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sends a Job's records somewhere, asynchronously, with the contract of the Kinesis Producer Library: each record's
+ * future completes with its result once the record is acked, successful or not, or fails if it can't be sent at all.
+ */
+public interface RecordSink {
+
+    /**
+     * Sends a record. The payload is copied or written before this returns, so the caller may reuse it.
+     *
+     * @param stream          the stream the record is sent to
+     * @param partitionKey
+     * @param explicitHashKey the hash key that picks the record's shard, or null to hash the partition key
+     * @param data            the record's payload, from its position to its limit
+     * @return the record's result, once it is acked
+     */
+    ListenableFuture<SinkRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data);
+
+    /**
+     *
+     * @return the number of records sent but not yet acked
+     */
+    long getOutstandingRecordsCount();
+
+    /**
+     * Starts sending any records the sink is holding back, without waiting for them to be acked. A sink sharing its
+     * destination with other Jobs must leave their buffered records alone. Called once the Job has handed the sink
+     * all of its records (retries aside).
+     */
+    void flush();
+
+    /**
+     * Waits until every record sent has been acked, successfully or not.
+     */
+    void flushSync();
+
+    /**
+     * Releases the sink's resources. Records not yet acked may be lost.
+     */
+    void destroy();
+}
@@ -0,0 +1,76 @@
+package com.commercehub.watershed.pump.processing;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts record sizes in power-of-two buckets: a record of n bytes is counted under the least power of two at least n.
+ * Not thread safe.
+ */
+public class RecordSizeHistogram {
+    private final long[] buckets = new long[Integer.SIZE + 1];
+    private long count;
+    private long max;
+
+    /**
+     * Counts a record.
+     *
+     * @param bytes the record's size
+     */
+    public void add(int bytes) {
+        buckets[bucket(bytes)]++;
+        count++;
+        max = Math.max(max, bytes);
+    }
+
+    /**
+     *
+     * @return the number of records counted
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @return the largest record's size
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     *
+     * @param fraction between 0 and 1, such as 0.5 for the median
+     * @return the size at least that fraction of the records fit in, rounded up to a power of two; 0 if none were counted
+     */
+    public long percentile(double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen > 0 && seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     *
+     * @return the number of records of each size, by size rounded up to a power of two
+     */
+    public Map<Long, Long> toMap() {
+        Map<Long, Long> histogram = new TreeMap<>();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0) {
+                histogram.put(1L << i, buckets[i]);
+            }
+        }
+        return histogram;
+    }
+
+    private static int bucket(int bytes) {
+        return bytes <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+}
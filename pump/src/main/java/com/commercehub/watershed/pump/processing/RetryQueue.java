@@ -0,0 +1,86 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.RetryStats;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds and paces the retries of a Job's failed records. A failed record is sent again after an exponential backoff
+ * with full jitter, so records failed together don't fail together again, up to a number of retries. The records
+ * waiting out their backoff hold their payloads, so they are limited; records failing beyond the limit are given up
+ * on at once rather than holding up the Job.
+ */
+public class RetryQueue {
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxQueued;
+    private final RetryStats stats;
+    private final Random random;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     *
+     * @param maxRetries        the most times a record is sent again
+     * @param backoffMillis     the most a record waits before its first retry; doubled for each further retry
+     * @param maxBackoffMillis  the most a record waits before any retry
+     * @param maxQueued         the most records waiting to be sent again at once
+     * @param stats             updated with the retries
+     */
+    public RetryQueue(int maxRetries, long backoffMillis, long maxBackoffMillis, int maxQueued, RetryStats stats) {
+        this(maxRetries, backoffMillis, maxBackoffMillis, maxQueued, stats, new Random());
+    }
+
+    /**
+     * @param random draws the jitter
+     */
+    RetryQueue(int maxRetries, long backoffMillis, long maxBackoffMillis, int maxQueued, RetryStats stats, Random random) {
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxQueued = maxQueued;
+        this.stats = stats;
+        this.random = random;
+    }
+
+    /**
+     * Queues a failed record to be sent again, if it has retries left and there is room.
+     *
+     * @param retries the number of times the record was already sent again
+     * @return whether the record was queued; if so, {@link #retried()} must follow once it is sent again
+     */
+    public boolean offer(int retries) {
+        if (retries >= maxRetries) {
+            return false;
+        }
+        while (true) {
+            int current = queued.get();
+            if (current >= maxQueued) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                stats.queued();
+                return true;
+            }
+        }
+    }
+
+    /**
+     *
+     * @param retries the number of times the record was already sent again
+     * @return how long a queued record waits before it is sent again: a random time up to its exponential backoff
+     */
+    public long backoffMillis(int retries) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(retries, 30));
+        return ceiling > 0 ? (long) (random.nextDouble() * (ceiling + 1)) : 0;
+    }
+
+    /**
+     * A queued record was sent again.
+     */
+    public void retried() {
+        queued.decrementAndGet();
+        stats.retried();
+    }
+}
@@ -0,0 +1,156 @@
+package com.commercehub.watershed.pump.processing;
+
+import com.commercehub.watershed.pump.model.DedupStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Bloom filter that grows with the number of distinct elements (Almeida et al., "Scalable Bloom Filters"). When
+ * its newest filter is full, another filter of twice the capacity and half the false positive rate is added, so
+ * the compound false positive rate stays under the target however many elements are added.
+ *
+ * Filters are only added while they fit in the memory cap. Past it, elements are still checked against the filters
+ * but no longer added, so the false positive rate holds and later duplicates of those elements are let through.
+ *
+ * Elements are given as two independent 64-bit hashes, combined by double hashing into each filter's bit
+ * positions. Not safe for concurrent use.
+ */
+public class ScalableBloomFilter {
+    private static final Logger log = LoggerFactory.getLogger(ScalableBloomFilter.class);
+    static final long INITIAL_CAPACITY = 1 << 16;
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+    private final double falsePositiveRate;
+    private final long maxBytes;
+    private final DedupStats stats;
+    private final List<Filter> filters = new ArrayList<>();
+    private long bytes = 0;
+    private boolean saturated = false;
+
+    /**
+     *
+     * @param falsePositiveRate the highest probability of taking a new element for one already added
+     * @param maxBytes          the most bytes the filters may take
+     * @param stats             updated as filters are added
+     */
+    public ScalableBloomFilter(double falsePositiveRate, long maxBytes, DedupStats stats) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, not " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+    }
+
+    /**
+     * Adds an element unless it may have been added already.
+     *
+     * @param hash1
+     * @param hash2
+     * @return whether the element may have been added before; false if it was certainly not
+     */
+    public boolean mightContainOrAdd(long hash1, long hash2) {
+        for (Filter filter : filters) {
+            if (filter.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+
+        Filter newest = filters.isEmpty() ? null : filters.get(filters.size() - 1);
+        if (newest == null || newest.count >= newest.capacity) {
+            newest = grow();
+        }
+        if (newest != null) {
+            newest.add(hash1, hash2);
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return whether the filters reached the memory cap, so new elements are no longer added
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     *
+     * @return the bytes held by the filters
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the added filter, or null if it doesn't fit in the memory cap
+     */
+    private Filter grow() {
+        if (saturated) {
+            return null;
+        }
+
+        int index = filters.size();
+        double rate = falsePositiveRate * (1 - TIGHTENING) * Math.pow(TIGHTENING, index);
+        double capacity = INITIAL_CAPACITY * Math.pow(GROWTH, index);
+        long words = (long) Math.ceil(capacity * -Math.log(rate) / LN2_SQUARED / 64);
+        if (words > Integer.MAX_VALUE || bytes + words * 8 > maxBytes) {
+            saturated = true;
+            log.warn("Bloom filter reached its {} byte cap with {} filters; new records are no longer tracked", maxBytes, filters.size());
+            return null;
+        }
+
+        int hashCount = Math.max(1, (int) Math.round(-Math.log(rate) / Math.log(2)));
+        Filter filter = new Filter(new long[(int) words], hashCount, (long) capacity);
+        filters.add(filter);
+        bytes += words * 8;
+        stats.grown(words * 8);
+        log.debug("Added Bloom filter {} for {} elements at false positive rate {}", index, filter.capacity, rate);
+        return filter;
+    }
+
+    /**
+     * One fixed-size Bloom filter.
+     */
+    private static class Filter {
+        final long[] bits;
+        final long bitCount;
+        final int hashCount;
+        final long capacity;
+        long count = 0;
+
+        Filter(long[] bits, int hashCount, long capacity) {
+            this.bits = bits;
+            this.bitCount = (long) bits.length * 64;
+            this.hashCount = hashCount;
+            this.capacity = capacity;
+        }
+
+        boolean mightContain(long hash1, long hash2) {
+            long combined = hash1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitCount;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+                combined += hash2;
+            }
+            return true;
+        }
+
+        void add(long hash1, long hash2) {
+            long combined = hash1;
+            for (int i = 0; i < hashCount; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitCount;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+                combined += hash2;
+            }
+            count++;
+        }
+    }
+}
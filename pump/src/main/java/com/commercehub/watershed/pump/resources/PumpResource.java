@@ -1,9 +1,12 @@
 package com.commercehub.watershed.pump.resources;
 
+import com.commercehub.watershed.pump.model.ExactCount;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.model.JobPreview;
+import com.commercehub.watershed.pump.model.PreviewCacheStats;
 import com.commercehub.watershed.pump.model.PreviewSettings;
 import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.respositories.PreviewCursor;
 import com.commercehub.watershed.pump.service.JobService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
@@ -12,7 +15,9 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.Collection;
 
@@ -22,6 +27,8 @@ import java.util.Collection;
 @Path("/jobs")
 @Produces(MediaType.APPLICATION_JSON)
 public class PumpResource {
+    static final String NDJSON = "application/x-ndjson";
+    static final String CURSOR_ID_HEADER = "Pump-Cursor-Id";
 
     @Inject
     private ObjectMapper objectMapper;
@@ -77,6 +84,31 @@ public class PumpResource {
         return Response.ok().entity(response).build();
     }
 
+    /**
+     * POST to resume a crashed, failed or cancelled Job from its latest checkpoint
+     *
+     * @param jobId
+     * @return Response
+     * @throws IOException
+     */
+    @Path("/{job_id}/resume")
+    @POST
+    public Response resumeJob(@PathParam("job_id") String jobId) throws IOException{
+        Job job;
+        try {
+            job = jobService.resumeJob(jobId);
+        }
+        catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+        }
+        if(job == null){
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        String response = objectMapper.writeValueAsString(job);
+        return Response.ok().entity(response).build();
+    }
+
     /**
      * POST PreviewSettings to retrieve a preview of a query
      *
@@ -93,4 +125,115 @@ public class PumpResource {
         String response = objectMapper.writeValueAsString(jobPreview);
         return Response.ok().entity(response).build();
     }
+
+    /**
+     * POST PreviewSettings to count the records of a query exactly, in the background. Repeat the request to poll
+     * the count until its stage is no longer IN_PROGRESS.
+     *
+     * @param previewSettings
+     * @return Response
+     * @throws IOException
+     */
+    @Path("/preview/count")
+    @POST
+    public Response requestExactCount(@Valid PreviewSettings previewSettings) throws IOException{
+        ExactCount exactCount = jobService.requestExactCount(previewSettings);
+
+        String response = objectMapper.writeValueAsString(exactCount);
+        return Response.ok().entity(response).build();
+    }
+
+    /**
+     * GET hit/miss statistics of the preview cache
+     *
+     * @return Response
+     * @throws IOException
+     */
+    @Path("/preview/cache")
+    @GET
+    public Response getPreviewCacheStats() throws IOException{
+        PreviewCacheStats stats = jobService.getPreviewCacheStats();
+
+        String response = objectMapper.writeValueAsString(stats);
+        return Response.ok().entity(response).build();
+    }
+
+    /**
+     * POST PreviewSettings to open a preview cursor. Streams the first previewCount rows as newline-delimited JSON;
+     * the cursor id is returned in the Pump-Cursor-Id header.
+     *
+     * @param previewSettings
+     * @return Response
+     * @throws SQLException
+     */
+    @Path("/preview/cursors")
+    @POST
+    @Produces(NDJSON)
+    public Response openPreviewCursor(@Valid PreviewSettings previewSettings) throws SQLException{
+        PreviewCursor cursor = jobService.openPreviewCursor(previewSettings);
+        if(cursor == null){
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        return Response.ok(streamRows(cursor, previewSettings.getPreviewCount()))
+                .header(CURSOR_ID_HEADER, cursor.getCursorId())
+                .build();
+    }
+
+    /**
+     * GET the next rows of a preview cursor, as newline-delimited JSON. Fewer rows than requested means the cursor
+     * is exhausted and has been closed.
+     *
+     * @param cursorId
+     * @param rows
+     * @return Response
+     */
+    @Path("/preview/cursors/{cursor_id}")
+    @GET
+    @Produces(NDJSON)
+    public Response nextPreviewRows(@PathParam("cursor_id") String cursorId, @QueryParam("rows") @DefaultValue("100") int rows){
+        PreviewCursor cursor = jobService.getPreviewCursor(cursorId);
+        if(cursor == null){
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if(rows < 0){
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        return Response.ok(streamRows(cursor, rows)).header(CURSOR_ID_HEADER, cursorId).build();
+    }
+
+    /**
+     * DELETE a preview cursor, releasing its query
+     *
+     * @param cursorId
+     * @return Response
+     */
+    @Path("/preview/cursors/{cursor_id}")
+    @DELETE
+    public Response closePreviewCursor(@PathParam("cursor_id") String cursorId){
+        if(!jobService.closePreviewCursor(cursorId)){
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.noContent().build();
+    }
+
+    private StreamingOutput streamRows(final PreviewCursor cursor, final int rows){
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                try {
+                    cursor.writeRows(rows, output, objectMapper.getFactory());
+                }
+                catch (SQLException | IOException e) {
+                    jobService.closePreviewCursor(cursor.getCursorId());
+                    throw new WebApplicationException(e);
+                }
+
+                if(cursor.isClosed()){
+                    jobService.closePreviewCursor(cursor.getCursorId());
+                }
+            }
+        };
+    }
 }
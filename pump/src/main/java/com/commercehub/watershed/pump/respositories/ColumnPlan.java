@@ -0,0 +1,150 @@
+package com.commercehub.watershed.pump.respositories;
+
+import com.commercehub.watershed.pump.model.DrillResultRow;
+import com.commercehub.watershed.pump.model.PumpSettings;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column indexes for a query, resolved once from its ResultSetMetaData so rows can be read by index.
+ * Only the columns named by the plan are copied into a DrillResultRow.
+ */
+public class ColumnPlan {
+    private final int partitionKeyIndex;
+    private final int rawDataIndex;
+    private final int[] rowColumnIndexes;
+    private final String[] rowColumnNames;
+
+    private ColumnPlan(int partitionKeyIndex, int rawDataIndex, int[] rowColumnIndexes, String[] rowColumnNames) {
+        this.partitionKeyIndex = partitionKeyIndex;
+        this.rawDataIndex = rawDataIndex;
+        this.rowColumnIndexes = rowColumnIndexes;
+        this.rowColumnNames = rowColumnNames;
+    }
+
+    /**
+     * Resolves the partition key, raw data and checkpoint columns of a Job. Checkpoint columns default to every
+     * column except the raw data column.
+     *
+     * @param metaData
+     * @param pumpSettings
+     * @return ColumnPlan
+     * @throws SQLException if a configured column isn't part of the query results
+     */
+    public static ColumnPlan forPump(ResultSetMetaData metaData, PumpSettings pumpSettings) throws SQLException {
+        int partitionKeyIndex = indexOf(metaData, pumpSettings.getPartitionKeyColumn());
+        int rawDataIndex = indexOf(metaData, pumpSettings.getRawDataColumn());
+
+        List<Integer> indexes = new ArrayList<>();
+        List<String> checkpointColumns = pumpSettings.getCheckpointColumns();
+        if (checkpointColumns != null) {
+            for (String column : checkpointColumns) {
+                indexes.add(indexOf(metaData, column));
+            }
+        }
+        else {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (i != rawDataIndex) {
+                    indexes.add(i);
+                }
+            }
+        }
+
+        return new ColumnPlan(partitionKeyIndex, rawDataIndex, toArray(indexes), columnNames(metaData, indexes));
+    }
+
+    /**
+     * Plan that copies every column, such as for a preview.
+     *
+     * @param metaData
+     * @return ColumnPlan
+     * @throws SQLException
+     */
+    public static ColumnPlan forAllColumns(ResultSetMetaData metaData) throws SQLException {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            indexes.add(i);
+        }
+        return new ColumnPlan(0, 0, toArray(indexes), columnNames(metaData, indexes));
+    }
+
+    /**
+     *
+     * @param resultSet positioned on a row
+     * @return the partition key of the current row
+     * @throws SQLException
+     */
+    public String getPartitionKey(ResultSet resultSet) throws SQLException {
+        return resultSet.getString(partitionKeyIndex);
+    }
+
+    /**
+     *
+     * @param resultSet positioned on a row
+     * @return the raw data of the current row
+     * @throws SQLException
+     */
+    public byte[] getRawData(ResultSet resultSet) throws SQLException {
+        return resultSet.getBytes(rawDataIndex);
+    }
+
+    /**
+     *
+     * @param resultSet positioned on a row
+     * @return the planned columns of the current row
+     * @throws SQLException
+     */
+    public DrillResultRow mapRow(ResultSet resultSet) throws SQLException {
+        String[] values = new String[rowColumnIndexes.length];
+        for (int i = 0; i < rowColumnIndexes.length; i++) {
+            values[i] = resultSet.getString(rowColumnIndexes[i]);
+        }
+        return new DrillResultRow(rowColumnNames, values);
+    }
+
+    /**
+     * Like {@link #mapRow(ResultSet)}, but reuses the partition key already read from the row rather than reading
+     * its column again.
+     *
+     * @param resultSet     positioned on a row
+     * @param partitionKey  the partition key of the current row, as returned by {@link #getPartitionKey(ResultSet)}
+     * @return the planned columns of the current row
+     * @throws SQLException
+     */
+    public DrillResultRow mapRow(ResultSet resultSet, String partitionKey) throws SQLException {
+        String[] values = new String[rowColumnIndexes.length];
+        for (int i = 0; i < rowColumnIndexes.length; i++) {
+            values[i] = rowColumnIndexes[i] == partitionKeyIndex ? partitionKey : resultSet.getString(rowColumnIndexes[i]);
+        }
+        return new DrillResultRow(rowColumnNames, values);
+    }
+
+    private static int indexOf(ResultSetMetaData metaData, String column) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (metaData.getColumnLabel(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        throw new SQLException("Column '" + column + "' not found in query results.");
+    }
+
+    private static String[] columnNames(ResultSetMetaData metaData, List<Integer> indexes) throws SQLException {
+        String[] names = new String[indexes.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metaData.getColumnLabel(indexes.get(i));
+        }
+        return names;
+    }
+
+    private static int[] toArray(List<Integer> indexes) {
+        int[] array = new int[indexes.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indexes.get(i);
+        }
+        return array;
+    }
+}
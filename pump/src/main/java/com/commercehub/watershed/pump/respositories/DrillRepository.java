@@ -1,18 +1,25 @@
 package com.commercehub.watershed.pump.respositories;
 
 
-import com.commercehub.watershed.pump.model.DrillResultRow;
 import com.commercehub.watershed.pump.model.JobPreview;
 import com.commercehub.watershed.pump.model.PreviewSettings;
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Named;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Repository that communicates with Drill.
@@ -23,37 +30,146 @@ public class DrillRepository implements QueryableRepository {
     @Inject
     private Provider<Connection> connectionProvider;
 
+    @Inject
+    @Named("previewExecutor")
+    private ExecutorService previewExecutor;
+
+    @Inject
+    @Named("previewCountTimeoutSeconds")
+    private int previewCountTimeoutSeconds;
+
+    /**
+     * Runs the count query on the preview executor while the sample query runs on the calling thread, each on its
+     * own connection. A count not done within the timeout once the sample is read is cancelled, and the sample is
+     * returned without it.
+     * {@inheritDoc}
+     */
+    @Override
+    public JobPreview getJobPreview(final PreviewSettings previewSettings) throws SQLException {
+        Future<Integer> count = previewExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws SQLException {
+                return getCount(previewSettings.getQueryIn());
+            }
+        });
+
+        List<Map<String, String>> rows;
+        try {
+            rows = getPreviewRows(previewSettings);
+        }
+        catch (SQLException | RuntimeException e) {
+            count.cancel(true);
+            throw e;
+        }
+
+        try {
+            return new JobPreview(count.get(previewCountTimeoutSeconds, TimeUnit.SECONDS), rows);
+        }
+        catch (TimeoutException e) {
+            count.cancel(true);
+            log.warn("The preview count took over {}s, returning the preview without it.", previewCountTimeoutSeconds);
+            return new JobPreview((Integer) null, rows);
+        }
+        catch (InterruptedException e) {
+            count.cancel(true);
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for the preview count, returning the preview without it.");
+            return new JobPreview((Integer) null, rows);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public JobPreview getJobPreview(PreviewSettings previewSettings) throws SQLException {
+    public PreviewCursor openCursor(String cursorId, String query, int fetchSize) throws SQLException {
         Connection connection = connectionProvider.get();
+        try {
+            ResultSet resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(query);
+            resultSet.setFetchSize(fetchSize);
+            return new PreviewCursor(cursorId, connection, resultSet);
+        }
+        catch (SQLException | RuntimeException e) {
+            closeQuietly(connection);
+            throw e;
+        }
+    }
 
-        String countSql = "SELECT count(*) as total FROM (" + previewSettings.getQueryIn() + ")";
-        Integer count = null;
-        List<Map<String, String>> rows = null;
-        try{
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer getCount(String query) throws SQLException {
+        Connection connection = connectionProvider.get();
+        try {
+            String countSql = "SELECT count(*) as total FROM (" + query + ")";
             ResultSet resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(countSql);
             resultSet.setFetchSize(1);
             resultSet.next();
-            count = resultSet.getInt("total");
+            return resultSet.getInt("total");
+        }
+        finally {
+            closeQuietly(connection);
+        }
+    }
 
-            resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(previewSettings.getQueryIn());
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Map<String, String>> getPreviewRows(PreviewSettings previewSettings) throws SQLException {
+        Connection connection = connectionProvider.get();
+        try {
+            ResultSet resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY).executeQuery(previewSettings.getQueryIn());
             resultSet.setFetchSize(previewSettings.getPreviewCount());
-
-            rows = resultSetToList(resultSet, previewSettings.getPreviewCount());
+            return resultSetToList(resultSet, previewSettings.getPreviewCount());
         }
         finally {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public QueryCostEstimate explain(String query) throws SQLException {
+        Connection connection = connectionProvider.get();
+        try {
+            ResultSet resultSet = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)
+                    .executeQuery("EXPLAIN PLAN INCLUDING ALL ATTRIBUTES FOR " + query);
+            if (!resultSet.next()) {
+                throw new SQLException("EXPLAIN returned no plan.");
+            }
+
             try {
-                connection.close();
+                return ExplainPlanParser.parse(resultSet.getString("text"));
             }
-            catch (Exception e) {
-                log.warn("Failed to close database connection.", e);
+            catch (IllegalArgumentException e) {
+                throw new SQLException("Could not read the query plan: " + e.getMessage(), e);
             }
         }
+        finally {
+            closeQuietly(connection);
+        }
+    }
 
-        return new JobPreview(count, rows);
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (Exception e) {
+            log.warn("Failed to close database connection.", e);
+        }
     }
 
     /**
@@ -64,23 +180,12 @@ public class DrillRepository implements QueryableRepository {
      * @throws SQLException
      */
     private List<Map<String, String>> resultSetToList(ResultSet resultSet, Integer rowLimit) throws SQLException{
+        ColumnPlan columnPlan = ColumnPlan.forAllColumns(resultSet.getMetaData());
         List<Map<String, String>> list = new ArrayList<>();
         while (resultSet.next() && resultSet.getRow() < rowLimit){
-            list.add(mapResultRow(resultSet));
+            list.add(columnPlan.mapRow(resultSet));
         }
 
         return list;
     }
-
-
-    public static DrillResultRow mapResultRow(ResultSet resultSet) throws SQLException{
-        ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
-
-        DrillResultRow drillResultRow = new DrillResultRow();
-        for(int i = 1; i <= resultSetMetaData.getColumnCount(); i++){
-            drillResultRow.put(resultSetMetaData.getColumnName(i), resultSet.getString(i));
-        }
-
-        return drillResultRow;
-    }
 }
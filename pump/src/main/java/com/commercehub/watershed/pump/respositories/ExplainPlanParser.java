@@ -0,0 +1,51 @@
+package com.commercehub.watershed.pump.respositories;
+
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the cost estimates out of the text of a Drill {@code EXPLAIN PLAN INCLUDING ALL ATTRIBUTES} result.
+ * Each operator line looks like
+ * <pre>
+ * 00-00    Screen : rowType = ...: rowcount = 1.0E7, cumulative cost = {1.1E7 rows, 2.2E7 cpu, 4.0E9 io, 0.0 network, 0.0 memory}, id = 42
+ * </pre>
+ * and the first line is the root of the plan, whose cumulative cost covers the whole query.
+ */
+public class ExplainPlanParser {
+    private static final String NUMBER = "([-+]?(?:[0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?|Infinity))";
+    private static final Pattern ROW_COUNT = Pattern.compile("rowcount = " + NUMBER);
+    private static final Pattern CUMULATIVE_IO = Pattern.compile("cumulative cost = \\{" + NUMBER + " rows, " + NUMBER + " cpu, " + NUMBER + " io");
+
+    private ExplainPlanParser() {}
+
+    /**
+     *
+     * @param planText
+     * @return the estimated rows and bytes of the plan's root operator
+     * @throws IllegalArgumentException if the plan has no cost estimates
+     */
+    public static QueryCostEstimate parse(String planText) {
+        for (String line : planText.split("\n")) {
+            Matcher rowCount = ROW_COUNT.matcher(line);
+            if (!rowCount.find()) {
+                continue;
+            }
+
+            Matcher cumulative = CUMULATIVE_IO.matcher(line);
+            double bytes = cumulative.find() ? parseNumber(cumulative.group(3)) : 0;
+            return new QueryCostEstimate(toLong(parseNumber(rowCount.group(1))), toLong(bytes));
+        }
+
+        throw new IllegalArgumentException("No cost estimates found in plan.");
+    }
+
+    private static double parseNumber(String number) {
+        return Double.parseDouble(number);
+    }
+
+    private static long toLong(double value) {
+        return value >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.ceil(value);
+    }
+}
@@ -0,0 +1,153 @@
+package com.commercehub.watershed.pump.respositories;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * An open preview query that is read a page at a time. Holds its ResultSet and connection until it is exhausted or
+ * closed.
+ */
+public class PreviewCursor {
+    private static final Logger log = LoggerFactory.getLogger(PreviewCursor.class);
+    private static final int FLUSH_INTERVAL_ROWS = 100;
+
+    private final String cursorId;
+    private final Connection connection;
+    private final ResultSet resultSet;
+    private final ColumnPlan columnPlan;
+
+    private volatile long lastAccessMillis;
+    private volatile boolean closed = false;
+    private volatile long rowCount = 0;
+
+    /**
+     *
+     * @param cursorId
+     * @param connection    closed with the cursor
+     * @param resultSet     positioned before its first row
+     * @throws SQLException
+     */
+    public PreviewCursor(String cursorId, Connection connection, ResultSet resultSet) throws SQLException {
+        this.cursorId = cursorId;
+        this.connection = connection;
+        this.resultSet = resultSet;
+        this.columnPlan = ColumnPlan.forAllColumns(resultSet.getMetaData());
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes up to maxRows rows as newline-delimited JSON objects, flushing as it goes. The cursor closes itself
+     * once the query has no more rows.
+     *
+     * @param maxRows
+     * @param out
+     * @param jsonFactory
+     * @return number of rows written
+     * @throws SQLException
+     * @throws IOException
+     */
+    public synchronized int writeRows(int maxRows, OutputStream out, JsonFactory jsonFactory) throws SQLException, IOException {
+        if (closed) {
+            return 0;
+        }
+        lastAccessMillis = System.currentTimeMillis();
+
+        JsonGenerator generator = jsonFactory.createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Rows are separated by the newline writeRow ends them with, not the default root separator.
+        generator.setRootValueSeparator(null);
+        int written = 0;
+        try {
+            while (written < maxRows && resultSet.next()) {
+                writeRow(generator, columnPlan.mapRow(resultSet));
+                written++;
+                if (written % FLUSH_INTERVAL_ROWS == 0) {
+                    generator.flush();
+                }
+            }
+            if (written < maxRows) {
+                close();
+            }
+        }
+        finally {
+            rowCount += written;
+            lastAccessMillis = System.currentTimeMillis();
+            generator.close();
+        }
+
+        return written;
+    }
+
+    /**
+     * Closes the ResultSet and returns the connection. Safe to call more than once.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            resultSet.close();
+        }
+        catch (Exception e) {
+            log.warn("Failed to close preview cursor result set.", e);
+        }
+        try {
+            connection.close();
+        }
+        catch (Exception e) {
+            log.warn("Failed to close database connection.", e);
+        }
+    }
+
+    /**
+     *
+     * @return id the cursor is registered under
+     */
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    /**
+     *
+     * @return when rows were last read from the cursor, or when it was opened
+     */
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     *
+     * @return number of rows read from the cursor so far
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     *
+     * @return whether the cursor was exhausted or closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static void writeRow(JsonGenerator generator, Map<String, String> row) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, String> column : row.entrySet()) {
+            generator.writeStringField(column.getKey(), column.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+}
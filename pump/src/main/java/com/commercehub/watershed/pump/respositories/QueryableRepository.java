@@ -3,8 +3,11 @@ package com.commercehub.watershed.pump.respositories;
 
 import com.commercehub.watershed.pump.model.JobPreview;
 import com.commercehub.watershed.pump.model.PreviewSettings;
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Defines implementation on how we want to talk to Drill (or another repository).
@@ -18,4 +21,38 @@ public interface QueryableRepository {
      * @throws SQLException
      */
     JobPreview getJobPreview(PreviewSettings previewSettings) throws SQLException;
+
+    /**
+     * Executes a query and keeps its results open for reading a page at a time
+     * @param cursorId
+     * @param query
+     * @param fetchSize
+     * @return PreviewCursor
+     * @throws SQLException
+     */
+    PreviewCursor openCursor(String cursorId, String query, int fetchSize) throws SQLException;
+
+    /**
+     * Queries for the record count of a query
+     * @param query
+     * @return the number of records
+     * @throws SQLException
+     */
+    Integer getCount(String query) throws SQLException;
+
+    /**
+     * Queries for a few preview records, without counting
+     * @param previewSettings
+     * @return up to previewCount rows
+     * @throws SQLException
+     */
+    List<Map<String, String>> getPreviewRows(PreviewSettings previewSettings) throws SQLException;
+
+    /**
+     * Asks the query planner for the estimated size of a query, without running it
+     * @param query
+     * @return QueryCostEstimate
+     * @throws SQLException
+     */
+    QueryCostEstimate explain(String query) throws SQLException;
 }
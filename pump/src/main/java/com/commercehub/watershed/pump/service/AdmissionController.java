@@ -0,0 +1,178 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.AdmissionDecision;
+import com.commercehub.watershed.pump.model.Job;
+import com.commercehub.watershed.pump.model.ProcessingStage;
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Decides whether submitted Jobs may start, based on their cost estimates. Jobs exceeding a per-job budget are
+ * rejected; jobs that would push the estimated rows of all running jobs over the concurrent budget are queued
+ * and started, in submission order, as running jobs finish. A budget of 0 is unlimited.
+ *
+ * A job without an estimate can't be held to the budgets: it is rejected if any per-job budget is set, and otherwise
+ * charged the whole concurrent budget, so it is queued until it can run alone.
+ */
+@Singleton
+public class AdmissionController {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final long maxEstimatedRows;
+    private final long maxEstimatedBytes;
+    private final long maxProjectedRuntimeSeconds;
+    private final long concurrentRowsBudget;
+
+    private final Map<String, Long> runningRows = new HashMap<>();
+    private final Queue<QueuedJob> queue = new ArrayDeque<>();
+    private long totalRunningRows = 0;
+
+    /**
+     *
+     * @param maxEstimatedRows              jobs estimated to emit more rows are rejected
+     * @param maxEstimatedBytes             jobs estimated to read more bytes are rejected
+     * @param maxProjectedRuntimeSeconds    jobs projected to run longer are rejected
+     * @param concurrentRowsBudget          jobs are queued while running jobs' estimated rows would exceed this
+     */
+    @Inject
+    public AdmissionController(
+            @Named("admissionMaxEstimatedRows") long maxEstimatedRows,
+            @Named("admissionMaxEstimatedBytes") long maxEstimatedBytes,
+            @Named("admissionMaxProjectedRuntimeSeconds") long maxProjectedRuntimeSeconds,
+            @Named("admissionConcurrentRowsBudget") long concurrentRowsBudget) {
+        this.maxEstimatedRows = maxEstimatedRows;
+        this.maxEstimatedBytes = maxEstimatedBytes;
+        this.maxProjectedRuntimeSeconds = maxProjectedRuntimeSeconds;
+        this.concurrentRowsBudget = concurrentRowsBudget;
+    }
+
+    /**
+     * Accepts, queues or rejects a Job, and records the decision on it. Accepted jobs are started right away.
+     *
+     * @param job       with its cost estimate set, if one could be made
+     * @param start     starts the job
+     * @return AdmissionDecision
+     */
+    public AdmissionDecision admit(Job job, Runnable start) {
+        QueryCostEstimate estimate = job.getCostEstimate();
+        String rejection = checkBudgets(estimate);
+        if (rejection != null) {
+            log.warn("Rejecting job {}: {}", job.getJobId(), rejection);
+            job.addProcessingError(new IllegalArgumentException(rejection));
+            job.setStage(ProcessingStage.REJECTED);
+            job.setAdmissionDecision(AdmissionDecision.REJECT);
+            return AdmissionDecision.REJECT;
+        }
+
+        long rows = estimate != null ? estimate.getEstimatedRows() : concurrentRowsBudget;
+        synchronized (this) {
+            if (queue.isEmpty() && fits(rows)) {
+                markRunning(job, rows);
+            }
+            else {
+                log.info("Queueing job {} until running jobs leave room for {} rows.", job.getJobId(), rows);
+                job.setStage(ProcessingStage.QUEUED);
+                job.setAdmissionDecision(AdmissionDecision.QUEUE);
+                queue.add(new QueuedJob(job, rows, start));
+                return AdmissionDecision.QUEUE;
+            }
+        }
+
+        job.setAdmissionDecision(AdmissionDecision.ACCEPT);
+        start.run();
+        return AdmissionDecision.ACCEPT;
+    }
+
+    /**
+     * Releases a finished Job's share of the concurrent budget and starts queued jobs that now fit. Safe to call
+     * more than once.
+     *
+     * @param job
+     */
+    public void release(Job job) {
+        List<QueuedJob> ready = new ArrayList<>();
+        synchronized (this) {
+            Long rows = runningRows.remove(job.getJobId());
+            if (rows == null) {
+                return;
+            }
+            totalRunningRows -= rows;
+
+            while (!queue.isEmpty() && fits(queue.peek().rows)) {
+                QueuedJob queued = queue.poll();
+                markRunning(queued.job, queued.rows);
+                ready.add(queued);
+            }
+        }
+
+        for (QueuedJob queued : ready) {
+            log.info("Starting queued job {}.", queued.job.getJobId());
+            queued.job.setStage(ProcessingStage.NOT_STARTED);
+            queued.start.run();
+        }
+    }
+
+    /**
+     *
+     * @return number of jobs waiting to start
+     */
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    private String checkBudgets(QueryCostEstimate estimate) {
+        if (estimate == null) {
+            if (maxEstimatedRows > 0 || maxEstimatedBytes > 0 || maxProjectedRuntimeSeconds > 0) {
+                return "Its cost could not be estimated, so it can't be checked against the per-job budgets.";
+            }
+            return null;
+        }
+        if (maxEstimatedRows > 0 && estimate.getEstimatedRows() > maxEstimatedRows) {
+            return "Estimated " + estimate.getEstimatedRows() + " rows exceeds the budget of " + maxEstimatedRows + ".";
+        }
+        if (maxEstimatedBytes > 0 && estimate.getEstimatedBytes() > maxEstimatedBytes) {
+            return "Estimated " + estimate.getEstimatedBytes() + " bytes exceeds the budget of " + maxEstimatedBytes + ".";
+        }
+        if (maxProjectedRuntimeSeconds > 0 && estimate.getProjectedRuntimeSeconds() != null
+                && estimate.getProjectedRuntimeSeconds() > maxProjectedRuntimeSeconds) {
+            return "Projected runtime of " + estimate.getProjectedRuntimeSeconds() + "s exceeds the budget of "
+                    + maxProjectedRuntimeSeconds + "s.";
+        }
+        return null;
+    }
+
+    /**
+     * A job always fits when nothing else is running, so jobs larger than the concurrent budget still run alone.
+     */
+    private boolean fits(long rows) {
+        return concurrentRowsBudget <= 0 || runningRows.isEmpty() || totalRunningRows + rows <= concurrentRowsBudget;
+    }
+
+    private void markRunning(Job job, long rows) {
+        runningRows.put(job.getJobId(), rows);
+        totalRunningRows += rows;
+    }
+
+    private static class QueuedJob {
+        private final Job job;
+        private final long rows;
+        private final Runnable start;
+
+        QueuedJob(Job job, long rows, Runnable start) {
+            this.job = job;
+            this.rows = rows;
+            this.start = start;
+        }
+    }
+}
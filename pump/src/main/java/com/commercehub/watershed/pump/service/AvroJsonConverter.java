@@ -0,0 +1,170 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.processing.AvroSchemaCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts records between JSON and Avro single-object encoding.
+ *
+ * JSON is mapped onto an Avro schema field by field: missing fields take their defaults, unions take the first
+ * branch the value fits, and bytes/fixed values are read from strings of ISO-8859-1 characters as in Avro's own
+ * JSON encoding. Conversion failures throw, since a record in the wrong format would corrupt the target stream.
+ */
+public class AvroJsonConverter {
+    private final ObjectMapper objectMapper;
+    private final AvroSchemaCache schemaCache;
+
+    /**
+     *
+     * @param objectMapper
+     * @param schemaCache the Job's schema cache
+     */
+    public AvroJsonConverter(ObjectMapper objectMapper, AvroSchemaCache schemaCache) {
+        this.objectMapper = objectMapper;
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * @return Function that converts Avro records to JSON objects
+     */
+    public Function<byte[], byte[]> toJson() {
+        return new Function<byte[], byte[]>() {
+            @Override
+            public byte[] apply(byte[] input) {
+                try {
+                    GenericRecord record = schemaCache.decode(input, null);
+                    return GenericData.get().toString(record).getBytes(StandardCharsets.UTF_8);
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException("Failed to convert Avro record to JSON.", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param schema the record schema to convert to
+     * @return Function that converts JSON objects to Avro records
+     */
+    public Function<byte[], byte[]> fromJson(final Schema schema) {
+        schemaCache.register(schema);
+        return new Function<byte[], byte[]>() {
+            @Override
+            public byte[] apply(byte[] input) {
+                try {
+                    return schemaCache.encode((GenericRecord) convert(objectMapper.readTree(input), schema, ""));
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException("Failed to convert JSON record to Avro.", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param path where the value sits in the record, for error messages
+     * @return the value as the Avro generic representation of the schema
+     */
+    Object convert(JsonNode node, Schema schema, String path) {
+        switch (schema.getType()) {
+            case RECORD:
+                require(node.isObject(), node, schema, path);
+                GenericRecord record = new GenericData.Record(schema);
+                for (Schema.Field field : schema.getFields()) {
+                    JsonNode value = node.get(field.name());
+                    if (value != null) {
+                        record.put(field.pos(), convert(value, field.schema(), path + "/" + field.name()));
+                    }
+                    else if (field.defaultValue() != null) {
+                        record.put(field.pos(), GenericData.get().getDefaultValue(field));
+                    }
+                    else {
+                        throw new IllegalArgumentException("JSON record has no " + path + "/" + field.name() + " and the Avro field has no default.");
+                    }
+                }
+                return record;
+            case ARRAY:
+                require(node.isArray(), node, schema, path);
+                List<Object> items = new ArrayList<>(node.size());
+                for (int i = 0; i < node.size(); i++) {
+                    items.add(convert(node.get(i), schema.getElementType(), path + "/" + i));
+                }
+                return items;
+            case MAP:
+                require(node.isObject(), node, schema, path);
+                Map<String, Object> entries = new LinkedHashMap<>();
+                for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                    Map.Entry<String, JsonNode> entry = fields.next();
+                    entries.put(entry.getKey(), convert(entry.getValue(), schema.getValueType(), path + "/" + entry.getKey()));
+                }
+                return entries;
+            case UNION:
+                for (Schema branch : schema.getTypes()) {
+                    try {
+                        return convert(node, branch, path);
+                    }
+                    catch (IllegalArgumentException e) {
+                        // try the next branch
+                    }
+                }
+                throw mismatch(node, schema, path);
+            case ENUM:
+                require(node.isTextual() && schema.hasEnumSymbol(node.asText()), node, schema, path);
+                return new GenericData.EnumSymbol(schema, node.asText());
+            case FIXED:
+                require(node.isTextual() && node.asText().length() == schema.getFixedSize(), node, schema, path);
+                return new GenericData.Fixed(schema, node.asText().getBytes(StandardCharsets.ISO_8859_1));
+            case STRING:
+                require(node.isTextual(), node, schema, path);
+                return node.asText();
+            case BYTES:
+                require(node.isTextual(), node, schema, path);
+                return ByteBuffer.wrap(node.asText().getBytes(StandardCharsets.ISO_8859_1));
+            case INT:
+                require(node.isIntegralNumber() && node.canConvertToInt(), node, schema, path);
+                return node.intValue();
+            case LONG:
+                require(node.isIntegralNumber() && node.canConvertToLong(), node, schema, path);
+                return node.longValue();
+            case FLOAT:
+                require(node.isNumber(), node, schema, path);
+                return node.floatValue();
+            case DOUBLE:
+                require(node.isNumber(), node, schema, path);
+                return node.doubleValue();
+            case BOOLEAN:
+                require(node.isBoolean(), node, schema, path);
+                return node.booleanValue();
+            case NULL:
+                require(node.isNull(), node, schema, path);
+                return null;
+            default:
+                throw mismatch(node, schema, path);
+        }
+    }
+
+    private static void require(boolean matches, JsonNode node, Schema schema, String path) {
+        if (!matches) {
+            throw mismatch(node, schema, path);
+        }
+    }
+
+    private static IllegalArgumentException mismatch(JsonNode node, Schema schema, String path) {
+        return new IllegalArgumentException("JSON " + node.getNodeType() + " at " + (path.isEmpty() ? "/" : path) +
+                " doesn't fit Avro " + schema.getType() + ".");
+    }
+}
@@ -0,0 +1,49 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.processing.AvroSchemaCache;
+import com.google.common.base.Function;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+
+/**
+ * Sets the replay and overwrite flags of Avro records as fields of the records themselves. Each record is resolved
+ * into its schema extended with boolean replay and overwrite fields (unless it already has them), and written back
+ * with that schema.
+ */
+public class AvroReplayFlagTransform implements Function<byte[], byte[]> {
+    private final AvroSchemaCache schemaCache;
+    private final boolean replayEnabled;
+    private final boolean overwriteEnabled;
+
+    /**
+     *
+     * @param schemaCache       the Job's schema cache
+     * @param replayEnabled
+     * @param overwriteEnabled
+     */
+    public AvroReplayFlagTransform(AvroSchemaCache schemaCache, boolean replayEnabled, boolean overwriteEnabled) {
+        this.schemaCache = schemaCache;
+        this.replayEnabled = replayEnabled;
+        this.overwriteEnabled = overwriteEnabled;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException if the record can't be decoded or can't hold the flags
+     */
+    @Override
+    public byte[] apply(byte[] input) {
+        try {
+            Schema flagged = schemaCache.withReplayFlags(schemaCache.writerSchema(input));
+            GenericRecord record = schemaCache.decode(input, flagged);
+            record.put("replay", replayEnabled);
+            record.put("overwrite", overwriteEnabled);
+            return schemaCache.encode(record);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Failed to set replay flags on Avro record.", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.processing.PayloadBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record transformation that works on payload buffers, taking its output buffers from a pool instead of
+ * allocating arrays.
+ */
+public interface BufferTransformer {
+
+    /**
+     * Transforms the bytes between the input's position and limit. The input isn't modified.
+     *
+     * @param input
+     * @param pool provides the output buffer
+     * @return the transformed payload, positioned at 0; may be the input itself if the record is left unchanged
+     */
+    ByteBuffer transform(ByteBuffer input, PayloadBufferPool pool);
+}
@@ -0,0 +1,101 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.Checkpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps each running Job's latest checkpoint in a local directory, one JSON file per Job, so Jobs can be resumed
+ * after Pump restarts. Files are replaced atomically, so a crash mid-write leaves the previous checkpoint.
+ */
+@Singleton
+public class CheckpointJournal {
+    private static final Logger log = LoggerFactory.getLogger(CheckpointJournal.class);
+    private static final Pattern JOB_ID = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final String SUFFIX = ".checkpoint.json";
+
+    private final ObjectMapper objectMapper;
+    private final File directory;
+
+    /**
+     *
+     * @param objectMapper
+     * @param directory     where checkpoints are kept; empty to keep none
+     */
+    @Inject
+    public CheckpointJournal(ObjectMapper objectMapper, @Named("checkpointDirectory") String directory) {
+        this.objectMapper = objectMapper;
+        this.directory = directory == null || directory.isEmpty() ? null : new File(directory);
+    }
+
+    /**
+     * Replaces the Job's journaled checkpoint.
+     *
+     * @param checkpoint a checkpoint with its jobId and pumpSettings set
+     * @throws IOException
+     */
+    public void write(Checkpoint checkpoint) throws IOException {
+        File file = fileOf(checkpoint.getJobId());
+        if (file == null) {
+            return;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Could not create checkpoint directory " + directory);
+        }
+        File temp = File.createTempFile(".checkpoint", ".tmp", directory);
+        try {
+            objectMapper.writeValue(temp, checkpoint);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     *
+     * @param jobId
+     * @return the Job's journaled checkpoint, or null if there is none
+     * @throws IOException
+     */
+    public Checkpoint read(String jobId) throws IOException {
+        File file = fileOf(jobId);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        return objectMapper.readValue(file, Checkpoint.class);
+    }
+
+    /**
+     * Removes the Job's checkpoint, once there is nothing left to resume.
+     *
+     * @param jobId
+     */
+    public void delete(String jobId) {
+        File file = fileOf(jobId);
+        if (file != null && file.exists() && !file.delete()) {
+            log.warn("Could not delete checkpoint {}", file);
+        }
+    }
+
+    /**
+     * @return the Job's checkpoint file, or null if checkpoints aren't kept or the id can't name a file
+     */
+    private File fileOf(String jobId) {
+        if (directory == null || jobId == null || !JOB_ID.matcher(jobId).matches()) {
+            return null;
+        }
+        return new File(directory, jobId + SUFFIX);
+    }
+}
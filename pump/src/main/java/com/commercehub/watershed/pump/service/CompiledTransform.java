@@ -0,0 +1,253 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.TransformSpec;
+import com.commercehub.watershed.pump.processing.ByteBufferInputStream;
+import com.commercehub.watershed.pump.processing.PayloadBufferPool;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.google.common.base.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A TransformSpec compiled into a tree of field rules, applied to each record in a single streaming pass: the
+ * record is parsed once and written straight to the output, skipping, renaming and adding fields as it goes.
+ * Subtrees without rules are copied token for token.
+ *
+ * Records that aren't JSON objects are returned unchanged, as are records that fail to parse.
+ */
+public class CompiledTransform implements Function<byte[], byte[]>, BufferTransformer {
+    private static final Logger log = LoggerFactory.getLogger(CompiledTransform.class);
+    private static final int OUTPUT_HEADROOM = 64;
+
+    private final JsonFactory jsonFactory;
+    private final FieldRule root;
+    private final boolean restricted;
+
+    /**
+     *
+     * @param jsonFactory       creates parsers and generators; needs an ObjectMapper codec to write constants
+     * @param spec              the transform to compile
+     * @param replayEnabled     value of the replay flag set on every record
+     * @param overwriteEnabled  value of the overwrite flag set on every record
+     */
+    public CompiledTransform(JsonFactory jsonFactory, TransformSpec spec, boolean replayEnabled, boolean overwriteEnabled) {
+        this.jsonFactory = jsonFactory;
+        this.root = new FieldRule();
+
+        if (spec.getKeep() != null) {
+            for (String pointer : spec.getKeep()) {
+                ruleFor(pointer).keep = true;
+            }
+        }
+        if (spec.getDrop() != null) {
+            for (String pointer : spec.getDrop()) {
+                ruleFor(pointer).drop = true;
+            }
+        }
+        if (spec.getRename() != null) {
+            for (Map.Entry<String, String> rename : spec.getRename().entrySet()) {
+                ruleFor(rename.getKey()).rename = rename.getValue();
+            }
+        }
+        if (spec.getSet() != null) {
+            for (Map.Entry<String, JsonNode> constant : spec.getSet().entrySet()) {
+                ruleFor(constant.getKey()).constant = constant.getValue();
+            }
+        }
+        ruleFor("/replay").constant = BooleanNode.valueOf(replayEnabled);
+        ruleFor("/overwrite").constant = BooleanNode.valueOf(overwriteEnabled);
+
+        this.restricted = spec.getKeep() != null && !spec.getKeep().isEmpty();
+        root.compile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] apply(byte[] input) {
+        return PayloadBufferPool.toArray(transform(ByteBuffer.wrap(input), PayloadBufferPool.unpooled()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer transform(ByteBuffer input, PayloadBufferPool pool) {
+        PayloadBufferPool.BufferOutputStream output = null;
+        try {
+            JsonParser parser = input.hasArray() ?
+                    jsonFactory.createParser(input.array(), input.arrayOffset() + input.position(), input.remaining()) :
+                    jsonFactory.createParser(new ByteBufferInputStream(input.duplicate()));
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return input;
+                }
+
+                output = pool.newOutputStream(input.remaining() + OUTPUT_HEADROOM);
+                JsonGenerator generator = jsonFactory.createGenerator(output);
+                writeObject(parser, generator, root, restricted);
+                generator.close();
+                return output.toBuffer();
+            }
+            finally {
+                parser.close();
+            }
+        }
+        catch (Exception e) {
+            if (output != null) {
+                pool.release(output.toBuffer());
+            }
+            log.warn("Failed to transform record, using original record", e);
+            return input;
+        }
+    }
+
+    /**
+     * Writes the object the parser is positioned at, applying the rule's children to its fields.
+     *
+     * @param restricted whether only kept fields (and ancestors of kept fields) are written
+     */
+    private void writeObject(JsonParser parser, JsonGenerator generator, FieldRule rule, boolean restricted) throws IOException {
+        Set<String> seenParents = rule.constantParents.isEmpty() ? null : new HashSet<String>();
+
+        generator.writeStartObject();
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            FieldRule child = rule.children.get(name);
+
+            if (child != null && (child.drop || child.constant != null)) {
+                parser.skipChildren();
+                continue;
+            }
+            if (restricted && (child == null || !(child.keep || child.keepsDescendants))) {
+                parser.skipChildren();
+                continue;
+            }
+
+            boolean parentOfConstants = rule.constantParents.containsKey(name);
+            if (parentOfConstants && value != JsonToken.START_OBJECT) {
+                // Replaced by an object holding the constants, written below.
+                parser.skipChildren();
+                continue;
+            }
+
+            boolean childRestricted = restricted && !child.keep;
+            if (child != null && child.hasChildren() && value == JsonToken.START_OBJECT) {
+                if (parentOfConstants) {
+                    seenParents.add(name);
+                }
+                generator.writeFieldName(child.rename != null ? child.rename : name);
+                writeObject(parser, generator, child, childRestricted);
+            }
+            else if (childRestricted) {
+                // Only descendants are kept, and this value has none.
+                parser.skipChildren();
+            }
+            else {
+                generator.writeFieldName(child != null && child.rename != null ? child.rename : name);
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new IOException("Unterminated JSON object");
+        }
+
+        for (Map.Entry<String, FieldRule> parent : rule.constantParents.entrySet()) {
+            if (!seenParents.contains(parent.getKey())) {
+                generator.writeFieldName(parent.getValue().rename != null ? parent.getValue().rename : parent.getKey());
+                writeConstants(generator, parent.getValue());
+            }
+        }
+        for (Map.Entry<String, FieldRule> constant : rule.constants.entrySet()) {
+            generator.writeFieldName(constant.getKey());
+            generator.writeTree(constant.getValue().constant);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes an object holding only the constants under a rule, for parents missing from the record.
+     */
+    private void writeConstants(JsonGenerator generator, FieldRule rule) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, FieldRule> parent : rule.constantParents.entrySet()) {
+            generator.writeFieldName(parent.getValue().rename != null ? parent.getValue().rename : parent.getKey());
+            writeConstants(generator, parent.getValue());
+        }
+        for (Map.Entry<String, FieldRule> constant : rule.constants.entrySet()) {
+            generator.writeFieldName(constant.getKey());
+            generator.writeTree(constant.getValue().constant);
+        }
+        generator.writeEndObject();
+    }
+
+    private FieldRule ruleFor(String pointer) {
+        FieldRule rule = root;
+        for (JsonPointer segment = JsonPointer.compile(pointer); !segment.matches(); segment = segment.tail()) {
+            String name = segment.getMatchingProperty();
+            FieldRule child = rule.children.get(name);
+            if (child == null) {
+                child = new FieldRule();
+                rule.children.put(name, child);
+            }
+            rule = child;
+        }
+        return rule;
+    }
+
+    /**
+     * What happens to one field, and the rules for the fields nested in it.
+     */
+    private static class FieldRule {
+        final Map<String, FieldRule> children = new LinkedHashMap<>();
+        boolean keep;
+        boolean drop;
+        String rename;
+        JsonNode constant;
+
+        // Derived by compile()
+        boolean keepsDescendants;
+        final Map<String, FieldRule> constants = new LinkedHashMap<>();
+        final Map<String, FieldRule> constantParents = new LinkedHashMap<>();
+
+        boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        /**
+         * @return whether this field or a field under it holds a constant
+         */
+        boolean compile() {
+            boolean holdsConstants = constant != null;
+            for (Map.Entry<String, FieldRule> entry : children.entrySet()) {
+                FieldRule child = entry.getValue();
+                boolean childHoldsConstants = child.compile();
+                keepsDescendants |= child.keep || child.keepsDescendants;
+                if (child.constant != null) {
+                    constants.put(entry.getKey(), child);
+                }
+                else if (childHoldsConstants && !child.drop) {
+                    constantParents.put(entry.getKey(), child);
+                }
+                holdsConstants |= childHoldsConstants;
+            }
+            return holdsConstants;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.ExactCount;
+import com.commercehub.watershed.pump.model.ProcessingStage;
+import com.commercehub.watershed.pump.respositories.QueryableRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs exact preview counts in the background, one per normalized query. Results are kept as long as cached
+ * previews; failed counts are retried when requested again.
+ */
+@Singleton
+public class ExactCountTracker {
+    private static final Logger log = LoggerFactory.getLogger(ExactCountTracker.class);
+
+    private final QueryableRepository repository;
+    private final ExecutorService previewExecutor;
+    private final Cache<String, ExactCount> counts;
+
+    /**
+     *
+     * @param repository
+     * @param previewExecutor   runs the count queries
+     * @param ttlSeconds        how long a count is kept
+     * @param maxSize           maximum number of counts kept
+     */
+    @Inject
+    public ExactCountTracker(QueryableRepository repository,
+                             @Named("previewExecutor") ExecutorService previewExecutor,
+                             @Named("previewCacheTtlSeconds") long ttlSeconds,
+                             @Named("previewCacheMaxSize") long maxSize) {
+        this.repository = repository;
+        this.previewExecutor = previewExecutor;
+        this.counts = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Starts counting the query's records unless a count is already running or done.
+     *
+     * @param query
+     * @return the count, possibly still in progress
+     */
+    public ExactCount request(final String query) {
+        String key = PreviewCache.normalizeQuery(query);
+        ExactCount existing = counts.getIfPresent(key);
+        if (existing != null && existing.getStage() == ProcessingStage.COMPLETED_ERROR) {
+            counts.asMap().remove(key, existing);
+        }
+
+        try {
+            return counts.get(key, new Callable<ExactCount>() {
+                @Override
+                public ExactCount call() {
+                    final ExactCount exactCount = new ExactCount();
+                    previewExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                exactCount.succeeded(repository.getCount(query));
+                            }
+                            catch (Exception e) {
+                                log.warn("Exact preview count failed.", e);
+                                exactCount.failed(e);
+                            }
+                        }
+                    });
+                    return exactCount;
+                }
+            });
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
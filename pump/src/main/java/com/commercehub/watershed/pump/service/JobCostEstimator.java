@@ -0,0 +1,89 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.CountEstimate;
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
+import com.commercehub.watershed.pump.model.RecordSource;
+import com.commercehub.watershed.pump.processing.ArchiveCountEstimator;
+import com.commercehub.watershed.pump.processing.ArchiveFiles;
+import com.commercehub.watershed.pump.processing.DeadLetterRecordReader;
+import com.commercehub.watershed.pump.processing.DeadLetterSpool;
+import com.commercehub.watershed.pump.respositories.QueryableRepository;
+import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Estimates how much a Job will read and emit before it runs: from the query plan for DRILL jobs, from a sample of
+ * the archive for ARCHIVE jobs, and by counting the spooled records for DEAD_LETTER jobs. The runtime is projected
+ * at the target stream's rate limit.
+ */
+public class JobCostEstimator {
+    private static final Logger log = LoggerFactory.getLogger(JobCostEstimator.class);
+
+    private QueryableRepository repository;
+    private KinesisService kinesisService;
+    private int maxRecordsPerShardPerSecond;
+    private int producerRateLimit;
+    private int archiveSampleFiles;
+
+    @Inject
+    public JobCostEstimator(
+            QueryableRepository repository,
+            KinesisService kinesisService,
+            @Named("maxRecordsPerShardPerSecond") int maxRecordsPerShardPerSecond,
+            @Named("producerRateLimit") int producerRateLimit,
+            @Named("approximateCountSampleFiles") int archiveSampleFiles) {
+        this.repository = repository;
+        this.kinesisService = kinesisService;
+        this.maxRecordsPerShardPerSecond = maxRecordsPerShardPerSecond;
+        this.producerRateLimit = producerRateLimit;
+        this.archiveSampleFiles = archiveSampleFiles;
+    }
+
+    /**
+     *
+     * @param pumpSettings
+     * @return QueryCostEstimate
+     * @throws SQLException if the query can't be planned
+     * @throws IOException if the archive can't be read
+     */
+    public QueryCostEstimate estimate(PumpSettings pumpSettings) throws SQLException, IOException {
+        QueryCostEstimate estimate;
+        if (pumpSettings.getRecordSource() == RecordSource.ARCHIVE) {
+            File root = new File(pumpSettings.getArchivePath());
+            CountEstimate count = ArchiveCountEstimator.estimate(root, archiveSampleFiles);
+            long bytes = 0;
+            for (File file : ArchiveFiles.list(root)) {
+                bytes += file.length();
+            }
+            estimate = new QueryCostEstimate(count.getCount(), bytes);
+        }
+        else if (pumpSettings.getRecordSource() == RecordSource.DEAD_LETTER) {
+            long count = 0;
+            long bytes = 0;
+            for (File file : DeadLetterSpool.list(new File(pumpSettings.getDeadLetterPath()))) {
+                count += DeadLetterRecordReader.count(file);
+                bytes += file.length();
+            }
+            estimate = new QueryCostEstimate(count, bytes);
+        }
+        else {
+            estimate = repository.explain(pumpSettings.getQueryIn());
+        }
+
+        try {
+            int shardCount = kinesisService.countShardsInStream(pumpSettings.getStreamOut());
+            estimate.project(shardCount, shardCount * maxRecordsPerShardPerSecond * producerRateLimit / 100.0);
+        }
+        catch (RuntimeException e) {
+            log.warn("Could not count the shards of stream " + pumpSettings.getStreamOut() + ", runtime not projected.", e);
+        }
+        return estimate;
+    }
+}
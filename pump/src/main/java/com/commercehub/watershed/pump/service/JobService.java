@@ -1,10 +1,14 @@
 package com.commercehub.watershed.pump.service;
 
+import com.commercehub.watershed.pump.model.ExactCount;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.model.JobPreview;
+import com.commercehub.watershed.pump.model.PreviewCacheStats;
 import com.commercehub.watershed.pump.model.PreviewSettings;
 import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.respositories.PreviewCursor;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
 
@@ -14,12 +18,22 @@ import java.util.Collection;
 public interface JobService {
 
     /**
-     * Enqueue a Job for processing
+     * Estimate the cost of a Job and, if admission control allows, enqueue it for processing
      * @param pumpSettings
      * @return Job
      */
     Job enqueueJob(PumpSettings pumpSettings);
 
+    /**
+     * Resume a Job from its latest checkpoint, journaled or in memory, keeping its jobId. Records acked before the
+     * checkpoint aren't sent again.
+     * @param jobId
+     * @return Job, or null if the Job has no checkpoint
+     * @throws IOException if the journaled checkpoint can't be read
+     * @throws IllegalStateException if the Job is still running or already completed
+     */
+    Job resumeJob(String jobId) throws IOException;
+
     /**
      * Retrieve a Job from the in-memory Job map
      * @param jobId
@@ -34,10 +48,45 @@ public interface JobService {
     Collection<Job> getAllJobs();
 
     /**
-     * Submits a query for record count and a few preview records
+     * Submits a query for record count and a few preview records, or returns a recent result of the same query
      * @param previewSettings
      * @return JobPreview
      * @throws SQLException
      */
     JobPreview getJobPreview(PreviewSettings previewSettings) throws SQLException;
+
+    /**
+     * Starts counting the records of a preview query exactly in the background, unless already counted
+     * @param previewSettings
+     * @return ExactCount, possibly still in progress
+     */
+    ExactCount requestExactCount(PreviewSettings previewSettings);
+
+    /**
+     * Hit/miss statistics of the job preview cache
+     * @return PreviewCacheStats
+     */
+    PreviewCacheStats getPreviewCacheStats();
+
+    /**
+     * Executes a preview query and keeps its results open to be read a page at a time
+     * @param previewSettings
+     * @return PreviewCursor, or null if too many cursors are open
+     * @throws SQLException
+     */
+    PreviewCursor openPreviewCursor(PreviewSettings previewSettings) throws SQLException;
+
+    /**
+     * Retrieve an open preview cursor
+     * @param cursorId
+     * @return PreviewCursor, or null if it doesn't exist or is no longer open
+     */
+    PreviewCursor getPreviewCursor(String cursorId);
+
+    /**
+     * Close a preview cursor
+     * @param cursorId
+     * @return whether the cursor was open
+     */
+    boolean closePreviewCursor(String cursorId);
 }
@@ -2,23 +2,46 @@ package com.commercehub.watershed.pump.service;
 
 import com.commercehub.watershed.pump.application.factories.JobFactory;
 import com.commercehub.watershed.pump.application.factories.JobRunnableFactory;
+import com.commercehub.watershed.pump.model.AdmissionDecision;
+import com.commercehub.watershed.pump.model.Checkpoint;
+import com.commercehub.watershed.pump.model.CountEstimate;
+import com.commercehub.watershed.pump.model.CountMode;
+import com.commercehub.watershed.pump.model.ExactCount;
 import com.commercehub.watershed.pump.model.Job;
 import com.commercehub.watershed.pump.model.JobPreview;
+import com.commercehub.watershed.pump.model.PreviewCacheStats;
 import com.commercehub.watershed.pump.model.PreviewSettings;
+import com.commercehub.watershed.pump.model.ProcessingStage;
 import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.QueryCostEstimate;
+import com.commercehub.watershed.pump.processing.ArchiveCountEstimator;
+import com.commercehub.watershed.pump.respositories.PreviewCursor;
 import com.commercehub.watershed.pump.respositories.QueryableRepository;
 import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Provides a handful of methods to manage Jobs.
  */
 public class JobServiceImpl implements JobService {
+    private static final Logger log = LoggerFactory.getLogger(JobServiceImpl.class);
 
     @Inject
     private Map<String, Job> jobMap;
@@ -35,6 +58,40 @@ public class JobServiceImpl implements JobService {
     @Inject
     private JobFactory jobFactory;
 
+    @Inject
+    private JobCostEstimator jobCostEstimator;
+
+    @Inject
+    private AdmissionController admissionController;
+
+    @Inject
+    private PreviewCache previewCache;
+
+    @Inject
+    private PreviewCursorRegistry previewCursorRegistry;
+
+    @Inject
+    private ExactCountTracker exactCountTracker;
+
+    @Inject
+    private CheckpointJournal checkpointJournal;
+
+    @Inject
+    @Named("previewExecutor")
+    private ExecutorService previewExecutor;
+
+    @Inject
+    @Named("admissionEstimateExecutor")
+    private ExecutorService admissionEstimateExecutor;
+
+    @Inject
+    @Named("approximateCountSampleFiles")
+    private int approximateCountSampleFiles;
+
+    @Inject
+    @Named("admissionEstimateTimeoutSeconds")
+    private int admissionEstimateTimeoutSeconds;
+
     /**
      * {@inheritDoc}
      */
@@ -42,8 +99,91 @@ public class JobServiceImpl implements JobService {
     public Job enqueueJob(PumpSettings pumpSettings) {
         Job job = jobFactory.create(UUID.randomUUID().toString(), pumpSettings);
         jobMap.put(job.getJobId(), job);
+        return admit(job);
+    }
+
+    /**
+     * Only the check that the Job isn't running and the swap in the job map hold the service's lock; the resumed Job
+     * is admitted outside it, like a new one.
+     * {@inheritDoc}
+     */
+    @Override
+    public Job resumeJob(String jobId) throws IOException {
+        Checkpoint journaled = checkpointJournal.read(jobId);
+        Job job;
+        synchronized (this) {
+            Job existing = jobMap.get(jobId);
+            if (existing != null) {
+                ProcessingStage stage = existing.getStage();
+                if (stage == ProcessingStage.NOT_STARTED || stage == ProcessingStage.QUEUED || stage == ProcessingStage.IN_PROGRESS) {
+                    throw new IllegalStateException("Job " + jobId + " is still running.");
+                }
+                if (stage == ProcessingStage.COMPLETED_SUCCESS) {
+                    throw new IllegalStateException("Job " + jobId + " already completed.");
+                }
+            }
+
+            Checkpoint checkpoint = journaled;
+            if (checkpoint == null && existing != null) {
+                checkpoint = existing.getCheckpoint();
+            }
+            if (checkpoint == null || checkpoint.getPumpSettings() == null) {
+                return null;
+            }
 
-        executor.submit(jobRunnableFactory.create(job));
+            log.info("Resuming job {} after {} acked records", jobId, checkpoint.getAckedRecordCount());
+            job = jobFactory.create(jobId, checkpoint.getPumpSettings());
+            job.setResumedFrom(checkpoint);
+            jobMap.put(jobId, job);
+        }
+        return admit(job);
+    }
+
+    /**
+     * Estimates the cost of a Job and, if admission control allows, runs it. Estimates run on their own executor,
+     * so they don't wait behind preview counts, and are bounded by a timeout; a Job whose cost can't be estimated in
+     * time, or at all, goes to admission control without one.
+     */
+    private Job admit(final Job job) {
+        Future<QueryCostEstimate> estimate;
+        try {
+            estimate = admissionEstimateExecutor.submit(new Callable<QueryCostEstimate>() {
+                @Override
+                public QueryCostEstimate call() throws SQLException, IOException {
+                    return jobCostEstimator.estimate(job.getPumpSettings());
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Too many job cost estimates are waiting, going without one for job {}.", job.getJobId());
+            estimate = null;
+        }
+
+        if (estimate != null) {
+            try {
+                job.setCostEstimate(estimate.get(admissionEstimateTimeoutSeconds, TimeUnit.SECONDS));
+            }
+            catch (InterruptedException e) {
+                estimate.cancel(true);
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while estimating the cost of job {}, going without an estimate.", job.getJobId());
+            }
+            catch (TimeoutException e) {
+                estimate.cancel(true);
+                log.warn("Estimating the cost of job {} took over {}s, going without an estimate.",
+                        job.getJobId(), admissionEstimateTimeoutSeconds);
+            }
+            catch (ExecutionException e) {
+                log.warn("Could not estimate the cost of job " + job.getJobId() + ", going without an estimate.", e.getCause());
+            }
+        }
+
+        admissionController.admit(job, new Runnable() {
+            @Override
+            public void run() {
+                executor.submit(jobRunnableFactory.create(job));
+            }
+        });
         return job;
     }
 
@@ -67,7 +207,88 @@ public class JobServiceImpl implements JobService {
      * {@inheritDoc}
      */
     @Override
-    public JobPreview getJobPreview(PreviewSettings previewSettings) throws SQLException {
-        return repository.getJobPreview(previewSettings);
+    public JobPreview getJobPreview(final PreviewSettings previewSettings) throws SQLException {
+        return previewCache.get(previewSettings, new Callable<JobPreview>() {
+            @Override
+            public JobPreview call() throws SQLException {
+                if (previewSettings.getCountMode() == CountMode.APPROXIMATE) {
+                    return getApproximatePreview(previewSettings);
+                }
+                return repository.getJobPreview(previewSettings);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExactCount requestExactCount(PreviewSettings previewSettings) {
+        return exactCountTracker.request(previewSettings.getQueryIn());
+    }
+
+    /**
+     * Estimates the count from a sample of the archive while the preview rows are queried.
+     */
+    private JobPreview getApproximatePreview(final PreviewSettings previewSettings) throws SQLException {
+        Future<CountEstimate> estimate = previewExecutor.submit(new Callable<CountEstimate>() {
+            @Override
+            public CountEstimate call() throws IOException {
+                return ArchiveCountEstimator.estimate(new File(previewSettings.getArchivePath()), approximateCountSampleFiles);
+            }
+        });
+
+        List<Map<String, String>> rows;
+        try {
+            rows = repository.getPreviewRows(previewSettings);
+        }
+        catch (SQLException | RuntimeException e) {
+            estimate.cancel(true);
+            throw e;
+        }
+
+        try {
+            return new JobPreview(estimate.get(), rows);
+        }
+        catch (InterruptedException e) {
+            estimate.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while estimating the preview count.", e);
+        }
+        catch (ExecutionException e) {
+            throw new SQLException("Could not estimate the preview count: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PreviewCacheStats getPreviewCacheStats() {
+        return previewCache.getStats();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PreviewCursor openPreviewCursor(PreviewSettings previewSettings) throws SQLException {
+        return previewCursorRegistry.open(previewSettings);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PreviewCursor getPreviewCursor(String cursorId) {
+        return previewCursorRegistry.get(cursorId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean closePreviewCursor(String cursorId) {
+        return previewCursorRegistry.close(cursorId);
     }
 }
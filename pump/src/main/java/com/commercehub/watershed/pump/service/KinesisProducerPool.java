@@ -0,0 +1,426 @@
+package com.commercehub.watershed.pump.service;
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer;
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Long-lived KinesisProducers shared by all Jobs. Each KinesisProducer runs a native child process that takes
+ * seconds to start and hundreds of MB to run, so Jobs share a few per configuration instead of starting their own.
+ * Jobs are spread over a configuration's producers by their outstanding records.
+ *
+ * Jobs lease the configurations they tune, so producers of a tuned configuration no Job has used for a while are
+ * destroyed. Only so many tuned configurations may have producers at once; past that, Jobs get the default
+ * configuration instead.
+ *
+ * Producers are started, flushed and destroyed outside the pool's lock, so one Job starting or ending doesn't hold up
+ * the others; a producer still starting is handed out once it has started.
+ *
+ * Jobs must not flush or destroy a shared producer; see {@link com.commercehub.watershed.pump.processing.KinesisProducerSink}.
+ */
+@Singleton
+public class KinesisProducerPool {
+    private static final Logger log = LoggerFactory.getLogger(KinesisProducerPool.class);
+
+    private final KinesisProducerConfiguration defaultConfiguration;
+    private final String defaultKey;
+    private final int poolSize;
+    private final int maxTunedConfigurations;
+    private final long idleMillis;
+    private final Map<String, List<SettableFuture<KinesisProducer>>> producers = new HashMap<>();
+    private final Map<String, Integer> leases = new HashMap<>();
+    private final Map<String, Long> idleSince = new HashMap<>();
+    private boolean shutDown = false;
+
+    /**
+     *
+     * @param defaultConfiguration      the configuration of the producers Jobs use unless they ask for another
+     * @param poolSize                  the number of producers kept per configuration
+     * @param maxTunedConfigurations    the most configurations other than the default that may have producers at once
+     * @param idleMillis                how long a tuned configuration's producers are kept once no Job leases it
+     */
+    @Inject
+    public KinesisProducerPool(
+            KinesisProducerConfiguration defaultConfiguration,
+            @Named("kinesisProducerPoolSize") int poolSize,
+            @Named("kinesisProducerMaxTunedConfigurations") int maxTunedConfigurations,
+            @Named("kinesisProducerIdleMillis") long idleMillis) {
+        this.defaultConfiguration = defaultConfiguration;
+        this.defaultKey = key(defaultConfiguration);
+        this.poolSize = Math.max(1, poolSize);
+        this.maxTunedConfigurations = Math.max(0, maxTunedConfigurations);
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Starts the default configuration's producers, so the first Jobs don't wait for them.
+     */
+    public void warm() {
+        for (int i = 0; i < poolSize; i++) {
+            get(defaultConfiguration);
+        }
+        log.info("Started {} shared Kinesis producers", poolSize);
+    }
+
+    /**
+     *
+     * @return a shared producer with the default configuration
+     */
+    public KinesisProducer get() {
+        return get(defaultConfiguration);
+    }
+
+    /**
+     * Producers are started outside the pool's lock, so other Jobs aren't held up while one starts.
+     *
+     * @param configuration
+     * @return a shared producer with the configuration: a new one while the configuration has fewer than the pool
+     * size, otherwise the one with the fewest outstanding records
+     */
+    public KinesisProducer get(KinesisProducerConfiguration configuration) {
+        SettableFuture<KinesisProducer> starting = null;
+        ListenableFuture<KinesisProducer> chosen;
+        synchronized (this) {
+            if (shutDown) {
+                throw new IllegalStateException("The Kinesis producer pool is shut down.");
+            }
+
+            List<SettableFuture<KinesisProducer>> pooled = pooled(configuration);
+            if (pooled.size() < poolSize) {
+                starting = SettableFuture.create();
+                pooled.add(starting);
+                chosen = starting;
+            }
+            else {
+                chosen = leastOutstanding(pooled);
+            }
+        }
+
+        if (starting != null) {
+            try {
+                starting.set(create(configuration));
+            }
+            catch (RuntimeException e) {
+                synchronized (this) {
+                    remove(starting);
+                }
+                starting.setException(e);
+            }
+        }
+        return await(chosen);
+    }
+
+    /**
+     * Leases a configuration for a Job, until the Job releases it. Tuned configurations past the limit are refused,
+     * after destroying the producers of tuned configurations no Job leases. Those producers are flushed and destroyed
+     * outside the pool's lock.
+     *
+     * @param configuration the configuration the Job asks for
+     * @return the configuration the Job should get producers for: the one it asked for, or the default configuration
+     */
+    public KinesisProducerConfiguration lease(KinesisProducerConfiguration configuration) {
+        List<ListenableFuture<KinesisProducer>> evicted = new ArrayList<>();
+        try {
+            synchronized (this) {
+                String key = key(configuration);
+                evictIdle(false, evicted);
+                if (!key.equals(defaultKey) && !leases.containsKey(key) && !producers.containsKey(key)
+                        && tunedConfigurationCount() >= maxTunedConfigurations) {
+                    evictIdle(true, evicted);
+                    if (tunedConfigurationCount() >= maxTunedConfigurations) {
+                        log.warn("{} tuned Kinesis producer configurations are in use, using the default configuration", maxTunedConfigurations);
+                        configuration = defaultConfiguration;
+                        key = defaultKey;
+                    }
+                }
+
+                Integer leased = leases.get(key);
+                leases.put(key, leased == null ? 1 : leased + 1);
+                idleSince.remove(key);
+                return configuration;
+            }
+        }
+        finally {
+            retire(evicted);
+        }
+    }
+
+    /**
+     * Ends a Job's lease. A tuned configuration no Job leases has its producers destroyed after the idle time.
+     *
+     * @param configuration as returned by {@link #lease}
+     */
+    public void release(KinesisProducerConfiguration configuration) {
+        List<ListenableFuture<KinesisProducer>> evicted = new ArrayList<>();
+        synchronized (this) {
+            String key = key(configuration);
+            Integer leased = leases.get(key);
+            if (leased == null) {
+                return;
+            }
+            if (leased > 1) {
+                leases.put(key, leased - 1);
+            }
+            else {
+                leases.remove(key);
+                idleSince.put(key, now());
+            }
+            evictIdle(false, evicted);
+        }
+        retire(evicted);
+    }
+
+    /**
+     *
+     * @param recordMaxBufferedTime null to keep the default configuration's
+     * @param aggregationMaxSize    null to keep the default configuration's
+     * @param collectionMaxCount    null to keep the default configuration's
+     * @param maxConnections        null to keep the default configuration's
+     * @return a copy of the default configuration with the given settings, to tune a Job's producer
+     */
+    public KinesisProducerConfiguration configure(Long recordMaxBufferedTime, Long aggregationMaxSize, Long collectionMaxCount, Long maxConnections) {
+        KinesisProducerConfiguration configuration = new KinesisProducerConfiguration();
+        configuration.setCredentialsProvider(defaultConfiguration.getCredentialsProvider());
+        configuration.setRegion(defaultConfiguration.getRegion());
+        configuration.setAggregationEnabled(defaultConfiguration.isAggregationEnabled());
+        configuration.setRecordTtl(defaultConfiguration.getRecordTtl());
+        configuration.setRateLimit(defaultConfiguration.getRateLimit());
+        configuration.setRecordMaxBufferedTime(recordMaxBufferedTime != null ? recordMaxBufferedTime : defaultConfiguration.getRecordMaxBufferedTime());
+        configuration.setAggregationMaxSize(aggregationMaxSize != null ? aggregationMaxSize : defaultConfiguration.getAggregationMaxSize());
+        configuration.setCollectionMaxCount(collectionMaxCount != null ? collectionMaxCount : defaultConfiguration.getCollectionMaxCount());
+        configuration.setMaxConnections(maxConnections != null ? maxConnections : defaultConfiguration.getMaxConnections());
+        return configuration;
+    }
+
+    /**
+     * Destroys a producer that failed, such as one whose child process died. It is replaced the next time a Job
+     * asks for a producer.
+     *
+     * @param producer
+     */
+    public void invalidate(KinesisProducer producer) {
+        synchronized (this) {
+            ListenableFuture<KinesisProducer> failed = null;
+            for (List<SettableFuture<KinesisProducer>> pooled : producers.values()) {
+                for (SettableFuture<KinesisProducer> slot : pooled) {
+                    if (started(slot) == producer) {
+                        failed = slot;
+                    }
+                }
+            }
+            if (failed == null) {
+                return;
+            }
+            remove(failed);
+        }
+        log.warn("Replacing a failed shared Kinesis producer");
+        destroyQuietly(producer);
+    }
+
+    /**
+     * Sends every producer's outstanding records, then destroys the producers.
+     */
+    public void shutdown() {
+        List<ListenableFuture<KinesisProducer>> all = new ArrayList<>();
+        synchronized (this) {
+            shutDown = true;
+            for (List<SettableFuture<KinesisProducer>> pooled : producers.values()) {
+                all.addAll(pooled);
+            }
+            producers.clear();
+            leases.clear();
+            idleSince.clear();
+        }
+        retire(all);
+    }
+
+    /**
+     * @return the current time in millis; tests may stop the clock
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Starts a producer's child process.
+     *
+     * @param configuration
+     * @return KinesisProducer
+     */
+    protected KinesisProducer create(KinesisProducerConfiguration configuration) {
+        return new KinesisProducer(configuration);
+    }
+
+    /**
+     * Takes the producers of tuned configurations no Job leases out of the pool, to be retired once the pool's lock
+     * is released.
+     *
+     * @param all       whether to evict those idle for less than the idle time too
+     * @param evicted   gets the evicted producers
+     */
+    private void evictIdle(boolean all, List<ListenableFuture<KinesisProducer>> evicted) {
+        long now = now();
+        Iterator<Map.Entry<String, List<SettableFuture<KinesisProducer>>>> entries = producers.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, List<SettableFuture<KinesisProducer>>> entry = entries.next();
+            String key = entry.getKey();
+            if (key.equals(defaultKey) || leases.containsKey(key)) {
+                continue;
+            }
+            Long since = idleSince.get(key);
+            if (!all && since != null && now - since < idleMillis) {
+                continue;
+            }
+
+            log.info("Destroying {} idle tuned Kinesis producers", entry.getValue().size());
+            evicted.addAll(entry.getValue());
+            entries.remove();
+            idleSince.remove(key);
+        }
+    }
+
+    /**
+     * Flushes and destroys producers taken out of the pool, waiting for any still starting. Must not be called with
+     * the pool's lock held, as flushing takes as long as sending the producers' records.
+     */
+    private void retire(List<ListenableFuture<KinesisProducer>> retired) {
+        for (ListenableFuture<KinesisProducer> slot : retired) {
+            KinesisProducer producer;
+            try {
+                producer = await(slot);
+            }
+            catch (RuntimeException e) {
+                continue;
+            }
+
+            try {
+                producer.flushSync();
+            }
+            catch (RuntimeException e) {
+                log.warn("Failed to flush a shared Kinesis producer", e);
+            }
+            destroyQuietly(producer);
+        }
+    }
+
+    /**
+     * @return the started producer with the fewest outstanding records, or one still starting if none has started
+     */
+    private static ListenableFuture<KinesisProducer> leastOutstanding(List<SettableFuture<KinesisProducer>> pooled) {
+        ListenableFuture<KinesisProducer> least = pooled.get(0);
+        long leastOutstanding = Long.MAX_VALUE;
+        for (SettableFuture<KinesisProducer> slot : pooled) {
+            KinesisProducer producer = started(slot);
+            if (producer == null) {
+                continue;
+            }
+            long outstanding = producer.getOutstandingRecordsCount();
+            if (outstanding < leastOutstanding) {
+                least = slot;
+                leastOutstanding = outstanding;
+            }
+        }
+        return least;
+    }
+
+    private void remove(ListenableFuture<KinesisProducer> slot) {
+        for (List<SettableFuture<KinesisProducer>> pooled : producers.values()) {
+            if (pooled.remove(slot)) {
+                return;
+            }
+        }
+    }
+
+    private int tunedConfigurationCount() {
+        Set<String> keys = new HashSet<>(producers.keySet());
+        keys.addAll(leases.keySet());
+        keys.remove(defaultKey);
+        return keys.size();
+    }
+
+    private List<SettableFuture<KinesisProducer>> pooled(KinesisProducerConfiguration configuration) {
+        String key = key(configuration);
+        List<SettableFuture<KinesisProducer>> pooled = producers.get(key);
+        if (pooled == null) {
+            pooled = new ArrayList<>();
+            producers.put(key, pooled);
+        }
+        return pooled;
+    }
+
+    /**
+     * @return the slot's producer if it has started, otherwise null
+     */
+    private static KinesisProducer started(ListenableFuture<KinesisProducer> slot) {
+        if (!slot.isDone()) {
+            return null;
+        }
+        try {
+            return await(slot);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a producer to start, without giving up if interrupted, as the producer is shared.
+     */
+    private static KinesisProducer await(ListenableFuture<KinesisProducer> slot) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return slot.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException("Failed to start a shared Kinesis producer", e.getCause());
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return what tells configurations apart for sharing: producers with the same key are interchangeable
+     */
+    static String key(KinesisProducerConfiguration configuration) {
+        return configuration.getRegion() + "|" + configuration.isAggregationEnabled() + "|" + configuration.getRateLimit() +
+                "|" + configuration.getRecordTtl() + "|" + configuration.getRecordMaxBufferedTime() + "|" + configuration.getAggregationMaxSize() +
+                "|" + configuration.getCollectionMaxCount() + "|" + configuration.getMaxConnections();
+    }
+
+    private static void destroyQuietly(KinesisProducer producer) {
+        try {
+            producer.destroy();
+        }
+        catch (RuntimeException e) {
+            log.warn("Failed to destroy a shared Kinesis producer", e);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.commercehub.watershed.pump.service;
 
+import com.amazonaws.services.kinesis.model.Shard;
+
+import java.util.List;
+
 /**
  * Defines methods used to talk to Kinesis.
  */
@@ -11,4 +15,11 @@ public interface KinesisService {
      * @return numer of shards on a Kinesis stream.
      */
     int countShardsInStream(String stream);
+
+    /**
+     * Sends API calls to retrieve the shards of a Kinesis stream that are still open for writes.
+     * @param stream
+     * @return the open shards, with their hash key ranges
+     */
+    List<Shard> listOpenShards(String stream);
 }
@@ -2,9 +2,13 @@ package com.commercehub.watershed.pump.service;
 
 
 import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.model.Shard;
 import com.amazonaws.services.kinesis.model.StreamDescription;
 import com.google.inject.Inject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Methods to interact with Kinesis.
  */
@@ -27,4 +31,25 @@ public class KinesisServiceImpl implements KinesisService {
         return numShards;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<Shard> listOpenShards(String stream) {
+        List<Shard> openShards = new ArrayList<>();
+        String lastShardId = null;
+        StreamDescription desc;
+        do {
+            desc = lastShardId == null ? kinesisClient.describeStream(stream).getStreamDescription() :
+                    kinesisClient.describeStream(stream, lastShardId).getStreamDescription();
+            for (Shard shard : desc.getShards()) {
+                // Shards closed by resharding have an ending sequence number; they take no more records.
+                if (shard.getSequenceNumberRange() == null || shard.getSequenceNumberRange().getEndingSequenceNumber() == null) {
+                    openShards.add(shard);
+                }
+                lastShardId = shard.getShardId();
+            }
+        } while (desc.isHasMoreShards() && lastShardId != null);
+        return openShards;
+    }
+
 }
@@ -0,0 +1,227 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.CompressionStats;
+import com.commercehub.watershed.pump.model.PayloadCompression;
+import com.commercehub.watershed.pump.processing.ByteBufferInputStream;
+import com.commercehub.watershed.pump.processing.PayloadBufferPool;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.google.common.base.Function;
+import com.google.common.io.ByteStreams;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses record payloads with one codec, wrapping each in the envelope described by {@link PayloadCompression}
+ * so consumers can tell compressed payloads from plain ones. Safe for concurrent use.
+ */
+public class PayloadCompressor implements Function<byte[], byte[]>, BufferTransformer {
+    private static final Logger log = LoggerFactory.getLogger(PayloadCompressor.class);
+
+    public static final byte MARKER = (byte) 0xF7;
+    private static final int HEADER_LENGTH = 2;
+    private static final int ZSTD_DEFAULT_LEVEL = 3;
+    private static final int ZSTD_DICTIONARY_MAGIC = 0xEC30A437;
+
+    private final PayloadCompression compression;
+    private final int level;
+    private final CompressionStats stats;
+    private final LZ4Compressor lz4Compressor;
+    private final ZstdDictCompress zstdDictionary;
+
+    /**
+     *
+     * @param compression   the codec; not NONE
+     * @param level         the codec's compression level, or null for its default
+     * @param dictionary    a zstd dictionary, or null to compress without one; only used by ZSTD
+     * @param stats         updated with each payload compressed
+     */
+    public PayloadCompressor(PayloadCompression compression, Integer level, byte[] dictionary, CompressionStats stats) {
+        if (compression == PayloadCompression.NONE) {
+            throw new IllegalArgumentException("No compressor for payload compression NONE.");
+        }
+        this.compression = compression;
+        this.stats = stats;
+
+        switch (compression) {
+            case GZIP:
+                this.level = level != null ? level : Deflater.DEFAULT_COMPRESSION;
+                break;
+            case ZSTD:
+                this.level = level != null ? level : ZSTD_DEFAULT_LEVEL;
+                break;
+            default:
+                this.level = level != null ? level : 0;
+        }
+        this.lz4Compressor = compression != PayloadCompression.LZ4 ? null :
+                this.level > 0 ? LZ4Factory.fastestInstance().highCompressor(this.level) : LZ4Factory.fastestInstance().fastCompressor();
+        this.zstdDictionary = compression == PayloadCompression.ZSTD && dictionary != null ? new ZstdDictCompress(dictionary, this.level) : null;
+
+        stats.setCompression(compression);
+        if (zstdDictionary != null) {
+            stats.setDictionary(dictionary, dictionaryId(dictionary));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] apply(byte[] input) {
+        return PayloadBufferPool.toArray(transform(ByteBuffer.wrap(input), PayloadBufferPool.unpooled()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer transform(ByteBuffer input, PayloadBufferPool pool) {
+        int uncompressedLength = input.remaining();
+        PayloadBufferPool.BufferOutputStream output = null;
+        boolean written = false;
+        try {
+            switch (compression) {
+                case GZIP:
+                    output = pool.newOutputStream(uncompressedLength / 4 + 64);
+                    writeHeader(output);
+                    GZIPOutputStream gzip = new GZIPOutputStream(output, 4096) {
+                        {
+                            def.setLevel(level);
+                        }
+                    };
+                    try {
+                        ByteStreams.copy(new ByteBufferInputStream(input.duplicate()), gzip);
+                    }
+                    finally {
+                        // Finishes the stream and frees the native Deflater; closing the pooled output is a no-op.
+                        gzip.close();
+                    }
+                    break;
+                case LZ4:
+                    byte[] block = lz4Compressor.compress(PayloadBufferPool.toArray(input));
+                    output = pool.newOutputStream(HEADER_LENGTH + 4 + block.length);
+                    writeHeader(output);
+                    output.write(ByteBuffer.allocate(4).putInt(uncompressedLength).array());
+                    output.write(block);
+                    break;
+                case ZSTD:
+                    byte[] frame = zstdDictionary != null ?
+                            Zstd.compress(PayloadBufferPool.toArray(input), zstdDictionary) :
+                            Zstd.compress(PayloadBufferPool.toArray(input), level);
+                    output = pool.newOutputStream(HEADER_LENGTH + frame.length);
+                    writeHeader(output);
+                    output.write(frame);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported payload compression " + compression + ".");
+            }
+            written = true;
+        }
+        catch (IOException e) {
+            // In-memory streams don't fail.
+            throw new IllegalStateException("Failed to compress record payload.", e);
+        }
+        finally {
+            if (!written && output != null) {
+                output.discard();
+            }
+        }
+
+        ByteBuffer compressed = output.toBuffer();
+        stats.compressed(uncompressedLength, compressed.remaining());
+        return compressed;
+    }
+
+    private void writeHeader(PayloadBufferPool.BufferOutputStream output) {
+        output.write(MARKER);
+        output.write(compression.getId());
+    }
+
+    /**
+     * Trains a zstd dictionary from sample payloads.
+     *
+     * @param samples           payloads representative of the Job's records
+     * @param dictionaryBytes   the most bytes the dictionary may take
+     * @return the dictionary, or null if the samples couldn't train one (e.g. too few of them)
+     */
+    public static byte[] trainDictionary(List<byte[]> samples, int dictionaryBytes) {
+        long sampleBytes = 0;
+        for (byte[] sample : samples) {
+            sampleBytes += sample.length;
+        }
+        if (samples.isEmpty() || sampleBytes > Integer.MAX_VALUE) {
+            log.warn("Can't train a compression dictionary from {} samples of {} bytes", samples.size(), sampleBytes);
+            return null;
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) sampleBytes, dictionaryBytes);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        try {
+            byte[] dictionary = trainer.trainSamples();
+            log.info("Trained a {} byte compression dictionary from {} samples of {} bytes", dictionary.length, samples.size(), sampleBytes);
+            return dictionary;
+        }
+        catch (RuntimeException e) {
+            log.warn("Failed to train a compression dictionary from {} samples, compressing without one", samples.size(), e);
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param dictionary a zstd dictionary
+     * @return the id zstd frames compressed with the dictionary carry, or 0 for a raw content dictionary
+     */
+    public static long dictionaryId(byte[] dictionary) {
+        ByteBuffer header = ByteBuffer.wrap(dictionary).order(ByteOrder.LITTLE_ENDIAN);
+        if (dictionary.length < 8 || header.getInt(0) != ZSTD_DICTIONARY_MAGIC) {
+            return 0;
+        }
+        return header.getInt(4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reverses {@link #apply}; for consumers and tests.
+     *
+     * @param payload       a payload as emitted
+     * @param dictionary    the Job's zstd dictionary, or null if it has none
+     * @return the uncompressed payload; payloads without an envelope are returned unchanged
+     * @throws IOException if the payload is corrupt
+     */
+    public static byte[] decompress(byte[] payload, byte[] dictionary) throws IOException {
+        if (payload.length < HEADER_LENGTH || payload[0] != MARKER) {
+            return payload;
+        }
+        ByteBuffer body = ByteBuffer.wrap(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH).slice();
+        switch (PayloadCompression.forId(payload[1])) {
+            case GZIP:
+                return ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(payload, HEADER_LENGTH, payload.length - HEADER_LENGTH)));
+            case LZ4:
+                int length = body.getInt(0);
+                return LZ4Factory.fastestInstance().fastDecompressor().decompress(payload, HEADER_LENGTH + 4, length);
+            case ZSTD:
+                byte[] frame = PayloadBufferPool.toArray(body);
+                int originalSize = (int) Zstd.decompressedSize(frame);
+                return dictionary != null ?
+                        Zstd.decompress(frame, new ZstdDictDecompress(dictionary), originalSize) :
+                        Zstd.decompress(frame, originalSize);
+            default:
+                return payload;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.JobPreview;
+import com.commercehub.watershed.pump.model.PreviewCacheStats;
+import com.commercehub.watershed.pump.model.PreviewSettings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.inject.Named;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and time bounded cache of job previews, keyed by normalized PreviewSettings. Concurrent requests for the
+ * same preview share a single query.
+ */
+@Singleton
+public class PreviewCache {
+    private final Cache<PreviewSettings, JobPreview> cache;
+
+    /**
+     *
+     * @param ttlSeconds    how long a preview is served from the cache
+     * @param maxSize       maximum number of cached previews
+     */
+    @Inject
+    public PreviewCache(@Named("previewCacheTtlSeconds") long ttlSeconds, @Named("previewCacheMaxSize") long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached preview for the settings, loading it when it isn't cached. A preview loaded without its
+     * count isn't kept, so the next request counts again.
+     *
+     * @param previewSettings
+     * @param loader queries the preview on a cache miss
+     * @return JobPreview
+     * @throws SQLException if the loader fails
+     */
+    public JobPreview get(PreviewSettings previewSettings, Callable<JobPreview> loader) throws SQLException {
+        PreviewSettings key = normalize(previewSettings);
+        try {
+            JobPreview preview = cache.get(key, loader);
+            if (preview.getCount() == null) {
+                cache.invalidate(key);
+            }
+            return preview;
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    /**
+     *
+     * @return hit/miss statistics of the cache
+     */
+    public PreviewCacheStats getStats() {
+        return new PreviewCacheStats(cache.size(), cache.stats());
+    }
+
+    /**
+     * Drops all cached previews.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Normalizes a preview's query so that formatting differences don't cause cache misses: whitespace runs are
+     * collapsed and trailing semicolons removed. Whitespace inside quoted literals and identifiers is kept.
+     *
+     * @param previewSettings
+     * @return PreviewSettings with a normalized query
+     */
+    static PreviewSettings normalize(PreviewSettings previewSettings) {
+        PreviewSettings normalized = new PreviewSettings();
+        normalized.setQueryIn(normalizeQuery(previewSettings.getQueryIn()));
+        normalized.setPreviewCount(previewSettings.getPreviewCount());
+        normalized.setCountMode(previewSettings.getCountMode());
+        normalized.setArchivePath(previewSettings.getArchivePath());
+        return normalized;
+    }
+
+    static String normalizeQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        StringBuilder normalized = new StringBuilder(query.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            }
+            else if (quote != 0 && c == quote) {
+                quote = 0;
+            }
+        }
+
+        int end = normalized.length();
+        while (end > 0 && (normalized.charAt(end - 1) == ';' || normalized.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+}
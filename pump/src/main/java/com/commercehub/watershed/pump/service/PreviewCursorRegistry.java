@@ -0,0 +1,174 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.PreviewSettings;
+import com.commercehub.watershed.pump.respositories.PreviewCursor;
+import com.commercehub.watershed.pump.respositories.QueryableRepository;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Named;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps open preview cursors by id. Cursors that go unread for longer than the idle timeout are closed, so
+ * abandoned previews give their connections back. The eviction thread runs until the registry is shut down.
+ */
+@Singleton
+public class PreviewCursorRegistry {
+    private static final Logger log = LoggerFactory.getLogger(PreviewCursorRegistry.class);
+
+    private final QueryableRepository repository;
+    private final long idleTimeoutMillis;
+    private final int maxOpenCursors;
+    private final Map<String, PreviewCursor> cursors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    // Cursors being opened; they count against maxOpenCursors along with the registered ones.
+    private int opening = 0;
+
+    /**
+     *
+     * @param repository
+     * @param idleTimeoutSeconds    cursors unread for this long are closed
+     * @param maxOpenCursors        maximum number of cursors open at a time
+     */
+    @Inject
+    public PreviewCursorRegistry(QueryableRepository repository,
+                                 @Named("previewCursorIdleTimeoutSeconds") long idleTimeoutSeconds,
+                                 @Named("previewCursorMaxOpen") int maxOpenCursors) {
+        this.repository = repository;
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        this.maxOpenCursors = maxOpenCursors;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "preview-cursor-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long evictionIntervalMillis = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                }
+                catch (RuntimeException e) {
+                    log.warn("Preview cursor eviction failed.", e);
+                }
+            }
+        }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes the preview query and registers a cursor over its results.
+     *
+     * @param previewSettings
+     * @return the open cursor, or null if the maximum number of cursors is already open
+     * @throws SQLException
+     */
+    public PreviewCursor open(PreviewSettings previewSettings) throws SQLException {
+        synchronized (this) {
+            if (cursors.size() + opening >= maxOpenCursors) {
+                evictIdle();
+                if (cursors.size() + opening >= maxOpenCursors) {
+                    return null;
+                }
+            }
+            opening++;
+        }
+
+        PreviewCursor cursor = null;
+        try {
+            cursor = repository.openCursor(UUID.randomUUID().toString(), previewSettings.getQueryIn(),
+                    previewSettings.getPreviewCount());
+        }
+        finally {
+            synchronized (this) {
+                opening--;
+                if (cursor != null) {
+                    cursors.put(cursor.getCursorId(), cursor);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     *
+     * @param cursorId
+     * @return the open cursor, or null if it doesn't exist, was exhausted or was evicted
+     */
+    public PreviewCursor get(String cursorId) {
+        PreviewCursor cursor = cursors.get(cursorId);
+        if (cursor != null && cursor.isClosed()) {
+            cursors.remove(cursorId);
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Closes a cursor and forgets it.
+     *
+     * @param cursorId
+     * @return whether the cursor was open
+     */
+    public boolean close(String cursorId) {
+        PreviewCursor cursor = cursors.remove(cursorId);
+        if (cursor == null) {
+            return false;
+        }
+
+        boolean wasOpen = !cursor.isClosed();
+        cursor.close();
+        return wasOpen;
+    }
+
+    /**
+     *
+     * @return number of registered cursors
+     */
+    public int size() {
+        return cursors.size();
+    }
+
+    /**
+     * Stops evicting idle cursors and closes every open cursor.
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        for (String cursorId : cursors.keySet()) {
+            close(cursorId);
+        }
+    }
+
+    /**
+     * Closes cursors that were exhausted or went unread for longer than the idle timeout.
+     */
+    void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        Iterator<PreviewCursor> iterator = cursors.values().iterator();
+        while (iterator.hasNext()) {
+            PreviewCursor cursor = iterator.next();
+            if (cursor.isClosed() || cursor.getLastAccessMillis() < cutoff) {
+                iterator.remove();
+                if (!cursor.isClosed()) {
+                    log.info("Closing preview cursor " + cursor.getCursorId() + " after " + cursor.getRowCount() + " rows, idle too long.");
+                    cursor.close();
+                }
+            }
+        }
+    }
+}
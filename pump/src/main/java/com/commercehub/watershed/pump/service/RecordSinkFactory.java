@@ -0,0 +1,19 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.ProducerProfileStats;
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.processing.RecordSink;
+
+/**
+ * Creates the sinks Jobs send their records to.
+ */
+public interface RecordSinkFactory {
+
+    /**
+     * Creates a sink for the Job's record destination, owned by the Job's Pump.
+     * @param pumpSettings
+     * @param producerProfileStats  updated with the producer profile chosen for a KINESIS Job
+     * @return RecordSink
+     */
+    RecordSink create(PumpSettings pumpSettings, ProducerProfileStats producerProfileStats);
+}
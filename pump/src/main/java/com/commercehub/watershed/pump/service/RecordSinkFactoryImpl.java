@@ -0,0 +1,61 @@
+package com.commercehub.watershed.pump.service;
+
+import com.commercehub.watershed.pump.model.ProducerProfileStats;
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.RecordDestination;
+import com.commercehub.watershed.pump.processing.FileRecordSink;
+import com.commercehub.watershed.pump.processing.InMemoryRecordSink;
+import com.commercehub.watershed.pump.processing.ProfiledKinesisSink;
+import com.commercehub.watershed.pump.processing.RecordSink;
+import com.google.inject.Inject;
+
+import javax.inject.Named;
+import java.io.File;
+
+/**
+ * Creates a Kinesis, file or in-memory sink for each Job, as its settings ask. Kinesis sinks share pooled producers,
+ * tuned to the sizes of each Job's records.
+ */
+public class RecordSinkFactoryImpl implements RecordSinkFactory {
+    private final KinesisProducerPool kinesisProducerPool;
+    private final int producerProfileSampleRecords;
+    private final String fileSinkDirectory;
+    private final long fileSinkMaxFileBytes;
+
+    /**
+     *
+     * @param kinesisProducerPool           shares KinesisProducers between KINESIS Jobs
+     * @param producerProfileSampleRecords  the number of a KINESIS Job's first records measured to choose its producer profile
+     * @param fileSinkDirectory             where FILE Jobs write by default
+     * @param fileSinkMaxFileBytes          the uncompressed bytes after which FILE Jobs roll to a new file
+     */
+    @Inject
+    public RecordSinkFactoryImpl(
+            KinesisProducerPool kinesisProducerPool,
+            @Named("producerProfileSampleRecords") int producerProfileSampleRecords,
+            @Named("fileSinkDirectory") String fileSinkDirectory,
+            @Named("fileSinkMaxFileBytes") long fileSinkMaxFileBytes) {
+        this.kinesisProducerPool = kinesisProducerPool;
+        this.producerProfileSampleRecords = producerProfileSampleRecords;
+        this.fileSinkDirectory = fileSinkDirectory;
+        this.fileSinkMaxFileBytes = fileSinkMaxFileBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RecordSink create(PumpSettings pumpSettings, ProducerProfileStats producerProfileStats) {
+        RecordDestination destination = pumpSettings.getRecordDestination() != null ? pumpSettings.getRecordDestination() : RecordDestination.KINESIS;
+        switch (destination) {
+            case FILE:
+                String directory = pumpSettings.getSinkDirectory() != null ? pumpSettings.getSinkDirectory() : fileSinkDirectory;
+                return new FileRecordSink(new File(directory), pumpSettings.getStreamOut(), fileSinkMaxFileBytes);
+            case MEMORY:
+                long latencyMillis = pumpSettings.getSinkLatencyMillis() != null ? pumpSettings.getSinkLatencyMillis() : 0;
+                return new InMemoryRecordSink(latencyMillis, pumpSettings.getSinkRecordsPerSecond());
+            default:
+                return new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, producerProfileSampleRecords, producerProfileStats);
+        }
+    }
+}
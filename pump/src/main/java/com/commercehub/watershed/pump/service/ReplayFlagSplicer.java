@@ -0,0 +1,191 @@
+package com.commercehub.watershed.pump.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.UTF8StreamJsonParser;
+import com.commercehub.watershed.pump.processing.ByteBufferInputStream;
+import com.commercehub.watershed.pump.processing.PayloadBufferPool;
+import com.google.common.base.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Adds the replay and overwrite flags to a JSON object without building a tree. The record is tokenized once
+ * with a streaming parser to find the byte ranges of its top-level fields; the output is those ranges copied
+ * verbatim, minus any existing replay/overwrite fields, followed by the new flags.
+ *
+ * Records that aren't JSON objects are returned unchanged. Records the splicer can't locate byte offsets in
+ * (non UTF-8 encodings) go through the fallback function.
+ */
+public class ReplayFlagSplicer implements Function<byte[], byte[]>, BufferTransformer {
+    private static final Logger log = LoggerFactory.getLogger(ReplayFlagSplicer.class);
+    private static final String REPLAY = "replay";
+    private static final String OVERWRITE = "overwrite";
+
+    private final JsonFactory jsonFactory;
+    private final byte[] flags;
+    private final Function<byte[], byte[]> fallback;
+
+    /**
+     *
+     * @param jsonFactory
+     * @param replayEnabled
+     * @param overwriteEnabled
+     * @param fallback          transforms records whose byte layout can't be spliced
+     */
+    public ReplayFlagSplicer(JsonFactory jsonFactory, boolean replayEnabled, boolean overwriteEnabled, Function<byte[], byte[]> fallback) {
+        this.jsonFactory = jsonFactory;
+        this.flags = ("\"" + REPLAY + "\":" + replayEnabled + ",\"" + OVERWRITE + "\":" + overwriteEnabled)
+                .getBytes(StandardCharsets.UTF_8);
+        this.fallback = fallback;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] apply(byte[] input) {
+        return PayloadBufferPool.toArray(transform(ByteBuffer.wrap(input), PayloadBufferPool.unpooled()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer transform(ByteBuffer input, PayloadBufferPool pool) {
+        try {
+            return splice(input, pool);
+        }
+        catch (Exception e) {
+            log.warn("Failed to add replay flags to record, using original record", e);
+            return input;
+        }
+    }
+
+    private ByteBuffer splice(ByteBuffer input, PayloadBufferPool pool) throws Exception {
+        int base = input.position();
+        JsonParser parser = input.hasArray() ?
+                jsonFactory.createParser(input.array(), input.arrayOffset() + base, input.remaining()) :
+                jsonFactory.createParser(new ByteBufferInputStream(input.duplicate()));
+        try {
+            // Offsets are only byte offsets for UTF-8 input without a byte order mark.
+            if (!(parser instanceof UTF8StreamJsonParser) || hasUtf8ByteOrderMark(input)) {
+                return ByteBuffer.wrap(fallback.apply(PayloadBufferPool.toArray(input)));
+            }
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return input;
+            }
+
+            // Pairs of [start, end) offsets of the top-level fields to keep, relative to the input's position.
+            int[] ranges = new int[16];
+            int rangeCount = 0;
+            int keptBytes = 0;
+
+            int fieldStart = -1;
+            boolean keepField = false;
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME || token == JsonToken.END_OBJECT) {
+                    int tokenStart = startOfToken(input, base, offsetOf(parser.getTokenLocation()),
+                            token == JsonToken.FIELD_NAME ? (byte) '"' : (byte) '}');
+                    if (fieldStart >= 0 && keepField) {
+                        int fieldEnd = endOfValue(input, base, tokenStart, token == JsonToken.FIELD_NAME);
+                        if (rangeCount + 2 > ranges.length) {
+                            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                        }
+                        ranges[rangeCount++] = fieldStart;
+                        ranges[rangeCount++] = fieldEnd;
+                        keptBytes += fieldEnd - fieldStart + 1;
+                    }
+                    if (token == JsonToken.END_OBJECT) {
+                        break;
+                    }
+
+                    String name = parser.getCurrentName();
+                    fieldStart = tokenStart;
+                    keepField = !REPLAY.equals(name) && !OVERWRITE.equals(name);
+                }
+                else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new IllegalArgumentException("Unterminated JSON object");
+            }
+
+            ByteBuffer output = pool.acquire(1 + keptBytes + flags.length + 1);
+            ByteBuffer source = input.duplicate();
+            output.put((byte) '{');
+            for (int i = 0; i < rangeCount; i += 2) {
+                source.limit(base + ranges[i + 1]).position(base + ranges[i]);
+                output.put(source);
+                output.put((byte) ',');
+            }
+            output.put(flags);
+            output.put((byte) '}');
+            output.flip();
+            return output;
+        }
+        finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Older Jackson versions report byte-based parsers' offsets as character offsets.
+     */
+    private static int offsetOf(JsonLocation location) {
+        return (int) (location.getByteOffset() >= 0 ? location.getByteOffset() : location.getCharOffset());
+    }
+
+    /**
+     * Finds the first byte of a field name's opening quote or of an object's closing brace. Some Jackson versions
+     * report a token's location as where the parser started looking for it, before the whitespace and separating
+     * comma (or, for the first field, the opening brace) that precede it; those are the only bytes skipped.
+     */
+    private static int startOfToken(ByteBuffer input, int base, int reportedStart, byte expected) {
+        int start = reportedStart;
+        while (start < input.remaining() && input.get(base + start) != expected) {
+            byte b = input.get(base + start);
+            if (!isWhitespace(b) && b != ',' && b != '{') {
+                throw new IllegalArgumentException("Unexpected byte before token at offset " + start);
+            }
+            start++;
+        }
+        return start;
+    }
+
+    private static boolean hasUtf8ByteOrderMark(ByteBuffer input) {
+        int base = input.position();
+        return input.remaining() >= 3 && (input.get(base) & 0xff) == 0xef && (input.get(base + 1) & 0xff) == 0xbb && (input.get(base + 2) & 0xff) == 0xbf;
+    }
+
+    /**
+     * Finds where a field's value ends, given the start of the token that follows it: backs up over whitespace,
+     * the separating comma if another field follows, and whitespace again.
+     */
+    private static int endOfValue(ByteBuffer input, int base, int nextTokenStart, boolean commaSeparated) {
+        int end = skipWhitespaceBackwards(input, base, nextTokenStart);
+        if (commaSeparated) {
+            end = skipWhitespaceBackwards(input, base, end - 1);
+        }
+        return end;
+    }
+
+    private static int skipWhitespaceBackwards(ByteBuffer input, int base, int end) {
+        while (end > 0 && isWhitespace(input.get(base + end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -1,5 +1,7 @@
 package com.commercehub.watershed.pump.service;
 
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.processing.AvroSchemaCache;
 import com.google.common.base.Function;
 
 /**
@@ -14,4 +16,13 @@ public interface TransformerFunctionFactory {
      * @return Function
      */
     Function<byte[], byte[]> getReplayFlagTransformFunction(Boolean replayEnabled, Boolean overwriteEnabled);
+
+    /**
+     * Function that applies a Job's transform spec and sets its Replay and Overwrite flags, converting records from
+     * the Job's source format to its emit format.
+     * @param pumpSettings
+     * @param schemaCache the Job's Avro schemas
+     * @return Function
+     */
+    Function<byte[], byte[]> getTransformFunction(PumpSettings pumpSettings, AvroSchemaCache schemaCache);
 }
@@ -1,12 +1,17 @@
 package com.commercehub.watershed.pump.service;
 
+import com.commercehub.watershed.pump.model.PumpSettings;
+import com.commercehub.watershed.pump.model.RecordFormat;
+import com.commercehub.watershed.pump.processing.AvroSchemaCache;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.BooleanNode;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.inject.Inject;
+import org.apache.avro.Schema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +30,53 @@ public class TransformerFunctionFactoryImpl implements TransformerFunctionFactor
      * {@inheritDoc}
      */
     public Function<byte[], byte[]> getReplayFlagTransformFunction(Boolean replayEnabled, Boolean overwriteEnabled) {
+        return new ReplayFlagSplicer(objectMapper.getFactory(), replayEnabled, overwriteEnabled,
+                treeReplayFlagTransformFunction(replayEnabled, overwriteEnabled));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Function<byte[], byte[]> getTransformFunction(PumpSettings pumpSettings, AvroSchemaCache schemaCache) {
+        boolean avroSource = pumpSettings.getSourceFormat() == RecordFormat.AVRO;
+        boolean avroEmit = pumpSettings.getEmitFormat() == RecordFormat.AVRO;
+        if (avroSource && pumpSettings.getAvroSchema() != null) {
+            // Archives register their own schemas; records read through Drill carry only a fingerprint.
+            schemaCache.parse(pumpSettings.getAvroSchema());
+        }
+
+        if (avroSource && avroEmit) {
+            return new AvroReplayFlagTransform(schemaCache, pumpSettings.getHasReplayFlag(), pumpSettings.getHasOverwriteFlag());
+        }
+
+        AvroJsonConverter converter = new AvroJsonConverter(objectMapper, schemaCache);
+        Function<byte[], byte[]> jsonTransform = getJsonTransformFunction(pumpSettings);
+        if (avroSource) {
+            return Functions.compose(jsonTransform, converter.toJson());
+        }
+        if (avroEmit) {
+            Schema schema = schemaCache.withReplayFlags(schemaCache.parse(pumpSettings.getAvroSchema()));
+            return Functions.compose(converter.fromJson(schema), jsonTransform);
+        }
+        return jsonTransform;
+    }
+
+    /**
+     * @return Function that applies the transform spec and flags to JSON records
+     */
+    private Function<byte[], byte[]> getJsonTransformFunction(PumpSettings pumpSettings) {
+        if (pumpSettings.getTransform() == null || pumpSettings.getTransform().isEmpty()) {
+            return getReplayFlagTransformFunction(pumpSettings.getHasReplayFlag(), pumpSettings.getHasOverwriteFlag());
+        }
+        return new CompiledTransform(objectMapper.getFactory(), pumpSettings.getTransform(),
+                pumpSettings.getHasReplayFlag(), pumpSettings.getHasOverwriteFlag());
+    }
+
+    /**
+     * Adds the flags by parsing the whole record into a tree and writing it back out. Used for records the
+     * splicer can't handle.
+     */
+    private Function<byte[], byte[]> treeReplayFlagTransformFunction(Boolean replayEnabled, Boolean overwriteEnabled) {
         final BooleanNode replayEnabledNode = replayEnabled? BooleanNode.TRUE : BooleanNode.FALSE;
         final BooleanNode overwriteEnabledNode = overwriteEnabled? BooleanNode.TRUE : BooleanNode.FALSE;
 
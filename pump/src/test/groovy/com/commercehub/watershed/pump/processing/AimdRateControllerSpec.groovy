@@ -0,0 +1,108 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.RateControlStats
+import com.commercehub.watershed.pump.model.SinkRecordResult
+import com.google.common.base.Ticker
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class AimdRateControllerSpec extends Specification {
+    long now = 0
+    Ticker ticker = new Ticker() {
+        @Override
+        long read() {
+            return now
+        }
+    }
+    RecordSink recordSink = Mock(RecordSink)
+    RateControlStats stats = new RateControlStats()
+    AimdRateController controller = new AimdRateController(1000, 10, recordSink, stats, ticker)
+
+    def "starts at half the maximum rate"(){
+        expect:
+        controller.rate == 500
+        stats.rate == 500
+        stats.maxRate == 1000
+    }
+
+    def "throttled records cut the rate in half"(){
+        when:
+        controller.acked(result(["ProvisionedThroughputExceededException", null]))
+        nextInterval()
+        controller.acked(result([null]))
+
+        then:
+        controller.rate == 250
+        stats.decreaseCount == 1
+        stats.throttledRecordCount == 1
+        stats.retriedRecordCount == 1
+    }
+
+    def "a growing producer backlog cuts the rate"(){
+        setup:
+        recordSink.getOutstandingRecordsCount() >> 1001
+
+        when:
+        nextInterval()
+        controller.acked(result([null]))
+
+        then:
+        controller.rate == 250
+    }
+
+    def "the rate is raised additively while the job keeps up with it"(){
+        when:
+        5.times { controller.acquire() }
+        nextInterval()
+        controller.acked(result([null]))
+
+        then:
+        controller.rate == 550
+        stats.increaseCount == 1
+    }
+
+    def "the rate isn't raised while the source can't keep up with it"(){
+        when:
+        controller.acquire()
+        nextInterval()
+        controller.acked(result([null]))
+
+        then:
+        controller.rate == 500
+        stats.increaseCount == 0
+    }
+
+    def "the rate stays above its floor"(){
+        when:
+        10.times {
+            controller.acked(result(["ProvisionedThroughputExceededException", null]))
+            nextInterval()
+            controller.acked(result([null]))
+        }
+
+        then:
+        controller.rate == 50
+        stats.decreaseCount == 4
+    }
+
+    def "throttling is recognized by error code"(){
+        expect:
+        AimdRateController.isThrottling(errorCode) == throttling
+
+        where:
+        errorCode                                   | throttling
+        "ProvisionedThroughputExceededException"    | true
+        "ThrottlingException"                       | true
+        "Expired"                                   | false
+        null                                        | false
+    }
+
+    private void nextInterval() {
+        now += TimeUnit.MILLISECONDS.toNanos(10)
+    }
+
+    private static SinkRecordResult result(List<String> errorCodes) {
+        new SinkRecordResult(true, "shardId-000000000000", "1", errorCodes)
+    }
+}
@@ -0,0 +1,75 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.CountEstimate
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPOutputStream
+
+class ArchiveCountEstimatorSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File root
+
+    def setup() {
+        root = temporaryFolder.newFolder("archive")
+    }
+
+    File writeArchiveFile(String relativePath, int records, boolean gzip) {
+        File file = new File(root, relativePath)
+        file.parentFile.mkdirs()
+        OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)
+        records.times { out.write(('{"id":"' + it + '"}\n').getBytes(StandardCharsets.UTF_8)) }
+        out.close()
+        return file
+    }
+
+    def "countRecords counts non-empty lines of plain and gzipped files"(){
+        setup:
+        File plain = new File(root, "plain")
+        plain.text = '{"id":"1"}\r\n\n{"id":"2"}\n{"id":"3"}'
+        File gzipped = writeArchiveFile("gzipped", 3, true)
+
+        expect:
+        ArchiveCountEstimator.countRecords(plain) == 3
+        ArchiveCountEstimator.countRecords(gzipped) == 3
+    }
+
+    def "counting every file gives an exact count"(){
+        setup:
+        writeArchiveFile("2015/11/01/a", 10, true)
+        writeArchiveFile("2015/11/02/b", 20, true)
+
+        when:
+        CountEstimate estimate = ArchiveCountEstimator.estimate(root, 5)
+
+        then:
+        estimate.count == 30
+        estimate.errorBound == 0
+        estimate.sampledFiles == 2
+        estimate.totalFiles == 2
+    }
+
+    def "sampled estimate is deterministic and its error bound covers the true count"(){
+        setup:
+        Random random = new Random(7)
+        int total = 0
+        40.times {
+            int records = 50 + random.nextInt(100)
+            total += records
+            writeArchiveFile(String.format("2015/11/%02d/file", it), records, false)
+        }
+
+        when:
+        CountEstimate estimate = ArchiveCountEstimator.estimate(root, 8)
+
+        then:
+        estimate.sampledFiles == 8
+        estimate.totalFiles == 40
+        Math.abs(estimate.count - total) <= estimate.errorBound
+        ArchiveCountEstimator.estimate(root, 8) == estimate
+    }
+}
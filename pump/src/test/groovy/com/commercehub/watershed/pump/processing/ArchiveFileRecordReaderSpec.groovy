@@ -0,0 +1,95 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.PumpRecord
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPOutputStream
+
+class ArchiveFileRecordReaderSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File root
+
+    def setup() {
+        root = temporaryFolder.newFolder("archive")
+    }
+
+    File writeArchiveFile(String relativePath, String contents, boolean gzip) {
+        File file = new File(root, relativePath)
+        file.parentFile.mkdirs()
+        OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)
+        out.write(contents.getBytes(StandardCharsets.UTF_8))
+        out.close()
+        return file
+    }
+
+    List<PumpRecord> readAll(File file) {
+        ArchiveFileRecordReader reader = new ArchiveFileRecordReader(root, file, "id")
+        List<PumpRecord> records = []
+        PumpRecord record
+        while ((record = reader.read()) != null) {
+            records << record
+        }
+        reader.close()
+        return records
+    }
+
+    String dataOf(PumpRecord record) {
+        ByteBuffer data = record.kinesisRecord.data
+        byte[] bytes = new byte[data.remaining()]
+        data.duplicate().get(bytes)
+        return new String(bytes, StandardCharsets.UTF_8)
+    }
+
+    def "reads newline-delimited records"(boolean gzip){
+        setup:
+        File file = writeArchiveFile("2015/11/23/02/stream-1", '{"id": "a", "n": 1}\n{"n": {"id": "nested"}}\r\n\n{"id": 7}', gzip)
+
+        when:
+        List<PumpRecord> records = readAll(file)
+
+        then:
+        records.size() == 3
+        records.collect { dataOf(it) } == ['{"id": "a", "n": 1}', '{"n": {"id": "nested"}}', '{"id": 7}']
+        records.collect { it.kinesisRecord.partitionKey } == ["a", "2015/11/23/02/stream-1:2", "7"]
+        records.get(2).drillResultRow == ["file": "2015/11/23/02/stream-1", "line": "4"]
+
+        where:
+        gzip << [false, true]
+    }
+
+    def "reads an empty file"(){
+        setup:
+        File file = writeArchiveFile("empty", "", false)
+
+        expect:
+        readAll(file).isEmpty()
+    }
+
+    def "lists archive files in path order, skipping hidden files"(){
+        setup:
+        writeArchiveFile("2015/11/24/00/b", "{}", false)
+        writeArchiveFile("2015/11/23/23/a", "{}", true)
+        writeArchiveFile("2015/.index", "{}", false)
+        writeArchiveFile("_SUCCESS", "", false)
+
+        when:
+        List<File> files = ArchiveFiles.list(root)
+
+        then:
+        files.collect { ArchiveFiles.relativePath(root, it) } == ["2015/11/23/23/a", "2015/11/24/00/b"]
+    }
+
+    def "listing a missing archive path fails"(){
+        when:
+        ArchiveFiles.list(new File(root, "missing"))
+
+        then:
+        thrown(IOException)
+    }
+}
@@ -0,0 +1,197 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.ArchiveFileSummary
+import com.commercehub.watershed.pump.model.PumpSettings
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.zip.GZIPOutputStream
+
+class ArchiveTimeIndexSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File root
+
+    def setup() {
+        root = temporaryFolder.newFolder("archive")
+    }
+
+    File writeArchiveFile(String relativePath, List<String> timestamps) {
+        File file = new File(root, relativePath)
+        file.parentFile.mkdirs()
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file))
+        timestamps.eachWithIndex { String timestamp, int i ->
+            out.write(('{"id":"' + i + '","timestamp":' + timestamp + '}\n').getBytes(StandardCharsets.UTF_8))
+        }
+        out.close()
+        return file
+    }
+
+    static long millis(String iso) {
+        return new DateTime(iso, DateTimeZone.UTC).millis
+    }
+
+    def "indexes record counts and timestamp ranges, in epoch millis or ISO-8601"(){
+        setup:
+        writeArchiveFile("2015/11/01/a", ['"2015-11-01T00:10:00Z"', '"2015-11-01T00:05:00Z"', 'null'])
+        writeArchiveFile("2015/11/02/b", [String.valueOf(millis("2015-11-02T01:00:00Z"))])
+
+        when:
+        List<ArchiveFileSummary> summaries = new ArchiveTimeIndex(root, "timestamp").update()
+
+        then:
+        summaries*.path == ["2015/11/01/a", "2015/11/02/b"]
+        summaries*.recordCount == [3, 1]
+        summaries[0].minTimestamp == millis("2015-11-01T00:05:00Z")
+        summaries[0].maxTimestamp == millis("2015-11-01T00:10:00Z")
+        summaries[1].minTimestamp == millis("2015-11-02T01:00:00Z")
+        new File(root, ArchiveTimeIndex.INDEX_FILE_NAME).isFile()
+        ArchiveFiles.list(root).size() == 2
+    }
+
+    def "updates only read new and changed files, and drop deleted ones"(){
+        setup:
+        writeArchiveFile("a", ['"2015-11-01T00:00:00Z"'])
+        File b = writeArchiveFile("b", ['"2015-11-02T00:00:00Z"'])
+        File c = writeArchiveFile("c", ['"2015-11-03T00:00:00Z"'])
+        new ArchiveTimeIndex(root, "timestamp").update()
+
+        when:
+        writeArchiveFile("b", ['"2015-11-04T00:00:00Z"', '"2015-11-05T00:00:00Z"'])
+        b.setLastModified(b.lastModified() + 1000)
+        c.delete()
+        writeArchiveFile("d", ['"2015-11-06T00:00:00Z"'])
+        List<ArchiveFileSummary> summaries = new ArchiveTimeIndex(root, "timestamp").update()
+
+        then:
+        summaries*.path == ["a", "b", "d"]
+        summaries*.recordCount == [1, 2, 1]
+        summaries[1].maxTimestamp == millis("2015-11-05T00:00:00Z")
+    }
+
+    def "an index built for another field is rebuilt"(){
+        setup:
+        writeArchiveFile("a", ['"2015-11-01T00:00:00Z"'])
+        new ArchiveTimeIndex(root, "other").update()
+
+        when:
+        List<ArchiveFileSummary> summaries = new ArchiveTimeIndex(root, "timestamp").update()
+
+        then:
+        summaries[0].minTimestamp == millis("2015-11-01T00:00:00Z")
+    }
+
+    def "selects files overlapping the range, keeping files without timestamps"(){
+        setup:
+        writeArchiveFile("2015/11/01/a", ['"2015-11-01T00:00:00Z"', '"2015-11-01T23:00:00Z"'])
+        writeArchiveFile("2015/11/02/b", ['"2015-11-02T00:00:00Z"'])
+        writeArchiveFile("2015/11/03/c", ['"2015-11-03T00:00:00Z"'])
+        writeArchiveFile("2015/11/03/d", ['"not a time"'])
+        ArchiveTimeIndex index = new ArchiveTimeIndex(root, "timestamp")
+
+        expect:
+        index.select(new DateTime("2015-11-01T12:00:00Z"), new DateTime("2015-11-02T00:00:00Z"))*.path == ["2015/11/01/a", "2015/11/03/d"]
+        index.select(new DateTime("2015-11-02T00:00:00Z"), null)*.path == ["2015/11/02/b", "2015/11/03/c", "2015/11/03/d"]
+    }
+
+    def "directory predicate matches exactly the selected files' directories"(){
+        expect:
+        ArchiveTimeIndex.directoryPredicate(paths.collect { new ArchiveFileSummary(path: it) }) == predicate
+
+        where:
+        paths                                        | predicate
+        []                                           | "1 = 0"
+        ["a", "b"]                                   | "(`dir0` IS NULL)"
+        ["2015/11/a", "2015/11/b", "2015/12/it's/c"] | "(`dir0` = '2015' AND `dir1` = '11' AND `dir2` IS NULL) OR (`dir0` = '2015' AND `dir1` = '12' AND `dir2` = 'it''s' AND `dir3` IS NULL)"
+    }
+
+    def "time bounded queries read only the selected directories"(){
+        setup:
+        writeArchiveFile("2015/11/01/a", ['"2015-11-01T00:00:00Z"'])
+        writeArchiveFile("2015/11/02/b", ['"2015-11-02T00:00:00Z"'])
+        PumpSettings pumpSettings = new PumpSettings(queryIn: "select * from foo", archivePath: root.path,
+                timeRangeStart: new DateTime("2015-11-02T00:00:00Z"))
+
+        expect:
+        pumpSettings.isTimeRangeSupported()
+        QueryPartitioner.boundedQuery(pumpSettings, null) ==
+                "SELECT * FROM (select * from foo) WHERE (`dir0` = '2015' AND `dir1` = '11' AND `dir2` = '02' AND `dir3` IS NULL)"
+        QueryPartitioner.boundedQuery(new PumpSettings(queryIn: "select * from foo"), null) == "select * from foo"
+    }
+
+    def "time bounded queries must select the directory columns they're filtered on"(){
+        setup:
+        writeArchiveFile("2015/a", ['"2015-11-01T00:00:00Z"'])
+        PumpSettings pumpSettings = new PumpSettings(queryIn: query, archivePath: root.path,
+                timeRangeStart: new DateTime("2015-11-01T00:00:00Z"))
+
+        when:
+        String bounded = QueryPartitioner.boundedQuery(pumpSettings, null)
+
+        then:
+        bounded == "SELECT * FROM (" + query + ") WHERE (`dir0` = '2015' AND `dir1` IS NULL)"
+
+        where:
+        query << [
+                "select * from foo",
+                "SELECT t.* FROM foo t",
+                "select id, data, dir0, `dir1` from foo",
+                "select distinct *, dir0 as d from foo"]
+    }
+
+    def "time bounded queries missing directory columns are refused"(){
+        setup:
+        writeArchiveFile("2015/a", ['"2015-11-01T00:00:00Z"'])
+        PumpSettings pumpSettings = new PumpSettings(queryIn: "select id, data, dir0 from foo", archivePath: root.path,
+                timeRangeStart: new DateTime("2015-11-01T00:00:00Z"))
+
+        when:
+        QueryPartitioner.boundedQuery(pumpSettings, null)
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message.contains("[dir1]")
+    }
+
+    def "the index can be kept outside the archive"(){
+        setup:
+        File indexDirectory = temporaryFolder.newFolder("indexes")
+        writeArchiveFile("a", ['"2015-11-01T00:00:00Z"'])
+        ArchiveTimeIndex index = new ArchiveTimeIndex(root, "timestamp", indexDirectory)
+
+        when:
+        index.update()
+
+        then:
+        !new File(root, ArchiveTimeIndex.INDEX_FILE_NAME).exists()
+        indexDirectory.listFiles()*.name == [index.indexFile().name]
+        index.update()*.path == ["a"]
+    }
+
+    // root can write to read-only directories
+    @IgnoreIf({ System.getProperty("user.name") == "root" })
+    def "the index of a read-only archive is kept in the temporary directory"(){
+        setup:
+        writeArchiveFile("a", ['"2015-11-01T00:00:00Z"'])
+        root.setWritable(false)
+        ArchiveTimeIndex index = new ArchiveTimeIndex(root, "timestamp")
+
+        when:
+        List<ArchiveFileSummary> summaries = index.update()
+
+        then:
+        summaries*.path == ["a"]
+        index.indexFile().parentFile == new File(System.getProperty("java.io.tmpdir"))
+        index.indexFile().isFile()
+
+        cleanup:
+        root.setWritable(true)
+        index.indexFile().delete()
+    }
+}
@@ -0,0 +1,91 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.PumpRecord
+import com.commercehub.watershed.pump.service.AvroReplayFlagTransform
+import org.apache.avro.Schema
+import org.apache.avro.file.DataFileWriter
+import org.apache.avro.generic.GenericData
+import org.apache.avro.generic.GenericDatumWriter
+import org.apache.avro.generic.GenericRecord
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class AvroFileRecordReaderSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File root
+    AvroSchemaCache schemaCache = new AvroSchemaCache()
+    Schema schema = new Schema.Parser().parse("""{"type": "record", "name": "Order", "fields": [
+            {"name": "id", "type": ["null", "string"]},
+            {"name": "total", "type": "double"}]}""")
+
+    def setup() {
+        root = temporaryFolder.newFolder("archive")
+    }
+
+    File writeAvroFile(String relativePath, List<Map<String, Object>> values) {
+        File file = new File(root, relativePath)
+        file.parentFile.mkdirs()
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(schema)).create(schema, file)
+        values.each { value ->
+            GenericRecord record = new GenericData.Record(schema)
+            value.each { k, v -> record.put(k, v) }
+            writer.append(record)
+        }
+        writer.close()
+        return file
+    }
+
+    List<PumpRecord> readAll(File file) {
+        AvroFileRecordReader reader = new AvroFileRecordReader(root, file, "id", schemaCache, PayloadBufferPool.unpooled())
+        List<PumpRecord> records = []
+        PumpRecord record
+        while ((record = reader.read()) != null) {
+            records << record
+        }
+        reader.close()
+        return records
+    }
+
+    def "reads container file records in single-object encoding"(){
+        setup:
+        File file = writeAvroFile("2015/11/23/orders.avro", [[id: "a", total: 1.5d], [id: null, total: 2d]])
+
+        when:
+        List<PumpRecord> records = readAll(file)
+        List<GenericRecord> decoded = records.collect { schemaCache.decode(PayloadBufferPool.toArray(it.kinesisRecord.data), null) }
+
+        then:
+        records.collect { it.kinesisRecord.partitionKey } == ["a", "2015/11/23/orders.avro:2"]
+        records.get(1).drillResultRow == ["file": "2015/11/23/orders.avro", "record": "2"]
+        decoded.collect { it.get("id")?.toString() } == ["a", null]
+        decoded.collect { it.get("total") } == [1.5d, 2d]
+        schemaCache.writerSchema(PayloadBufferPool.toArray(records.get(0).kinesisRecord.data)) == schema
+    }
+
+    def "replay flags are added to the record schema"(){
+        setup:
+        File file = writeAvroFile("orders.avro", [[id: "a", total: 1.5d]])
+        byte[] payload = PayloadBufferPool.toArray(readAll(file).get(0).kinesisRecord.data)
+
+        when:
+        byte[] flagged = new AvroReplayFlagTransform(schemaCache, true, false).apply(payload)
+        GenericRecord record = schemaCache.decode(flagged, null)
+
+        then:
+        record.get("id").toString() == "a"
+        record.get("replay") == true
+        record.get("overwrite") == false
+        record.schema == schemaCache.withReplayFlags(schema)
+    }
+
+    def "records without the single-object marker are rejected"(){
+        when:
+        schemaCache.writerSchema('{"id": "a"}'.getBytes("UTF-8"))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
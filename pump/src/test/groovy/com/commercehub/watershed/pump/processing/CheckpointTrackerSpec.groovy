@@ -0,0 +1,96 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.Checkpoint
+import spock.lang.Specification
+
+class CheckpointTrackerSpec extends Specification {
+
+    def "watermarks only pass offsets once every record below them is acked"(){
+        setup:
+        CheckpointTracker tracker = new CheckpointTracker(new Checkpoint())
+
+        when:
+        [3, 1, 4].each { tracker.acked("a", it) }
+        tracker.acked("b", 0)
+
+        then:
+        tracker.checkpoint().watermarks == [b: 1L]
+
+        when:
+        tracker.acked("a", 0)
+
+        then:
+        tracker.checkpoint().watermarks == [a: 2L, b: 1L]
+
+        when:
+        tracker.acked("a", 2)
+
+        then:
+        tracker.checkpoint().watermarks == [a: 5L, b: 1L]
+        tracker.checkpoint().ackedRecordCount == 6
+    }
+
+    def "watermarks stay right across many acks, in and out of order"(){
+        setup:
+        CheckpointTracker tracker = new CheckpointTracker(new Checkpoint(watermarks: [a: 7L]))
+        List<Long> offsets = (7L..<10007L).toList()
+        Collections.shuffle(offsets, new Random(1))
+
+        when:
+        offsets.take(9000).each { tracker.acked("a", it) }
+        long partial = tracker.checkpoint().watermarks.a ?: 7L
+        offsets.drop(9000).each { tracker.acked("a", it) }
+
+        then:
+        partial == (offsets.drop(9000).min() ?: 10007L)
+        tracker.checkpoint().watermarks == [a: 10007L]
+    }
+
+    def "partitions complete once read to the end and fully acked"(){
+        setup:
+        CheckpointTracker tracker = new CheckpointTracker(new Checkpoint())
+        tracker.acked("a", 0)
+        tracker.finished("a", 2)
+        tracker.finished("b", 0)
+
+        expect:
+        tracker.checkpoint().completedPartitions == ["b"] as Set
+
+        when:
+        tracker.acked("a", 1)
+
+        then:
+        tracker.checkpoint().completedPartitions == ["a", "b"] as Set
+    }
+
+    def "resumed trackers start from the checkpoint and keep its other partitions"(){
+        setup:
+        Checkpoint resumeFrom = new Checkpoint(watermarks: [a: 10L, b: 3L], completedPartitions: ["c"] as Set, ackedRecordCount: 13)
+        CheckpointTracker tracker = new CheckpointTracker(resumeFrom)
+
+        when:
+        tracker.acked("a", 11)
+        tracker.acked("a", 10)
+        tracker.acked("a", 4)
+
+        then:
+        tracker.resumeOffset("a") == 10
+        tracker.resumeOffset("d") == 0
+        tracker.isCompleted("c")
+        tracker.checkpoint().watermarks == [a: 12L, b: 3L]
+        tracker.checkpoint().completedPartitions == ["c"] as Set
+        tracker.checkpoint().ackedRecordCount == 16
+    }
+
+    def "records without a position are ignored"(){
+        setup:
+        CheckpointTracker tracker = new CheckpointTracker(new Checkpoint())
+
+        when:
+        tracker.acked(null, 0)
+
+        then:
+        tracker.checkpoint().watermarks.isEmpty()
+        tracker.checkpoint().ackedRecordCount == 0
+    }
+}
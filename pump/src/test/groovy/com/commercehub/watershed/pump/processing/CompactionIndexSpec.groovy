@@ -0,0 +1,109 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.model.Record
+import com.commercehub.watershed.pump.model.CompactionStats
+import com.commercehub.watershed.pump.model.DrillResultRow
+import com.commercehub.watershed.pump.model.PayloadStats
+import com.commercehub.watershed.pump.model.PumpRecord
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+class CompactionIndexSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File spillDirectory
+    CompactionStats stats = new CompactionStats()
+    PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, false, new PayloadStats())
+    String[] columns = ["seq", "note"] as String[]
+
+    def setup() {
+        spillDirectory = temporaryFolder.newFolder("spill")
+    }
+
+    PumpRecord record(String key, int sequence, String data) {
+        return new PumpRecord(new Record().withPartitionKey(key).withData(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8))),
+                new DrillResultRow(columns, [String.valueOf(sequence), sequence % 2 == 0 ? null : "odd"] as String[]))
+    }
+
+    Map<String, PumpRecord> readSurvivors(CompactionIndex index) {
+        RecordReader reader = index.survivors()
+        Map<String, PumpRecord> survivors = [:]
+        PumpRecord survivor
+        while ((survivor = reader.read()) != null) {
+            assert !survivors.containsKey(survivor.kinesisRecord.partitionKey)
+            survivors[survivor.kinesisRecord.partitionKey] = survivor
+        }
+        reader.close()
+        return survivors
+    }
+
+    String dataOf(PumpRecord record) {
+        return new String(PayloadBufferPool.toArray(record.kinesisRecord.data), StandardCharsets.UTF_8)
+    }
+
+    def "keeps the latest record per key in memory"() {
+        setup:
+        CompactionIndex index = new CompactionIndex(64 * 1024 * 1024, spillDirectory, pool, stats)
+
+        when:
+        [["a", 1], ["b", 2], ["a", 3], ["c", 4], ["b", 5]].each { key, sequence -> index.put(record(key, sequence, key + sequence)) }
+        Map<String, PumpRecord> survivors = readSurvivors(index)
+
+        then:
+        survivors.collectEntries { key, survivor -> [key, dataOf(survivor)] } == [a: "a3", b: "b5", c: "c4"]
+        survivors.b.drillResultRow == [seq: "5", note: "odd"]
+        survivors.c.drillResultRow == [seq: "4", note: null]
+        stats.indexedRecordCount == 5
+        stats.survivingRecordCount == 3
+        stats.spillCount == 0
+        stats.indexBytes == 0
+    }
+
+    def "spills sorted segments past the memory budget and merges them newest first"() {
+        setup:
+        CompactionIndex index = new CompactionIndex(1024 * 1024, spillDirectory, pool, stats)
+        String padding = "x" * 4000
+        Map<String, String> expected = [:]
+
+        when:
+        3000.times { sequence ->
+            String key = "key" + (sequence * 7919 % 500)
+            String data = key + ":" + sequence + padding
+            index.put(record(key, sequence, data))
+            expected[key] = data
+        }
+        Map<String, PumpRecord> survivors = readSurvivors(index)
+
+        then:
+        stats.spillCount > 1
+        stats.spilledRecordCount >= 500
+        survivors.size() == 500
+        survivors.every { key, survivor -> dataOf(survivor) == expected[key] }
+        stats.survivingRecordCount == 500
+        spillDirectory.listFiles().length == 0
+    }
+
+    def "closing deletes spilled segments"() {
+        setup:
+        CompactionIndex index = new CompactionIndex(1024 * 1024, spillDirectory, pool, stats)
+        2000.times { index.put(record("key" + it, it, "x" * 4000)) }
+
+        when:
+        index.close()
+
+        then:
+        stats.spillCount > 0
+        spillDirectory.listFiles().length == 0
+
+        when:
+        index.put(record("late", 0, "x"))
+
+        then:
+        thrown(IOException)
+    }
+}
@@ -0,0 +1,105 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.RetryStats
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class DeadLetterSpoolSpec extends Specification {
+    File directory
+    RetryStats stats
+
+    def setup(){
+        directory = File.createTempDir()
+        stats = new RetryStats()
+    }
+
+    def cleanup(){
+        directory.deleteDir()
+    }
+
+    def "dead letters are spooled as they were sent and read back in order"(){
+        setup:
+        DeadLetterSpool spool = new DeadLetterSpool(directory, "my stream", stats)
+        ByteBuffer payload = ByteBuffer.wrap("hello".bytes)
+        ByteBuffer direct = ByteBuffer.allocateDirect(3)
+        direct.put([1, 2, 3] as byte[]).flip()
+
+        when:
+        spool.write("a", "ProvisionedThroughputExceededException", payload)
+        spool.write("b", null, direct)
+        spool.close()
+        List<File> files = DeadLetterSpool.list(directory)
+
+        then:
+        payload.remaining() == 5
+        files*.name.every { it.startsWith("my_stream-") && it.endsWith(".dlq") }
+        files.size() == 1
+        stats.deadLetterRecordCount == 2
+        stats.deadLetterFile == files[0].path
+        DeadLetterRecordReader.count(files[0]) == 2
+
+        when:
+        DeadLetterRecordReader reader = new DeadLetterRecordReader(directory, files[0], PayloadBufferPool.unpooled())
+        def first = reader.read()
+        def second = reader.read()
+        def end = reader.read()
+        reader.close()
+
+        then:
+        first.kinesisRecord.partitionKey == "a"
+        PayloadBufferPool.toArray(first.kinesisRecord.data) == "hello".bytes
+        first.drillResultRow.get("errorCode") == "ProvisionedThroughputExceededException"
+        first.drillResultRow.get("record") == "1"
+        second.kinesisRecord.partitionKey == "b"
+        PayloadBufferPool.toArray(second.kinesisRecord.data) == [1, 2, 3] as byte[]
+        second.drillResultRow.get("errorCode") == ""
+        end == null
+    }
+
+    def "no spool file is created until a record fails for good"(){
+        when:
+        DeadLetterSpool spool = new DeadLetterSpool(directory, "stream", stats)
+        spool.flush()
+        spool.close()
+
+        then:
+        directory.listFiles().length == 0
+        stats.deadLetterFile == null
+    }
+
+    def "a torn last record is skipped"(){
+        setup:
+        DeadLetterSpool spool = new DeadLetterSpool(directory, "stream", stats)
+        spool.write("a", null, ByteBuffer.wrap("whole".bytes))
+        spool.write("b", null, ByteBuffer.wrap("torn".bytes))
+        spool.close()
+        File file = DeadLetterSpool.list(directory)[0]
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw")
+        truncated.setLength(file.length() - 2)
+        truncated.close()
+
+        when:
+        DeadLetterRecordReader reader = new DeadLetterRecordReader(directory, file, PayloadBufferPool.unpooled())
+        def first = reader.read()
+        def torn = reader.read()
+        reader.close()
+
+        then:
+        first.kinesisRecord.partitionKey == "a"
+        torn == null
+        DeadLetterRecordReader.count(file) == 1
+    }
+
+    def "files that aren't spool files are rejected"(){
+        setup:
+        File file = new File(directory, "other.dlq")
+        file.text = "not a spool"
+
+        when:
+        new DeadLetterRecordReader(directory, file, PayloadBufferPool.unpooled())
+
+        then:
+        thrown(IOException)
+    }
+}
@@ -0,0 +1,88 @@
+package com.commercehub.watershed.pump.processing
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.util.zip.GZIPInputStream
+
+class FileRecordSinkSpec extends Specification {
+    File directory
+    ObjectMapper objectMapper = new ObjectMapper()
+
+    def setup(){
+        directory = Files.createTempDirectory("file-sink").toFile()
+    }
+
+    def cleanup(){
+        directory.deleteDir()
+    }
+
+    def "records are written as gzipped NDJSON and acked at once"(){
+        setup:
+        FileRecordSink sink = new FileRecordSink(directory, "my stream", 1 << 20)
+        ByteBuffer direct = ByteBuffer.allocateDirect(3)
+        direct.put([1, 2, 3] as byte[]).flip()
+
+        when:
+        def first = sink.addUserRecord("my stream", "a", null, ByteBuffer.wrap('{"n": 1}'.bytes))
+        def second = sink.addUserRecord("my stream", "b", null, direct)
+
+        then:
+        first.isDone()
+        first.get().isSuccessful()
+        second.get().sequenceNumber == "1"
+        sink.outstandingRecordsCount == 0
+        directory.listFiles()*.name.every { it.endsWith(".inprogress") }
+
+        when:
+        sink.flushSync()
+        List<File> files = directory.listFiles() as List
+
+        then:
+        files.size() == 1
+        files[0].name.startsWith("my_stream-")
+        files[0].name.endsWith(".ndjson.gz")
+        first.get().shardId == files[0].name
+
+        when:
+        List lines = readLines(files[0]).collect { objectMapper.readTree(it) }
+
+        then:
+        lines*.get("partitionKey")*.asText() == ["a", "b"]
+        new String(lines[0].get("data").binaryValue()) == '{"n": 1}'
+        lines[1].get("data").binaryValue() == [1, 2, 3] as byte[]
+    }
+
+    def "files roll once they reach their size"(){
+        setup:
+        FileRecordSink sink = new FileRecordSink(directory, "stream", 100)
+
+        when:
+        5.times { sink.addUserRecord("stream", "key", null, ByteBuffer.wrap(new byte[60])) }
+        sink.destroy()
+        List<File> files = (directory.listFiles() as List).sort { it.name }
+
+        then:
+        files.size() == 5
+        files.every { readLines(it).size() == 1 }
+    }
+
+    def "write failures fail the record"(){
+        setup:
+        File notADirectory = new File(directory, "file")
+        notADirectory.text = ""
+        FileRecordSink sink = new FileRecordSink(notADirectory, "stream", 100)
+
+        when:
+        sink.addUserRecord("stream", "key", null, ByteBuffer.wrap(new byte[1])).get()
+
+        then:
+        thrown(Exception)
+    }
+
+    private static List<String> readLines(File file) {
+        new GZIPInputStream(new FileInputStream(file)).withReader { it.readLines() }
+    }
+}
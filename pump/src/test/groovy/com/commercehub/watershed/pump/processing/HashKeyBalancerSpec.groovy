@@ -0,0 +1,102 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.model.HashKeyRange
+import com.amazonaws.services.kinesis.model.Shard
+import com.commercehub.watershed.pump.model.ShardBalancing
+import com.commercehub.watershed.pump.model.ShardLoadStats
+import com.google.common.base.Charsets
+import com.google.common.hash.Hashing
+import spock.lang.Specification
+
+class HashKeyBalancerSpec extends Specification {
+    static final BigInteger HALF = BigInteger.ONE.shiftLeft(127)
+
+    // Listed out of order, to check they're sorted by hash key
+    List<Shard> shards = [
+            shard("shardId-000000000001", HALF, HALF.shiftLeft(1).subtract(BigInteger.ONE)),
+            shard("shardId-000000000000", BigInteger.ZERO, HALF.subtract(BigInteger.ONE))
+    ]
+    ShardLoadStats stats = new ShardLoadStats()
+
+    def "MEASURE counts records against the shards Kinesis hashes their keys to"(){
+        setup:
+        HashKeyBalancer balancer = new HashKeyBalancer(shards, ShardBalancing.MEASURE, 1000, 10, stats)
+        List<String> keys = (1..100).collect { "key" + it }
+
+        when:
+        List<String> hashKeys = keys.collect { balancer.assign(it, 10) }
+
+        then:
+        hashKeys.every { it == null }
+        stats.recordCounts == keys.countBy { kinesisShard(it) }.collectEntries { shardId, count -> [shardId, count as Long] }
+        stats.byteCounts["shardId-000000000000"] == stats.recordCounts["shardId-000000000000"] * 10
+    }
+
+    def "SPREAD sends each record to the least-loaded shard"(){
+        setup:
+        HashKeyBalancer balancer = new HashKeyBalancer(shards, ShardBalancing.SPREAD, 1000, 10, stats)
+
+        when:
+        List<String> hashKeys = (1..10).collect { balancer.assign("hot", 10) }
+
+        then:
+        // Each shard's midpoint, (start + end) >> 1
+        hashKeys.toSet() == [HALF.shiftRight(1).subtract(BigInteger.ONE).toString(),
+                             HALF.add(HALF.shiftRight(1)).subtract(BigInteger.ONE).toString()].toSet()
+        stats.recordCounts == ["shardId-000000000000": 5L, "shardId-000000000001": 5L]
+    }
+
+    def "load weighs bytes against the shard byte limit"(){
+        setup:
+        HashKeyBalancer balancer = new HashKeyBalancer(shards, ShardBalancing.SPREAD, 1000, 10, stats)
+
+        when:
+        balancer.assign("big", 512 * 1024)
+        (1..10).each { balancer.assign("small", 10) }
+
+        then:
+        stats.recordCounts == ["shardId-000000000000": 1L, "shardId-000000000001": 10L]
+    }
+
+    def "PIN_KEYS keeps each key on the shard that was least loaded when it was first seen"(){
+        setup:
+        HashKeyBalancer balancer = new HashKeyBalancer(shards, ShardBalancing.PIN_KEYS, 1000, 10, stats)
+
+        when:
+        List<String> hot = (1..10).collect { balancer.assign("hot", 10) }
+        String x = balancer.assign("x", 10)
+        String y = balancer.assign("y", 10)
+
+        then:
+        hot.toSet().size() == 1
+        x == y
+        x != hot[0]
+        stats.pinnedKeyCount == 3
+        stats.recordCounts == ["shardId-000000000000": 10L, "shardId-000000000001": 2L]
+    }
+
+    def "PIN_KEYS hashes keys once it has pinned its limit"(){
+        setup:
+        HashKeyBalancer balancer = new HashKeyBalancer(shards, ShardBalancing.PIN_KEYS, 1000, 1, stats)
+
+        when:
+        String first = balancer.assign("first", 10)
+        String second = balancer.assign("second", 10)
+
+        then:
+        first != null
+        second == null
+        stats.pinnedKeyCount == 1
+        stats.recordCounts[kinesisShard("second")] >= 1
+    }
+
+    private static Shard shard(String shardId, BigInteger start, BigInteger end) {
+        new Shard().withShardId(shardId)
+                .withHashKeyRange(new HashKeyRange().withStartingHashKey(start.toString()).withEndingHashKey(end.toString()))
+    }
+
+    private static String kinesisShard(String partitionKey) {
+        BigInteger hashKey = new BigInteger(1, Hashing.md5().hashString(partitionKey, Charsets.UTF_8).asBytes())
+        hashKey < HALF ? "shardId-000000000000" : "shardId-000000000001"
+    }
+}
@@ -0,0 +1,66 @@
+package com.commercehub.watershed.pump.processing
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class InMemoryRecordSinkSpec extends Specification {
+
+    def "records are acked at once without latency or throttling"(){
+        setup:
+        InMemoryRecordSink sink = new InMemoryRecordSink(0, null)
+
+        when:
+        def result = sink.addUserRecord("stream", "key", null, ByteBuffer.wrap(new byte[10]))
+
+        then:
+        result.isDone()
+        result.get().isSuccessful()
+        sink.recordCount == 1
+        sink.byteCount == 10
+        sink.outstandingRecordsCount == 0
+
+        cleanup:
+        sink.destroy()
+    }
+
+    def "records are acked after the simulated latency"(){
+        setup:
+        InMemoryRecordSink sink = new InMemoryRecordSink(50, null)
+
+        when:
+        def result = sink.addUserRecord("stream", "key", null, ByteBuffer.wrap(new byte[10]))
+
+        then:
+        !result.isDone()
+        sink.outstandingRecordsCount == 1
+
+        when:
+        sink.flushSync()
+
+        then:
+        result.isDone()
+        result.get().isSuccessful()
+        sink.outstandingRecordsCount == 0
+
+        cleanup:
+        sink.destroy()
+    }
+
+    def "throttled records are spread over the allowed rate"(){
+        setup:
+        InMemoryRecordSink sink = new InMemoryRecordSink(0, 100)
+        long start = System.nanoTime()
+
+        when:
+        20.times { sink.addUserRecord("stream", "key", null, ByteBuffer.wrap(new byte[1])) }
+        sink.flushSync()
+
+        then:
+        (System.nanoTime() - start) / 1000000 >= 180
+        sink.recordCount == 20
+
+        cleanup:
+        sink.destroy()
+    }
+}
@@ -1,11 +1,15 @@
 package com.commercehub.watershed.pump.processing
 
-import com.amazonaws.services.kinesis.producer.UserRecordResult
 import com.commercehub.watershed.pump.application.factories.PumpFactory
 import com.commercehub.watershed.pump.application.factories.PumpSubscriberFactory
+import com.commercehub.watershed.pump.model.Checkpoint
 import com.commercehub.watershed.pump.model.Job
 import com.commercehub.watershed.pump.model.ProcessingStage
+import com.commercehub.watershed.pump.model.PumpRecordResult
 import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.QueryCostEstimate
+import com.commercehub.watershed.pump.service.AdmissionController
+import com.commercehub.watershed.pump.service.CheckpointJournal
 import com.commercehub.watershed.pump.service.TransformerFunctionFactory
 import com.google.common.base.Function
 import com.google.inject.Provider
@@ -21,24 +25,24 @@ public class JobRunnableSpec extends Specification {
     TransformerFunctionFactory transformerFunctionFactory
     PumpFactory pumpFactory
     PumpSubscriberFactory pumpSubscriberFactory
-    Observable<UserRecordResult> UserRecordResultObservable
+    Observable<PumpRecordResult> pumpRecordResultObservable
     Observable.OnSubscribe onSubscribe
 
 
     def setup(){
         job = Mock(Job)
         pump = Mock(Pump)
-        pumpSubscriber = Mock(PumpSubscriber)
+        pumpSubscriber = Spy(PumpSubscriber, constructorArgs: [job, pump, 0, Mock(CheckpointJournal), 0L])
         transformerFunctionFactory = Mock(TransformerFunctionFactory)
         pumpFactory = Mock(PumpFactory)
         pumpSubscriberFactory = Mock(PumpSubscriberFactory)
         onSubscribe = Mock(Observable.OnSubscribe)
-        UserRecordResultObservable = new Observable<UserRecordResult>(onSubscribe)
+        pumpRecordResultObservable = new Observable<PumpRecordResult>(onSubscribe)
 
-        jobRunnable = new JobRunnable(transformerFunctionFactory, pumpFactory, pumpSubscriberFactory, job)
+        jobRunnable = new JobRunnable(transformerFunctionFactory, pumpFactory, pumpSubscriberFactory, new AdmissionController(0, 0, 0, 0), job)
 
         job.getPumpSettings() >> Mock(PumpSettings)
-        transformerFunctionFactory.getReplayFlagTransformFunction(_, _) >> Mock(Function)
+        transformerFunctionFactory.getTransformFunction(_, _) >> Mock(Function)
     }
 
     def "run creates a Pump, calls build(), and subscribes to it"(){
@@ -47,10 +51,10 @@ public class JobRunnableSpec extends Specification {
 
         then:
         1 * job.getStage() >> ProcessingStage.NOT_STARTED
-        1 * pumpFactory.create(_ as PumpSettings, _ as Function<byte[], byte[]>) >> pump
+        1 * pumpFactory.create(_ as PumpSettings, _ as Function<byte[], byte[]>, _ as AvroSchemaCache, _ as Checkpoint) >> pump
 
         then:
-        1 * pump.build() >> UserRecordResultObservable
+        1 * pump.build() >> pumpRecordResultObservable
 
         then:
         1 * pumpSubscriberFactory.create(_ as Job, _ as Pump) >> pumpSubscriber
@@ -60,6 +64,41 @@ public class JobRunnableSpec extends Specification {
         1 * pumpSubscriber.onStart()
     }
 
+    def "the job's admission budget is released once its subscriber is unsubscribed"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 1)
+        Job running = new Job(null, "job1", Mock(PumpSettings))
+        Job queued = new Job(null, "job2", Mock(PumpSettings))
+        running.costEstimate = new QueryCostEstimate(1, 0)
+        queued.costEstimate = new QueryCostEstimate(1, 0)
+        Runnable startQueued = Mock(Runnable)
+        admissionController.admit(running, Mock(Runnable))
+        admissionController.admit(queued, startQueued)
+
+        PumpSubscriber subscriber = new PumpSubscriber(running, pump, 0, Mock(CheckpointJournal), 0) {
+            @Override
+            void onStart() {}
+        }
+        jobRunnable = new JobRunnable(transformerFunctionFactory, pumpFactory, pumpSubscriberFactory, admissionController, running)
+        pumpFactory.create(_, _, _, _) >> pump
+        pump.build() >> Observable.<PumpRecordResult>never()
+        pumpSubscriberFactory.create(_, _) >> subscriber
+
+        when:
+        jobRunnable.run()
+
+        then:
+        0 * startQueued.run()
+        admissionController.queuedCount == 1
+
+        when:
+        subscriber.unsubscribe()
+
+        then:
+        1 * startQueued.run()
+        admissionController.queuedCount == 0
+    }
+
     def "jobRunnable doesn't run without a job"(){
         setup:
         jobRunnable.job = null
@@ -69,7 +108,7 @@ public class JobRunnableSpec extends Specification {
 
         then:
         thrown(IllegalStateException)
-        0 * pumpFactory.create(_, _)
+        0 * pumpFactory.create(_, _, _, _)
         0 * pump.build()
         0 * pumpSubscriberFactory.create(_, _)
         0 * pumpSubscriber.onStart()
@@ -82,7 +121,7 @@ public class JobRunnableSpec extends Specification {
         then:
         1 * job.getStage() >> processingStage
         thrown(IllegalStateException)
-        0 * pumpFactory.create(_, _)
+        0 * pumpFactory.create(_, _, _, _)
         0 * pump.build()
         0 * pumpSubscriberFactory.create(_, _)
         0 * pumpSubscriber.onStart()
@@ -0,0 +1,158 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.producer.Attempt
+import com.amazonaws.services.kinesis.producer.KinesisProducer
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException
+import com.amazonaws.services.kinesis.producer.UserRecordResult
+import com.commercehub.watershed.pump.model.SinkRecordResult
+import com.commercehub.watershed.pump.service.KinesisProducerPool
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.SettableFuture
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class KinesisProducerSinkSpec extends Specification {
+    KinesisProducer kinesisProducer = Mock(KinesisProducer)
+    KinesisProducerPool kinesisProducerPool = Mock(KinesisProducerPool)
+    KinesisProducerSink sink = new KinesisProducerSink(kinesisProducer, kinesisProducerPool)
+
+    def "only the job's own records are counted as outstanding"(){
+        setup:
+        SettableFuture<UserRecordResult> first = SettableFuture.create()
+        SettableFuture<UserRecordResult> second = SettableFuture.create()
+        kinesisProducer.addUserRecord("stream", "a", _) >>> [first, second]
+
+        when:
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes))
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("2".bytes))
+
+        then:
+        sink.outstandingRecordsCount == 2
+
+        when:
+        first.set(Mock(UserRecordResult))
+        second.setException(new RuntimeException("failed"))
+
+        then:
+        sink.outstandingRecordsCount == 0
+        0 * kinesisProducer.getOutstandingRecordsCount()
+    }
+
+    def "KPL results are turned into sink results"(){
+        setup:
+        Attempt throttled = Mock(Attempt)
+        throttled.isSuccessful() >> false
+        throttled.getErrorCode() >> "ProvisionedThroughputExceededException"
+        Attempt succeeded = Mock(Attempt)
+        succeeded.isSuccessful() >> true
+        UserRecordResult userRecordResult = Mock(UserRecordResult)
+        userRecordResult.isSuccessful() >> true
+        userRecordResult.getShardId() >> "shardId-000000000001"
+        userRecordResult.getSequenceNumber() >> "42"
+        userRecordResult.getAttempts() >> [throttled, succeeded]
+        kinesisProducer.addUserRecord("stream", "a", _) >> Futures.immediateFuture(userRecordResult)
+
+        when:
+        SinkRecordResult result = sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes)).get()
+
+        then:
+        result.successful
+        result.shardId == "shardId-000000000001"
+        result.sequenceNumber == "42"
+        result.attemptErrorCodes == ["ProvisionedThroughputExceededException", null]
+        result.lastErrorCode == null
+    }
+
+    def "records the KPL gave up on complete with a failed result"(){
+        setup:
+        Attempt expired = Mock(Attempt)
+        expired.isSuccessful() >> false
+        expired.getErrorCode() >> "Expired"
+        UserRecordResult userRecordResult = Mock(UserRecordResult)
+        userRecordResult.isSuccessful() >> false
+        userRecordResult.getAttempts() >> [expired]
+        kinesisProducer.addUserRecord("stream", "a", _) >> Futures.immediateFailedFuture(new UserRecordFailedException(userRecordResult))
+
+        when:
+        SinkRecordResult result = sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes)).get()
+
+        then:
+        !result.successful
+        result.lastErrorCode == "Expired"
+        sink.outstandingRecordsCount == 0
+    }
+
+    def "explicit hash keys are passed to the producer"(){
+        when:
+        sink.addUserRecord("stream", "a", "42", ByteBuffer.wrap("1".bytes))
+
+        then:
+        1 * kinesisProducer.addUserRecord("stream", "a", "42", _) >> SettableFuture.create()
+    }
+
+    def "flushSync() waits for the job's records, not the whole producer"(){
+        setup:
+        SettableFuture<UserRecordResult> pending = SettableFuture.create()
+        kinesisProducer.addUserRecord("stream", "a", _) >> pending
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes))
+
+        when:
+        Thread flusher = Thread.start { sink.flushSync() }
+        Thread.sleep(300)
+
+        then:
+        flusher.isAlive()
+
+        when:
+        pending.set(Mock(UserRecordResult))
+        flusher.join(1000)
+
+        then:
+        !flusher.isAlive()
+        sink.outstandingRecordsCount == 0
+    }
+
+    def "one job's flush leaves another job's records buffered in the shared producer"(){
+        setup:
+        KinesisProducerSink other = new KinesisProducerSink(kinesisProducer, kinesisProducerPool)
+        kinesisProducer.addUserRecord("stream", "other", _) >> SettableFuture.create()
+        kinesisProducer.addUserRecord("stream", "a", _) >> Futures.immediateFuture(Mock(UserRecordResult))
+        other.addUserRecord("stream", "other", null, ByteBuffer.wrap("1".bytes))
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes))
+
+        when:
+        sink.flush()
+        sink.flushSync()
+
+        then:
+        0 * kinesisProducer.flush(_)
+        0 * kinesisProducer.flush()
+        0 * kinesisProducer.flushSync()
+        sink.outstandingRecordsCount == 0
+        other.outstandingRecordsCount == 1
+    }
+
+    def "a producer that fails is given back to the pool"(){
+        setup:
+        RuntimeException failure = new IllegalStateException("child process died")
+        kinesisProducer.addUserRecord(_, _, _) >> { throw failure }
+
+        when:
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap("1".bytes))
+
+        then:
+        IllegalStateException e = thrown()
+        e.is(failure)
+        1 * kinesisProducerPool.invalidate(kinesisProducer)
+        sink.outstandingRecordsCount == 0
+    }
+
+    def "destroy() leaves the shared producer running"(){
+        when:
+        sink.destroy()
+
+        then:
+        0 * kinesisProducer.destroy()
+    }
+}
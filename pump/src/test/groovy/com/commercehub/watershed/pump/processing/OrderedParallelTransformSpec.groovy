@@ -0,0 +1,152 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.model.Record
+import com.commercehub.watershed.pump.model.PumpRecord
+import rx.Observable
+import rx.Producer
+import rx.Subscriber
+import rx.functions.Func1
+import rx.observers.TestSubscriber
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class OrderedParallelTransformSpec extends Specification {
+    ExecutorService executor
+
+    def setup() {
+        executor = Executors.newFixedThreadPool(4)
+    }
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "records sharing a partition key keep their order"(){
+        setup:
+        List<PumpRecord> records = (0..<2000).collect { record("key" + (it % 7), it) }
+        Func1<PumpRecord, PumpRecord> transform = new Func1<PumpRecord, PumpRecord>() {
+            @Override
+            PumpRecord call(PumpRecord pumpRecord) {
+                if (Math.random() < 0.01) {
+                    Thread.sleep(1)
+                }
+                return record(pumpRecord.kinesisRecord.partitionKey, sequenceOf(pumpRecord) + 100000)
+            }
+        }
+        TestSubscriber<PumpRecord> subscriber = new TestSubscriber<>()
+
+        when:
+        Observable.from(records).lift(new OrderedParallelTransform(transform, executor, 4, 16)).subscribe(subscriber)
+        subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS)
+
+        then:
+        subscriber.assertNoErrors()
+        subscriber.assertCompleted()
+        subscriber.onNextEvents.size() == 2000
+        subscriber.onNextEvents.groupBy { it.kinesisRecord.partitionKey }.every { key, transformed ->
+            List<Integer> sequences = transformed.collect { sequenceOf(it) }
+            sequences == sequences.sort(false)
+        }
+        subscriber.onNextEvents.collect { sequenceOf(it) - 100000 }.sort() == (0..<2000).toList()
+    }
+
+    def "no more than queue depth records are requested ahead of downstream demand"(){
+        setup:
+        AtomicInteger requestedFromSource = new AtomicInteger()
+        // Groovy can't compile an anonymous OnSubscribe, so the source is a coerced closure.
+        Observable<PumpRecord> source = Observable.create({ Subscriber<? super PumpRecord> child ->
+            AtomicInteger next = new AtomicInteger()
+            child.setProducer(new Producer() {
+                @Override
+                void request(long n) {
+                    requestedFromSource.addAndGet((int) n)
+                    n.times { child.onNext(record("key" + next.get(), next.getAndIncrement())) }
+                }
+            })
+        } as Observable.OnSubscribe<PumpRecord>)
+        TestSubscriber<PumpRecord> subscriber = new TestSubscriber<>(0)
+
+        when:
+        source.lift(new OrderedParallelTransform(identity(), executor, 4, 10)).subscribe(subscriber)
+        Thread.sleep(200)
+
+        then:
+        requestedFromSource.get() == 10
+        subscriber.onNextEvents.isEmpty()
+
+        when:
+        subscriber.requestMore(5)
+        Thread.sleep(200)
+
+        then:
+        subscriber.onNextEvents.size() == 5
+        requestedFromSource.get() == 15
+    }
+
+    def "transform failure is sent downstream"(){
+        setup:
+        Func1<PumpRecord, PumpRecord> transform = new Func1<PumpRecord, PumpRecord>() {
+            @Override
+            PumpRecord call(PumpRecord pumpRecord) {
+                if (sequenceOf(pumpRecord) == 3) {
+                    throw new IllegalStateException("bad record")
+                }
+                return pumpRecord
+            }
+        }
+        TestSubscriber<PumpRecord> subscriber = new TestSubscriber<>()
+
+        when:
+        Observable.range(0, 10).map { record("key" + it, it) }
+                .lift(new OrderedParallelTransform(transform, executor, 2, 4))
+                .subscribe(subscriber)
+        subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS)
+
+        then:
+        subscriber.assertError(IllegalStateException)
+        subscriber.assertNotCompleted()
+    }
+
+    def "empty source completes"(){
+        setup:
+        TestSubscriber<PumpRecord> subscriber = new TestSubscriber<>()
+
+        when:
+        Observable.<PumpRecord>empty().lift(new OrderedParallelTransform(identity(), executor, 4, 4)).subscribe(subscriber)
+        subscriber.awaitTerminalEvent(10, TimeUnit.SECONDS)
+
+        then:
+        subscriber.assertNoErrors()
+        subscriber.assertCompleted()
+        subscriber.assertNoValues()
+    }
+
+    def "partition keys map to stable lanes"(){
+        expect:
+        OrderedParallelTransform.laneOf("key", 4) == OrderedParallelTransform.laneOf(new String("key"), 4)
+        OrderedParallelTransform.laneOf(null, 4) == 0
+        (0..<100).every { OrderedParallelTransform.laneOf("key" + it, 3) in (0..<3) }
+    }
+
+    private static PumpRecord record(String partitionKey, int sequence) {
+        return new PumpRecord(new Record().withPartitionKey(partitionKey).withData(ByteBuffer.allocate(4).putInt(0, sequence)), null)
+    }
+
+    private static int sequenceOf(PumpRecord pumpRecord) {
+        return pumpRecord.kinesisRecord.data.getInt(0)
+    }
+
+    private static Func1<PumpRecord, PumpRecord> identity() {
+        return new Func1<PumpRecord, PumpRecord>() {
+            @Override
+            PumpRecord call(PumpRecord pumpRecord) {
+                return pumpRecord
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.PayloadStats
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class PayloadBufferPoolSpec extends Specification {
+    PayloadStats stats = new PayloadStats()
+
+    def "released buffers are reused for requests of the same size class"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, false, stats)
+
+        when:
+        ByteBuffer first = pool.acquire(100)
+        pool.release(first)
+        ByteBuffer second = pool.acquire(120)
+
+        then:
+        second.is(first)
+        second.position() == 0
+        second.limit() == 120
+        second.capacity() == 128
+        stats.allocationCount == 1
+        stats.allocatedBytes == 128
+        stats.reuseCount == 1
+        stats.retainedBytes == 0
+    }
+
+    def "pool holds no more than its byte limit"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(256, false, stats)
+        List<ByteBuffer> buffers = (1..4).collect { pool.acquire(128) }
+
+        when:
+        buffers.each { pool.release(it) }
+
+        then:
+        stats.retainedBytes == 256
+    }
+
+    def "concurrent releases don't push the pool over its byte limit"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(64 * 128, false, stats)
+        List<ByteBuffer> buffers = (1..1000).collect { pool.acquire(128) }
+        ExecutorService executor = Executors.newFixedThreadPool(8)
+        CountDownLatch start = new CountDownLatch(1)
+
+        when:
+        List<Future> releases = buffers.collect { ByteBuffer buffer ->
+            executor.submit({ start.await(); pool.release(buffer) } as Callable)
+        }
+        start.countDown()
+        releases*.get()
+        executor.shutdown()
+
+        then:
+        stats.retainedBytes == 64 * 128
+
+        when:
+        65.times { pool.acquire(128) }
+
+        then:
+        stats.reuseCount == 64
+        stats.retainedBytes == 0
+    }
+
+    def "buffers the pool didn't size are not recycled"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, false, stats)
+
+        when:
+        pool.release(pool.wrap(new byte[100]))
+        pool.release(ByteBuffer.allocateDirect(128))
+
+        then:
+        stats.retainedBytes == 0
+        stats.allocatedBytes == 100
+    }
+
+    def "unpooled buffers have exactly the requested size"(){
+        setup:
+        PayloadBufferPool pool = PayloadBufferPool.unpooled()
+
+        when:
+        ByteBuffer buffer = pool.acquire(100)
+        pool.release(buffer)
+
+        then:
+        buffer.capacity() == 100
+        !pool.acquire(100).is(buffer)
+    }
+
+    def "output stream grows into larger pooled buffers"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, true, stats)
+        byte[] bytes = (0..<1000).collect { (byte) it } as byte[]
+
+        when:
+        PayloadBufferPool.BufferOutputStream output = pool.newOutputStream(64)
+        output.write(bytes, 0, 500)
+        output.write(bytes, 500, 500)
+        ByteBuffer buffer = output.toBuffer()
+
+        then:
+        buffer.isDirect()
+        PayloadBufferPool.toArray(buffer) == bytes
+        stats.retainedBytes > 0
+    }
+
+    def "discarded output streams return their buffer to the pool"(){
+        setup:
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, false, stats)
+
+        when:
+        PayloadBufferPool.BufferOutputStream output = pool.newOutputStream(100)
+        output.write(new byte[10], 0, 10)
+        output.discard()
+
+        then:
+        stats.retainedBytes == 128
+    }
+
+    def "toArray returns the backing array only when it holds exactly the payload"(){
+        setup:
+        byte[] bytes = "payload".getBytes("UTF-8")
+
+        expect:
+        PayloadBufferPool.toArray(ByteBuffer.wrap(bytes)).is(bytes)
+        PayloadBufferPool.toArray(ByteBuffer.wrap(bytes, 1, 3)) == "ayl".getBytes("UTF-8")
+        PayloadBufferPool.sharesStorage(ByteBuffer.wrap(bytes), ByteBuffer.wrap(bytes, 1, 3))
+        !PayloadBufferPool.sharesStorage(ByteBuffer.wrap(bytes), ByteBuffer.wrap(bytes.clone()))
+    }
+}
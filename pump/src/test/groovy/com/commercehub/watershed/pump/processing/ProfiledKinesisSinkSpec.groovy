@@ -0,0 +1,202 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration
+import com.amazonaws.services.kinesis.producer.UserRecordResult
+import com.commercehub.watershed.pump.model.ProducerProfile
+import com.commercehub.watershed.pump.model.ProducerProfileStats
+import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.service.KinesisProducerPool
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.SettableFuture
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class ProfiledKinesisSinkSpec extends Specification {
+    KinesisProducerPool kinesisProducerPool
+    KinesisProducer kinesisProducer
+    PumpSettings pumpSettings
+    ProducerProfileStats stats
+    UserRecordResult userRecordResult
+
+    def setup(){
+        kinesisProducer = Mock(KinesisProducer)
+        kinesisProducerPool = Mock(KinesisProducerPool)
+        kinesisProducerPool.configure(_, _, _, _) >> { Long bufferedTime, Long aggregationSize, Long collectionCount, Long connections ->
+            new KinesisProducerConfiguration()
+                    .setRecordMaxBufferedTime(bufferedTime != null ? bufferedTime : 100)
+                    .setAggregationMaxSize(aggregationSize != null ? aggregationSize : 51200)
+                    .setCollectionMaxCount(collectionCount != null ? collectionCount : 500)
+                    .setMaxConnections(connections != null ? connections : 24)
+        }
+        kinesisProducerPool.lease(_) >> { KinesisProducerConfiguration configuration -> configuration }
+        pumpSettings = new PumpSettings()
+        stats = new ProducerProfileStats()
+        userRecordResult = Mock(UserRecordResult)
+        userRecordResult.isSuccessful() >> true
+        userRecordResult.getShardId() >> "shardId-000000000000"
+    }
+
+    def "the first records are held, measured, then sent through a producer tuned to their sizes"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 3, stats)
+        SettableFuture<UserRecordResult> sent = SettableFuture.create()
+
+        when:
+        def first = sink.addUserRecord("stream", "a", null, ByteBuffer.wrap(new byte[200]))
+        sink.addUserRecord("stream", "b", null, ByteBuffer.wrap(new byte[300]))
+
+        then:
+        0 * kinesisProducerPool.get(_)
+        !first.isDone()
+        sink.outstandingRecordsCount == 0
+        stats.profile == null
+
+        when:
+        sink.addUserRecord("stream", "c", "42", ByteBuffer.wrap(new byte[400]))
+
+        then:
+        1 * kinesisProducerPool.get({ it.recordMaxBufferedTime == 250 && it.aggregationMaxSize == 256 * 1024 }) >> kinesisProducer
+        1 * kinesisProducer.addUserRecord("stream", "a", { it.remaining() == 200 }) >> sent
+        1 * kinesisProducer.addUserRecord("stream", "b", _) >> SettableFuture.create()
+        1 * kinesisProducer.addUserRecord("stream", "c", "42", _) >> SettableFuture.create()
+        stats.profile == ProducerProfile.SMALL_RECORDS
+        stats.sampledRecordCount == 3
+        stats.medianRecordBytes == 512
+        stats.sizeHistogram == [256L: 1L, 512L: 2L]
+        stats.recordMaxBufferedTime == 250
+
+        when:
+        sent.set(userRecordResult)
+
+        then:
+        first.get().successful
+        first.get().shardId == "shardId-000000000000"
+    }
+
+    def "held records are copied, as the caller reuses their buffers"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 2, stats)
+        ByteBuffer payload = ByteBuffer.wrap("first".bytes)
+        kinesisProducerPool.get(_) >> kinesisProducer
+
+        when:
+        sink.addUserRecord("stream", "a", null, payload)
+        payload.clear()
+        payload.put("xxxxx".bytes)
+        sink.flushSync()
+
+        then:
+        1 * kinesisProducer.addUserRecord("stream", "a", { new String(it.array()) == "first" }) >> Futures.immediateFuture(userRecordResult)
+    }
+
+    def "records after the sample go straight to the producer"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1, stats)
+        kinesisProducerPool.get(_) >> kinesisProducer
+        kinesisProducer.addUserRecord(_, _, _) >> SettableFuture.create()
+
+        when:
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap(new byte[100 * 1024]))
+        sink.addUserRecord("stream", "b", null, ByteBuffer.wrap(new byte[100 * 1024]))
+
+        then:
+        stats.profile == ProducerProfile.LARGE_RECORDS
+        stats.collectionMaxCount == 50
+        sink.outstandingRecordsCount == 2
+    }
+
+    def "flushSync() sends a short job's held records"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1000, stats)
+        kinesisProducerPool.get(_) >> kinesisProducer
+
+        when:
+        sink.addUserRecord("stream", "a", null, ByteBuffer.wrap(new byte[5000]))
+        sink.flushSync()
+
+        then:
+        1 * kinesisProducer.addUserRecord("stream", "a", _) >> Futures.immediateFuture(userRecordResult)
+        stats.profile == ProducerProfile.MEDIUM_RECORDS
+        stats.sampledRecordCount == 1
+        sink.outstandingRecordsCount == 0
+    }
+
+    def "flush() sends a short job's held records without waiting for them"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1000, stats)
+        kinesisProducerPool.get(_) >> kinesisProducer
+
+        when:
+        def result = sink.addUserRecord("stream", "a", null, ByteBuffer.wrap(new byte[200]))
+        sink.flush()
+
+        then:
+        1 * kinesisProducer.addUserRecord("stream", "a", _) >> SettableFuture.create()
+        0 * kinesisProducer.flush(_)
+        0 * kinesisProducer.flushSync()
+        !result.isDone()
+        sink.outstandingRecordsCount == 1
+        stats.sampledRecordCount == 1
+    }
+
+    def "a named profile and the job's overrides skip sampling"(){
+        setup:
+        pumpSettings.producerProfile = ProducerProfile.LARGE_RECORDS
+        pumpSettings.producerMaxConnections = 8
+
+        when:
+        new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1000, stats)
+
+        then:
+        1 * kinesisProducerPool.configure(50, 50 * 1024, 50, 8) >> new KinesisProducerConfiguration().setMaxConnections(8)
+        1 * kinesisProducerPool.get({ it.maxConnections == 8 }) >> kinesisProducer
+        stats.profile == ProducerProfile.LARGE_RECORDS
+        stats.sampledRecordCount == 0
+        stats.maxConnections == 8
+    }
+
+    def "without sampling, jobs keep the application's producer configuration"(){
+        when:
+        new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 0, stats)
+
+        then:
+        1 * kinesisProducerPool.configure(null, null, null, null) >> new KinesisProducerConfiguration()
+        1 * kinesisProducerPool.get(_) >> kinesisProducer
+        stats.profile == ProducerProfile.DEFAULT
+    }
+
+    def "a job that sent nothing needs no producer"(){
+        setup:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1000, stats)
+
+        when:
+        sink.flushSync()
+        sink.destroy()
+
+        then:
+        0 * kinesisProducerPool.get(_)
+        0 * kinesisProducerPool.release(_)
+        stats.profile == null
+    }
+
+    def "destroy() ends the job's lease of the configuration the pool gave it"(){
+        setup:
+        KinesisProducerConfiguration fallback = new KinesisProducerConfiguration()
+
+        when:
+        ProfiledKinesisSink sink = new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 0, stats)
+
+        then:
+        1 * kinesisProducerPool.lease(_) >> fallback
+        1 * kinesisProducerPool.get(fallback) >> kinesisProducer
+
+        when:
+        sink.destroy()
+        sink.destroy()
+
+        then:
+        1 * kinesisProducerPool.release(fallback)
+    }
+}
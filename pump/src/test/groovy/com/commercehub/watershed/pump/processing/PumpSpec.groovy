@@ -2,12 +2,24 @@ package com.commercehub.watershed.pump.processing
 
 import com.amazonaws.AmazonServiceException
 import com.amazonaws.services.kinesis.producer.KinesisProducer
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException
 import com.amazonaws.services.kinesis.producer.UserRecordResult
+import com.commercehub.watershed.pump.model.Checkpoint
 import com.commercehub.watershed.pump.model.Job
+import com.commercehub.watershed.pump.model.PayloadCompression
+import com.commercehub.watershed.pump.model.ProducerProfileStats
+import com.commercehub.watershed.pump.model.PumpRecordResult
 import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.RecordSource
+import com.commercehub.watershed.pump.service.KinesisProducerPool
 import com.commercehub.watershed.pump.service.KinesisService
+import com.commercehub.watershed.pump.service.PayloadCompressor
+import com.commercehub.watershed.pump.service.RecordSinkFactory
 import com.google.common.base.Function
 import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.inject.Provider
 import rx.Observable
 import rx.observers.TestSubscriber
 import spock.lang.Specification
@@ -25,16 +37,20 @@ public class PumpSpec extends Specification {
     Job job
     Pump pump
     Connection connection
+    Provider<Connection> connectionProvider
     KinesisProducer kinesisProducer
+    KinesisProducerPool kinesisProducerPool
+    RecordSinkFactory recordSinkFactory
     KinesisService kinesisService
     PumpSettings pumpSettings
-    TestSubscriber<UserRecordResult> testSubscriber
+    TestSubscriber<PumpRecordResult> testSubscriber
     Statement statement
     ResultSet resultSet
     ResultSetMetaData resultSetMetaData
     UserRecordResult userRecordResult
     Function recordTransformer
-    Observable<UserRecordResult> results
+    Observable<PumpRecordResult> results
+    File deadLetterDirectory
 
     String partitonKeyColumnName = "partition_key"
     String rawDataColumnName = "raw_data"
@@ -42,13 +58,14 @@ public class PumpSpec extends Specification {
 
     def setup(){
         job = Mock(Job)
+        deadLetterDirectory = File.createTempDir()
         recordTransformer = Mock(Function)
 
         setupResultSet()
         setupPumpSettings()
         setupKinesis()
 
-        pump = new Pump(connection, kinesisProducer, kinesisService, 5, 1, pumpSettings, null)
+        pump = new Pump(connectionProvider, recordSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", pumpSettings, null, new AvroSchemaCache(), new Checkpoint())
 
         testSubscriber = TestSubscriber.create(1)
         results = pump.build()
@@ -57,14 +74,19 @@ public class PumpSpec extends Specification {
     def setupResultSet(){
         statement = Mock(Statement)
         connection = Mock(Connection)
+        connectionProvider = Mock(Provider)
+        connectionProvider.get() >> connection
         resultSetMetaData = Mock(ResultSetMetaData)
         resultSet = Mock(ResultSet)
         connection.createStatement(_, _) >> statement
 
         resultSet.getMetaData() >> resultSetMetaData
+        resultSetMetaData.getColumnCount() >> 2
+        resultSetMetaData.getColumnLabel(1) >> partitonKeyColumnName
+        resultSetMetaData.getColumnLabel(2) >> rawDataColumnName
         resultSet.next() >> true
-        resultSet.getString(partitonKeyColumnName) >> "key"
-        resultSet.getBytes(rawDataColumnName) >> "data".getBytes()
+        resultSet.getString(1) >> "key"
+        resultSet.getBytes(2) >> "data".getBytes()
 
         statement.executeQuery("select * from foo") >> resultSet
     }
@@ -80,8 +102,16 @@ public class PumpSpec extends Specification {
 
     def setupKinesis(){
         kinesisProducer = Mock(KinesisProducer)
+        kinesisProducerPool = Mock(KinesisProducerPool)
+        recordSinkFactory = Mock(RecordSinkFactory)
+        recordSinkFactory.create(_, _) >> { new KinesisProducerSink(kinesisProducer, kinesisProducerPool) }
         kinesisService = Mock(KinesisService)
         userRecordResult = Mock(UserRecordResult)
+        userRecordResult.isSuccessful() >> true
+    }
+
+    def cleanup(){
+        deadLetterDirectory.deleteDir()
     }
 
     def "pump queries database when subscriber subscribes"(){
@@ -95,7 +125,7 @@ public class PumpSpec extends Specification {
         then:
         1 * resultSet.next() >> false
         testSubscriber.assertNoErrors()
-        2 * pumpSettings.getQueryIn() >> "select * from foo"
+        1 * pumpSettings.getQueryIn() >> "select * from foo"
         1 * statement.executeQuery("select * from foo") >> resultSet
     }
 
@@ -105,7 +135,7 @@ public class PumpSpec extends Specification {
         testSubscriber.awaitTerminalEvent()
 
         then:
-        2 * pumpSettings.getQueryIn() >> "select * from foo"
+        1 * pumpSettings.getQueryIn() >> "select * from foo"
         1 * statement.executeQuery("select * from foo") >> { throw new SQLException("sql error") }
 
         then:
@@ -158,7 +188,7 @@ public class PumpSpec extends Specification {
 
     def "records transformed if transformer provided"(){
         setup:
-        pump = new Pump(connection, kinesisProducer, kinesisService, 5, 1, pumpSettings, recordTransformer)
+        pump = new Pump(connectionProvider, recordSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", pumpSettings, recordTransformer, new AvroSchemaCache(), new Checkpoint())
         results = pump.build()
 
         when:
@@ -181,6 +211,55 @@ public class PumpSpec extends Specification {
         testSubscriber.assertCompleted()
     }
 
+    def "a job shorter than the producer profile's sample still completes"(){
+        setup:
+        RecordSinkFactory profiledSinkFactory = Mock(RecordSinkFactory)
+        profiledSinkFactory.create(_, _) >> { new ProfiledKinesisSink(kinesisProducerPool, pumpSettings, 1000, new ProducerProfileStats()) }
+        kinesisProducerPool.configure(_, _, _, _) >> new KinesisProducerConfiguration()
+        kinesisProducerPool.lease(_) >> { KinesisProducerConfiguration configuration -> configuration }
+        kinesisProducerPool.get(_) >> kinesisProducer
+        pump = new Pump(connectionProvider, profiledSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", pumpSettings, null, new AvroSchemaCache(), new Checkpoint())
+        results = pump.build()
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        2 * resultSet.next() >>> [true, false]
+        1 * kinesisProducer.addUserRecord("stream", "key", _) >> new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertValueCount(1)
+        testSubscriber.assertCompleted()
+    }
+
+    def "payloads are compressed after they are transformed"(){
+        setup:
+        pumpSettings.getCompression() >> PayloadCompression.GZIP
+        recordTransformer.apply(_) >> "transformed data".getBytes()
+        pump = new Pump(connectionProvider, recordSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", pumpSettings, recordTransformer, new AvroSchemaCache(), new Checkpoint())
+        results = pump.build()
+        testSubscriber = new TestSubscriber<>()
+        byte[] emitted = null
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        2 * resultSet.next() >>> [true, false]
+        1 * kinesisProducer.addUserRecord("stream", "key", _) >> { stream, key, ByteBuffer data ->
+            emitted = PayloadBufferPool.toArray(data)
+            new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        }
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertCompleted()
+        new String(PayloadCompressor.decompress(emitted, null)) == "transformed data"
+        pump.compressionStats.recordCount == 1
+        pump.compressionStats.uncompressedBytes == "transformed data".length()
+    }
+
     def "subscriber receives onError when resultSet errors"(){
         when:
         results.subscribe(testSubscriber)
@@ -198,27 +277,261 @@ public class PumpSpec extends Specification {
         testSubscriber.assertNotCompleted()
     }
 
-    def "destroy() destroys kinesis producer"(){
+    def "records carry only the non raw data columns of their row"(){
+        setup:
+        testSubscriber = new TestSubscriber<>()
+        kinesisProducer.addUserRecord(*_) >> new Futures.ImmediateSuccessfulFuture(userRecordResult)
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        2 * resultSet.next() >>> [true, false]
+        0 * resultSet.getString(partitonKeyColumnName)
+        0 * resultSet.getBytes(rawDataColumnName)
+        testSubscriber.assertValueCount(1)
+        testSubscriber.onNextEvents.get(0).drillResultRow == [(partitonKeyColumnName): "key"]
+    }
+
+    def "partitioned read runs one sub-query per partition and merges the results"(){
+        setup:
+        testSubscriber = new TestSubscriber<>()
+        pumpSettings.getReadPartitions() >> 2
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        1 * statement.executeQuery("SELECT * FROM (select * from foo) WHERE (mod(hash(`partition_key`), 2) IN (0, -2) OR `partition_key` IS NULL)") >> resultSet
+        1 * statement.executeQuery("SELECT * FROM (select * from foo) WHERE mod(hash(`partition_key`), 2) IN (1, -1)") >> resultSet
+        2 * connectionProvider.get() >> connection
+        _ * resultSet.next() >> false
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertCompleted()
+    }
+
+    def "archive source reads archive files without touching the database"(){
+        setup:
+        File root = File.createTempDir()
+        new File(root, "a").text = '{"partition_key": "k1"}\n{"partition_key": "k2"}\n'
+        new File(root, "b").text = '{"partition_key": "k3"}\n'
+        pumpSettings.getRecordSource() >> RecordSource.ARCHIVE
+        pumpSettings.getArchivePath() >> root.absolutePath
+        pumpSettings.getArchiveReadParallelism() >> 2
+        kinesisProducer.addUserRecord(*_) >> new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        0 * connectionProvider.get()
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertValueCount(3)
+        testSubscriber.assertCompleted()
+
+        cleanup:
+        root.deleteDir()
+    }
+
+    def "compaction emits the last archived record per partition key"(){
+        setup:
+        File root = File.createTempDir()
+        new File(root, "a").text = '{"partition_key": "k1", "n": 1}\n{"partition_key": "k2", "n": 2}\n'
+        new File(root, "b").text = '{"partition_key": "k1", "n": 3}\n'
+        pumpSettings.getRecordSource() >> RecordSource.ARCHIVE
+        pumpSettings.getArchivePath() >> root.absolutePath
+        pumpSettings.getArchiveReadParallelism() >> 2
+        pumpSettings.getCompact() >> true
+        results = pump.build()
+        List<String> emitted = []
+        kinesisProducer.addUserRecord(*_) >> { stream, key, ByteBuffer data ->
+            emitted << new String(PayloadBufferPool.toArray(data))
+            new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        }
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertCompleted()
+        emitted.sort() == ['{"partition_key": "k1", "n": 3}', '{"partition_key": "k2", "n": 2}']
+        pump.compactionStats.indexedRecordCount == 3
+        pump.compactionStats.survivingRecordCount == 2
+
+        cleanup:
+        root.deleteDir()
+    }
+
+    def "deduplication drops repeated archived records by id, and whole repeated records without one"(){
+        setup:
+        File root = File.createTempDir()
+        new File(root, "a").text = '{"id": "1", "n": 1}\n{"id": "2", "n": 2}\n{"n": 3}\n'
+        new File(root, "b").text = '{"id": "1", "n": 4}\n{"n": 3}\n{"n": 5}\n'
+        pumpSettings.getRecordSource() >> RecordSource.ARCHIVE
+        pumpSettings.getArchivePath() >> root.absolutePath
+        pumpSettings.getArchiveReadParallelism() >> 1
+        pumpSettings.getDedup() >> true
+        pumpSettings.getDedupIdColumn() >> "id"
+        List<String> emitted = []
+        kinesisProducer.addUserRecord(*_) >> { stream, key, ByteBuffer data ->
+            emitted << new String(PayloadBufferPool.toArray(data))
+            new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        }
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        pump.build().subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        testSubscriber.assertNoErrors()
+        emitted == ['{"id": "1", "n": 1}', '{"id": "2", "n": 2}', '{"n": 3}', '{"n": 5}']
+        pump.dedupStats.checkedRecordCount == 6
+        pump.dedupStats.duplicateCount == 2
+        pump.dedupStats.filterCount == 1
+
+        cleanup:
+        root.deleteDir()
+    }
+
+    def "resumed jobs skip acked records and completed partitions"(){
+        setup:
+        File root = File.createTempDir()
+        new File(root, "a").text = '{"n": 1}\n{"n": 2}\n{"n": 3}\n'
+        new File(root, "b").text = '{"n": 4}\n'
+        pumpSettings.getRecordSource() >> RecordSource.ARCHIVE
+        pumpSettings.getArchivePath() >> root.absolutePath
+        pumpSettings.getArchiveReadParallelism() >> 1
+        Checkpoint resumeFrom = new Checkpoint(watermarks: [a: 2L, b: 1L], completedPartitions: ["b"] as Set)
+        pump = new Pump(connectionProvider, recordSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", pumpSettings, null, new AvroSchemaCache(), resumeFrom)
+        List<String> emitted = []
+        kinesisProducer.addUserRecord(*_) >> { stream, key, ByteBuffer data ->
+            emitted << new String(PayloadBufferPool.toArray(data))
+            new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        }
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        pump.build().subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+        Checkpoint checkpoint = pump.checkpointTracker.checkpoint()
+
+        then:
+        testSubscriber.assertNoErrors()
+        emitted == ['{"n": 3}']
+        checkpoint.watermarks == [a: 3L, b: 1L]
+        checkpoint.completedPartitions == ["a", "b"] as Set
+
+        cleanup:
+        root.deleteDir()
+    }
+
+    def "failed records are sent again until they succeed"(){
+        setup:
+        UserRecordResult failedResult = Mock(UserRecordResult)
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+
+        then:
+        1 * resultSet.next() >> true
+
+        then:
+        //kinesis fails the record once, then accepts it
+        2 * kinesisProducer.addUserRecord("stream", "key", ByteBuffer.wrap("data".getBytes())) >>>
+                [Futures.immediateFailedFuture(new UserRecordFailedException(failedResult)), new Futures.ImmediateSuccessfulFuture(userRecordResult)]
+        1 * resultSet.next() >> false
+
+        then:
+        //subscriber is told about the record once, with its final result
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertValueCount(1)
+        testSubscriber.onNextEvents[0].sinkRecordResult.successful
+        pump.retryStats.retryCount == 1
+        pump.retryStats.recoveredRecordCount == 1
+        pump.retryStats.deadLetterRecordCount == 0
+        deadLetterDirectory.listFiles().length == 0
+    }
+
+    def "records that run out of retries are spooled, and DEAD_LETTER jobs send them again"(){
+        setup:
+        UserRecordResult failedResult = Mock(UserRecordResult)
+        failedResult.isSuccessful() >> false
+        testSubscriber = new TestSubscriber<>()
+
+        when:
+        results.subscribe(testSubscriber)
+        testSubscriber.awaitTerminalEvent()
+        pump.flushSync()
+
+        then:
+        1 * resultSet.next() >> true
+
+        then:
+        //the first attempt and 3 retries fail
+        4 * kinesisProducer.addUserRecord("stream", "key", _) >> new Futures.ImmediateSuccessfulFuture(failedResult)
+        1 * resultSet.next() >> false
+
+        then:
+        testSubscriber.assertNoErrors()
+        testSubscriber.assertValueCount(1)
+        !testSubscriber.onNextEvents[0].sinkRecordResult.isSuccessful()
+        pump.retryStats.retryCount == 3
+        pump.retryStats.deadLetterRecordCount == 1
+        DeadLetterSpool.list(deadLetterDirectory).size() == 1
+        pump.retryStats.deadLetterFile == DeadLetterSpool.list(deadLetterDirectory)[0].path
+
+        when:
+        PumpSettings replaySettings = Mock(PumpSettings)
+        replaySettings.getRecordSource() >> RecordSource.DEAD_LETTER
+        replaySettings.getDeadLetterPath() >> deadLetterDirectory.path
+        replaySettings.getStreamOut() >> "stream"
+        Pump replay = new Pump(connectionProvider, recordSinkFactory, kinesisService, 5, 1, 0, MoreExecutors.sameThreadExecutor(), 1, 1, 0, false, 112640, 1048576, "", 1048576, false, 1000, 1000, 3, 1, 10, 100, deadLetterDirectory.path, "", replaySettings, recordTransformer, new AvroSchemaCache(), new Checkpoint())
+        TestSubscriber<PumpRecordResult> replayed = new TestSubscriber<>()
+        replay.build().subscribe(replayed)
+        replayed.awaitTerminalEvent()
+
+        then:
+        //the spooled payload is sent as it was, without the transformer or the database
+        0 * connectionProvider.get()
+        0 * recordTransformer.apply(_)
+        1 * kinesisProducer.addUserRecord("stream", "key", ByteBuffer.wrap("data".getBytes())) >> new Futures.ImmediateSuccessfulFuture(userRecordResult)
+        replayed.assertNoErrors()
+        replayed.assertValueCount(1)
+        replayed.onNextEvents[0].drillResultRow.get("errorCode") == ""
+    }
+
+    def "destroy() leaves the shared kinesis producer running"(){
         when:
         pump.destroy()
 
         then:
-        1 * kinesisProducer.destroy()
+        0 * kinesisProducer.destroy()
     }
 
-    def "flushSync() calls flushSync on kinesis producer"(){
+    def "flushSync() leaves the shared kinesis producer's other records alone"(){
         when:
         pump.flushSync()
 
         then:
-        1 * kinesisProducer.flushSync()
+        0 * kinesisProducer.flushSync()
     }
 
-    def "countPending() counts pending from kinesis producer"(){
+    def "countPending() counts only the job's pending records"(){
         when:
-        pump.countPending()
+        long pending = pump.countPending()
 
         then:
-        1 * kinesisProducer.getOutstandingRecordsCount()
+        0 * kinesisProducer.getOutstandingRecordsCount()
+        pending == 0
     }
 }
@@ -1,11 +1,13 @@
 package com.commercehub.watershed.pump.processing
 
-import com.amazonaws.services.kinesis.producer.UserRecordResult
+import com.commercehub.watershed.pump.model.Checkpoint
 import com.commercehub.watershed.pump.model.Job
 import com.commercehub.watershed.pump.model.ProcessingStage
 import com.commercehub.watershed.pump.model.PumpRecordResult
 import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.SinkRecordResult
 import com.commercehub.watershed.pump.model.DrillResultRow
+import com.commercehub.watershed.pump.service.CheckpointJournal
 import rx.Producer
 import spock.lang.Specification
 
@@ -16,16 +18,21 @@ public class PumpSubscriberSpec extends Specification {
     Job job
     Pump pump
     Producer producer
-    UserRecordResult userRecordResult
+    SinkRecordResult sinkRecordResult
+    CheckpointJournal checkpointJournal
+    CheckpointTracker checkpointTracker
 
     def setup(){
         job = new Job(null, "test", new PumpSettings())
         pump = Mock(Pump)
         producer = Mock(Producer)
-        pumpSubscriber = new PumpSubscriber(job, pump, 5)
+        checkpointJournal = Mock(CheckpointJournal)
+        checkpointTracker = new CheckpointTracker(new Checkpoint())
+        pump.getCheckpointTracker() >> checkpointTracker
+        pumpSubscriber = new PumpSubscriber(job, pump, 5, checkpointJournal, 60000)
         pumpSubscriber.setProducer(producer)
 
-        userRecordResult = Mock(UserRecordResult)
+        sinkRecordResult = Mock(SinkRecordResult)
     }
 
     def "onStart sets up job"(){
@@ -163,6 +170,40 @@ public class PumpSubscriberSpec extends Specification {
         job.processingErrors.get(0) == ex
     }
 
+    def "onError journals the job's checkpoint"(){
+        setup:
+        checkpointTracker.acked("query", 0)
+        checkpointTracker.acked("query", 2)
+        checkpointTracker.acked("query", 1)
+
+        when:
+        pumpSubscriber.onError(new Exception("error"))
+
+        then:
+        1 * checkpointJournal.write({ Checkpoint checkpoint ->
+            checkpoint.jobId == "test" && checkpoint.pumpSettings.is(job.pumpSettings) && checkpoint.watermark("query") == 3
+        })
+        job.checkpoint.watermark("query") == 3
+    }
+
+    def "checkpoints are journaled at most once per interval"(){
+        when:
+        3.times { pumpSubscriber.updateStats() }
+
+        then:
+        1 * checkpointJournal.write(_)
+    }
+
+    def "onCompleted removes the journaled checkpoint"(){
+        when:
+        pumpSubscriber.onCompleted()
+        pumpSubscriber.unsubscribe()
+
+        then:
+        1 * checkpointJournal.delete("test")
+        0 * checkpointJournal.write(_)
+    }
+
     def "onError still wraps up job if pump is null"(){
         when:
         pumpSubscriber.pump = null
@@ -197,10 +238,10 @@ public class PumpSubscriberSpec extends Specification {
 
     def "onNext increments success count"(){
         setup:
-        userRecordResult.isSuccessful() >> true
+        sinkRecordResult.isSuccessful() >> true
 
         when:
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         pumpSubscriber.successCount.get() == 1
@@ -208,10 +249,10 @@ public class PumpSubscriberSpec extends Specification {
 
     def "onNext increments failure count"(){
         setup:
-        userRecordResult.isSuccessful() >> false
+        sinkRecordResult.isSuccessful() >> false
 
         when:
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         pumpSubscriber.failCount.get() == 1
@@ -219,10 +260,10 @@ public class PumpSubscriberSpec extends Specification {
 
     def "onNext updatesStats if first record"(){
         setup:
-        userRecordResult.isSuccessful() >> true
+        sinkRecordResult.isSuccessful() >> true
 
         when:
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         pumpSubscriber.successCount.get() == 1
@@ -231,11 +272,11 @@ public class PumpSubscriberSpec extends Specification {
 
     def "onNext doesn't updateStats in the middle of chunk processing"(){
         setup:
-        userRecordResult.isSuccessful() >> true
+        sinkRecordResult.isSuccessful() >> true
 
         when:
         pumpSubscriber.successCount = new AtomicLong(3L)
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         job.successfulRecordCount != pumpSubscriber.successCount.get()
@@ -243,11 +284,11 @@ public class PumpSubscriberSpec extends Specification {
 
     def "onNext updateStats for start of chunk processing"(){
         setup:
-        userRecordResult.isSuccessful() >> true
+        sinkRecordResult.isSuccessful() >> true
 
         when:
         pumpSubscriber.successCount = new AtomicLong(4L)
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         job.successfulRecordCount == pumpSubscriber.successCount.get()
@@ -256,7 +297,7 @@ public class PumpSubscriberSpec extends Specification {
     def "onNext doesn't do a new request chunk for middle of chunk processing"(){
         when:
         pumpSubscriber.successCount = new AtomicLong(3L)
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         0 * producer.request(_)
@@ -265,7 +306,7 @@ public class PumpSubscriberSpec extends Specification {
     def "onNext requests new chunk at end of chunk processing"(){
         when:
         pumpSubscriber.successCount = new AtomicLong(4L)
-        pumpSubscriber.onNext(new PumpRecordResult(userRecordResult, Mock(DrillResultRow)))
+        pumpSubscriber.onNext(new PumpRecordResult(sinkRecordResult, Mock(DrillResultRow)))
 
         then:
         1 * producer.request(5)
@@ -0,0 +1,94 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.ReadPartitionStrategy
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class QueryPartitionerSpec extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    File archiveFile(String path) {
+        File file = new File(temporaryFolder.root, path)
+        file.parentFile.mkdirs()
+        file.text = "{}"
+        return file
+    }
+
+    def "single partition returns the original query"(){
+        setup:
+        PumpSettings pumpSettings = new PumpSettings(queryIn: "select * from foo")
+
+        expect:
+        QueryPartitioner.partition(pumpSettings, null) == ["select * from foo"]
+    }
+
+    def "partition key hash covers negative remainders and null keys"(){
+        when:
+        List<String> queries = QueryPartitioner.byPartitionKeyHash("select * from foo", "partitionKey", 3)
+
+        then:
+        queries == [
+                "SELECT * FROM (select * from foo) WHERE (mod(hash(`partitionKey`), 3) IN (0, -3) OR `partitionKey` IS NULL)",
+                "SELECT * FROM (select * from foo) WHERE mod(hash(`partitionKey`), 3) IN (1, -2)",
+                "SELECT * FROM (select * from foo) WHERE mod(hash(`partitionKey`), 3) IN (2, -1)"
+        ]
+    }
+
+    def "directory partitions deal the archive's directories round-robin"(){
+        setup:
+        archiveFile("2015/11/a.json")
+        archiveFile("2015/11/05/deeper.json")
+        archiveFile("2015/12/a.json")
+        archiveFile("2016/a.json")
+        archiveFile("_pump_time_index.json")
+        PumpSettings pumpSettings = new PumpSettings(
+                queryIn: "select * from foo",
+                archivePath: temporaryFolder.root.path,
+                readPartitions: 2,
+                readPartitionStrategy: ReadPartitionStrategy.DIRECTORY,
+                partitionDirectoryColumns: ["dir0", "dir1"])
+
+        when:
+        List<String> queries = QueryPartitioner.partition(pumpSettings, null)
+
+        then:
+        queries == [
+                "SELECT * FROM (select * from foo) WHERE (`dir0` = '2015' AND `dir1` = '11') OR (`dir0` = '2016' AND `dir1` IS NULL)",
+                "SELECT * FROM (select * from foo) WHERE (`dir0` = '2015' AND `dir1` = '12')"
+        ]
+    }
+
+    def "directory partitions fall back to the original query when no directories are found"(){
+        setup:
+        PumpSettings pumpSettings = new PumpSettings(
+                queryIn: "select * from foo",
+                archivePath: temporaryFolder.root.path,
+                readPartitions: 4,
+                readPartitionStrategy: ReadPartitionStrategy.DIRECTORY)
+
+        expect:
+        QueryPartitioner.partition(pumpSettings, null) == ["select * from foo"]
+    }
+
+    def "directory partitions fall back to the partition key hash when the directories can't be listed"(){
+        setup:
+        PumpSettings pumpSettings = new PumpSettings(
+                queryIn: "select * from foo",
+                partitionKeyColumn: "partitionKey",
+                archivePath: archivePath,
+                readPartitions: 2,
+                readPartitionStrategy: ReadPartitionStrategy.DIRECTORY,
+                partitionDirectoryColumns: columns)
+
+        expect:
+        QueryPartitioner.partition(pumpSettings, null) == QueryPartitioner.byPartitionKeyHash("select * from foo", "partitionKey", 2)
+
+        where:
+        archivePath | columns
+        null        | ["dir0"]
+        "/archive"  | ["dir0", "region"]
+    }
+}
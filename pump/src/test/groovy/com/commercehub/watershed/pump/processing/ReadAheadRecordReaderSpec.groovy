@@ -0,0 +1,113 @@
+package com.commercehub.watershed.pump.processing
+
+import com.amazonaws.services.kinesis.model.Record
+import com.commercehub.watershed.pump.model.PayloadStats
+import com.commercehub.watershed.pump.model.PumpRecord
+import com.commercehub.watershed.pump.model.ReadAheadStats
+import rx.schedulers.Schedulers
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class ReadAheadRecordReaderSpec extends Specification {
+    ReadAheadStats stats
+    RecordReader delegate
+    PayloadStats payloadStats
+    PayloadBufferPool payloadBufferPool
+    PollingConditions conditions
+
+    def setup() {
+        stats = new ReadAheadStats()
+        payloadStats = new PayloadStats()
+        payloadBufferPool = new PayloadBufferPool(1 << 20, false, payloadStats)
+        delegate = Mock(RecordReader)
+        conditions = new PollingConditions(timeout: 5)
+    }
+
+    def "records are returned in source order and the delegate is closed at the end"(){
+        setup:
+        List<PumpRecord> records = (1..5).collect { new PumpRecord(new Record().withPartitionKey("key" + it), null) }
+        delegate.read() >>> records + [null]
+        boolean delegateClosed = false
+        delegate.close() >> { delegateClosed = true }
+
+        when:
+        ReadAheadRecordReader reader = new ReadAheadRecordReader(delegate, 2, stats, payloadBufferPool, Schedulers.io())
+        List<PumpRecord> read = []
+        PumpRecord record
+        while ((record = reader.read()) != null) {
+            read << record
+        }
+        reader.close()
+
+        then:
+        read == records
+        stats.bufferedRecordCount == 5
+        stats.occupancy == 0
+        stats.capacity == 0
+        conditions.eventually {
+            assert delegateClosed
+        }
+    }
+
+    def "buffer fills up to capacity ahead of the consumer"(){
+        setup:
+        delegate.read() >> new PumpRecord(new Record(), null)
+
+        when:
+        ReadAheadRecordReader reader = new ReadAheadRecordReader(delegate, 3, stats, payloadBufferPool, Schedulers.io())
+
+        then:
+        conditions.eventually {
+            assert stats.occupancy == 3
+            assert stats.fullWaitCount > 0
+        }
+
+        when:
+        reader.close()
+
+        then:
+        stats.capacity == 0
+        conditions.eventually {
+            assert stats.occupancy == 0
+        }
+    }
+
+    def "payloads of discarded records are released to the pool"(){
+        setup:
+        delegate.read() >> { new PumpRecord(new Record().withData(payloadBufferPool.acquire(64)), null) }
+
+        when:
+        ReadAheadRecordReader reader = new ReadAheadRecordReader(delegate, 2, stats, payloadBufferPool, Schedulers.io())
+
+        then:
+        conditions.eventually {
+            assert stats.occupancy == 2
+        }
+
+        when:
+        reader.close()
+
+        then:
+        conditions.eventually {
+            assert stats.occupancy == 0
+            assert payloadStats.retainedBytes >= 2 * 64
+        }
+    }
+
+    def "source failures surface after buffered records"(){
+        setup:
+        PumpRecord first = new PumpRecord(new Record(), null)
+        IOException failure = new IOException("boom")
+        delegate.read() >> first >> { throw failure }
+
+        when:
+        ReadAheadRecordReader reader = new ReadAheadRecordReader(delegate, 10, stats, payloadBufferPool, Schedulers.io())
+        PumpRecord read = reader.read()
+        reader.read()
+
+        then:
+        read == first
+        IOException e = thrown()
+        e == failure
+    }
+}
@@ -0,0 +1,35 @@
+package com.commercehub.watershed.pump.processing
+
+import spock.lang.Specification
+
+class RecordSizeHistogramSpec extends Specification {
+    RecordSizeHistogram histogram = new RecordSizeHistogram()
+
+    def "sizes are counted under the least power of two that holds them"(){
+        when:
+        [0, 1, 2, 3, 1024, 1025].each { histogram.add(it) }
+
+        then:
+        histogram.toMap() == [1L: 2L, 2L: 1L, 4L: 1L, 1024L: 1L, 2048L: 1L]
+        histogram.count == 6
+        histogram.max == 1025
+    }
+
+    def "percentiles are read from the buckets"(){
+        when:
+        90.times { histogram.add(300) }
+        10.times { histogram.add(40000) }
+
+        then:
+        histogram.percentile(0.5) == 512
+        histogram.percentile(0.9) == 512
+        histogram.percentile(0.95) == 65536
+        histogram.percentile(1) == 65536
+    }
+
+    def "an empty histogram has no percentiles"(){
+        expect:
+        histogram.percentile(0.5) == 0
+        histogram.toMap().isEmpty()
+    }
+}
@@ -0,0 +1,62 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.RetryStats
+import spock.lang.Specification
+
+class RetryQueueSpec extends Specification {
+    RetryStats stats = new RetryStats()
+
+    def "records are queued while they have retries left"(){
+        setup:
+        RetryQueue queue = new RetryQueue(2, 100, 1000, 10, stats)
+
+        expect:
+        queue.offer(0)
+        queue.offer(1)
+        !queue.offer(2)
+        stats.queuedRetryCount == 2
+    }
+
+    def "no more records are queued than the limit"(){
+        setup:
+        RetryQueue queue = new RetryQueue(5, 100, 1000, 2, stats)
+
+        when:
+        boolean first = queue.offer(0)
+        boolean second = queue.offer(0)
+        boolean third = queue.offer(0)
+
+        then:
+        first && second && !third
+
+        when:
+        queue.retried()
+
+        then:
+        queue.offer(0)
+        stats.retryCount == 1
+        stats.queuedRetryCount == 2
+    }
+
+    def "backoff doubles with each retry, up to the cap, with full jitter"(){
+        setup:
+        Random random = Mock(Random)
+        random.nextDouble() >> 0.999999
+        RetryQueue queue = new RetryQueue(10, 100, 1000, 10, stats, random)
+
+        expect:
+        queue.backoffMillis(0) == 100
+        queue.backoffMillis(1) == 200
+        queue.backoffMillis(3) == 800
+        queue.backoffMillis(4) == 1000
+        queue.backoffMillis(40) == 1000
+    }
+
+    def "jittered backoff never exceeds its ceiling"(){
+        setup:
+        RetryQueue queue = new RetryQueue(10, 100, 1000, 10, stats)
+
+        expect:
+        (1..1000).collect { queue.backoffMillis(2) }.every { it >= 0 && it <= 400 }
+    }
+}
@@ -0,0 +1,98 @@
+package com.commercehub.watershed.pump.processing
+
+import com.commercehub.watershed.pump.model.DedupStats
+import spock.lang.Specification
+
+class ScalableBloomFilterSpec extends Specification {
+
+    static final long UNSEEN = 1L << 40
+
+    // SplitMix64's finalizer, standing in for the halves of a 128-bit record hash
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * -0x40A7B892E31B1A47L
+        z = (z ^ (z >>> 27)) * -0x6B2FB644ECCEEE15L
+        return z ^ (z >>> 31)
+    }
+
+    static long hash1(long i) {
+        return mix(i)
+    }
+
+    static long hash2(long i) {
+        return mix(~i)
+    }
+
+    def "grows past its initial capacity without false negatives"(){
+        setup:
+        DedupStats stats = new DedupStats()
+        ScalableBloomFilter filter = new ScalableBloomFilter(0.01, 64 * 1024 * 1024, stats)
+        long count = ScalableBloomFilter.INITIAL_CAPACITY * 5
+
+        when:
+        long falsePositives = 0
+        for (long i = 0; i < count; i++) {
+            if (filter.mightContainOrAdd(hash1(i), hash2(i))) {
+                falsePositives++
+            }
+        }
+        boolean allFound = true
+        for (long i = 0; i < count; i++) {
+            allFound &= filter.mightContainOrAdd(hash1(i), hash2(i))
+        }
+
+        then:
+        allFound
+        falsePositives < count * 0.01
+        stats.filterCount == 3
+        stats.filterBytes == filter.bytes
+        !filter.saturated
+    }
+
+    def "new elements stay under the target false positive rate"(){
+        setup:
+        ScalableBloomFilter filter = new ScalableBloomFilter(0.01, 64 * 1024 * 1024, new DedupStats())
+        long count = ScalableBloomFilter.INITIAL_CAPACITY * 3
+        for (long i = 0; i < count; i++) {
+            filter.mightContainOrAdd(hash1(i), hash2(i))
+        }
+
+        when:
+        long falsePositives = 0
+        for (long i = count; i < count * 2; i++) {
+            if (filter.mightContainOrAdd(hash1(UNSEEN + i), hash2(UNSEEN + i))) {
+                falsePositives++
+            }
+        }
+
+        then:
+        falsePositives < count * 0.01
+    }
+
+    def "stops adding elements at the memory cap"(){
+        setup:
+        ScalableBloomFilter filter = new ScalableBloomFilter(0.01, 200 * 1024, new DedupStats())
+        long count = ScalableBloomFilter.INITIAL_CAPACITY * 4
+
+        when:
+        for (long i = 0; i < count; i++) {
+            filter.mightContainOrAdd(hash1(i), hash2(i))
+        }
+
+        then:
+        filter.saturated
+        filter.bytes <= 200 * 1024
+        filter.mightContainOrAdd(hash1(0), hash2(0))
+        !filter.mightContainOrAdd(hash1(UNSEEN), hash2(UNSEEN))
+    }
+
+    def "rejects false positive rates outside (0, 1)"(){
+        when:
+        new ScalableBloomFilter(rate, 1024, new DedupStats())
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        rate << [0d, 1d, -0.5d]
+    }
+}
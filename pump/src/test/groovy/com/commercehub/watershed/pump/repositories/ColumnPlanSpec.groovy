@@ -0,0 +1,92 @@
+package com.commercehub.watershed.pump.repositories
+
+import com.commercehub.watershed.pump.model.DrillResultRow
+import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.respositories.ColumnPlan
+import spock.lang.Specification
+
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.sql.SQLException
+
+class ColumnPlanSpec extends Specification {
+    ResultSet resultSet
+    ResultSetMetaData resultSetMetaData
+
+    def setup() {
+        resultSet = Mock(ResultSet)
+        resultSetMetaData = Mock(ResultSetMetaData)
+        resultSetMetaData.getColumnCount() >> 4
+        resultSetMetaData.getColumnLabel(1) >> "partitionKey"
+        resultSetMetaData.getColumnLabel(2) >> "rawData"
+        resultSetMetaData.getColumnLabel(3) >> "dir0"
+        resultSetMetaData.getColumnLabel(4) >> "sequence"
+    }
+
+    def "Pump plan reads key and data by index and skips the raw data column in rows"(){
+        setup:
+        ColumnPlan columnPlan = ColumnPlan.forPump(resultSetMetaData, new PumpSettings())
+
+        when:
+        String partitionKey = columnPlan.getPartitionKey(resultSet)
+        byte[] rawData = columnPlan.getRawData(resultSet)
+        DrillResultRow row = columnPlan.mapRow(resultSet, partitionKey)
+
+        then:
+        1 * resultSet.getString(1) >> "key"
+        1 * resultSet.getBytes(2) >> "data".getBytes()
+        1 * resultSet.getString(3) >> "2015"
+        1 * resultSet.getString(4) >> "42"
+        0 * resultSet.getString(2)
+        partitionKey == "key"
+        rawData == "data".getBytes()
+        row == ["partitionKey": "key", "dir0": "2015", "sequence": "42"]
+    }
+
+    def "Pump plan reads the key column again when no key is given"(){
+        setup:
+        ColumnPlan columnPlan = ColumnPlan.forPump(resultSetMetaData, new PumpSettings())
+        resultSet.getString(_ as Integer) >> { int i -> "value" + i }
+
+        when:
+        DrillResultRow row = columnPlan.mapRow(resultSet)
+
+        then:
+        row == ["partitionKey": "value1", "dir0": "value3", "sequence": "value4"]
+    }
+
+    def "Pump plan copies only configured checkpoint columns"(){
+        setup:
+        ColumnPlan columnPlan = ColumnPlan.forPump(resultSetMetaData, new PumpSettings(checkpointColumns: ["SEQUENCE"]))
+
+        when:
+        DrillResultRow row = columnPlan.mapRow(resultSet)
+
+        then:
+        1 * resultSet.getString(4) >> "42"
+        0 * resultSet.getString(_ as Integer)
+        row == ["sequence": "42"]
+    }
+
+    def "Pump plan fails when a configured column is missing"(){
+        when:
+        ColumnPlan.forPump(resultSetMetaData, new PumpSettings(rawDataColumn: "data"))
+
+        then:
+        thrown(SQLException)
+    }
+
+    def "all column plan copies every column"(){
+        setup:
+        ColumnPlan columnPlan = ColumnPlan.forAllColumns(resultSetMetaData)
+        resultSet.getString(_ as Integer) >> { int i -> "value" + i }
+
+        when:
+        DrillResultRow row = columnPlan.mapRow(resultSet)
+
+        then:
+        row.size() == 4
+        row.get("rawData") == "value2"
+        row.keySet() as List == ["partitionKey", "rawData", "dir0", "sequence"]
+    }
+}
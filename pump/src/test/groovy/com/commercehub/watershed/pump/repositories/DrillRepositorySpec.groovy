@@ -3,6 +3,7 @@ package com.commercehub.watershed.pump.repositories
 import com.commercehub.watershed.pump.model.JobPreview
 import com.commercehub.watershed.pump.model.PreviewSettings
 import com.commercehub.watershed.pump.respositories.DrillRepository
+import com.google.common.util.concurrent.MoreExecutors
 import com.google.inject.Provider
 import spock.lang.Specification
 
@@ -10,6 +11,11 @@ import java.sql.Connection
 import java.sql.ResultSet
 import java.sql.ResultSetMetaData
 import java.sql.Statement
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 class DrillRepositorySpec extends Specification{
     DrillRepository drillRepository
@@ -30,7 +36,9 @@ class DrillRepositorySpec extends Specification{
         resultSet.getMetaData() >> resultSetMetaData
 
         drillRepository = new DrillRepository(
-                connectionProvider: connectionProvider)
+                connectionProvider: connectionProvider,
+                previewExecutor: MoreExecutors.sameThreadExecutor(),
+                previewCountTimeoutSeconds: 10)
     }
 
     def "getJobPreview uses 'count' query to determine row count"(){
@@ -53,4 +61,39 @@ class DrillRepositorySpec extends Specification{
         jobPreview.count == 10
     }
 
+    def "getJobPreview runs count and sample queries on separate connections and closes both"(){
+        setup:
+        PreviewSettings previewSettings = new PreviewSettings(queryIn: "select * from foo", previewCount: 3)
+        statement.executeQuery(_) >> resultSet
+        resultSet.next() >> false
+        resultSetMetaData.getColumnCount() >> 1
+
+        when:
+        drillRepository.getJobPreview(previewSettings)
+
+        then:
+        2 * connectionProvider.get() >> connection
+        2 * connection.close()
+    }
+
+    def "getJobPreview returns the sample without a count that takes too long, and cancels the count"(){
+        setup:
+        ExecutorService busyExecutor = Mock(ExecutorService)
+        Future<Integer> slowCount = Mock(Future)
+        drillRepository.previewExecutor = busyExecutor
+        PreviewSettings previewSettings = new PreviewSettings(queryIn: "select * from foo", previewCount: 3)
+        statement.executeQuery("select * from foo") >> resultSet
+        resultSet.next() >> false
+        resultSetMetaData.getColumnCount() >> 1
+
+        when:
+        JobPreview jobPreview = drillRepository.getJobPreview(previewSettings)
+
+        then:
+        1 * busyExecutor.submit(_ as Callable) >> slowCount
+        1 * slowCount.get(10, TimeUnit.SECONDS) >> { throw new TimeoutException() }
+        1 * slowCount.cancel(true)
+        jobPreview.count == null
+        jobPreview.rows == []
+    }
 }
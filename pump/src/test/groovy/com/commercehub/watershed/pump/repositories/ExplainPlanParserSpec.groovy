@@ -0,0 +1,31 @@
+package com.commercehub.watershed.pump.repositories
+
+import com.commercehub.watershed.pump.model.QueryCostEstimate
+import com.commercehub.watershed.pump.respositories.ExplainPlanParser
+import spock.lang.Specification
+
+class ExplainPlanParserSpec extends Specification {
+
+    def "parse reads rows and io from the root operator"(){
+        setup:
+        String plan = """00-00    Screen : rowType = RecordType(ANY *): rowcount = 1.2E7, cumulative cost = {2.52E7 rows, 4.9E7 cpu, 3.5E9 io, 0.0 network, 0.0 memory}, id = 42
+00-01      Project(*=[\$0]) : rowType = RecordType(ANY *): rowcount = 1.2E7, cumulative cost = {2.4E7 rows, 4.8E7 cpu, 3.5E9 io, 0.0 network, 0.0 memory}, id = 41
+00-02        Scan(groupscan=[EasyGroupScan [selectionRoot=/archive, numFiles=3]]) : rowType = RecordType(ANY *): rowcount = 1.2E7, cumulative cost = {1.2E7 rows, 1.2E7 cpu, 3.5E9 io, 0.0 network, 0.0 memory}, id = 40
+"""
+
+        when:
+        QueryCostEstimate estimate = ExplainPlanParser.parse(plan)
+
+        then:
+        estimate.estimatedRows == 12000000
+        estimate.estimatedBytes == 3500000000
+    }
+
+    def "parse fails for plans without cost estimates"(){
+        when:
+        ExplainPlanParser.parse("00-00    Screen\n00-01      Project(*=[\$0])\n")
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,64 @@
+package com.commercehub.watershed.pump.repositories
+
+import com.commercehub.watershed.pump.respositories.PreviewCursor
+import com.fasterxml.jackson.core.JsonFactory
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+
+class PreviewCursorSpec extends Specification {
+    Connection connection
+    ResultSet resultSet
+    ResultSetMetaData resultSetMetaData
+    PreviewCursor cursor
+
+    def setup() {
+        connection = Mock(Connection)
+        resultSet = Mock(ResultSet)
+        resultSetMetaData = Mock(ResultSetMetaData)
+        resultSet.getMetaData() >> resultSetMetaData
+        resultSetMetaData.getColumnCount() >> 2
+        resultSetMetaData.getColumnLabel(1) >> "id"
+        resultSetMetaData.getColumnLabel(2) >> "name"
+
+        cursor = new PreviewCursor("cursor", connection, resultSet)
+    }
+
+    def "writeRows writes one JSON object per line and stops at the page size"(){
+        setup:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        resultSet.next() >> true
+        resultSet.getString(1) >>> ["1", "2"]
+        resultSet.getString(2) >>> ["a", null]
+
+        when:
+        int written = cursor.writeRows(2, out, new JsonFactory())
+
+        then:
+        written == 2
+        out.toString("UTF-8") == '{"id":"1","name":"a"}\n{"id":"2","name":null}\n'
+        !cursor.closed
+        cursor.rowCount == 2
+        0 * connection.close()
+    }
+
+    def "writeRows closes the cursor once the results are exhausted"(){
+        setup:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        resultSet.next() >>> [true, false]
+        resultSet.getString(_) >> "x"
+
+        when:
+        int written = cursor.writeRows(5, out, new JsonFactory())
+        int writtenAfterClose = cursor.writeRows(5, out, new JsonFactory())
+
+        then:
+        written == 1
+        writtenAfterClose == 0
+        cursor.closed
+        1 * resultSet.close()
+        1 * connection.close()
+    }
+}
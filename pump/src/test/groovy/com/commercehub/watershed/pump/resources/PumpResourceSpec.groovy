@@ -4,12 +4,15 @@ import com.commercehub.watershed.pump.application.GuiceBridge
 import com.commercehub.watershed.pump.application.PumpGuiceModule
 import com.commercehub.watershed.pump.model.Job
 import com.commercehub.watershed.pump.model.JobPreview
+import com.commercehub.watershed.pump.model.PreviewCacheStats
 import com.commercehub.watershed.pump.model.PreviewSettings
 import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.respositories.PreviewCursor
 import com.commercehub.watershed.pump.service.JobService
 import com.commercehub.watershed.pump.service.SystemTimeService
 import com.commercehub.watershed.pump.service.TimeService
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.cache.CacheStats
 import com.google.inject.Guice
 import io.dropwizard.testing.junit.ResourceTestRule
 import org.junit.Rule
@@ -20,6 +23,9 @@ import javax.ws.rs.ProcessingException
 import javax.ws.rs.client.Entity
 import javax.ws.rs.core.MediaType
 import javax.ws.rs.core.Response
+import java.sql.Connection
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
 
 
 class PumpResourceSpec extends Specification {
@@ -63,6 +69,59 @@ class PumpResourceSpec extends Specification {
         response.status == 200
     }
 
+    def "GET /preview/cache returns cache statistics"(){
+        setup:
+        PreviewCacheStats stats = new PreviewCacheStats(1, new CacheStats(3, 1, 1, 0, 1000000, 0))
+
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs/preview/cache")
+                .request()
+                .get()
+
+        then:
+        1 * jobService.getPreviewCacheStats() >> stats
+        response.status == 200
+        response.readEntity(String.class) == objectMapper.writeValueAsString(stats)
+    }
+
+    def "GET /preview/cursors/{cursor_id} streams the next rows of the cursor"(){
+        setup:
+        ResultSet resultSet = Mock(ResultSet)
+        ResultSetMetaData resultSetMetaData = Mock(ResultSetMetaData)
+        resultSet.getMetaData() >> resultSetMetaData
+        resultSetMetaData.getColumnCount() >> 1
+        resultSetMetaData.getColumnLabel(1) >> "id"
+        resultSet.next() >> true
+        resultSet.getString(1) >>> ["1", "2"]
+        PreviewCursor cursor = new PreviewCursor("cursor", Mock(Connection), resultSet)
+
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs/preview/cursors/cursor")
+                .queryParam("rows", 2)
+                .request()
+                .get()
+
+        then:
+        1 * jobService.getPreviewCursor("cursor") >> cursor
+        response.status == 200
+        response.getHeaderString(PumpResource.CURSOR_ID_HEADER) == "cursor"
+        response.readEntity(String.class) == '{"id":"1"}\n{"id":"2"}\n'
+    }
+
+    def "GET /preview/cursors/{cursor_id} returns not found for unknown cursors"(){
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs/preview/cursors/unknown")
+                .request()
+                .get()
+
+        then:
+        1 * jobService.getPreviewCursor("unknown") >> null
+        response.statusInfo == Response.Status.NOT_FOUND
+    }
+
     def "POST /preview fails validation for queryIn"(){
         setup:
         PreviewSettings previewSettings = new PreviewSettings(queryIn: null, previewCount: 3)
@@ -187,6 +246,64 @@ class PumpResourceSpec extends Specification {
     }
 
 
+    /* ******************************* */
+    /*   POST /jobs/{job_id}/resume    */
+    /* ******************************* */
+
+    def "POST /jobs/{job_id}/resume is successful"(){
+        setup:
+        String jobId = UUID.randomUUID().toString()
+        Job job = new Job(timeService, jobId, new PumpSettings(queryIn: "select * from foo", streamOut: "MyStream"))
+
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs")
+                .path(jobId)
+                .path("resume")
+                .request()
+                .post(Entity.entity("", MediaType.APPLICATION_JSON))
+
+        then:
+        1 * jobService.resumeJob(jobId) >> job
+        response.status == 200
+        response.readEntity(String.class) == objectMapper.writeValueAsString(job)
+    }
+
+    def "POST /jobs/{job_id}/resume returns not found without a checkpoint"(){
+        setup:
+        String jobId = UUID.randomUUID().toString()
+
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs")
+                .path(jobId)
+                .path("resume")
+                .request()
+                .post(Entity.entity("", MediaType.APPLICATION_JSON))
+
+        then:
+        1 * jobService.resumeJob(jobId) >> null
+        response.statusInfo == Response.Status.NOT_FOUND
+    }
+
+    def "POST /jobs/{job_id}/resume returns conflict for running Jobs"(){
+        setup:
+        String jobId = UUID.randomUUID().toString()
+
+        when:
+        Response response = resources.jerseyTest.client()
+                .target("/jobs")
+                .path(jobId)
+                .path("resume")
+                .request()
+                .post(Entity.entity("", MediaType.APPLICATION_JSON))
+
+        then:
+        1 * jobService.resumeJob(jobId) >> { throw new IllegalStateException("Job is IN_PROGRESS") }
+        response.statusInfo == Response.Status.CONFLICT
+    }
+
+
     /* *************** */
     /*   GET /jobs     */
     /* *************** */
@@ -0,0 +1,158 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.model.AdmissionDecision
+import com.commercehub.watershed.pump.model.Job
+import com.commercehub.watershed.pump.model.ProcessingStage
+import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.QueryCostEstimate
+import spock.lang.Specification
+
+class AdmissionControllerSpec extends Specification {
+    PumpSettings pumpSettings = new PumpSettings(queryIn: "select * from foo", streamOut: "MyStream")
+
+    Job job(long rows, Long runtimeSeconds = null) {
+        Job job = new Job(null, UUID.randomUUID().toString(), pumpSettings)
+        QueryCostEstimate estimate = new QueryCostEstimate(rows, rows * 100)
+        if (runtimeSeconds != null) {
+            estimate.project(1, rows / runtimeSeconds)
+        }
+        job.costEstimate = estimate
+        return job
+    }
+
+    def "jobs within budget start right away"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(1000, 0, 0, 0)
+        Runnable start = Mock(Runnable)
+        Job job = job(1000)
+
+        when:
+        AdmissionDecision decision = admissionController.admit(job, start)
+
+        then:
+        decision == AdmissionDecision.ACCEPT
+        job.admissionDecision == AdmissionDecision.ACCEPT
+        1 * start.run()
+    }
+
+    def "jobs over a per-job budget are rejected"(){
+        setup:
+        Runnable start = Mock(Runnable)
+        Job job = job(rows, runtime)
+
+        when:
+        AdmissionDecision decision = admissionController.admit(job, start)
+
+        then:
+        decision == AdmissionDecision.REJECT
+        job.stage == ProcessingStage.REJECTED
+        job.processingErrors.size() == 1
+        0 * start.run()
+
+        where:
+        admissionController                        | rows | runtime
+        new AdmissionController(1000, 0, 0, 0)     | 1001 | null
+        new AdmissionController(0, 50000, 0, 0)    | 1000 | null
+        new AdmissionController(0, 0, 60, 0)       | 1000 | 100
+    }
+
+    def "jobs without an estimate are accepted when no budget is set"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 0)
+        Job job = new Job(null, "job", pumpSettings)
+
+        expect:
+        admissionController.admit(job, Mock(Runnable)) == AdmissionDecision.ACCEPT
+    }
+
+    def "jobs without an estimate are rejected when a per-job budget is set"(){
+        setup:
+        Runnable start = Mock(Runnable)
+        Job job = new Job(null, "job", pumpSettings)
+
+        when:
+        AdmissionDecision decision = admissionController.admit(job, start)
+
+        then:
+        decision == AdmissionDecision.REJECT
+        0 * start.run()
+        job.stage == ProcessingStage.REJECTED
+        job.processingErrors.size() == 1
+
+        where:
+        admissionController << [new AdmissionController(1000, 0, 0, 1000), new AdmissionController(0, 50000, 0, 0),
+                                new AdmissionController(0, 0, 60, 0)]
+    }
+
+    def "jobs without an estimate wait to run alone under the concurrent budget"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 1000)
+        Job running = job(10)
+        Job unestimated = new Job(null, "unestimated", pumpSettings)
+        Runnable start = Mock(Runnable)
+        admissionController.admit(running, Mock(Runnable))
+
+        when:
+        AdmissionDecision decision = admissionController.admit(unestimated, start)
+
+        then:
+        decision == AdmissionDecision.QUEUE
+        0 * start.run()
+
+        when:
+        admissionController.release(running)
+        AdmissionDecision next = admissionController.admit(job(10), Mock(Runnable))
+
+        then:
+        1 * start.run()
+        next == AdmissionDecision.QUEUE
+    }
+
+    def "jobs are queued until running jobs leave room in the concurrent budget"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 1000)
+        Runnable startFirst = Mock(Runnable)
+        Runnable startSecond = Mock(Runnable)
+        Runnable startThird = Mock(Runnable)
+        Job first = job(800)
+        Job second = job(500)
+        Job third = job(100)
+
+        when:
+        admissionController.admit(first, startFirst)
+        AdmissionDecision secondDecision = admissionController.admit(second, startSecond)
+        AdmissionDecision thirdDecision = admissionController.admit(third, startThird)
+
+        then:
+        1 * startFirst.run()
+        0 * startSecond.run()
+        0 * startThird.run()
+        secondDecision == AdmissionDecision.QUEUE
+        thirdDecision == AdmissionDecision.QUEUE
+        second.stage == ProcessingStage.QUEUED
+        admissionController.queuedCount == 2
+
+        when:
+        admissionController.release(first)
+        admissionController.release(first)
+
+        then:
+        1 * startSecond.run()
+        1 * startThird.run()
+        second.stage == ProcessingStage.NOT_STARTED
+        admissionController.queuedCount == 0
+    }
+
+    def "a job larger than the concurrent budget runs when nothing else is running"(){
+        setup:
+        AdmissionController admissionController = new AdmissionController(0, 0, 0, 1000)
+        Runnable start = Mock(Runnable)
+
+        when:
+        AdmissionDecision decision = admissionController.admit(job(5000), start)
+
+        then:
+        decision == AdmissionDecision.ACCEPT
+        1 * start.run()
+    }
+}
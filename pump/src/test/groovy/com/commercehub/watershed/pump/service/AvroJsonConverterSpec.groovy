@@ -0,0 +1,61 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.processing.AvroSchemaCache
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.apache.avro.Schema
+import org.apache.avro.generic.GenericRecord
+import org.skyscreamer.jsonassert.JSONAssert
+import org.skyscreamer.jsonassert.JSONCompareMode
+import spock.lang.Specification
+
+class AvroJsonConverterSpec extends Specification {
+
+    AvroSchemaCache schemaCache = new AvroSchemaCache()
+    AvroJsonConverter converter = new AvroJsonConverter(new ObjectMapper(), schemaCache)
+    Schema schema = schemaCache.parse("""{"type": "record", "name": "Order", "fields": [
+            {"name": "id", "type": "string"},
+            {"name": "note", "type": ["null", "string"], "default": null},
+            {"name": "lines", "type": {"type": "array", "items": {"type": "record", "name": "Line", "fields": [
+                {"name": "sku", "type": "string"},
+                {"name": "qty", "type": "int"}]}}},
+            {"name": "status", "type": {"type": "enum", "name": "Status", "symbols": ["OPEN", "CLOSED"]}},
+            {"name": "tags", "type": {"type": "map", "values": "long"}, "default": {}}]}""")
+
+    def "JSON records round trip through Avro"() {
+        setup:
+        String json = """{"id": "o-1", "note": "rush", "lines": [{"sku": "s", "qty": 2}], "status": "OPEN", "tags": {"a": 1}}"""
+
+        when:
+        byte[] avro = converter.fromJson(schema).apply(json.getBytes("UTF-8"))
+
+        then:
+        JSONAssert.assertEquals(json, new String(converter.toJson().apply(avro), "UTF-8"), JSONCompareMode.STRICT)
+    }
+
+    def "missing fields take their defaults"() {
+        when:
+        GenericRecord record = schemaCache.decode(converter.fromJson(schema).apply(
+                """{"id": "o-1", "lines": [], "status": "CLOSED", "extra": true}""".getBytes("UTF-8")), null)
+
+        then:
+        record.get("note") == null
+        record.get("tags") == [:]
+        record.get("status").toString() == "CLOSED"
+    }
+
+    def "records that don't fit the schema fail"(String json) {
+        when:
+        converter.fromJson(schema).apply(json.getBytes("UTF-8"))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        json << [
+                """{"lines": [], "status": "OPEN"}""",
+                """{"id": "o-1", "lines": [{"sku": "s", "qty": 2.5}], "status": "OPEN"}""",
+                """{"id": "o-1", "lines": [], "status": "LOST"}""",
+                """[1, 2]"""
+        ]
+    }
+}
@@ -0,0 +1,59 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.model.TransformSpec
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.skyscreamer.jsonassert.JSONAssert
+import org.skyscreamer.jsonassert.JSONCompareMode
+import spock.lang.Specification
+
+class CompiledTransformSpec extends Specification {
+
+    ObjectMapper objectMapper = new ObjectMapper()
+
+    def "spec is applied and replay flags are set"(String specJson, String inputJson, String expectedOutputJson) {
+        setup:
+        TransformSpec spec = objectMapper.readValue(specJson, TransformSpec)
+        CompiledTransform transform = new CompiledTransform(objectMapper.getFactory(), spec, true, false)
+
+        when:
+        String outputJson = new String(transform.apply(inputJson.getBytes("UTF-8")), "UTF-8")
+
+        then:
+        JSONAssert.assertEquals(expectedOutputJson, outputJson, JSONCompareMode.STRICT)
+
+        where:
+        specJson                                            | inputJson                                              | expectedOutputJson
+        """{"drop": ["/blob", "/a/x"]}"""                   | """{"id": 1, "blob": "zzz", "a": {"x": 1, "y": 2}}"""  | """{"id": 1, "a": {"y": 2}, "replay": true, "overwrite": false}"""
+        """{"keep": ["/id", "/a/y"]}"""                     | """{"id": 1, "blob": "zzz", "a": {"x": 1, "y": [1]}}""" | """{"id": 1, "a": {"y": [1]}, "replay": true, "overwrite": false}"""
+        """{"keep": ["/a"], "drop": ["/a/x"]}"""            | """{"id": 1, "a": {"x": 1, "y": 2}}"""                 | """{"a": {"y": 2}, "replay": true, "overwrite": false}"""
+        """{"rename": {"/a": "b", "/a/x": "z"}}"""          | """{"a": {"x": 1, "y": 2}}"""                          | """{"b": {"z": 1, "y": 2}, "replay": true, "overwrite": false}"""
+        """{"set": {"/n": 5, "/a/c": {"k": [1]}}}"""        | """{"a": {"x": 1}, "n": 1}"""                          | """{"a": {"x": 1, "c": {"k": [1]}}, "n": 5, "replay": true, "overwrite": false}"""
+        """{"set": {"/meta/source": "replay"}}"""           | """{"id": 7, "meta": "scalar"}"""                      | """{"id": 7, "meta": {"source": "replay"}, "replay": true, "overwrite": false}"""
+        """{"set": {"/meta/source": "replay"}}"""           | """{"id": 7}"""                                        | """{"id": 7, "meta": {"source": "replay"}, "replay": true, "overwrite": false}"""
+        """{"keep": ["/id"], "set": {"/source": "x"}}"""    | """{"id": 7, "replay": false, "other": 1}"""           | """{"id": 7, "source": "x", "replay": true, "overwrite": false}"""
+    }
+
+    def "records that aren't JSON objects are returned unchanged"(String input) {
+        setup:
+        CompiledTransform transform = new CompiledTransform(objectMapper.getFactory(), new TransformSpec(drop: ["/a"]), true, true)
+        byte[] bytes = input.getBytes("UTF-8")
+
+        expect:
+        transform.apply(bytes).is(bytes)
+
+        where:
+        input << ["[1, 2]", "\"foo\"", "{\"a\": ", "not json"]
+    }
+
+    def "pointers are validated"(Map<String, Object> properties, boolean valid) {
+        expect:
+        new TransformSpec(properties).isValid() == valid
+
+        where:
+        properties                         | valid
+        [drop: ["/a", "/a~1b/c"]]          | true
+        [keep: ["a"]]                      | false
+        [drop: [""]]                       | false
+        [rename: ["/a": ""]]               | false
+    }
+}
@@ -2,15 +2,29 @@ package com.commercehub.watershed.pump.service
 
 import com.commercehub.watershed.pump.application.factories.JobFactory
 import com.commercehub.watershed.pump.application.factories.JobRunnableFactory
+import com.commercehub.watershed.pump.model.AdmissionDecision
+import com.commercehub.watershed.pump.model.Checkpoint
+import com.commercehub.watershed.pump.model.CountMode
 import com.commercehub.watershed.pump.model.Job
 import com.commercehub.watershed.pump.model.JobPreview
 import com.commercehub.watershed.pump.model.PreviewSettings
+import com.commercehub.watershed.pump.model.ProcessingStage
 import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.QueryCostEstimate
 import com.commercehub.watershed.pump.processing.JobRunnable
 import com.commercehub.watershed.pump.respositories.QueryableRepository
+import com.google.common.util.concurrent.MoreExecutors
 import spock.lang.Specification
 
+import java.sql.SQLException
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 class JobServiceImplSpec extends Specification {
 
@@ -21,6 +35,8 @@ class JobServiceImplSpec extends Specification {
     QueryableRepository repository
     JobRunnable jobRunnable
     JobFactory jobFactory
+    JobCostEstimator jobCostEstimator
+    CheckpointJournal checkpointJournal
 
     PumpSettings pumpSettings = new PumpSettings(queryIn: "select * from foo", streamOut: "MyStream")
     PreviewSettings previewSettings = new PreviewSettings(queryIn: "select * from foo", previewCount: 3)
@@ -32,17 +48,28 @@ class JobServiceImplSpec extends Specification {
         executor = Mock(ExecutorService)
         repository = Mock(QueryableRepository)
         jobRunnable = Mock(JobRunnable)
+        jobCostEstimator = Mock(JobCostEstimator)
+        checkpointJournal = Mock(CheckpointJournal)
 
         jobService = new JobServiceImpl(
                 jobMap: jobMap,
                 jobRunnableFactory: jobRunnableFactory,
                 jobFactory: jobFactory,
                 executor: executor,
-                repository: repository)
+                repository: repository,
+                jobCostEstimator: jobCostEstimator,
+                admissionController: new AdmissionController(1000, 0, 0, 0),
+                previewCache: new PreviewCache(60, 10),
+                previewExecutor: MoreExecutors.sameThreadExecutor(),
+                admissionEstimateExecutor: MoreExecutors.sameThreadExecutor(),
+                checkpointJournal: checkpointJournal,
+                approximateCountSampleFiles: 4,
+                admissionEstimateTimeoutSeconds: 10)
     }
 
     def "enqueueJob queues a job with the executor and adds it to the map"(){
         setup:
+        jobCostEstimator.estimate(_) >> new QueryCostEstimate(1, 0)
         jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
 
         when:
@@ -56,6 +83,210 @@ class JobServiceImplSpec extends Specification {
         job.pumpSettings == pumpSettings
     }
 
+    def "enqueueJob records the cost estimate on the job"(){
+        setup:
+        QueryCostEstimate estimate = new QueryCostEstimate(100, 2000)
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        1 * jobCostEstimator.estimate(pumpSettings) >> estimate
+        1 * jobRunnableFactory.create(_ as Job) >> jobRunnable
+        job.costEstimate == estimate
+        job.admissionDecision == AdmissionDecision.ACCEPT
+    }
+
+    def "enqueueJob rejects jobs over budget without running them"(){
+        setup:
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+        jobCostEstimator.estimate(pumpSettings) >> new QueryCostEstimate(5000, 0)
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        0 * executor.submit(_)
+        job.stage == ProcessingStage.REJECTED
+        job.admissionDecision == AdmissionDecision.REJECT
+        job.processingErrors.size() == 1
+        jobMap.get(job.jobId) == job
+    }
+
+    def "enqueueJob rejects jobs that can't be estimated while a per-job budget is set"(){
+        setup:
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+        jobCostEstimator.estimate(pumpSettings) >> { throw new SQLException("syntax error") }
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        0 * executor.submit(_)
+        job.costEstimate == null
+        job.admissionDecision == AdmissionDecision.REJECT
+    }
+
+    def "enqueueJob admits jobs that can't be estimated when no budget is set"(){
+        setup:
+        jobService.admissionController = new AdmissionController(0, 0, 0, 0)
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+        jobCostEstimator.estimate(pumpSettings) >> { throw new SQLException("syntax error") }
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        1 * jobRunnableFactory.create(_ as Job) >> jobRunnable
+        1 * executor.submit(_ as JobRunnable)
+        job.costEstimate == null
+        job.admissionDecision == AdmissionDecision.ACCEPT
+    }
+
+    def "enqueueJob goes without an estimate that times out"(){
+        setup:
+        ExecutorService slowExecutor = Mock(ExecutorService)
+        Future<QueryCostEstimate> slowEstimate = Mock(Future)
+        jobService.admissionEstimateExecutor = slowExecutor
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        1 * slowExecutor.submit(_ as Callable) >> slowEstimate
+        1 * slowEstimate.get(10, TimeUnit.SECONDS) >> { throw new TimeoutException() }
+        1 * slowEstimate.cancel(true)
+        0 * executor.submit(_)
+        job.costEstimate == null
+        job.admissionDecision == AdmissionDecision.REJECT
+    }
+
+    def "enqueueJob doesn't wait for an estimate when too many are waiting"(){
+        setup:
+        ExecutorService fullExecutor = Mock(ExecutorService)
+        jobService.admissionEstimateExecutor = fullExecutor
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        1 * fullExecutor.submit(_ as Callable) >> { throw new RejectedExecutionException() }
+        0 * jobCostEstimator.estimate(_)
+        job.costEstimate == null
+        job.admissionDecision == AdmissionDecision.REJECT
+    }
+
+    def "enqueueJob estimates jobs while the preview executor is busy with counts"(){
+        setup:
+        ExecutorService previewExecutor = Executors.newFixedThreadPool(1)
+        CountDownLatch countFinishes = new CountDownLatch(1)
+        previewExecutor.submit({ countFinishes.await() } as Callable)
+        jobService.previewExecutor = previewExecutor
+        jobService.admissionEstimateExecutor = Executors.newFixedThreadPool(1)
+        jobFactory.create(_, _) >> new Job(null, UUID.randomUUID().toString(), pumpSettings)
+        jobCostEstimator.estimate(pumpSettings) >> new QueryCostEstimate(100, 2000)
+        jobRunnableFactory.create(_ as Job) >> jobRunnable
+
+        when:
+        Job job = jobService.enqueueJob(pumpSettings)
+
+        then:
+        job.costEstimate.estimatedRows == 100
+        job.admissionDecision == AdmissionDecision.ACCEPT
+
+        cleanup:
+        countFinishes.countDown()
+        previewExecutor.shutdown()
+        jobService.admissionEstimateExecutor.shutdown()
+    }
+
+    def "resumeJob runs the journaled checkpoint under the same job id"(){
+        setup:
+        jobCostEstimator.estimate(_) >> new QueryCostEstimate(1, 0)
+        Checkpoint checkpoint = new Checkpoint(jobId: "job1", pumpSettings: pumpSettings, watermarks: [query: 10L])
+        checkpointJournal.read("job1") >> checkpoint
+        jobFactory.create("job1", pumpSettings) >> new Job(null, "job1", pumpSettings)
+
+        when:
+        Job job = jobService.resumeJob("job1")
+
+        then:
+        1 * jobRunnableFactory.create(_ as Job) >> jobRunnable
+        1 * executor.submit(_ as JobRunnable)
+        job.jobId == "job1"
+        job.resumedFrom.is(checkpoint)
+        jobMap.get("job1") == job
+    }
+
+    def "resumeJob falls back to the checkpoint of a failed job in memory"(){
+        setup:
+        jobCostEstimator.estimate(_) >> new QueryCostEstimate(1, 0)
+        Job failed = new Job(null, "job1", pumpSettings)
+        failed.stage = ProcessingStage.COMPLETED_ERROR
+        failed.checkpoint = new Checkpoint(jobId: "job1", pumpSettings: pumpSettings)
+        jobMap.put("job1", failed)
+        jobFactory.create("job1", pumpSettings) >> new Job(null, "job1", pumpSettings)
+        jobRunnableFactory.create(_ as Job) >> jobRunnable
+
+        when:
+        Job job = jobService.resumeJob("job1")
+
+        then:
+        job.resumedFrom.is(failed.checkpoint)
+        jobMap.get("job1") == job
+    }
+
+    def "resumeJob returns null without a checkpoint, and refuses running jobs"(){
+        setup:
+        Job running = new Job(null, "running", pumpSettings)
+        running.stage = ProcessingStage.IN_PROGRESS
+        jobMap.put("running", running)
+
+        expect:
+        jobService.resumeJob("unknown") == null
+
+        when:
+        jobService.resumeJob("running")
+
+        then:
+        thrown(IllegalStateException)
+        0 * executor.submit(_)
+    }
+
+    def "resumeJob doesn't hold up other resumes while a resumed job is admitted"(){
+        setup:
+        CountDownLatch estimating = new CountDownLatch(1)
+        CountDownLatch estimated = new CountDownLatch(1)
+        Future<QueryCostEstimate> slowEstimate = [
+                get: { long timeout, TimeUnit unit -> estimating.countDown(); estimated.await(); new QueryCostEstimate(1, 0) },
+                cancel: { boolean interrupt -> true }] as Future
+        Future<QueryCostEstimate> quickEstimate = [get: { long timeout, TimeUnit unit -> new QueryCostEstimate(1, 0) }] as Future
+        Queue<Future<QueryCostEstimate>> estimates = new ArrayDeque<>([slowEstimate, quickEstimate])
+        jobService.admissionEstimateExecutor = [submit: { Callable callable -> estimates.poll() }] as ExecutorService
+        checkpointJournal.read(_) >> { String jobId -> new Checkpoint(jobId: jobId, pumpSettings: pumpSettings) }
+        jobFactory.create(_, pumpSettings) >> { String jobId, PumpSettings settings -> new Job(null, jobId, settings) }
+        jobRunnableFactory.create(_ as Job) >> jobRunnable
+        Job second = null
+
+        when:
+        Thread first = Thread.start { jobService.resumeJob("job1") }
+        estimating.await()
+        Thread other = Thread.start { second = jobService.resumeJob("job2") }
+        other.join(1000)
+
+        then:
+        !other.isAlive()
+        second.jobId == "job2"
+        second.admissionDecision == AdmissionDecision.ACCEPT
+
+        cleanup:
+        estimated.countDown()
+        first.join(1000)
+    }
+
     def "getJob returns job from jobMap"(){
         setup:
         String jobId = UUID.randomUUID().toString()
@@ -102,4 +333,77 @@ class JobServiceImplSpec extends Specification {
         1 * repository.getJobPreview(previewSettings) >> dummyJobPreview
         jobPreview == dummyJobPreview
     }
+
+    def "getJobPreview serves repeated previews from the cache"(){
+        setup:
+        JobPreview dummyJobPreview = new JobPreview(200, [["field1": "value1"]])
+        PreviewSettings reformatted = new PreviewSettings(queryIn: "  select *\n  from foo ;", previewCount: 3)
+
+        when:
+        JobPreview first = jobService.getJobPreview(previewSettings)
+        JobPreview second = jobService.getJobPreview(reformatted)
+
+        then:
+        1 * repository.getJobPreview(previewSettings) >> dummyJobPreview
+        first == dummyJobPreview
+        second == dummyJobPreview
+        jobService.previewCacheStats.hitCount == 1
+        jobService.previewCacheStats.missCount == 1
+    }
+
+    def "getJobPreview doesn't share previews with a different row count"(){
+        setup:
+        PreviewSettings morePreviewRows = new PreviewSettings(queryIn: "select * from foo", previewCount: 10)
+
+        when:
+        jobService.getJobPreview(previewSettings)
+        jobService.getJobPreview(morePreviewRows)
+
+        then:
+        1 * repository.getJobPreview(previewSettings) >> new JobPreview(200, [])
+        1 * repository.getJobPreview(morePreviewRows) >> new JobPreview(200, [])
+    }
+
+    def "getJobPreview doesn't cache previews without a count"(){
+        when:
+        JobPreview first = jobService.getJobPreview(previewSettings)
+        JobPreview second = jobService.getJobPreview(previewSettings)
+
+        then:
+        2 * repository.getJobPreview(previewSettings) >>> [new JobPreview((Integer) null, []), new JobPreview(200, [])]
+        first.count == null
+        second.count == 200
+    }
+
+    def "query normalization keeps whitespace inside literals"(){
+        expect:
+        PreviewCache.normalizeQuery(query) == normalized
+
+        where:
+        query                                       | normalized
+        "select *\n\tfrom foo;"                     | "select * from foo"
+        "select * from foo where a = 'x  y' ;;"     | "select * from foo where a = 'x  y'"
+        "select `a  b` from foo"                    | "select `a  b` from foo"
+    }
+
+    def "approximate previews estimate the count from the archive instead of counting"(){
+        setup:
+        File archive = File.createTempDir()
+        new File(archive, "a").text = '{"id":"1"}\n{"id":"2"}\n'
+        PreviewSettings approximate = new PreviewSettings(queryIn: "select * from foo", previewCount: 3,
+                countMode: CountMode.APPROXIMATE, archivePath: archive.path)
+
+        when:
+        JobPreview jobPreview = jobService.getJobPreview(approximate)
+
+        then:
+        0 * repository.getJobPreview(_)
+        1 * repository.getPreviewRows(approximate) >> [["field1": "value1"]]
+        jobPreview.count == 2
+        jobPreview.countEstimate.errorBound == 0
+        jobPreview.rows == [["field1": "value1"]]
+
+        cleanup:
+        archive.deleteDir()
+    }
 }
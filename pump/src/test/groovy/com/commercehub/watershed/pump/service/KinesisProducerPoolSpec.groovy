@@ -0,0 +1,261 @@
+package com.commercehub.watershed.pump.service
+
+import com.amazonaws.services.kinesis.producer.KinesisProducer
+import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+
+class KinesisProducerPoolSpec extends Specification {
+    KinesisProducerConfiguration configuration
+    List<KinesisProducer> producers
+    List<KinesisProducer> created
+    KinesisProducerPool pool
+    long clock = 0
+
+    def setup(){
+        configuration = new KinesisProducerConfiguration().setRegion("us-east-1")
+        // Stand in for the producers' child processes.
+        producers = (1..5).collect { Mock(KinesisProducer) }
+        created = []
+        pool = new KinesisProducerPool(configuration, 2, 1, 1000) {
+            @Override
+            protected KinesisProducer create(KinesisProducerConfiguration configuration) {
+                KinesisProducer producer = producers[created.size()]
+                created << producer
+                return producer
+            }
+
+            @Override
+            protected long now() {
+                return clock
+            }
+        }
+    }
+
+    def "warm() starts the pool's producers up front"(){
+        when:
+        pool.warm()
+
+        then:
+        created.size() == 2
+
+        when:
+        KinesisProducer producer = pool.get()
+
+        then:
+        created.size() == 2
+        created.contains(producer)
+    }
+
+    def "jobs get the shared producer with the fewest outstanding records"(){
+        setup:
+        pool.warm()
+        producers[0].getOutstandingRecordsCount() >> 500
+        producers[1].getOutstandingRecordsCount() >> 10
+
+        expect:
+        pool.get().is(producers[1])
+    }
+
+    def "producers are shared per configuration"(){
+        setup:
+        KinesisProducerConfiguration other = new KinesisProducerConfiguration().setRegion("us-west-2")
+
+        when:
+        pool.warm()
+        KinesisProducer producer = pool.get(other)
+
+        then:
+        created.size() == 3
+        producer.is(created[2])
+        KinesisProducerPool.key(configuration) == KinesisProducerPool.key(new KinesisProducerConfiguration().setRegion("us-east-1"))
+        KinesisProducerPool.key(configuration) != KinesisProducerPool.key(other)
+    }
+
+    def "tuned configurations' producers are destroyed once no job has leased them for the idle time"(){
+        setup:
+        KinesisProducerConfiguration tuned = pool.configure(250L, null, null, null)
+        KinesisProducer producer = producers[0]
+
+        when:
+        pool.lease(tuned)
+        pool.lease(tuned)
+        pool.get(tuned)
+        pool.release(tuned)
+        clock += 5000
+
+        then:
+        pool.lease(configuration).is(configuration)
+        0 * producer.destroy()
+
+        when:
+        pool.release(tuned)
+        clock += 999
+        pool.release(configuration)
+
+        then:
+        0 * producer.destroy()
+
+        when:
+        clock += 1
+        pool.lease(configuration)
+
+        then:
+        1 * producer.flushSync()
+        1 * producer.destroy()
+    }
+
+    def "jobs get the default configuration once the tuned configurations are all leased"(){
+        setup:
+        KinesisProducerConfiguration tuned = pool.configure(250L, null, null, null)
+        KinesisProducerConfiguration other = pool.configure(500L, null, null, null)
+
+        expect:
+        pool.lease(tuned).is(tuned)
+        pool.lease(other).is(configuration)
+        pool.lease(tuned).is(tuned)
+    }
+
+    def "idle tuned configurations make room for new ones at once"(){
+        setup:
+        KinesisProducerConfiguration tuned = pool.configure(250L, null, null, null)
+        KinesisProducerConfiguration other = pool.configure(500L, null, null, null)
+        pool.lease(tuned)
+        KinesisProducer producer = pool.get(tuned)
+        pool.release(tuned)
+
+        when:
+        KinesisProducerConfiguration leased = pool.lease(other)
+
+        then:
+        leased.is(other)
+        1 * producer.destroy()
+    }
+
+    def "other jobs aren't held up while a producer starts"(){
+        setup:
+        CountDownLatch starting = new CountDownLatch(1)
+        CountDownLatch started = new CountDownLatch(1)
+        KinesisProducerPool slowPool = new KinesisProducerPool(configuration, 1, 1, 1000) {
+            @Override
+            protected KinesisProducer create(KinesisProducerConfiguration configuration) {
+                starting.countDown()
+                started.await()
+                return producers[0]
+            }
+        }
+        KinesisProducerConfiguration tuned = slowPool.configure(250L, null, null, null)
+        KinesisProducer first = null
+        KinesisProducer second = null
+        KinesisProducerConfiguration leased = null
+
+        when:
+        Thread job = Thread.start { first = slowPool.get() }
+        starting.await()
+        Thread other = Thread.start { leased = slowPool.lease(tuned); slowPool.release(tuned) }
+        other.join(1000)
+
+        then:
+        !other.isAlive()
+        leased.is(tuned)
+        job.isAlive()
+
+        when:
+        Thread waiting = Thread.start { second = slowPool.get() }
+        started.countDown()
+        job.join(1000)
+        waiting.join(1000)
+
+        then:
+        first.is(producers[0])
+        second.is(producers[0])
+
+        cleanup:
+        started.countDown()
+    }
+
+    def "other jobs aren't held up while an idle configuration's producers are flushed"(){
+        setup:
+        KinesisProducerConfiguration tuned = pool.configure(250L, null, null, null)
+        pool.lease(tuned)
+        KinesisProducer idle = pool.get(tuned)
+        pool.release(tuned)
+        clock += 1000
+        KinesisProducer gotWhileFlushing = null
+
+        when:
+        pool.lease(configuration)
+
+        then:
+        1 * idle.flushSync() >> {
+            // Another job asks for a producer while the idle one is being flushed.
+            KinesisProducer got = null
+            Thread other = Thread.start { got = pool.get() }
+            other.join(1000)
+            gotWhileFlushing = got
+        }
+
+        then:
+        1 * idle.destroy()
+        gotWhileFlushing.is(producers[1])
+    }
+
+    def "configure() tunes a copy of the default configuration"(){
+        setup:
+        configuration.setRecordTtl(60000).setRateLimit(95)
+
+        when:
+        KinesisProducerConfiguration tuned = pool.configure(250L, null, 50L, null)
+
+        then:
+        tuned.region == "us-east-1"
+        tuned.recordTtl == 60000
+        tuned.rateLimit == 95
+        tuned.recordMaxBufferedTime == 250
+        tuned.aggregationMaxSize == configuration.aggregationMaxSize
+        tuned.collectionMaxCount == 50
+        tuned.maxConnections == configuration.maxConnections
+        KinesisProducerPool.key(tuned) != KinesisProducerPool.key(configuration)
+        KinesisProducerPool.key(pool.configure(null, null, null, null)) == KinesisProducerPool.key(configuration)
+    }
+
+    def "failed producers are destroyed and replaced"(){
+        setup:
+        pool.warm()
+        KinesisProducer failed = created[0]
+
+        when:
+        pool.invalidate(failed)
+
+        then:
+        1 * failed.destroy()
+
+        when:
+        KinesisProducer replacement = pool.get()
+
+        then:
+        created.size() == 3
+        replacement.is(created[2])
+    }
+
+    def "shutdown() flushes and destroys every producer"(){
+        setup:
+        pool.warm()
+
+        when:
+        pool.shutdown()
+
+        then:
+        1 * producers[0].flushSync()
+        1 * producers[0].destroy()
+        1 * producers[1].flushSync()
+        1 * producers[1].destroy()
+
+        when:
+        pool.get()
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
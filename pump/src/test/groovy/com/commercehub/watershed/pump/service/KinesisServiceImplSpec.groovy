@@ -2,6 +2,7 @@ package com.commercehub.watershed.pump.service
 
 import com.amazonaws.services.kinesis.AmazonKinesisClient
 import com.amazonaws.services.kinesis.model.DescribeStreamResult
+import com.amazonaws.services.kinesis.model.SequenceNumberRange
 import com.amazonaws.services.kinesis.model.Shard
 import com.amazonaws.services.kinesis.model.StreamDescription
 import spock.lang.Specification
@@ -56,4 +57,25 @@ class KinesisServiceImplSpec extends Specification{
         1 * streamDescription.isHasMoreShards() >> false
         numShards == 3
     }
+
+    def "listOpenShards pages through the stream, skipping closed shards"(){
+        setup:
+        Shard closed = new Shard().withShardId("shard-0").withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("1").withEndingSequenceNumber("9"))
+        Shard open = new Shard().withShardId("shard-1").withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("10"))
+        Shard child = new Shard().withShardId("shard-2").withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber("11"))
+
+        when:
+        List<Shard> shards = kinesisService.listOpenShards("my_stream")
+
+        then:
+        1 * kinesisClient.describeStream("my_stream") >> describeStreamResult
+        1 * streamDescription.getShards() >> [closed, open]
+        1 * streamDescription.isHasMoreShards() >> true
+
+        then:
+        1 * kinesisClient.describeStream("my_stream", "shard-1") >> describeStreamResult
+        1 * streamDescription.getShards() >> [child]
+        1 * streamDescription.isHasMoreShards() >> false
+        shards == [open, child]
+    }
 }
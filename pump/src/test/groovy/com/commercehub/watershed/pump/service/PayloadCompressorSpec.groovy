@@ -0,0 +1,100 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.model.CompressionStats
+import com.commercehub.watershed.pump.model.PayloadCompression
+import com.commercehub.watershed.pump.model.PayloadStats
+import com.commercehub.watershed.pump.processing.PayloadBufferPool
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class PayloadCompressorSpec extends Specification {
+
+    CompressionStats stats = new CompressionStats()
+    byte[] record = ('{"orderId": "o-1", "status": "OPEN", "lines": [' +
+            (1..20).collect { """{"sku": "sku-$it", "qty": $it, "price": 9.99}""" }.join(", ") + ']}').getBytes("UTF-8")
+
+    def "payloads round trip through each codec"(PayloadCompression compression, Integer level) {
+        setup:
+        PayloadCompressor compressor = new PayloadCompressor(compression, level, null, stats)
+
+        when:
+        byte[] compressed = compressor.apply(record)
+
+        then:
+        compressed[0] == PayloadCompressor.MARKER
+        compressed[1] == compression.id
+        compressed.length < record.length
+        PayloadCompressor.decompress(compressed, null) == record
+        stats.recordCount == 1
+        stats.uncompressedBytes == record.length
+        stats.compressedBytes == compressed.length
+        stats.compression == compression
+
+        where:
+        compression              | level
+        PayloadCompression.GZIP  | null
+        PayloadCompression.GZIP  | 9
+        PayloadCompression.LZ4   | null
+        PayloadCompression.LZ4   | 9
+        PayloadCompression.ZSTD  | null
+        PayloadCompression.ZSTD  | 19
+    }
+
+    def "pooled buffers are compressed like arrays"(boolean direct) {
+        setup:
+        PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.ZSTD, null, null, stats)
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, direct, new PayloadStats())
+        ByteBuffer input = pool.acquire(record.length)
+        input.put(record).flip()
+
+        when:
+        ByteBuffer output = compressor.transform(input, pool)
+
+        then:
+        PayloadCompressor.decompress(PayloadBufferPool.toArray(output), null) == record
+        output.isDirect() == direct
+
+        where:
+        direct << [false, true]
+    }
+
+    def "a dictionary trained from sample records compresses small records better"() {
+        setup:
+        List<byte[]> samples = (1..500).collect { i ->
+            """{"orderId": "o-$i", "customer": {"name": "customer-${i % 17}", "tier": "GOLD"}, "status": "OPEN", "total": ${i * 3}.25}""".getBytes("UTF-8")
+        }
+        byte[] dictionary = PayloadCompressor.trainDictionary(samples, 4096)
+        byte[] small = """{"orderId": "o-9999", "customer": {"name": "customer-3", "tier": "GOLD"}, "status": "OPEN", "total": 17.25}""".getBytes("UTF-8")
+
+        when:
+        byte[] withDictionary = new PayloadCompressor(PayloadCompression.ZSTD, null, dictionary, stats).apply(small)
+        byte[] withoutDictionary = new PayloadCompressor(PayloadCompression.ZSTD, null, null, new CompressionStats()).apply(small)
+
+        then:
+        dictionary != null
+        withDictionary.length < withoutDictionary.length
+        PayloadCompressor.decompress(withDictionary, dictionary) == small
+        stats.dictionary == dictionary
+        stats.dictionaryId == PayloadCompressor.dictionaryId(dictionary)
+        stats.dictionaryId != 0
+    }
+
+    def "too few samples train no dictionary"() {
+        expect:
+        PayloadCompressor.trainDictionary([], 4096) == null
+    }
+
+    def "payloads without an envelope are returned unchanged"() {
+        expect:
+        PayloadCompressor.decompress(record, null).is(record)
+    }
+
+    def "NONE has no compressor"() {
+        when:
+        new PayloadCompressor(PayloadCompression.NONE, null, null, stats)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
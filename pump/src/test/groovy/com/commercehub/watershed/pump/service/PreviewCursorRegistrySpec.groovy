@@ -0,0 +1,143 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.model.PreviewSettings
+import com.commercehub.watershed.pump.respositories.PreviewCursor
+import com.commercehub.watershed.pump.respositories.QueryableRepository
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.ResultSet
+import java.sql.ResultSetMetaData
+import java.sql.SQLException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class PreviewCursorRegistrySpec extends Specification {
+    QueryableRepository repository
+    Connection connection
+    ResultSet resultSet
+    PreviewSettings previewSettings = new PreviewSettings(queryIn: "select * from foo", previewCount: 3)
+
+    def setup() {
+        repository = Mock(QueryableRepository)
+        connection = Mock(Connection)
+        resultSet = Mock(ResultSet)
+        ResultSetMetaData resultSetMetaData = Mock(ResultSetMetaData)
+        resultSet.getMetaData() >> resultSetMetaData
+        resultSetMetaData.getColumnCount() >> 0
+    }
+
+    def "open registers the cursor under its id"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 2)
+        PreviewCursor cursor = new PreviewCursor("cursor", connection, resultSet)
+
+        when:
+        PreviewCursor opened = registry.open(previewSettings)
+
+        then:
+        1 * repository.openCursor(_, "select * from foo", 3) >> cursor
+        opened == cursor
+        registry.get("cursor") == cursor
+    }
+
+    def "open refuses new cursors when the maximum is open"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 1)
+
+        when:
+        registry.open(previewSettings)
+        PreviewCursor refused = registry.open(previewSettings)
+
+        then:
+        1 * repository.openCursor(*_) >> new PreviewCursor("cursor", connection, resultSet)
+        refused == null
+    }
+
+    def "cursors still being opened count against the maximum"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 1)
+        CountDownLatch opening = new CountDownLatch(1)
+        CountDownLatch opened = new CountDownLatch(1)
+        repository.openCursor(*_) >> {
+            opening.countDown()
+            opened.await(5, TimeUnit.SECONDS)
+            new PreviewCursor("cursor", connection, resultSet)
+        }
+
+        when:
+        Thread first = Thread.start { registry.open(previewSettings) }
+        opening.await(5, TimeUnit.SECONDS)
+        PreviewCursor refused = registry.open(previewSettings)
+        opened.countDown()
+        first.join(5000)
+
+        then:
+        refused == null
+        registry.size() == 1
+    }
+
+    def "a cursor that fails to open gives its place back"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 1)
+        repository.openCursor(*_) >> { throw new SQLException("boom") } >> new PreviewCursor("cursor", connection, resultSet)
+
+        when:
+        registry.open(previewSettings)
+
+        then:
+        thrown(SQLException)
+
+        when:
+        PreviewCursor cursor = registry.open(previewSettings)
+
+        then:
+        cursor != null
+        registry.size() == 1
+    }
+
+    def "shutdown closes every open cursor"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 2)
+        repository.openCursor(*_) >> new PreviewCursor("cursor", connection, resultSet)
+        registry.open(previewSettings)
+
+        when:
+        registry.shutdown()
+
+        then:
+        1 * connection.close()
+        registry.size() == 0
+    }
+
+    def "idle cursors are closed and forgotten"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 0, 2)
+        repository.openCursor(*_) >> new PreviewCursor("cursor", connection, resultSet)
+        registry.open(previewSettings)
+        Thread.sleep(5)
+
+        when:
+        registry.evictIdle()
+
+        then:
+        1 * connection.close()
+        registry.size() == 0
+        registry.get("cursor") == null
+    }
+
+    def "close closes the cursor"(){
+        setup:
+        PreviewCursorRegistry registry = new PreviewCursorRegistry(repository, 60, 2)
+        repository.openCursor(*_) >> new PreviewCursor("cursor", connection, resultSet)
+        registry.open(previewSettings)
+
+        when:
+        boolean closed = registry.close("cursor")
+
+        then:
+        closed
+        1 * connection.close()
+        !registry.close("cursor")
+    }
+}
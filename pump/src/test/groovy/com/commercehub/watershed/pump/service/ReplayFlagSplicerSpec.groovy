@@ -0,0 +1,127 @@
+package com.commercehub.watershed.pump.service
+
+import com.commercehub.watershed.pump.model.PayloadStats
+import com.commercehub.watershed.pump.processing.PayloadBufferPool
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.base.Function
+import org.skyscreamer.jsonassert.JSONAssert
+import org.skyscreamer.jsonassert.JSONCompareMode
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class ReplayFlagSplicerSpec extends Specification {
+
+    ObjectMapper objectMapper = new ObjectMapper()
+    Function<byte[], byte[]> fallback = Mock(Function)
+
+    def "output matches the tree transform"(String inputJson) {
+        setup:
+        Function<byte[], byte[]> tree = new TransformerFunctionFactoryImpl(objectMapper: objectMapper).treeReplayFlagTransformFunction(true, false)
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), true, false, fallback)
+
+        when:
+        String splicedJson = new String(splicer.apply(inputJson.getBytes("UTF-8")), "UTF-8")
+
+        then:
+        JSONAssert.assertEquals(new String(tree.apply(inputJson.getBytes("UTF-8")), "UTF-8"), splicedJson, JSONCompareMode.STRICT)
+        0 * fallback.apply(_)
+
+        where:
+        inputJson << [
+                """{}""",
+                """ { } """,
+                """{"foo": 1}""",
+                """{"replay": true, "foo": 1}""",
+                """{"foo": 1, "overwrite": false, "bar": [1, {"replay": true}]}""",
+                """{"foo": {"bar": "}{,\\"", "baz": []}, "replay": false}""",
+                """{\n  "foo" : "café",\n  "bar" : null\n}\n"""
+        ]
+    }
+
+    def "kept fields are copied verbatim"() {
+        setup:
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), false, true, fallback)
+
+        expect:
+        new String(splicer.apply("""{"foo" : 1.50, "replay": true, "bar": {"a" : [ ]}}""".getBytes("UTF-8")), "UTF-8") ==
+                """{"foo" : 1.50,"bar": {"a" : [ ]},"replay":false,"overwrite":true}"""
+    }
+
+    def "records that aren't JSON objects are returned unchanged"(String input) {
+        setup:
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), true, true, fallback)
+        byte[] bytes = input.getBytes("UTF-8")
+
+        expect:
+        splicer.apply(bytes).is(bytes)
+
+        where:
+        input << ["[1, 2]", "\"foo\"", "{\"foo\": ", "not json"]
+    }
+
+    def "records that aren't UTF-8 go through the fallback"() {
+        setup:
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), true, true, fallback)
+        byte[] input = """{"foo": 1}""".getBytes("UTF-16BE")
+        byte[] output = "fallback".getBytes("UTF-8")
+
+        when:
+        byte[] result = splicer.apply(input)
+
+        then:
+        1 * fallback.apply(input) >> output
+        result.is(output)
+    }
+
+    def "pooled heap and direct buffers are spliced like arrays"(boolean direct) {
+        setup:
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), true, false, fallback)
+        PayloadBufferPool pool = new PayloadBufferPool(1024 * 1024, direct, new PayloadStats())
+        byte[] record = """{"foo": [1, 2], "replay": false, "bar": "baz"}""".getBytes("UTF-8")
+        ByteBuffer input = pool.acquire(record.length + 4)
+        input.put("xxxx".getBytes("UTF-8")).put(record).flip().position(4)
+
+        when:
+        ByteBuffer output = splicer.transform(input, pool)
+
+        then:
+        new String(PayloadBufferPool.toArray(output), "UTF-8") == new String(splicer.apply(record), "UTF-8")
+        output.isDirect() == direct
+        input.position() == 4
+
+        where:
+        direct << [false, true]
+    }
+
+    @Requires({ System.getProperty("pump.benchmark") })
+    def "benchmark spliced and tree transforms"(int fieldCount) {
+        setup:
+        Function<byte[], byte[]> tree = new TransformerFunctionFactoryImpl(objectMapper: objectMapper).treeReplayFlagTransformFunction(true, true)
+        ReplayFlagSplicer splicer = new ReplayFlagSplicer(objectMapper.getFactory(), true, true, tree)
+        Map<String, Object> record = [replay: false]
+        fieldCount.times { record["field" + it] = [id: it, name: "name-" + it, tags: ["a", "b"]] }
+        byte[] input = objectMapper.writeValueAsBytes(record)
+
+        when:
+        long treeNanos = time(tree, input)
+        long spliceNanos = time(splicer, input)
+        println "${input.length} byte record: tree ${treeNanos / 1000} us/record, splice ${spliceNanos / 1000} us/record"
+
+        then:
+        objectMapper.readTree(splicer.apply(input)) == objectMapper.readTree(tree.apply(input))
+        spliceNanos < treeNanos
+
+        where:
+        fieldCount << [20, 160]
+    }
+
+    private static long time(Function<byte[], byte[]> function, byte[] input) {
+        int iterations = 20000
+        iterations.times { function.apply(input) }
+        long start = System.nanoTime()
+        iterations.times { function.apply(input) }
+        return (System.nanoTime() - start).intdiv(iterations)
+    }
+}
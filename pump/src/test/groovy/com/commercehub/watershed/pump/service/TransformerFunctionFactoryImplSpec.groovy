@@ -2,8 +2,16 @@ package com.commercehub.watershed.pump.service
 
 import com.commercehub.watershed.pump.application.GuiceBridge
 import com.commercehub.watershed.pump.application.PumpGuiceModule
+import com.commercehub.watershed.pump.model.PumpSettings
+import com.commercehub.watershed.pump.model.RecordFormat
+import com.commercehub.watershed.pump.model.RecordSource
+import com.commercehub.watershed.pump.model.TransformSpec
+import com.commercehub.watershed.pump.processing.AvroSchemaCache
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.inject.Guice
+import org.apache.avro.Schema
+import org.apache.avro.generic.GenericData
+import org.apache.avro.generic.GenericRecord
 import org.skyscreamer.jsonassert.JSONAssert
 import org.skyscreamer.jsonassert.JSONCompareMode
 import spock.lang.Specification
@@ -56,4 +64,55 @@ class TransformerFunctionFactoryImplSpec extends Specification {
         true          | false
         false         | false
     }
+
+    def "transform spec is applied along with the replay flags"() {
+        setup:
+        PumpSettings pumpSettings = new PumpSettings(hasReplayFlag: true, hasOverwriteFlag: false,
+                transform: new TransformSpec(drop: ["/bar"], rename: ["/foo": "baz"]))
+
+        when:
+        String outputJson = new String(transformerFunctionFactory.getTransformFunction(pumpSettings, new AvroSchemaCache()).apply("""{"foo": 1, "bar": "two"}""".getBytes("UTF-8")), "UTF-8")
+
+        then:
+        JSONAssert.assertEquals("""{"baz": 1, "replay": true, "overwrite": false}""", outputJson, JSONCompareMode.STRICT)
+    }
+
+    def "only the replay flags are set without a transform spec"() {
+        setup:
+        PumpSettings pumpSettings = new PumpSettings(hasReplayFlag: false, hasOverwriteFlag: true)
+
+        expect:
+        transformerFunctionFactory.getTransformFunction(pumpSettings, new AvroSchemaCache()) instanceof ReplayFlagSplicer
+    }
+
+    def "JSON records are emitted as Avro with the replay flags"() {
+        setup:
+        AvroSchemaCache schemaCache = new AvroSchemaCache()
+        PumpSettings pumpSettings = new PumpSettings(hasReplayFlag: true, hasOverwriteFlag: false, emitFormat: RecordFormat.AVRO,
+                avroSchema: """{"type": "record", "name": "Order", "fields": [{"name": "id", "type": "long"}]}""",
+                transform: new TransformSpec(drop: ["/extra"]))
+
+        when:
+        byte[] output = transformerFunctionFactory.getTransformFunction(pumpSettings, schemaCache).apply("""{"id": 7, "extra": "x"}""".getBytes("UTF-8"))
+
+        then:
+        JSONAssert.assertEquals("""{"id": 7, "replay": true, "overwrite": false}""",
+                schemaCache.decode(output, null).toString(), JSONCompareMode.STRICT)
+    }
+
+    def "Avro records are emitted as JSON with the replay flags"() {
+        setup:
+        AvroSchemaCache schemaCache = new AvroSchemaCache()
+        PumpSettings pumpSettings = new PumpSettings(hasReplayFlag: false, hasOverwriteFlag: true, sourceFormat: RecordFormat.AVRO,
+                recordSource: RecordSource.ARCHIVE, archivePath: "/archive")
+        Schema schema = schemaCache.parse("""{"type": "record", "name": "Order", "fields": [{"name": "id", "type": "long"}]}""")
+        GenericRecord record = new GenericData.Record(schema)
+        record.put("id", 7L)
+
+        when:
+        byte[] output = transformerFunctionFactory.getTransformFunction(pumpSettings, schemaCache).apply(schemaCache.encode(record))
+
+        then:
+        JSONAssert.assertEquals("""{"id": 7, "replay": false, "overwrite": true}""", new String(output, "UTF-8"), JSONCompareMode.STRICT)
+    }
 }
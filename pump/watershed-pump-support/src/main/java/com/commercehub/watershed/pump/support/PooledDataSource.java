@@ -0,0 +1,507 @@
+package com.commercehub.watershed.pump.support;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Pool of Drill connections. Connections are validated when borrowed, evicted after sitting idle, and
+ * borrowed connections that are held for too long are logged as possible leaks.
+ *
+ * Borrowed connections are proxies: closing one closes the statements created through it and returns the
+ * underlying connection to the pool.
+ */
+public class PooledDataSource implements javax.sql.DataSource, Closeable {
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(PooledDataSource.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource dataSource;
+    private final String username;
+    private final String password;
+    private final int minIdle;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final String validationQuery;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed = false;
+
+    /**
+     *
+     * @param driverClass                   JDBC driver class
+     * @param jdbcUrl                       JDBC url
+     * @param username                      user pooled connections are opened as, or null to open them without
+     *                                      credentials
+     * @param password                      password pooled connections are opened with
+     * @param maxSize                       maximum number of open connections
+     * @param minIdle                       number of idle connections kept open, starting at construction
+     * @param idleTimeoutMillis             idle connections above minIdle are closed after this long
+     * @param borrowTimeoutMillis           how long getConnection() waits for a connection when the pool is exhausted
+     * @param leakDetectionThresholdMillis  borrowed connections held longer than this are logged (0 disables)
+     * @param validationQuery               query run against idle connections when borrowed, or null to use
+     *                                      {@link Connection#isValid(int)}
+     * @throws ClassNotFoundException
+     */
+    public PooledDataSource(String driverClass, String jdbcUrl, String username, String password,
+                            int maxSize, int minIdle, long idleTimeoutMillis, long borrowTimeoutMillis,
+                            long leakDetectionThresholdMillis, String validationQuery) throws ClassNotFoundException {
+        if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: maxSize=" + maxSize + ", minIdle=" + minIdle);
+        }
+
+        this.dataSource = new DataSource(driverClass, jdbcUrl);
+        this.username = username;
+        this.password = password;
+        this.minIdle = minIdle;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.validationQuery = validationQuery;
+        this.permits = new Semaphore(maxSize, true);
+
+        warmUp();
+
+        long housekeepingMillis = Math.max(1000, Math.min(idleTimeoutMillis,
+                leakDetectionThresholdMillis > 0 ? leakDetectionThresholdMillis : Long.MAX_VALUE) / 2);
+        housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "drill-pool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        housekeeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                    detectLeaks();
+                    warmUp();
+                }
+                catch (RuntimeException e) {
+                    log.warn("Connection pool housekeeping failed.", e);
+                }
+            }
+        }, housekeepingMillis, housekeepingMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, opening one if no valid idle connection is available.
+     *
+     * @return a pooled connection, returned to the pool when closed
+     * @throws SQLException if the pool is closed, no connection becomes available within the borrow timeout or a
+     *                      new connection can't be opened
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a pooled connection.");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (validate(pooled.connection)) {
+                    break;
+                }
+                closeQuietly(pooled.connection);
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(open());
+            }
+
+            pooled.borrowed(new Exception("Connection borrowed here"));
+            borrowed.add(pooled);
+            return pooled.proxy();
+        }
+        catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an unpooled connection for credentials other than the pool's.
+     * {@inheritDoc}
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (eq(this.username, username) && eq(this.password, password)) {
+            return getConnection();
+        }
+        return dataSource.getConnection(username, password);
+    }
+
+    /**
+     * Closes idle connections and stops housekeeping. Borrowed connections are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.connection);
+        }
+    }
+
+    /**
+     *
+     * @return number of connections currently borrowed
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     *
+     * @return number of open connections waiting in the pool
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     *
+     * @return number of borrowed connections logged as possible leaks
+     */
+    public int getSuspectedLeakCount() {
+        int count = 0;
+        for (PooledConnection pooled : borrowed) {
+            if (pooled.leakReported) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+
+        boolean reusable = !broken && !closed;
+        if (reusable) {
+            try {
+                reusable = !pooled.connection.isClosed();
+            }
+            catch (SQLException e) {
+                reusable = false;
+            }
+        }
+
+        if (reusable) {
+            pooled.returned();
+            idle.offerFirst(pooled);
+            // The pool may have been closed while this connection was being returned.
+            if (closed && idle.remove(pooled)) {
+                closeQuietly(pooled.connection);
+            }
+        }
+        else {
+            closeQuietly(pooled.connection);
+        }
+        permits.release();
+    }
+
+    private Connection open() throws SQLException {
+        return username != null ? dataSource.getConnection(username, password) : dataSource.getConnection();
+    }
+
+    private boolean validate(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (validationQuery == null) {
+                return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+
+            Statement statement = connection.createStatement();
+            try {
+                try {
+                    statement.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+                }
+                catch (SQLFeatureNotSupportedException e) {
+                    // Not every Drill driver version supports query timeouts.
+                }
+                statement.executeQuery(validationQuery).close();
+                return true;
+            }
+            finally {
+                statement.close();
+            }
+        }
+        catch (SQLException | RuntimeException e) {
+            log.info("Discarding pooled connection that failed validation: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Opens connections until minIdle are idle. Failures are logged; the next housekeeping run retries.
+     */
+    private void warmUp() {
+        while (!closed && idle.size() < minIdle && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = new PooledConnection(open());
+                pooled.returned();
+                idle.offerLast(pooled);
+            }
+            catch (SQLException | RuntimeException e) {
+                log.warn("Could not open an idle pooled connection: " + e.getMessage());
+                return;
+            }
+            finally {
+                permits.release();
+            }
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> expired = new ArrayList<>();
+        // Most recently returned connections are at the head, so the longest idle sit at the tail.
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        int excess = idle.size() - minIdle;
+        while (excess > 0 && iterator.hasNext()) {
+            PooledConnection pooled = iterator.next();
+            if (now - pooled.lastReturned < idleTimeoutMillis) {
+                break;
+            }
+            if (idle.remove(pooled)) {
+                expired.add(pooled);
+                excess--;
+            }
+        }
+
+        for (PooledConnection pooled : expired) {
+            closeQuietly(pooled.connection);
+        }
+        if (!expired.isEmpty()) {
+            log.debug("Evicted " + expired.size() + " idle pooled connection(s).");
+        }
+    }
+
+    private void detectLeaks() {
+        if (leakDetectionThresholdMillis <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.lastBorrowed > leakDetectionThresholdMillis) {
+                pooled.leakReported = true;
+                log.warn("Pooled connection has been borrowed for " + (now - pooled.lastBorrowed) + "ms, possible leak.",
+                        pooled.borrowedAt);
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (Exception e) {
+            log.warn("Failed to close pooled connection.", e);
+        }
+    }
+
+    private static boolean eq(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * A physical connection and the state of its current borrow.
+     */
+    private class PooledConnection {
+        private final Connection connection;
+        private volatile long lastBorrowed;
+        private volatile long lastReturned;
+        private volatile Exception borrowedAt;
+        private volatile boolean leakReported;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        void borrowed(Exception borrowedAt) {
+            this.lastBorrowed = System.currentTimeMillis();
+            this.borrowedAt = borrowedAt;
+            this.leakReported = false;
+        }
+
+        void returned() {
+            this.lastReturned = System.currentTimeMillis();
+            this.borrowedAt = null;
+        }
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new BorrowHandler(this));
+        }
+    }
+
+    /**
+     * Handles calls on a borrowed connection. Valid until closed; closing returns the connection to the pool.
+     */
+    private class BorrowHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final List<Statement> statements = new ArrayList<>();
+        private boolean returned = false;
+        private boolean broken = false;
+
+        BorrowHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        closeStatements();
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + (returned ? "[returned]" : "[" + pooled.connection + "]");
+                case "unwrap":
+                case "isWrapperFor":
+                    break;
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has been returned to the pool.");
+                    }
+            }
+
+            try {
+                Object result = method.invoke(pooled.connection, args);
+                if (result instanceof Statement) {
+                    statements.add((Statement) result);
+                }
+                return result;
+            }
+            catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException && pooled.connection.isClosed()) {
+                    broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+
+        private void closeStatements() {
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                }
+                catch (Exception e) {
+                    log.debug("Failed to close statement of a returned connection.", e);
+                }
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+}
@@ -0,0 +1,149 @@
+package com.commercehub.watershed.pump.support
+
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.sql.Connection
+import java.sql.SQLException
+
+class PooledDataSourceSpec extends Specification {
+    PooledDataSource pool
+    PollingConditions conditions
+
+    def setup() {
+        StubDriver.opened.clear()
+        conditions = new PollingConditions(timeout: 5)
+    }
+
+    def cleanup() {
+        pool?.close()
+    }
+
+    def "returned connections are reused"(){
+        setup:
+        pool = newPool()
+
+        when:
+        Connection first = pool.getConnection()
+        first.close()
+        Connection second = pool.getConnection()
+
+        then:
+        first.isClosed()
+        !second.isClosed()
+        StubDriver.opened.size() == 1
+        !StubDriver.opened[0].closed
+        pool.activeCount == 1
+        pool.idleCount == 0
+    }
+
+    def "borrowing from an exhausted pool times out"(){
+        setup:
+        pool = newPool(maxSize: 1, borrowTimeoutMillis: 100L)
+        Connection borrowed = pool.getConnection()
+
+        when:
+        pool.getConnection()
+
+        then:
+        SQLException e = thrown()
+        e.message.contains("Timed out")
+
+        when:
+        borrowed.close()
+        Connection next = pool.getConnection()
+
+        then:
+        !next.isClosed()
+        StubDriver.opened.size() == 1
+    }
+
+    def "idle connections above minIdle are evicted"(){
+        setup:
+        pool = newPool(minIdle: 1, idleTimeoutMillis: 100L)
+
+        when:
+        Connection first = pool.getConnection()
+        Connection second = pool.getConnection()
+        first.close()
+        second.close()
+
+        then:
+        StubDriver.opened.size() == 2
+        pool.idleCount == 2
+        conditions.eventually {
+            assert pool.idleCount == 1
+            assert StubDriver.opened.count { it.closed } == 1
+        }
+    }
+
+    @Unroll
+    def "connections failing validation are replaced when validated with #validationQuery"(){
+        setup:
+        pool = newPool(validationQuery: validationQuery)
+        pool.getConnection().close()
+        StubDriver.opened[0].valid = false
+
+        when:
+        Connection connection = pool.getConnection()
+
+        then:
+        !connection.isClosed()
+        StubDriver.opened.size() == 2
+        StubDriver.opened[0].closed
+        !StubDriver.opened[1].closed
+
+        where:
+        validationQuery << [null, "SELECT 1 FROM (VALUES(1))"]
+    }
+
+    def "connections held past the leak detection threshold are reported"(){
+        setup:
+        pool = newPool(leakDetectionThresholdMillis: 50L)
+
+        when:
+        Connection connection = pool.getConnection()
+
+        then:
+        conditions.eventually {
+            assert pool.suspectedLeakCount == 1
+        }
+
+        when:
+        connection.close()
+
+        then:
+        pool.suspectedLeakCount == 0
+        pool.activeCount == 0
+    }
+
+    @Unroll
+    def "connections are opened as user #username"(){
+        setup:
+        pool = newPool(username: username)
+
+        when:
+        pool.getConnection()
+
+        then:
+        StubDriver.opened[0].user == username
+
+        where:
+        username << ["drill", null]
+    }
+
+    private static PooledDataSource newPool(Map settings = [:]) {
+        return new PooledDataSource(
+                StubDriver.name,
+                StubDriver.URL,
+                settings.containsKey("username") ? settings.username : "drill",
+                "secret",
+                settings.maxSize ?: 2,
+                settings.minIdle ?: 0,
+                settings.idleTimeoutMillis ?: 600000L,
+                settings.borrowTimeoutMillis ?: 1000L,
+                settings.leakDetectionThresholdMillis ?: 0L,
+                settings.validationQuery)
+    }
+}
@@ -0,0 +1,89 @@
+package com.commercehub.watershed.pump.support
+
+import java.sql.Connection
+import java.sql.Driver
+import java.sql.DriverManager
+import java.sql.DriverPropertyInfo
+import java.sql.ResultSet
+import java.sql.SQLException
+import java.sql.SQLFeatureNotSupportedException
+import java.sql.Statement
+import java.util.logging.Logger
+
+/**
+ * JDBC driver whose connections only track whether they are open and valid.
+ */
+class StubDriver implements Driver {
+    static final String URL = "jdbc:stub:pool"
+    static final List<StubConnection> opened = Collections.synchronizedList([])
+
+    static {
+        DriverManager.registerDriver(new StubDriver())
+    }
+
+    @Override
+    Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null
+        }
+        StubConnection connection = new StubConnection(user: info.getProperty("user"))
+        opened << connection
+        return connection.connection
+    }
+
+    @Override
+    boolean acceptsURL(String url) throws SQLException {
+        return url == URL
+    }
+
+    @Override
+    DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0]
+    }
+
+    @Override
+    int getMajorVersion() {
+        return 1
+    }
+
+    @Override
+    int getMinorVersion() {
+        return 0
+    }
+
+    @Override
+    boolean jdbcCompliant() {
+        return false
+    }
+
+    @Override
+    Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException()
+    }
+
+    static class StubConnection {
+        String user
+        volatile boolean closed = false
+        volatile boolean valid = true
+
+        Connection connection = [
+                close          : { closed = true },
+                isClosed       : { closed },
+                isValid        : { int timeout -> valid },
+                createStatement: { statement() }
+        ] as Connection
+
+        private Statement statement() {
+            return [
+                    setQueryTimeout: { int seconds -> },
+                    executeQuery   : { String query ->
+                        if (!valid) {
+                            throw new SQLException("Connection lost")
+                        }
+                        [close: {}] as ResultSet
+                    },
+                    close          : {}
+            ] as Statement
+        }
+    }
+}
@@ -133,5 +133,6 @@ class PumpClient:
         for row in jobPreview["rows"]:
             print(row)
 
-        print('Total number of rows: {}'.format(jobPreview["count"]))
+        count = jobPreview.get("count")
+        print('Total number of rows: {}'.format(count if count is not None else 'unknown (counting took too long)'))
         return